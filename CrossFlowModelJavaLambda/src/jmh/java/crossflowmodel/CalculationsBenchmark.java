@@ -0,0 +1,125 @@
+package crossflowmodel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.HashMap;
+
+/** Model benchmarks: every Calculations solver on a short, a medium and a multi-thousand-hour scenario.
+ *  The two-phase algorithm always runs 50 + 50 iterations (short finishes inside phase 1), while the adaptive
+ *  solver's step count grows with the filtration time, so the scenarios are chosen to span both phases.
+ *
+ *      short   50 L to cf 1.5 at 200 kPa over 20 m^2      ~2 hours, phase 1 only
+ *      medium  200 L to cf 2 at 200 kPa over 10 m^2       ~490 hours
+ *      long    1000 L to cf 2 at 100 kPa over 10 m^2      ~15,800 hours
+ *
+ *  solveMembraneArea runs the inverse solver back to the scenario's own two-phase hours.
+ *  remainingTime* poll a quarter of the way through the run, one minute after the previous poll: in full, and
+ *  resumed from the previous poll's solver state.
+ */
+@State(Scope.Thread)
+public class CalculationsBenchmark {
+
+    @Param({"short", "medium", "long"})
+    public String scenario;
+
+    private final Calculations calculator = new Calculations();
+    private final CalculationResult result = new CalculationResult();
+    private final InverseSolver inverseSolver = new InverseSolver(calculator);
+    private final RemainingTime remainingTime = new RemainingTime();
+
+    private double volumeStart;
+    private double concFactor;
+    private double tmp;
+    private double membraneArea;
+    private double targetHours;
+    private double pollHours;
+    private double pollVolume;
+    private RemainingTime.State previousPoll;
+
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        switch (scenario) {
+            case "short":
+                volumeStart = 50; concFactor = 1.5; tmp = 200_000; membraneArea = 20;
+                break;
+            case "medium":
+                volumeStart = 200; concFactor = 2; tmp = 200_000; membraneArea = 10;
+                break;
+            case "long":
+                volumeStart = 1000; concFactor = 2; tmp = 100_000; membraneArea = 10;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown scenario: " + scenario);
+        }
+        calculator.calculateHours(volumeStart, concFactor, tmp, calculator.VISCOSITY_WATER, membraneArea, result);
+        targetHours = result.hours;
+
+        // model volume a quarter of the way through, and the state of a poll one minute earlier
+        pollHours = targetHours / 4;
+        pollVolume = volumeStart - Calculations.adaptiveVolume(0, pollHours, 0.01, 1e-9, tmp, calculator.VISCOSITY_WATER, membraneArea, MembraneModel.DEFAULT, result);
+        double minute = 1.0 / 60;
+        double earlierVolume = pollVolume + Calculations.adaptiveVolume(pollHours - minute, pollHours, minute, 1e-12, tmp, calculator.VISCOSITY_WATER, membraneArea, MembraneModel.DEFAULT, result);
+        previousPoll = remainingTime.estimate(pollHours - minute, earlierVolume, volumeStart, concFactor, tmp,
+                calculator.VISCOSITY_WATER, membraneArea, Double.NaN, null).state;
+
+        // the legacy and adaptive wrappers log every call; keep console I/O out of the measurement
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public HashMap<String, Double> calculateHoursLegacy() {
+        return calculator.calculateHours(volumeStart, concFactor, tmp, calculator.VISCOSITY_WATER, membraneArea);
+    }
+
+    @Benchmark
+    public double calculateHours() {
+        calculator.calculateHours(volumeStart, concFactor, tmp, calculator.VISCOSITY_WATER, membraneArea, result);
+        return result.hours;
+    }
+
+    @Benchmark
+    public double calculateHoursTabulated() {
+        calculator.calculateHoursTabulated(volumeStart, concFactor, tmp, calculator.VISCOSITY_WATER, membraneArea, result);
+        return result.hours;
+    }
+
+    @Benchmark
+    public double calculateHoursAdaptive() {
+        calculator.calculateHoursAdaptive(volumeStart, concFactor, tmp, calculator.VISCOSITY_WATER, membraneArea, 1e-6, null, result);
+        return result.hours;
+    }
+
+    @Benchmark
+    public double solveMembraneArea() {
+        return inverseSolver.solve(InverseSolver.Parameter.MEMBRANE_AREA, targetHours, volumeStart, concFactor, tmp,
+                calculator.VISCOSITY_WATER, Double.NaN, Double.NaN, Double.NaN).value;
+    }
+
+    @Benchmark
+    public double remainingTimeFull() {
+        return remainingTime.estimate(pollHours, pollVolume, volumeStart, concFactor, tmp, calculator.VISCOSITY_WATER,
+                membraneArea, Double.NaN, null).remainingHours;
+    }
+
+    @Benchmark
+    public double remainingTimeResumed() {
+        return remainingTime.estimate(pollHours, pollVolume, volumeStart, concFactor, tmp, calculator.VISCOSITY_WATER,
+                membraneArea, Double.NaN, previousPoll).remainingHours;
+    }
+}
@@ -0,0 +1,65 @@
+package crossflowmodel;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/** HandlerAPIGateway benchmarks on the recorded API Gateway events in src/jmh/resources/payloads/apigateway.
+ *
+ *  handleRequest runs the whole handler path with a FakeContext: parse, validate, compute and serialise.
+ *  The "rejected" payload stops after validation, so it measures parse + validate alone through the real handler.
+ *  "single" is served from the warm-container cache after the first call, like a dashboard polling one configuration.
+ *
+ *  parseBody isolates binding the request body into a ModelRequest.
+ */
+@State(Scope.Thread)
+public class HandlerAPIGatewayBenchmark {
+
+    @Param({"single", "adaptive", "trajectory", "batch", "rejected"})
+    public String payload;
+
+    private final HandlerAPIGateway handler = new HandlerAPIGateway();
+    private final Context context = new FakeContext();
+
+    private APIGatewayProxyRequestEvent event;
+
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // bind the recorded event the way the Lambda runtime does, ignoring fields the event class does not model
+        ObjectMapper mapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        event = mapper.readValue(RecordedPayloads.read("apigateway", payload), APIGatewayProxyRequestEvent.class);
+
+        // the handler logs every step; keep console I/O out of the measurement
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public APIGatewayProxyResponseEvent handleRequest() {
+        return handler.handleRequest(event, context);
+    }
+
+    @Benchmark
+    public ModelRequest parseBody() {
+        return ModelRequest.fromJson(event.getBody());
+    }
+}
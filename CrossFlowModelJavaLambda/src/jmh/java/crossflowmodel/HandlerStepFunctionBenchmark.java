@@ -0,0 +1,65 @@
+package crossflowmodel;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/** HandlerStepFunction benchmarks on the recorded tokenauth.py outputs in src/jmh/resources/payloads/stepfunction.
+ *
+ *  The handler is a RequestStreamHandler, so each recorded state is kept as the raw bytes the runtime would pass in.
+ *  As for HandlerAPIGatewayBenchmark, "rejected" measures parse + validate alone, and "single" hits the cache.
+ *
+ *  parseBody isolates binding the state into a ModelRequest.
+ */
+@State(Scope.Thread)
+public class HandlerStepFunctionBenchmark {
+
+    @Param({"single", "adaptive", "trajectory", "batch", "rejected"})
+    public String payload;
+
+    private final HandlerStepFunction handler = new HandlerStepFunction();
+    private final Context context = new FakeContext();
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream(4096);
+
+    private byte[] state;
+
+    private PrintStream stdout;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        state = RecordedPayloads.read("stepfunction", payload).getBytes(StandardCharsets.UTF_8);
+
+        // the handler logs every step; keep console I/O out of the measurement
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public int handleRequest() throws IOException {
+        output.reset();
+        handler.handleRequest(new ByteArrayInputStream(state), output, context);
+        return output.size();
+    }
+
+    @Benchmark
+    public ModelRequest parseBody() {
+        return ModelRequest.fromStepFunctionState(new ByteArrayInputStream(state));
+    }
+}
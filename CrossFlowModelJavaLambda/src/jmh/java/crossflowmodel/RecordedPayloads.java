@@ -0,0 +1,32 @@
+package crossflowmodel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/** Recorded request payloads, stored under src/jmh/resources/payloads.
+ *  apigateway/ holds API Gateway proxy events, stepfunction/ the matching tokenauth.py output passed on by the state machine.
+ *  Every payload name exists in both directories:
+ *      single      two-phase request with string-typed numbers, as sent from Postman
+ *      adaptive    adaptive solver with a tolerance
+ *      trajectory  two-phase request that also returns a 200 point filtration curve
+ *      batch       four scenarios, one of them rejected
+ *      rejected    fails validation on molWeightCutOff, so only parse and validate run
+ */
+final class RecordedPayloads {
+
+    private RecordedPayloads() {
+    }
+
+    static String read(String handler, String name) {
+        String resource = "payloads/" + handler + "/" + name + ".json";
+        try (InputStream in = RecordedPayloads.class.getClassLoader().getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalArgumentException("Missing recorded payload: " + resource);
+            }
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read recorded payload: " + resource, e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package crossflowmodel;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/** Response encoding benchmarks: each ResponseFormat on the three response shapes dominated by numbers.
+ *
+ *      trajectory  2000 points of time, volume and flowRate      three packed series in CBOR
+ *      sweep       10 x 10 x 10 grid of hours, with its axes     one 1000 value series plus the axes
+ *      batch       1000 scenario results                         one object per item, nothing to pack
+ *
+ *  encode measures the encoding alone (ModelServer's path), encodeBody adds the base64 API Gateway needs for
+ *  binary bodies. Encoded sizes are printed once per trial, as JMH reports only time.
+ */
+@State(Scope.Thread)
+public class ResponseEncodingBenchmark {
+
+    @Param({"JSON", "CBOR", "SMILE"})
+    public ResponseFormat format;
+
+    @Param({"trajectory", "sweep", "batch"})
+    public String payload;
+
+    private static final double TMP = 100_000;
+    private static final double VISCOSITY = 0.001;
+    private static final double AREA = 10;
+
+    private ResponseFormat.Body body;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        switch (payload) {
+            case "trajectory":
+                Trajectory trajectory = trajectory(2000);
+                CalculationResult result = new CalculationResult();
+                result.hours = trajectory.timeAt(trajectory.size() - 1);
+                body = generator -> trajectory.writeResponse(generator, result, 0);
+                break;
+            case "sweep":
+                ParameterSweep sweep = new ParameterSweep(1000,
+                        new ParameterSweep.Range(50_000, 300_000, 10),
+                        new ParameterSweep.Range(5, 50, 10),
+                        new ParameterSweep.Range(1.2, 5, 10),
+                        new ParameterSweep.Range(VISCOSITY, VISCOSITY, 1));
+                double[] hours = sweep.compute(ForkJoinPool.commonPool());
+                body = generator -> sweep.writeJson(generator, hours);
+                break;
+            case "batch":
+                ScenarioBatch batch = new ScenarioBatch(1000);
+                for (int i = 0; i < batch.size; i++) {
+                    batch.volumeStart[i] = 100 + i;
+                    batch.tmp[i] = TMP;
+                    batch.membraneArea[i] = AREA;
+                    batch.molWeightCutOff[i] = 2500;
+                    batch.concFactor[i] = 2;
+                    batch.solutionViscosity[i] = VISCOSITY;
+                }
+                batch.evaluate(new Calculations(), Double.NaN);
+                body = batch::writeJson;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown payload: " + payload);
+        }
+        System.out.printf(Locale.ROOT, "%n%s %s: %,d bytes, %,d characters as an API Gateway body%n",
+                payload, format, format.encode(body).length, format.encodeBody(body).length());
+    }
+
+    /** A trajectory of the default law with points evenly spaced in time, as the adaptive solver's would be downsampled. */
+    static Trajectory trajectory(int points) {
+        Trajectory trajectory = new Trajectory(points);
+        double volume = 1000;
+        double stepHours = 0.5;
+        for (int i = 0; i < points; i++) {
+            double timeHours = i * stepHours;
+            double flowRate = Calculations.flowRate(timeHours, TMP, VISCOSITY, AREA);
+            trajectory.add(timeHours, volume, flowRate);
+            volume -= flowRate * stepHours;
+        }
+        return trajectory;
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return format.encode(body);
+    }
+
+    @Benchmark
+    public String encodeBody() throws IOException {
+        return format.encodeBody(body);
+    }
+}
@@ -0,0 +1,578 @@
+package crossflowmodel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Offline bulk evaluation of a CSV of historical runs, eg. the data table exported for capacity planning.
+ *  Input rows carry the columns dynamodatauploader.py / InferenceLog write: volstart,tmp,membranearea,mwco,concfactor,
+ *  optionally viscosity. With a header line the columns are found by name and any others (uid, username, ...) are
+ *  ignored; without one the five columns are expected in that order. Output is every input line as is, followed by
+ *  ",statuscode,filtrationhours" (hours to 6 decimals, empty unless statuscode is 200), in input order.
+ *
+ *  The input is memory-mapped in chunks of chunkBytes and rows are parsed straight from the mapped bytes, with no
+ *  String per line or field. Chunks are evaluated in parallel, and written in order through a FileChannel as each
+ *  completes. At most threads + 2 chunks are in flight and their output buffers are recycled, so memory stays flat
+ *  however large the file is. Mapped pages are clean file cache the OS can drop at any time.
+ *
+ *  Fields are split on commas; quotes around a field are ignored, but quoted fields containing commas are not supported.
+ *  Rows with a missing, non-numeric or infinite parameter are invalid (statuscode 400).
+ *  Lines may end in \n or \r\n and are limited to MAX_LINE_BYTES.
+ *
+ *  Run with: gradle bulkScenarios --args="input.csv output.csv [threads]"
+ */
+public final class BulkScenarioRunner {
+
+    public static final int DEFAULT_CHUNK_BYTES = 4 * 1024 * 1024;
+    public static final int MAX_LINE_BYTES = 4096;
+
+    public static final int STATUS_OK = ScenarioBatch.STATUS_OK;
+    public static final int STATUS_BAD_REQUEST = ScenarioBatch.STATUS_BAD_REQUEST;
+    public static final int STATUS_SERVER_ERROR = ScenarioBatch.STATUS_SERVER_ERROR;
+
+    static final String[] DEFAULT_COLUMNS = {"volstart", "tmp", "membranearea", "mwco", "concfactor"};
+    private static final byte[] OUTPUT_COLUMNS = ",statuscode,filtrationhours\n".getBytes(StandardCharsets.US_ASCII);
+
+    // roles of the input columns, index into a row's values
+    private static final int VOLUME_START = 0;
+    private static final int TMP = 1;
+    private static final int MEMBRANE_AREA = 2;
+    private static final int MWCO = 3;
+    private static final int CONC_FACTOR = 4;
+    private static final int VISCOSITY = 5;
+    private static final int REQUIRED_ROLES = 5;
+
+    // exact powers of ten, for the fast path of parseNumber
+    private static final double[] POW10 = new double[23];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private final Calculations calculator;
+    private final int threads;
+    private final int chunkBytes;
+
+    /**
+     * @param threads chunks evaluated in parallel
+     * @param chunkBytes bytes of input per chunk, at least MAX_LINE_BYTES
+     */
+    public BulkScenarioRunner(Calculations calculator, int threads, int chunkBytes) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be >= 1, got " + threads);
+        }
+        if (chunkBytes < MAX_LINE_BYTES) {
+            throw new IllegalArgumentException("chunkBytes must be >= " + MAX_LINE_BYTES + ", got " + chunkBytes);
+        }
+        this.calculator = calculator;
+        this.threads = threads;
+        this.chunkBytes = chunkBytes;
+    }
+
+    /** Counts for one run, or one chunk of it. */
+    public static class Summary {
+        public long rows;
+        public long ok;
+        public long invalid; // missing or non-numeric parameters
+        public long rejected; // MWCO at or above bovine casein, or concentration factor below 1
+        public long failed; // model did not produce hours
+        public long inputBytes;
+        public long elapsedNanos;
+
+        void add(Summary chunk) {
+            rows += chunk.rows;
+            ok += chunk.ok;
+            invalid += chunk.invalid;
+            rejected += chunk.rejected;
+            failed += chunk.failed;
+        }
+
+        public double rowsPerSecond() {
+            return rows / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT,
+                    "%d rows in %.2f s: %.0f rows/s, %.1f MB/s (ok %d, invalid %d, rejected %d, failed %d)",
+                    rows, elapsedNanos / 1e9, rowsPerSecond(), inputBytes / 1e6 / (elapsedNanos / 1e9),
+                    ok, invalid, rejected, failed);
+        }
+    }
+
+    /** Evaluates every row of input and writes the results to output, replacing it if it exists. */
+    public Summary run(Path input, Path output) throws IOException {
+        long start = System.nanoTime();
+        Summary summary = new Summary();
+
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            summary.inputBytes = size;
+
+            // header line, if any, decides the column layout
+            int[] roles = defaultRoles();
+            long dataStart = 0;
+            ByteBuffer header = ByteBuffer.allocate(MAX_LINE_BYTES + 64);
+            if (size > 0) {
+                MappedByteBuffer head = in.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, MAX_LINE_BYTES + 1));
+                int newline = indexOf(head, (byte) '\n', 0, head.limit());
+                if (newline < 0 && head.limit() < size) {
+                    throw new IllegalArgumentException("line 1 is longer than " + MAX_LINE_BYTES + " bytes.");
+                }
+                int lineEnd = trimLineEnd(head, 0, newline < 0 ? head.limit() : newline);
+                if (isHeader(head, 0, lineEnd)) {
+                    roles = rolesFromHeader(head, lineEnd);
+                    header.put(0, head, 0, lineEnd).position(lineEnd);
+                    dataStart = newline < 0 ? size : newline + 1;
+                }
+            }
+            if (dataStart == 0) {
+                header.put(String.join(",", DEFAULT_COLUMNS).getBytes(StandardCharsets.US_ASCII));
+            }
+            header.put(OUTPUT_COLUMNS).flip();
+            writeFully(out, header);
+
+            // chunks in flight, written in submission order; their output buffers are handed back through `buffers`
+            int window = threads + 2;
+            BlockingQueue<ByteBuffer> buffers = new ArrayBlockingQueue<>(window + 1);
+            ExecutorService pool = Executors.newFixedThreadPool(threads, task -> {
+                Thread thread = new Thread(task, "bulk-scenarios");
+                thread.setDaemon(true);
+                return thread;
+            });
+            ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<>(window);
+            try {
+                long next = dataStart;
+                while (next < size || !inFlight.isEmpty()) {
+                    while (next < size && inFlight.size() < window) {
+                        long end = Math.min(size, next + chunkBytes);
+                        inFlight.add(pool.submit(new ChunkTask(in, size, next, end, next == dataStart, roles, buffers)));
+                        next = end;
+                    }
+                    Chunk chunk = await(inFlight.poll());
+                    chunk.output.flip();
+                    writeFully(out, chunk.output);
+                    summary.add(chunk.summary);
+                    buffers.offer(chunk.output.clear());
+                }
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        summary.elapsedNanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    private static Chunk await(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static final class Chunk {
+        final ByteBuffer output;
+        final Summary summary;
+
+        Chunk(ByteBuffer output, Summary summary) {
+            this.output = output;
+            this.summary = summary;
+        }
+    }
+
+    /** Evaluates the lines that start within [start, end) of the file. */
+    private final class ChunkTask implements Callable<Chunk> {
+        private final FileChannel channel;
+        private final long size;
+        private final long start;
+        private final long end;
+        private final boolean atLineStart; // start is known to begin a line
+        private final int[] roles;
+        private final BlockingQueue<ByteBuffer> buffers;
+
+        // per-task scratch, reused for every row
+        private final double[] values = new double[VISCOSITY + 1];
+        private final byte[] digits = new byte[MAX_LINE_BYTES];
+        private final CalculationResult result = new CalculationResult();
+        private final Summary summary = new Summary();
+        private ByteBuffer output;
+
+        ChunkTask(FileChannel channel, long size, long start, long end, boolean atLineStart, int[] roles,
+                  BlockingQueue<ByteBuffer> buffers) {
+            this.channel = channel;
+            this.size = size;
+            this.start = start;
+            this.end = end;
+            this.atLineStart = atLineStart;
+            this.roles = roles;
+            this.buffers = buffers;
+        }
+
+        @Override
+        public Chunk call() throws IOException {
+            output = buffers.poll();
+            if (output == null) {
+                output = ByteBuffer.allocateDirect(chunkBytes + chunkBytes / 2);
+            }
+
+            // map one byte before the chunk to see whether it starts a line, and up to one line past it to finish the last
+            long base = atLineStart ? start : start - 1;
+            long mapEnd = Math.min(size, end + MAX_LINE_BYTES);
+            MappedByteBuffer input = channel.map(FileChannel.MapMode.READ_ONLY, base, mapEnd - base);
+            int limit = input.limit();
+            int chunkEnd = (int) (end - base);
+
+            int position = (int) (start - base);
+            if (!atLineStart && input.get(0) != '\n') {
+                // the line that straddles start belongs to the previous chunk
+                int newline = indexOf(input, (byte) '\n', position, limit);
+                position = newline < 0 ? limit : newline + 1;
+            }
+
+            while (position < chunkEnd && position < limit) {
+                int newline = indexOf(input, (byte) '\n', position, limit);
+                if (newline < 0) {
+                    if (mapEnd < size) {
+                        throw new IllegalArgumentException("line at byte " + (base + position) + " is longer than " + MAX_LINE_BYTES + " bytes.");
+                    }
+                    newline = limit; // last line without a line ending
+                }
+                if (newline - position > MAX_LINE_BYTES) {
+                    // too long, but ends inside the window: it starts early enough in the chunk
+                    throw new IllegalArgumentException("line at byte " + (base + position) + " is longer than " + MAX_LINE_BYTES + " bytes.");
+                }
+                int lineEnd = trimLineEnd(input, position, newline);
+                if (!isBlank(input, position, lineEnd)) {
+                    evaluate(input, position, lineEnd);
+                }
+                position = newline + 1;
+            }
+            return new Chunk(output, summary);
+        }
+
+        /** Parses one row, runs the model, and appends the line with its statuscode and hours to output. */
+        private void evaluate(ByteBuffer input, int from, int to) {
+            summary.rows++;
+            Arrays.fill(values, Double.NaN);
+            int field = 0;
+            int fieldStart = from;
+            for (int i = from; i <= to; i++) {
+                if (i == to || input.get(i) == ',') {
+                    if (field < roles.length && roles[field] >= 0) {
+                        values[roles[field]] = parseNumber(input, fieldStart, i, digits);
+                    }
+                    field++;
+                    fieldStart = i + 1;
+                }
+            }
+
+            int status;
+            boolean invalid = false;
+            for (int role = 0; role < REQUIRED_ROLES; role++) {
+                invalid |= !Double.isFinite(values[role]); // missing, not a number, or Infinity
+            }
+            invalid |= Double.isInfinite(values[VISCOSITY]); // optional, NaN when absent
+            if (invalid) {
+                status = STATUS_BAD_REQUEST;
+                summary.invalid++;
+            } else if (values[MWCO] >= calculator.BOV_CASEIN_MW) {
+                status = STATUS_BAD_REQUEST;
+                summary.rejected++;
+            } else {
+                double viscosity = Double.isNaN(values[VISCOSITY]) ? calculator.VISCOSITY_WATER : values[VISCOSITY];
+                calculator.calculateHours(values[VOLUME_START], values[CONC_FACTOR], values[TMP], viscosity, values[MEMBRANE_AREA], result);
+                if (result.isSuccess()) {
+                    status = STATUS_OK;
+                    summary.ok++;
+                } else if (result.status == CalculationStatus.CONCENTRATION_FACTOR_BELOW_ONE) {
+                    status = STATUS_BAD_REQUEST;
+                    summary.rejected++;
+                } else {
+                    status = STATUS_SERVER_ERROR;
+                    summary.failed++;
+                }
+            }
+
+            int length = to - from;
+            ensureCapacity(length + 48);
+            output.put(output.position(), input, from, length);
+            output.position(output.position() + length);
+            output.put((byte) ',');
+            putDigits(status);
+            output.put((byte) ',');
+            if (status == STATUS_OK) {
+                putHours(result.hours);
+            }
+            output.put((byte) '\n');
+        }
+
+        private void ensureCapacity(int bytes) {
+            if (output.remaining() < bytes) { // many short rows; grow rather than fail
+                ByteBuffer larger = ByteBuffer.allocateDirect(output.capacity() * 2);
+                output.flip();
+                larger.put(output);
+                output = larger;
+            }
+        }
+
+        /** Fixed 6 decimals, formatted without a String. */
+        private void putHours(double hours) {
+            if (!(hours >= 0 && hours < 9e12)) { // beyond long range once scaled, or not finite
+                output.put(Double.toString(hours).getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            long scaled = Math.round(hours * 1e6);
+            putDigits(scaled / 1_000_000);
+            output.put((byte) '.');
+            long fraction = scaled % 1_000_000;
+            for (long unit = 100_000; unit > 0; unit /= 10) {
+                output.put((byte) ('0' + fraction / unit % 10));
+            }
+        }
+
+        /** Non-negative integer, formatted without a String. */
+        private void putDigits(long value) {
+            int count = 0;
+            do {
+                digits[count++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value > 0);
+            while (count > 0) {
+                output.put(digits[--count]);
+            }
+        }
+    }
+
+    /** Parses a decimal number from bytes [from, to), ignoring surrounding spaces and quotes.
+     *  Numbers of up to 15 significant digits with a power-of-ten scale within 10^-22..10^22 (all realistic model inputs)
+     *  are converted exactly on a fast path with no allocation; anything else falls back to Double.parseDouble.
+     * @param scratch at least to - from bytes, for the fallback
+     * @return the value, or NaN if the field is empty or not a number
+     */
+    static double parseNumber(ByteBuffer input, int from, int to, byte[] scratch) {
+        while (from < to && isPadding(input.get(from))) {
+            from++;
+        }
+        while (to > from && isPadding(input.get(to - 1))) {
+            to--;
+        }
+        if (from == to) {
+            return Double.NaN;
+        }
+
+        int i = from;
+        boolean negative = false;
+        byte c = input.get(i);
+        if (c == '-' || c == '+') {
+            negative = c == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int significant = 0;
+        int exponent = 0;
+        boolean inexact = false; // more significant digits than the mantissa holds
+        boolean anyDigit = false;
+        boolean fraction = false;
+        for (; i < to; i++) {
+            c = input.get(i);
+            if (c == '.' && !fraction) {
+                fraction = true;
+                continue;
+            }
+            if (c < '0' || c > '9') {
+                break;
+            }
+            anyDigit = true;
+            if (mantissa == 0 && c == '0') { // leading zero
+                if (fraction) {
+                    exponent--;
+                }
+            } else if (significant < 18) {
+                mantissa = mantissa * 10 + (c - '0');
+                significant++;
+                if (fraction) {
+                    exponent--;
+                }
+            } else {
+                inexact |= c != '0';
+                if (!fraction) {
+                    exponent++;
+                }
+            }
+        }
+        if (i < to && (c == 'e' || c == 'E') && anyDigit) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (input.get(i) == '-' || input.get(i) == '+')) {
+                negativeExponent = input.get(i) == '-';
+                i++;
+            }
+            int scale = 0;
+            boolean exponentDigit = false;
+            for (; i < to && input.get(i) >= '0' && input.get(i) <= '9'; i++) {
+                exponentDigit = true;
+                scale = Math.min(scale * 10 + (input.get(i) - '0'), 100_000);
+            }
+            if (!exponentDigit) {
+                return parseFallback(input, from, to, scratch);
+            }
+            exponent += negativeExponent ? -scale : scale;
+        }
+        if (i != to || !anyDigit) {
+            return parseFallback(input, from, to, scratch); // eg. Infinity, hex, or garbage --> NaN
+        }
+
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (significant > 15 || inexact || exponent > 22 || exponent < -22) {
+            return parseFallback(input, from, to, scratch);
+        } else if (exponent >= 0) {
+            value = mantissa * POW10[exponent]; // both exact, so one correctly rounded multiply
+        } else {
+            value = mantissa / POW10[-exponent];
+        }
+        return negative ? -value : value;
+    }
+
+    private static double parseFallback(ByteBuffer input, int from, int to, byte[] scratch) {
+        int length = Math.min(to - from, scratch.length);
+        input.get(from, scratch, 0, length);
+        try {
+            return Double.parseDouble(new String(scratch, 0, length, StandardCharsets.ISO_8859_1));
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static boolean isPadding(byte b) {
+        return b == ' ' || b == '\t' || b == '"';
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte value, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer.get(i) == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Excludes a trailing \r. */
+    private static int trimLineEnd(ByteBuffer buffer, int from, int to) {
+        return to > from && buffer.get(to - 1) == '\r' ? to - 1 : to;
+    }
+
+    private static boolean isBlank(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b != ' ' && b != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** A first line is a header when its first field does not start like a number. */
+    private static boolean isHeader(ByteBuffer buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (isPadding(b)) {
+                continue;
+            }
+            return !((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.');
+        }
+        return false;
+    }
+
+    private static int[] defaultRoles() {
+        return new int[] {VOLUME_START, TMP, MEMBRANE_AREA, MWCO, CONC_FACTOR};
+    }
+
+    /** Column index --> role, by header name. Accepts the data table names and the request parameter names. */
+    private static int[] rolesFromHeader(ByteBuffer buffer, int lineEnd) {
+        String[] names = StandardCharsets.UTF_8.decode(buffer.duplicate().position(0).limit(lineEnd)).toString().split(",", -1);
+        int[] roles = new int[names.length];
+        boolean[] found = new boolean[VISCOSITY + 1];
+        for (int column = 0; column < names.length; column++) {
+            String name = names[column].replace("\"", "").trim().toLowerCase(Locale.ROOT);
+            int role;
+            switch (name) {
+                case "volstart": case "volumestart": role = VOLUME_START; break;
+                case "tmp": role = TMP; break;
+                case "membranearea": role = MEMBRANE_AREA; break;
+                case "mwco": case "molweightcutoff": role = MWCO; break;
+                case "concfactor": role = CONC_FACTOR; break;
+                case "viscosity": case "solutionviscosity": role = VISCOSITY; break;
+                default: role = -1;
+            }
+            if (role >= 0 && found[role]) {
+                throw new IllegalArgumentException("header has more than one " + name + " column.");
+            }
+            if (role >= 0) {
+                found[role] = true;
+            }
+            roles[column] = role;
+        }
+        for (int role = 0; role < REQUIRED_ROLES; role++) {
+            if (!found[role]) {
+                throw new IllegalArgumentException("header is missing the " + DEFAULT_COLUMNS[role] + " column.");
+            }
+        }
+        return roles;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BulkScenarioRunner input.csv output.csv [threads]");
+            System.exit(2);
+        }
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        BulkScenarioRunner runner = new BulkScenarioRunner(new Calculations(), threads, DEFAULT_CHUNK_BYTES);
+        try {
+            Summary summary = runner.run(Path.of(args[0]), Path.of(args[1]));
+            System.out.println(summary);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Bad input, " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
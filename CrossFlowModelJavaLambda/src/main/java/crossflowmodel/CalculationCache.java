@@ -0,0 +1,200 @@
+package crossflowmodel;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Size-bounded LRU cache around Calculations.calculateHours.
+ *  Warm Lambda containers keep this alive between invocations, so dashboards polling the same configurations
+ *  are served without recomputing. Keyed on the normalised (volumeStart, concFactor, tmp, viscosity, area) tuple
+ *  held as primitive doubles - no string concatenation.
+ *
+ *  Safe to share across threads: the LRU map is guarded by its own lock, and concurrent misses for the same key
+ *  wait on one in-flight computation instead of each computing it.
+ */
+public class CalculationCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private final Calculations calculator;
+    private final int maxEntries;
+
+    private final LinkedHashMap<Key, CalculationResult> lru;
+    private final ConcurrentHashMap<Key, CompletableFuture<CalculationResult>> inFlight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public CalculationCache(Calculations calculator, int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1.");
+        }
+        this.calculator = calculator;
+        this.maxEntries = maxEntries;
+        this.lru = new LinkedHashMap<>(16, 0.75f, true) { // access order = LRU
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CalculationResult> eldest) {
+                if (size() > CalculationCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /** Same contract as Calculations.calculateHours. Returns a new HashMap every call, so callers may modify it. */
+    public HashMap<String, Double> calculateHours(
+            double startingVolume,
+            double concentrationFactor,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea
+    ){
+        CalculationResult result = new CalculationResult();
+        calculateHours(startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, result);
+        return result.toHashMap();
+    }
+
+    /** Same contract as the primitive Calculations.calculateHours: the cached result is copied into the caller's holder. */
+    public void calculateHours(
+            double startingVolume,
+            double concentrationFactor,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea,
+            CalculationResult out
+    ){
+        Key key = new Key(startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea);
+
+        CalculationResult cached = lookup(key);
+        if (cached != null) {
+            hits.increment();
+            out.copyFrom(cached);
+            out.cached = true;
+            return;
+        }
+
+        // register as the single in-flight computation for this key, or wait on the existing one
+        CompletableFuture<CalculationResult> pending = new CompletableFuture<>();
+        CompletableFuture<CalculationResult> existing = inFlight.putIfAbsent(key, pending);
+        if (existing != null) {
+            hits.increment(); // served without computing
+            out.copyFrom(existing.join());
+            out.cached = true;
+            return;
+        }
+
+        try {
+            // re-check: another thread may have finished this key between lookup and putIfAbsent
+            CalculationResult result = lookup(key);
+            boolean hit = result != null;
+            if (hit) {
+                hits.increment();
+            } else {
+                misses.increment();
+                result = new CalculationResult(); // owned by the cache, never handed out
+                result.timed = out.timed;
+                calculator.calculateHours(startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, result);
+                synchronized (lru) {
+                    lru.put(key, result);
+                }
+            }
+            pending.complete(result);
+            out.copyFrom(result);
+            out.cached = hit;
+        } catch (RuntimeException e) {
+            pending.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, pending);
+        }
+    }
+
+    private CalculationResult lookup(Key key) {
+        synchronized (lru) {
+            return lru.get(key);
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        synchronized (lru) {
+            return lru.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (lru) {
+            lru.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CalculationCache size=" + size() + "/" + maxEntries +
+                ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions();
+    }
+
+    /** Primitive cache key. -0.0 is normalised to 0.0 and NaNs to one bit pattern, so equal inputs share an entry. */
+    private static final class Key {
+        final long volume;
+        final long concentration;
+        final long tmp;
+        final long viscosity;
+        final long area;
+        final int hash;
+
+        Key(double startingVolume, double concentrationFactor, double tmp, double solutionViscosity, double membraneArea) {
+            this.volume = normalise(startingVolume);
+            this.concentration = normalise(concentrationFactor);
+            this.tmp = normalise(tmp);
+            this.viscosity = normalise(solutionViscosity);
+            this.area = normalise(membraneArea);
+
+            long h = volume;
+            h = 31 * h + concentration;
+            h = 31 * h + this.tmp;
+            h = 31 * h + viscosity;
+            h = 31 * h + area;
+            this.hash = (int) (h ^ (h >>> 32));
+        }
+
+        private static long normalise(double value) {
+            return Double.doubleToLongBits(value + 0.0); // -0.0 + 0.0 == +0.0; doubleToLongBits collapses NaNs
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return volume == other.volume && concentration == other.concentration && tmp == other.tmp
+                    && viscosity == other.viscosity && area == other.area;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
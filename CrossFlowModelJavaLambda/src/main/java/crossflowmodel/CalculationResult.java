@@ -0,0 +1,85 @@
+package crossflowmodel;
+
+import java.util.HashMap;
+
+/** Reusable, mutable result holder for the primitive Calculations API.
+ *  A caller keeps one instance per thread and passes it to every call, so once warm a calculation produces no garbage:
+ *  no HashMap, no boxed Doubles, and the stepping loops of Calculations.twoPhaseHours and adaptiveHours keep their
+ *  state in local primitives.
+ */
+public class CalculationResult {
+    public CalculationStatus status = CalculationStatus.SUCCESS;
+    public double hours;
+    public double errorEstimate = Double.NaN; // hours, adaptive solver only
+    public int steps; // accepted steps, adaptive solver only
+
+    // profile of the two-phase algorithm, for RequestMetrics; left as is by success() and failure()
+    public int iterations; // phase 1 + phase 2 loop iterations run
+    public ExitPhase exitPhase = ExitPhase.NONE;
+    public boolean timed; // set by the caller to have phase1Nanos and phase2Nanos measured
+    public long phase1Nanos;
+    public long phase2Nanos;
+    public boolean cached; // copied from CalculationCache rather than computed for this call
+
+    // scratch slot for the error of the latest Dormand-Prince step, avoids returning a pair per step
+    double stepError;
+    // scratch slot for the last step size of the adaptive solver, saved in RemainingTime.State to resume from
+    double stepSize;
+
+    void success(double hours) {
+        this.status = CalculationStatus.SUCCESS;
+        this.hours = hours;
+        this.errorEstimate = Double.NaN;
+        this.steps = 0;
+    }
+
+    void failure(CalculationStatus status) {
+        this.status = status;
+        this.hours = Double.NaN;
+        this.errorEstimate = Double.NaN;
+        this.steps = 0;
+    }
+
+    void clearProfile() {
+        this.iterations = 0;
+        this.exitPhase = ExitPhase.NONE;
+        this.phase1Nanos = 0;
+        this.phase2Nanos = 0;
+        this.cached = false;
+    }
+
+    public boolean isSuccess() {
+        return status == CalculationStatus.SUCCESS;
+    }
+
+    public void copyFrom(CalculationResult other) {
+        this.status = other.status;
+        this.hours = other.hours;
+        this.errorEstimate = other.errorEstimate;
+        this.steps = other.steps;
+        this.iterations = other.iterations;
+        this.exitPhase = other.exitPhase;
+        this.phase1Nanos = other.phase1Nanos;
+        this.phase2Nanos = other.phase2Nanos;
+        this.cached = other.cached;
+    }
+
+    /** Legacy response shape: statusCode and hours, plus errorEstimate and steps when set by the adaptive solver. */
+    public HashMap<String, Double> toHashMap() {
+        HashMap<String, Double> response = new HashMap<>();
+        response.put("statusCode", status.legacyCode);
+        if (isSuccess()) {
+            response.put("hours", hours);
+            if (!Double.isNaN(errorEstimate)) {
+                response.put("errorEstimate", errorEstimate);
+                response.put("steps", (double) steps);
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public String toString() {
+        return "CalculationResult status=" + status + ", hours=" + hours + ", errorEstimate=" + errorEstimate + ", steps=" + steps;
+    }
+}
@@ -0,0 +1,14 @@
+package crossflowmodel;
+
+/** Typed outcome of a Calculations run. legacyCode is the statusCode double used in the HashMap responses. */
+public enum CalculationStatus {
+    SUCCESS(0.0),
+    CONCENTRATION_FACTOR_BELOW_ONE(1.0), // dilution, not concentration
+    NOT_CONVERGED(2.0); // adaptive solver could not reach the desired volume, eg. zero flow rate
+
+    public final double legacyCode;
+
+    CalculationStatus(double legacyCode) {
+        this.legacyCode = legacyCode;
+    }
+}
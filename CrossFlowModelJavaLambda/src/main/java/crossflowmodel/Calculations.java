@@ -1,91 +1,67 @@
 package crossflowmodel;
 
 import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
 
 public class Calculations {
     public double VISCOSITY_WATER = 0.001;
     public int BOV_CASEIN_MW = 25_107;
 
-    public Calculations(){}
-
-    private class CrossFlowSystem {
-        public double startingVolume;
-        public double concentrationFactor;
-        public double tmp;
-        public double solutionViscosity;
-        public double membraneArea;
-        public double desiredVolume;
-        public double requiredFiltrationVolume;
-        public double currentVolume;
-        public double currentTimeHours;
-        public double currentFlowRate;
-
-        double tenToTwelve = Math.pow(10, 12); // save compute
-
-        public CrossFlowSystem(
-                double startingVolume,
-                double concentrationFactor,
-                double tmp,
-                double solutionViscosity,
-                double membraneArea,
-
-                double currentTimeHours
-        ){
-            System.out.println("Creating a new CrossFlowSystem object.");
-            this.startingVolume = startingVolume;
-            this.currentVolume = startingVolume;
-
-            this.concentrationFactor = concentrationFactor;
-            this.tmp = tmp;
-            this.solutionViscosity = solutionViscosity;
-            this.membraneArea = membraneArea;
-
+    // default membrane resistance law: R(t) = MEMBRANE_RESISTANCE_INITIAL + MEMBRANE_RESISTANCE_FOULING * t^MEMBRANE_FOULING_EXPONENT
+    // (MembraneModel.DEFAULT). Overloads taking a MembraneModel use a membrane's own law instead, eg. from MembraneRegistry
+    public static final double MEMBRANE_RESISTANCE_INITIAL = 0.13e12;
+    public static final double MEMBRANE_RESISTANCE_FOULING = 1.51e12;
+    public static final double MEMBRANE_FOULING_EXPONENT = 0.4;
 
-            this.currentTimeHours = currentTimeHours;
+    // adaptive integrator limits: give up (statusCode 2) rather than loop forever on a zero/negative flow rate
+    public static final int ADAPTIVE_MAX_STEPS = 100_000;
+    public static final double ADAPTIVE_MIN_TOLERANCE = 1e-12;
 
-            this.desiredVolume = startingVolume/concentrationFactor;
-            this.requiredFiltrationVolume = startingVolume - desiredVolume;
-
-            updateCurrentFlowRate(); // set t=0 flow rate at time of creation
-
-
-            System.out.printf("CrossFlowObject created successfully: " + toString() + "\n");
-        }
-
-        @Override
-        public String toString(){
-            return "CrossFlowSystems Object.\n"+
-                    "Starting Volume = " + this.startingVolume + ", " +
-                    "Transmembrane Pressure = " + this.tmp + ", " +
-                    "Solution Viscosity = " + this.solutionViscosity + ", " +
-                    "Membrane Area = " + this.membraneArea + ", " +
-                    "Concentration Factor = " + this.concentrationFactor + ", " +
-                    "Desired Volume = " + this.desiredVolume + ", " +
-                    "Current Volume = " + this.currentVolume + ", " +
-                    "Current Time in Hours = " + this.currentTimeHours + ", " +
-                    "Current Flow Rate = " + this.currentFlowRate;
-        }
+    // two-phase algorithm binning: PHASE1_ITERATIONS steps over the first PHASE1_HOURS, then PHASE2_ITERATIONS steps
+    static final double PHASE1_HOURS = 20;
+    static final int PHASE1_ITERATIONS = 50;
+    static final int PHASE2_ITERATIONS = 50;
 
-        /** Calculates and returns the permeate flow rate at specified time in hours.
-         * @return returns a Double of hours required for volume to drain at the permeate flow rate respective to t=0.
-         */
-        private void updateCurrentFlowRate(){
-            double membraneResistance = (0.13 * tenToTwelve) + (1.51 * tenToTwelve * Math.pow(this.currentTimeHours, 0.4)); // calculate time-dependent flow rate
-            double membraneFluxHour = this.tmp / (this.solutionViscosity * membraneResistance); // membraneFlux m3 per hour per unit area - UNIT AGNOSTIC
-            double permeateFlowRateL = membraneFluxHour * 1000.0 * this.membraneArea; // 1000 for m3 --> L
+    public Calculations(){}
 
-            this.currentFlowRate = permeateFlowRateL;
-        }
+    /** Calculates the permeate flow rate at specified time in hours.
+     * @return returns the permeate flow rate in Litres per hour.
+     */
+    static double flowRate(double timeHours, double tmp, double solutionViscosity, double membraneArea){
+        return flowRate(timeHours, tmp, solutionViscosity, membraneArea, MembraneModel.DEFAULT);
+    }
 
-        private void updateRunFiltrationForPeriod(double timeInHours) {
-            double volumeRemoved = this.currentFlowRate * timeInHours;
-            this.currentVolume = this.currentVolume - volumeRemoved;
-        }
+    /** Calculates the permeate flow rate at specified time in hours, for the given membrane resistance law.
+     * @return returns the permeate flow rate in Litres per hour.
+     */
+    static double flowRate(double timeHours, double tmp, double solutionViscosity, double membraneArea, MembraneModel model){
+        double membraneResistance = model.resistance(timeHours); // calculate time-dependent flow rate
+        double membraneFluxHour = tmp / (solutionViscosity * membraneResistance); // membraneFlux m3 per hour per unit area - UNIT AGNOSTIC
+        return membraneFluxHour * 1000.0 * membraneArea; // 1000 for m3 --> L
+    }
 
-        private boolean checkFinished() {
-            return this.currentVolume < this.desiredVolume;
-        }
+    /** Legacy HashMap wrapper around calculateHours(..., CalculationResult).
+     *
+     * @param startingVolume the starting volume in Litres
+     * @param concentrationFactor the ratio of concentration. A concentrationFactor of 2 will create a 2x concentrated solution. Inversely proportional to starting volume.
+     * @param tmp the transmembrane pressure given in Pascals
+     * @param solutionViscosity the dynamic viscosity of the solution in Pascals per Second in the cross flow filtration model. Defaults to viscosity of water at 0.001 Pa s-1.
+     * @param membraneArea the surface area of the membrane in Metres Squared
+     * @return returns a HashMap with statusCode (0 success, 1 concentrationFactor < 1) and hours.
+     */
+    public HashMap<String, Double> calculateHours(
+            double startingVolume,
+            double concentrationFactor,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea
+    ){
+        //logging for traceability, only built at DEBUG
+        Log.debug("Calculations", () -> "Algorithmic calculateHours called.");
 
+        CalculationResult result = new CalculationResult();
+        calculateHours(startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, result);
+        return result.toHashMap();
     }
 
     /** Primary function which calculates binned flow rates, and combines sum of estimated (binned) hours required.
@@ -96,73 +72,143 @@ public class Calculations {
      *  Then we recalculate flow rate every bin, so if bins = 20, we only run 20 iterations.
      *  Therefore we sacrifice model accuracy, but gain cost-/compute-efficiency and scalability.
      *
+     *  Hot path: takes primitives and writes into a caller-supplied result, so produces no garbage once warm.
+     *
      * @param startingVolume the starting volume in Litres
      * @param concentrationFactor the ratio of concentration. A concentrationFactor of 2 will create a 2x concentrated solution. Inversely proportional to starting volume.
      * @param tmp the transmembrane pressure given in Pascals
      * @param solutionViscosity the dynamic viscosity of the solution in Pascals per Second in the cross flow filtration model. Defaults to viscosity of water at 0.001 Pa s-1.
      * @param membraneArea the surface area of the membrane in Metres Squared
-     * @return returns a Double of filtration hours required to reach specified concentration.
+     * @param result receives the status and filtration hours required to reach specified concentration.
      */
-    public HashMap<String, Double> calculateHours(
+    public void calculateHours(
             double startingVolume,
             double concentrationFactor,
             double tmp,
             double solutionViscosity,
-            double membraneArea
+            double membraneArea,
+            CalculationResult result
     ){
-        //logging for traceability
-        System.out.println("Algorithmic calculateHours called.");
+        calculateHours(startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, null, result);
+    }
 
-        // create response HashMap for early exit use
-        HashMap<String, Double> response = new HashMap<>();
+    /** calculateHours, additionally recording (time, currentVolume, currentFlowRate) after every step into trajectory.
+     * @param trajectory recorder for the filtration curve, or null to skip recording
+     */
+    public void calculateHours(
+            double startingVolume,
+            double concentrationFactor,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea,
+            Trajectory trajectory,
+            CalculationResult result
+    ){
+        calculateHours(startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, MembraneModel.DEFAULT, trajectory, result);
+    }
+
+    /** calculateHours for one membrane's resistance law, eg. MembraneRegistry.modelFor(membraneId).
+     * @param model membrane resistance law to use instead of the default one
+     * @param trajectory recorder for the filtration curve, or null to skip recording
+     */
+    public void calculateHours(
+            double startingVolume,
+            double concentrationFactor,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea,
+            MembraneModel model,
+            Trajectory trajectory,
+            CalculationResult result
+    ){
+        result.clearProfile();
 
         // SAFETY CHECKS:
         // check if concentration factor is <1 = dilution, not concentration. Exit.
         if (concentrationFactor < 1){
-            response.put("statusCode", 1.0); // failure
-            return response;
+            result.failure(CalculationStatus.CONCENTRATION_FACTOR_BELOW_ONE);
+            return;
         }
 
         // then check if concentration factor == 1, desired concentration already reached.
         if (concentrationFactor == 1){
-            response.put("statusCode", 0.0); // success
-            response.put("hours", 0.0);
-            return response;
+            result.success(0);
+            return;
         }
 
-        // No safety checks exited. Create systemsObject for easier data storage across multiple functions
-        CrossFlowSystem crossflowsystemObj = new CrossFlowSystem(
-                startingVolume,
-                concentrationFactor,
-                tmp,
-                solutionViscosity,
-                membraneArea,
-                0
-        );
+        result.success(twoPhaseHours(startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, model, trajectory, result));
+    }
 
+    /** Primitive kernel of the two-phase algorithm with the default membrane, shared by ParameterSweep and MonteCarlo.
+     *  Caller must have checked concentrationFactor > 1.
+     * @param trajectory recorder for the filtration curve, or null to skip recording
+     * @return returns filtration hours required to reach the specified concentration.
+     */
+    static double twoPhaseHours(
+            double startingVolume,
+            double concentrationFactor,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea,
+            Trajectory trajectory
+    ){
+        return twoPhaseHours(startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, MembraneModel.DEFAULT, trajectory, null);
+    }
+
+    /** twoPhaseHours for the given resistance law, additionally recording iterations and exit phase into profile
+     *  (and phase timings if profile.timed). Phase 1 resistances are read from the model's precomputed table.
+     * @param profile receives the profile fields only, or null to skip profiling
+     */
+    static double twoPhaseHours(
+            double startingVolume,
+            double concentrationFactor,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea,
+            MembraneModel model,
+            Trajectory trajectory,
+            CalculationResult profile
+    ){
+        boolean timed = profile != null && profile.timed;
+        long phaseStart = timed ? System.nanoTime() : 0;
+
+        double desiredVolume = startingVolume/concentrationFactor;
+        double currentVolume = startingVolume;
+        double currentTimeHours = 0;
+        double[] phase1Resistance = model.phase1Resistance;
+        double currentFlowRate = (tmp / (solutionViscosity * phase1Resistance[0])) * 1000.0 * membraneArea; // t=0 flow rate
+        if (trajectory != null) {
+            trajectory.add(currentTimeHours, currentVolume, currentFlowRate);
+        }
 
         /** !IMPORTANT Part 1. of Algorithm:
          *  Fine-tuned, high resolution during the EARLY Stage of the filtration
          *  Important to run lots of iterations within first ~20 hours, as filtration rate rapidly declines
          */
-        double alg1NumHours = 20;
-        double alg1NumIterations = 50;
-        double alg1Scale = alg1NumHours/ alg1NumIterations;
-
-        for (int i =0; i<alg1NumIterations;i++) {
-            crossflowsystemObj.currentTimeHours = i*alg1Scale; // iteratively increment time in hours
-            crossflowsystemObj.updateCurrentFlowRate(); // iteratively update flow rate
-            crossflowsystemObj.updateRunFiltrationForPeriod(alg1Scale); // run remove volume function for set time every iteration.
-
-            if (crossflowsystemObj.checkFinished()) {
-                System.out.println("crossflow Filtration completed.");
-                response.put("statusCode", 0.0); // success
-                response.put("hours", crossflowsystemObj.currentTimeHours);
-                return response;
+        double alg1Scale = PHASE1_HOURS / PHASE1_ITERATIONS;
+        for (int i = 0; i < PHASE1_ITERATIONS; i++) {
+            currentTimeHours = i*alg1Scale; // iteratively increment time in hours
+            currentFlowRate = (tmp / (solutionViscosity * phase1Resistance[i])) * 1000.0 * membraneArea; // iteratively update flow rate
+            currentVolume = currentVolume - currentFlowRate * alg1Scale; // remove volume for set time every iteration
+            if (trajectory != null) {
+                trajectory.add(currentTimeHours, currentVolume, currentFlowRate);
+            }
+            if (currentVolume < desiredVolume) {
+                if (profile != null) {
+                    profile.iterations = i + 1;
+                    profile.exitPhase = ExitPhase.PHASE1;
+                    if (timed) {
+                        profile.phase1Nanos = System.nanoTime() - phaseStart;
+                    }
+                }
+                return currentTimeHours;
             }
         }
-
-        System.out.printf("First 20 hours volume removed: %f\n", crossflowsystemObj.startingVolume-crossflowsystemObj.currentVolume);
+        if (timed) {
+            long now = System.nanoTime();
+            profile.phase1Nanos = now - phaseStart;
+            phaseStart = now;
+        }
 
         // if this is reached, 20 hours have iterated through updating cross flow filtration 50 times
         // and volume has not fallen below desiredVolume.
@@ -177,41 +223,428 @@ public class Calculations {
          * Then we can iterate every 1%-100% of this time remaining to proportionately scale how frequently -
          * we recalculate our flow rates.
          */
+        double estimatedTimeRemaining = (currentVolume - desiredVolume) / currentFlowRate;
+        double alg2Scale = estimatedTimeRemaining / (double) PHASE2_ITERATIONS;
+        for (int i = 0; i < PHASE2_ITERATIONS; i++) {
+            currentTimeHours = currentTimeHours + alg2Scale;
+            currentFlowRate = flowRate(currentTimeHours, tmp, solutionViscosity, membraneArea, model);
+            currentVolume = currentVolume - currentFlowRate * alg2Scale;
+            if (trajectory != null) {
+                trajectory.add(currentTimeHours, currentVolume, currentFlowRate);
+            }
+            if (currentVolume < desiredVolume) {
+                if (profile != null) {
+                    profile.iterations = PHASE1_ITERATIONS + i + 1;
+                    profile.exitPhase = ExitPhase.PHASE2;
+                    if (timed) {
+                        profile.phase2Nanos = System.nanoTime() - phaseStart;
+                    }
+                }
+                return currentTimeHours;
+            }
+        }
+
+        // We have now done 50 (under 20h) + 50 (over 20h, likely into thousands of hours) iterations
+        // Now we can accurately take the current flow rate and calculate the remaining time
+        double remainingTime = (currentVolume - desiredVolume) / currentFlowRate;
+        if (trajectory != null) {
+            trajectory.add(currentTimeHours + remainingTime, desiredVolume, currentFlowRate);
+        }
+        if (profile != null) {
+            profile.iterations = PHASE1_ITERATIONS + PHASE2_ITERATIONS;
+            profile.exitPhase = ExitPhase.EXTRAPOLATED;
+            if (timed) {
+                profile.phase2Nanos = System.nanoTime() - phaseStart;
+            }
+        }
+        return currentTimeHours + remainingTime;
+    }
+
+    /** Legacy HashMap wrapper around calculateHoursTabulated(..., CalculationResult). */
+    public HashMap<String, Double> calculateHoursTabulated(
+            double startingVolume,
+            double concentrationFactor,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea
+    ){
+        CalculationResult result = new CalculationResult();
+        calculateHoursTabulated(startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, result);
+        return result.toHashMap();
+    }
+
+    /** Tabulated alternative to calculateHours, kept alongside the two-phase algorithm so both can be compared.
+     *  Membrane resistance only depends on time, so the volume removed by time t is a constant scale factor
+     *  (tmp, viscosity, membrane area) times one universal integral of 1/R(t). That integral is precomputed once
+     *  at class-init in ResistanceIntegralTable, and inverted by binary search + interpolation.
+     *  No binning error and no per-request Math.pow loop.
+     *
+     * @param startingVolume the starting volume in Litres
+     * @param concentrationFactor the ratio of concentration. Must be >= 1.
+     * @param tmp the transmembrane pressure given in Pascals
+     * @param solutionViscosity the dynamic viscosity of the solution in Pascals per Second
+     * @param membraneArea the surface area of the membrane in Metres Squared
+     * @param result receives the status and filtration hours, same meaning as calculateHours.
+     */
+    public void calculateHoursTabulated(
+            double startingVolume,
+            double concentrationFactor,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea,
+            CalculationResult result
+    ){
+        calculateHoursTabulated(startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, MembraneModel.DEFAULT, result);
+    }
 
-        // start with creating an estimate of how much time is remaining at t=20
-        double remainingVolume = crossflowsystemObj.currentVolume - crossflowsystemObj.desiredVolume;
+    /** calculateHoursTabulated for one membrane's resistance law. The integral table depends on the law's exponent
+     *  only, so it is shared by every membrane fitted to the same exponent.
+     * @param model membrane resistance law to use instead of the default one
+     */
+    public void calculateHoursTabulated(
+            double startingVolume,
+            double concentrationFactor,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea,
+            MembraneModel model,
+            CalculationResult result
+    ){
+        result.clearProfile();
+
+        // SAFETY CHECKS: same as calculateHours
+        if (concentrationFactor < 1){
+            result.failure(CalculationStatus.CONCENTRATION_FACTOR_BELOW_ONE);
+            return;
+        }
+        if (concentrationFactor == 1){
+            result.success(0);
+            return;
+        }
+
+        result.success(tabulatedHours(
+                startingVolume - startingVolume/concentrationFactor,
+                tmp,
+                solutionViscosity,
+                membraneArea,
+                model
+        ));
+    }
+
+    /** Hours needed to remove requiredFiltrationVolume, read from the model's resistance integral table.
+     *  V(t) = flowScale * (c/a) * J(t/c), with flowScale = tmp * 1000 * area / viscosity and c = model.timeScale.
+     */
+    static double tabulatedHours(
+            double requiredFiltrationVolume,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea,
+            MembraneModel model
+    ){
+        double timeScale = model.timeScale;
+        double flowScale = tmp * 1000.0 * membraneArea / solutionViscosity; // L per hour, per unit of 1/resistance
+        double target = requiredFiltrationVolume * model.initialResistance / (flowScale * timeScale);
+        return timeScale * model.table().inverse(target);
+    }
 
-        // FAULT TOLERANT: base estimated time remaining based on currentFlowRate
-        double estimatedTimeRemaining = remainingVolume / crossflowsystemObj.currentFlowRate;
+    /** Legacy HashMap wrapper around calculateHoursAdaptive(..., CalculationResult).
+     * @return returns a HashMap with statusCode (0 success, 1 concentrationFactor < 1, 2 no convergence),
+     *         hours, errorEstimate (hours) and steps (accepted steps taken).
+     */
+    public HashMap<String, Double> calculateHoursAdaptive(
+            double startingVolume,
+            double concentrationFactor,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea,
+            double tolerance
+    ){
+        Log.debug("Calculations", () -> "Adaptive calculateHours called with tolerance: " + tolerance);
 
-        // Establish "MAGIC NUMBER" iterations for roughly how many times we want to update diminishing flow rate beyond t=20
-        double alg2NumIterations = 50;
-        double alg2Scale = estimatedTimeRemaining/ alg2NumIterations; // update scale for similar use
-        System.out.printf("Estimated time remaining: %f, scale (flowrate refresh frequency): %f\n", estimatedTimeRemaining, alg2Scale);
+        CalculationResult result = new CalculationResult();
+        calculateHoursAdaptive(startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, tolerance, null, result);
+        return result.toHashMap();
+    }
 
-        // now our loop function acts the exact same way, but our scale should be much larger now.
-        for (int i =0; i<alg2NumIterations; i++) {
-            crossflowsystemObj.currentTimeHours = crossflowsystemObj.currentTimeHours+alg2Scale; // iteratively increment time in hours
-            crossflowsystemObj.updateCurrentFlowRate(); // iteratively update flow rate
-            crossflowsystemObj.updateRunFiltrationForPeriod(alg2Scale); // run remove volume function for set time
+    /** Adaptive, error-controlled alternative to calculateHours.
+     *  Instead of the fixed 50 + 50 "magic number" iterations, the filtration volume is integrated with an embedded
+     *  Dormand-Prince 5(4) pair: every step estimates its own error, and the step size grows or shrinks to keep that error
+     *  within the tolerance. Short runs finish in a handful of steps, and multi-thousand-hour runs are integrated
+     *  all the way to the desired volume instead of extrapolating from the last flow rate.
+     *
+     * @param startingVolume the starting volume in Litres
+     * @param concentrationFactor the ratio of concentration. Must be >= 1.
+     * @param tmp the transmembrane pressure given in Pascals
+     * @param solutionViscosity the dynamic viscosity of the solution in Pascals per Second
+     * @param membraneArea the surface area of the membrane in Metres Squared
+     * @param tolerance relative accuracy per step, as a fraction of the required filtration volume (eg. 1e-6)
+     * @param trajectory recorder for the filtration curve after every accepted step, or null to skip recording
+     * @param result receives status, hours, errorEstimate (hours) and steps (accepted steps taken).
+     */
+    public void calculateHoursAdaptive(
+            double startingVolume,
+            double concentrationFactor,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea,
+            double tolerance,
+            Trajectory trajectory,
+            CalculationResult result
+    ){
+        calculateHoursAdaptive(startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, tolerance,
+                MembraneModel.DEFAULT, trajectory, result);
+    }
 
-            if (crossflowsystemObj.checkFinished()) {
-                System.out.println("crossflow Filtration completed.");
-                response.put("statusCode", 0.0); // success
-                response.put("hours", crossflowsystemObj.currentTimeHours);
-                return response;
+    /** calculateHoursAdaptive for one membrane's resistance law.
+     * @param model membrane resistance law to use instead of the default one
+     */
+    public void calculateHoursAdaptive(
+            double startingVolume,
+            double concentrationFactor,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea,
+            double tolerance,
+            MembraneModel model,
+            Trajectory trajectory,
+            CalculationResult result
+    ){
+        result.clearProfile();
+
+        // SAFETY CHECKS: same as calculateHours
+        if (concentrationFactor < 1){
+            result.failure(CalculationStatus.CONCENTRATION_FACTOR_BELOW_ONE);
+            return;
+        }
+        if (concentrationFactor == 1){
+            result.success(0);
+            result.errorEstimate = 0;
+            return;
+        }
+
+        double desiredVolume = startingVolume/concentrationFactor;
+        double requiredFiltrationVolume = startingVolume - desiredVolume;
+        double currentFlowRate = flowRate(0, tmp, solutionViscosity, membraneArea, model);
+
+        // a non-positive (or NaN) flow rate will never reach the desired volume
+        if (!(currentFlowRate > 0) || !(requiredFiltrationVolume > 0)){
+            result.failure(CalculationStatus.NOT_CONVERGED);
+            return;
+        }
+
+        double tol = Math.max(tolerance, ADAPTIVE_MIN_TOLERANCE);
+        double allowedError = tol * requiredFiltrationVolume; // Litres per step
+
+        // initial guess: 1% of the time the t=0 flow rate would need. Controller corrects it from the first step.
+        double h = 0.01 * requiredFiltrationVolume / currentFlowRate;
+
+        adaptiveHours(0, startingVolume, desiredVolume, h, allowedError, tmp, solutionViscosity, membraneArea, model, trajectory, result);
+    }
+
+    /** Primitive kernel of the adaptive solver, shared by calculateHoursAdaptive and RemainingTime: integrates the
+     *  volume forward from (startTimeHours, startVolume) until desiredVolume is reached.
+     *  On success result holds the end time in hours (not the time taken), errorEstimate and steps, and
+     *  result.stepSize the last step size, to start a later solve from. Otherwise result is NOT_CONVERGED.
+     * @param initialStep first step size to try, in hours
+     * @param allowedError error allowed per step, in Litres
+     * @param trajectory recorder for the filtration curve after every accepted step, or null to skip recording
+     * @return returns the end time in hours, or NaN if not converged
+     */
+    static double adaptiveHours(
+            double startTimeHours,
+            double startVolume,
+            double desiredVolume,
+            double initialStep,
+            double allowedError,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea,
+            MembraneModel model,
+            Trajectory trajectory,
+            CalculationResult result
+    ){
+        double currentVolume = startVolume;
+        double currentTimeHours = startTimeHours;
+        double currentFlowRate = flowRate(currentTimeHours, tmp, solutionViscosity, membraneArea, model);
+        if (trajectory != null) {
+            trajectory.add(currentTimeHours, currentVolume, currentFlowRate);
+        }
+
+        double accumulatedError = 0; // Litres
+        double h = initialStep;
+        int steps = 0;
+
+        for (int attempts = 0; attempts < ADAPTIVE_MAX_STEPS; attempts++) {
+            double removed = dormandPrinceStep(currentTimeHours, currentFlowRate, h, tmp, solutionViscosity, membraneArea, model, result);
+            double error = result.stepError;
+
+            if (error <= allowedError) { // accept step
+                double remaining = currentVolume - desiredVolume;
+
+                if (removed >= remaining) {
+                    // desired volume is crossed inside this step: Newton on the partial step length
+                    double partial = h * remaining / removed;
+                    for (int i = 0; i < 20; i++) {
+                        double residual = dormandPrinceStep(currentTimeHours, currentFlowRate, partial, tmp, solutionViscosity, membraneArea, model, result) - remaining;
+                        double correction = residual / flowRate(currentTimeHours + partial, tmp, solutionViscosity, membraneArea, model);
+                        partial = Math.min(h, Math.max(0, partial - correction));
+                        if (Math.abs(correction) <= 1e-12 * (currentTimeHours + partial)) {
+                            break;
+                        }
+                    }
+                    accumulatedError += result.stepError;
+                    steps++;
+
+                    currentTimeHours += partial;
+                    currentFlowRate = flowRate(currentTimeHours, tmp, solutionViscosity, membraneArea, model);
+                    if (trajectory != null) {
+                        trajectory.add(currentTimeHours, desiredVolume, currentFlowRate);
+                    }
+
+                    result.success(currentTimeHours);
+                    result.errorEstimate = accumulatedError / currentFlowRate; // volume error converted to time at the final flow rate
+                    result.steps = steps;
+                    result.stepSize = h;
+                    return currentTimeHours;
+                }
+
+                currentTimeHours += h;
+                currentFlowRate = flowRate(currentTimeHours, tmp, solutionViscosity, membraneArea, model);
+                currentVolume -= removed;
+                accumulatedError += error;
+                steps++;
+                if (trajectory != null) {
+                    trajectory.add(currentTimeHours, currentVolume, currentFlowRate);
+                }
             }
+
+            // standard step-size controller with safety factor 0.9, growth limited to [0.2, 5]
+            double factor = error == 0 ? 5 : 0.9 * Math.pow(allowedError / error, 0.2);
+            h = h * Math.min(5, Math.max(0.2, factor));
         }
 
-        // We have now done 50 (under 20h) + 50 (over 20h, likely into thousands of hours) iterations
-        // Now we can accurately take the current flow rate and calculate the remaining time
-        remainingVolume = crossflowsystemObj.currentVolume - crossflowsystemObj.desiredVolume;
-        double remainingTime = remainingVolume / crossflowsystemObj.currentFlowRate;
+        result.failure(CalculationStatus.NOT_CONVERGED);
+        return Double.NaN;
+    }
+
+    /** Volume filtered over [fromHours, toHours], integrated with the same error-controlled Dormand-Prince steps as
+     *  adaptiveHours, the last step cut short to end exactly at toHours. Used by RemainingTime to advance a saved
+     *  solver state over the time elapsed since it was saved.
+     * @param initialStep first step size to try, in hours
+     * @param allowedError error allowed per step, in Litres
+     * @param scratch receives stepError (accumulated error in Litres), steps and stepSize; status is left as is
+     * @return returns the volume filtered in Litres, or NaN if not converged
+     */
+    static double adaptiveVolume(
+            double fromHours,
+            double toHours,
+            double initialStep,
+            double allowedError,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea,
+            MembraneModel model,
+            CalculationResult scratch
+    ){
+        double currentTimeHours = fromHours;
+        double currentFlowRate = flowRate(currentTimeHours, tmp, solutionViscosity, membraneArea, model);
+        double volume = 0;
+        double accumulatedError = 0;
+        double h = initialStep;
+        int steps = 0;
+
+        for (int attempts = 0; attempts < ADAPTIVE_MAX_STEPS && currentTimeHours < toHours; attempts++) {
+            double step = Math.min(h, toHours - currentTimeHours);
+            double removed = dormandPrinceStep(currentTimeHours, currentFlowRate, step, tmp, solutionViscosity, membraneArea, model, scratch);
+            double error = scratch.stepError;
+
+            if (error <= allowedError) { // accept step
+                boolean last = step == toHours - currentTimeHours;
+                currentTimeHours = last ? toHours : currentTimeHours + step;
+                currentFlowRate = flowRate(currentTimeHours, tmp, solutionViscosity, membraneArea, model);
+                volume += removed;
+                accumulatedError += error;
+                steps++;
+            }
+
+            double factor = error == 0 ? 5 : 0.9 * Math.pow(allowedError / error, 0.2);
+            h = step * Math.min(5, Math.max(0.2, factor));
+        }
+
+        scratch.stepError = accumulatedError;
+        scratch.steps = steps;
+        scratch.stepSize = h;
+        return currentTimeHours < toHours ? Double.NaN : volume;
+    }
+
+    /** Volume removed over [timeHours, timeHours + h] by one Dormand-Prince 5(4) step, with its error estimate.
+     *  The embedded estimate assumes the flow rate is smooth over the step, but t^foulingExponent is not smooth at
+     *  t = 0: a step reaching further than its start time from 0 (the first steps, while the controller grows h)
+     *  is off by far more than the embedded estimate says. Such steps are redone as two half steps and the
+     *  difference taken as the error: it bounds the half steps' error, which shrinks as h^(1 + foulingExponent).
+     * @param flowRateAtStart flow rate at timeHours, already known to the caller (FSAL)
+     * @param scratch scratch.stepError receives the error estimate in Litres
+     * @return returns the estimate of volume removed in Litres
+     */
+    private static double dormandPrinceStep(
+            double timeHours,
+            double flowRateAtStart,
+            double h,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea,
+            MembraneModel model,
+            CalculationResult scratch
+    ){
+        double whole = dormandPrince(timeHours, flowRateAtStart, h, tmp, solutionViscosity, membraneArea, model, scratch);
+        if (h <= timeHours) {
+            return whole;
+        }
+        double half = 0.5 * h;
+        double halves = dormandPrince(timeHours, flowRateAtStart, half, tmp, solutionViscosity, membraneArea, model, scratch)
+                + dormandPrince(timeHours + half, flowRate(timeHours + half, tmp, solutionViscosity, membraneArea, model),
+                        half, tmp, solutionViscosity, membraneArea, model, scratch);
+        scratch.stepError = Math.abs(whole - halves);
+        return halves;
+    }
 
-        // send response
-        response.put("statusCode", 0.0); // success
-        response.put("hours", crossflowsystemObj.currentTimeHours+remainingTime);
+    /** Volume removed over [timeHours, timeHours + h] by one Dormand-Prince 5(4) step.
+     *  Flow rate only depends on time, so the stages are plain evaluations of flowRate.
+     * @param flowRateAtStart flow rate at timeHours, already known to the caller (FSAL)
+     * @param scratch scratch.stepError receives the embedded 4th-order error estimate in Litres
+     * @return returns the 5th-order estimate of volume removed in Litres
+     */
+    private static double dormandPrince(
+            double timeHours,
+            double flowRateAtStart,
+            double h,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea,
+            MembraneModel model,
+            CalculationResult scratch
+    ){
+        double k1 = flowRateAtStart;
+        double k3 = flowRate(timeHours + 0.3 * h, tmp, solutionViscosity, membraneArea, model);
+        double k4 = flowRate(timeHours + 0.8 * h, tmp, solutionViscosity, membraneArea, model);
+        double k5 = flowRate(timeHours + (8.0 / 9.0) * h, tmp, solutionViscosity, membraneArea, model);
+        double k6 = flowRate(timeHours + h, tmp, solutionViscosity, membraneArea, model);
+        double k7 = k6; // c7 = 1, f depends on time only
+
+        double fifthOrder = (35.0 / 384.0) * k1 + (500.0 / 1113.0) * k3 + (125.0 / 192.0) * k4
+                - (2187.0 / 6784.0) * k5 + (11.0 / 84.0) * k6;
+        double fourthOrder = (5179.0 / 57600.0) * k1 + (7571.0 / 16695.0) * k3 + (393.0 / 640.0) * k4
+                - (92097.0 / 339200.0) * k5 + (187.0 / 2100.0) * k6 + (1.0 / 40.0) * k7;
+
+        scratch.stepError = Math.abs(fifthOrder - fourthOrder) * h;
+        return fifthOrder * h;
+    }
 
-        return response;
+    /** Monte Carlo mode: two-phase filtration hours over distributions of the inputs, sampled in parallel.
+     *  See MonteCarlo; the result is the same for a given seed whatever the parallelism of pool.
+     * @return returns mean, p5/p50/p95 and a histogram of the hours, from a fixed-memory QuantileSketch
+     */
+    public MonteCarlo.Result calculateHoursMonteCarlo(MonteCarlo monteCarlo, ForkJoinPool pool){
+        return monteCarlo.compute(pool);
     }
 }
@@ -0,0 +1,9 @@
+package crossflowmodel;
+
+/** Where the two-phase algorithm of Calculations.calculateHours finished, recorded in CalculationResult.exitPhase. */
+public enum ExitPhase {
+    NONE, // not the two-phase algorithm, or no stepping needed (concFactor <= 1, cached result of one)
+    PHASE1, // desired volume reached within the first PHASE1_HOURS
+    PHASE2, // reached during the 50 coarse phase 2 steps
+    EXTRAPOLATED // remaining time extrapolated from the last phase 2 flow rate
+}
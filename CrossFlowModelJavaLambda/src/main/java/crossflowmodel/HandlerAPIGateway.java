@@ -1,7 +1,9 @@
 package crossflowmodel;
 
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
@@ -11,7 +13,6 @@ import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class HandlerAPIGateway implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
 
@@ -20,17 +21,57 @@ public class HandlerAPIGateway implements RequestHandler<APIGatewayProxyRequestE
      */
 
 
-    // list of all required params
-    static final String[] REQUIRED_PARAMS = {
-            "volumeStart",
-            "tmp",
-            "membraneArea",
-            "molWeightCutOff",
-            "concFactor"
-            // "concentrationStart", // dont use anywhere in the model
-    };
+    private static final String NAME = "HandlerAPIGateway";
+
     private static final Calculations calculator = new Calculations();
 
+    // results of the default two-phase algorithm, kept across invocations of a warm container
+    static final CalculationCache cache = new CalculationCache(calculator, CalculationCache.DEFAULT_MAX_ENTRIES);
+
+    // username/token check against the tokens table, enabled by CROSSFLOW_TOKENS_TABLE, replaces the Token Authn hop
+    private static final TokenAuthenticator tokenAuthenticator = TokenAuthenticator.fromEnvironment();
+
+    // primes the request path during init, declared last so the fields above are initialised first
+    private static final Priming priming = Priming.onInit(NAME, HandlerAPIGateway::prime, cache);
+
+    // per-membrane resistance laws, calibrated from sensor samples sent to this container
+    private final MembraneRegistry membranes;
+
+    private final TokenAuthenticator authenticator;
+
+    // write-behind DynamoDB persistence of every inference, replaces the dynamodatauploader.py Lambda
+    private final InferenceLog inferenceLog;
+
+    // longest wait for the inference log at the end of a request, see InferenceLog.awaitFlushed
+    private final long flushWaitMillis;
+
+    public HandlerAPIGateway() {
+        this(MembraneRegistry.shared(), tokenAuthenticator);
+    }
+
+    /**
+     * @param membranes registry of calibrated membranes, MembraneRegistry.shared() but for priming
+     * @param authenticator checks the caller's username/token when enabled, the one built from the environment but in tests
+     */
+    HandlerAPIGateway(MembraneRegistry membranes, TokenAuthenticator authenticator) {
+        this(membranes, authenticator, InferenceLog.shared(), InferenceLog.shared().getFlushWaitMillis());
+    }
+
+    /**
+     * Handler for ModelServer, which is never frozen between requests and so never waits for the inference log.
+     * @param inferenceLog InferenceLog.shared() but in tests
+     */
+    static HandlerAPIGateway forServer(InferenceLog inferenceLog) {
+        return new HandlerAPIGateway(MembraneRegistry.shared(), tokenAuthenticator, inferenceLog, 0);
+    }
+
+    private HandlerAPIGateway(MembraneRegistry membranes, TokenAuthenticator authenticator, InferenceLog inferenceLog, long flushWaitMillis) {
+        this.membranes = membranes;
+        this.authenticator = authenticator;
+        this.inferenceLog = inferenceLog;
+        this.flushWaitMillis = flushWaitMillis;
+    }
+
 
     /**
     Example Incoming Request from PostMAN:
@@ -72,8 +113,26 @@ public class HandlerAPIGateway implements RequestHandler<APIGatewayProxyRequestE
 
     /**
      * Entry point handler for incoming Lambda Requests (API Gateway).
+     * Emits one RequestMetrics line per request with the parse/validate/compute/serialize timings.
      */
     public APIGatewayProxyResponseEvent handleRequest(final APIGatewayProxyRequestEvent input, final Context context) {
+        return handle(input, false);
+    }
+
+    /**
+     * @param synthetic true for Priming's own requests only, which are exempt from authentication. Set by prime()
+     *                  per request, never from the request itself, so no caller can claim it
+     */
+    private APIGatewayProxyResponseEvent handle(final APIGatewayProxyRequestEvent input, final boolean synthetic) {
+        RequestMetrics metrics = RequestMetrics.start(NAME);
+        APIGatewayProxyResponseEvent response = respond(input, metrics, synthetic);
+        metrics.status(response.getStatusCode());
+        metrics.emit();
+        inferenceLog.awaitFlushed(flushWaitMillis); // Lambda may freeze the sandbox once this returns, see InferenceLog
+        return response;
+    }
+
+    private APIGatewayProxyResponseEvent respond(final APIGatewayProxyRequestEvent input, final RequestMetrics metrics, final boolean synthetic) {
         // First thing to do is create response:
         // set headers of response type
         // more detail here: https://stackoverflow.com/questions/23714383/what-are-all-the-possible-values-for-http-content-type-header
@@ -81,7 +140,8 @@ public class HandlerAPIGateway implements RequestHandler<APIGatewayProxyRequestE
         headers.put("Content-Type", "application/json");
         headers.put("X-Custom-Header", "application/json");
         headers.put("Access-Control-Allow-Origin","*"); // CORS HEADER:
-        headers.put("Access-Control-Allow-Headers","Content-Type"); // CORS HEADER
+        headers.put("Access-Control-Allow-Headers","Content-Type, Accept"); // CORS HEADER
+        headers.put("Vary", "Accept"); // body encoding depends on Accept, see ResponseFormat
 
         // create response event object with headers Hashmap
         APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent().withHeaders(headers);
@@ -93,109 +153,197 @@ public class HandlerAPIGateway implements RequestHandler<APIGatewayProxyRequestE
             return response.withBody("Bad request. No APIGateway Data or body.");
         }
 
-        // print the incoming response (input)
-        System.out.println(input);
-        System.out.println(input.getBody());
-
-        // Create an ObjectMapper instance
-        ObjectMapper objectMapper = new ObjectMapper();
+        // describe the incoming request, only built at DEBUG. Not the event itself: its body carries the caller's token
+        // and its headers may carry credentials. The bound request is logged below, without the token
+        Log.debug(NAME, () -> "Received " + input.getHttpMethod() + " " + input.getPath() + ", body of " +
+                (input.getBody() == null ? 0 : input.getBody().length()) + " characters");
 
+        // JSON unless the caller accepts CBOR or Smile; error bodies stay plain text
+        ResponseFormat format = ResponseFormat.negotiate(header(input, "Accept"));
 
         // initialise failed body var
         String body = "No Data.";
 
         try {
-            // Parse the JSON body to a JsonNode object
-            JsonNode jsonNode = objectMapper.readTree(input.getBody());
-
-            // Access specific fields in the JSON (example: assuming your JSON has a "hello" field)
-
-
-
-            boolean correctParams = true;
-            HashMap<String, Double> modelInputParams = new HashMap<>();
-
-            for (String param : REQUIRED_PARAMS) {
-                JsonNode field = jsonNode.get(param);
+            // bind the JSON body straight into typed fields, one streaming pass
+            ModelRequest request;
+            try {
+                request = ModelRequest.fromJson(input.getBody());
+            } catch (IllegalArgumentException e) {
+                metrics.lap(RequestMetrics.Phase.PARSE);
+                response.setStatusCode(400);
+                return response.withBody("Bad request, " + e.getMessage());
+            }
+            metrics.lap(RequestMetrics.Phase.PARSE);
+            metrics.kind(request.kind);
+            Log.debug(NAME, request::toString);
 
-                // Check if field is null
-                if (field == null || field.isNull()) {
-                    correctParams = false;
-                    break;
+            // EXIT EARLY
+            // authenticate in-process when configured, same responses as tokenauth.py
+            // (priming requests carry no credentials and are never seen by a caller)
+            if (authenticator.isEnabled() && !synthetic) {
+                if (request.username == null || request.token == null) {
+                    response.setStatusCode(400);
+                    return response.withBody("Bad request, Missing parameter: " + (request.username == null ? "username" : "token") + ".");
                 }
-
-                // safely convert value to double or exit
+                boolean authenticated;
                 try {
-                    modelInputParams.put(
-                            param,
-                            Double.parseDouble(field.toString())
-                    );
-                } catch(Exception e) {
-                    e.printStackTrace();
-                    correctParams = false;
-                    break;
+                    authenticated = authenticator.authenticate(request.username, request.token);
+                } catch (RuntimeException e) { // tokens table unreachable, not the caller's fault
+                    Log.error(NAME, "Tokens table lookup failed.", e);
+                    response.setStatusCode(503);
+                    return response.withBody("Service Unavailable. User authentication could not be checked.");
+                }
+                if (!authenticated) {
+                    response.setStatusCode(403);
+                    return response.withBody("Error 403, user authentication failed.");
                 }
-            } // end of for param : modelInputParams loop
+            }
+            // owner of the caller's membranes: its verified username, or the namespace shared by unauthenticated
+            // callers (priming's are into its own registry), see MembraneRegistry
+            String owner = authenticator.isEnabled() && !synthetic ? request.username : MembraneRegistry.SHARED_OWNER;
+            metrics.lap(RequestMetrics.Phase.VALIDATE);
+
+            // batch request: {"scenarios": [{...}, {...}]} --> evaluate every scenario in this one invocation
+            if (request.kind == ModelRequest.Kind.BATCH) {
+                return handleBatch(request, format, response, metrics);
+            }
 
+            // sweep request: {"sweep": {...ranges...}} --> evaluate the full parameter grid in this one invocation
+            if (request.kind == ModelRequest.Kind.SWEEP) {
+                return handleSweep(request.sweep, format, response, metrics);
+            }
 
-            // EXIT EARLY
-            // not all required parameters given --> return bad response from Lambda
-            if (!correctParams){
-                response.setStatusCode(400);
-                return response.withBody("Bad request, not all model parameters provided in numeric format");
+            // Monte Carlo request: {"monteCarlo": {...distributions...}} --> p5/p50/p95 and histogram of hours
+            if (request.kind == ModelRequest.Kind.MONTE_CARLO) {
+                return handleMonteCarlo(request.monteCarlo, format, response, metrics);
+            }
+
+            // calibration request: {"membraneId": "M-17", "samples": [[hours, flowRate], ...], ...} --> fitted law of that membrane
+            if (request.kind == ModelRequest.Kind.CALIBRATE) {
+                return handleCalibrate(request, owner, format, response, metrics);
             }
 
 
             // EXIT EARLY
             // check if molecular weight cut off is smaller than bovein casein MW, if not return failure
-            if (modelInputParams.get("molWeightCutOff") >= calculator.BOV_CASEIN_MW ){
+            if (request.molWeightCutOff >= calculator.BOV_CASEIN_MW ){
                 response.setStatusCode(400);
                 return response.withBody(String.format(
                         "Bad request, Bovine Casein solution requires membrane MWCO of less than %d.", calculator.BOV_CASEIN_MW
                 ));
             }
 
-            // check if solution viscosity was provided, if so assign it in hashmap, otherwise assign viscosity of water as default
-            JsonNode field = jsonNode.get("solutionViscosity");
-            if (field == null || field.isNull() || !field.isNumber() ) { // Check if field is null or non-numeric
-                modelInputParams.put("solutionViscosity", calculator.VISCOSITY_WATER);
+            // solution viscosity if provided, otherwise viscosity of water as default
+            double solutionViscosity = request.viscosityOr(calculator.VISCOSITY_WATER);
+
+            // inverse request: {"targetHours": 24, "solveFor": "membraneArea", ...} --> whole root search in this one invocation
+            if (request.kind == ModelRequest.Kind.INVERSE) {
+                return handleInverse(request, solutionViscosity, format, response, metrics);
+            }
+
+            // remaining-time request: {"elapsedHours": 12.5, "currentVolume": 640, "state": "...", ...} --> from the measured state on
+            if (request.kind == ModelRequest.Kind.REMAINING) {
+                return handleRemaining(request, owner, solutionViscosity, format, response, metrics);
+            }
+
+            // accuracy tolerance selects the adaptive solver instead of the fixed 50 + 50 iterations
+            boolean adaptive = request.isAdaptive();
+
+            // trajectory value is the maximum number of curve points to return
+            Trajectory trajectory = request.trajectory > 0 ? new Trajectory() : null;
+
+            // membrane's calibrated resistance law, default law when no membraneId or no usable fit yet
+            MembraneModel model = membranes.modelFor(owner, request.membraneId);
+
+
+            // beyond this, model parameters satisfied - and bound into request
+            metrics.lap(RequestMetrics.Phase.VALIDATE);
+
+            CalculationResult result = new CalculationResult();
+            result.timed = metrics.isEnabled(); // phase 1 / phase 2 timings of the two-phase algorithm
+            if (adaptive) {
+                calculator.calculateHoursAdaptive(
+                        request.volumeStart,
+                        request.concFactor,
+                        request.tmp,
+                        solutionViscosity,
+                        request.membraneArea,
+                        request.tolerance,
+                        model,
+                        trajectory,
+                        result
+                );
+            } else if (trajectory != null || model != MembraneModel.DEFAULT) {
+                // trajectory requests are not cached, the curve is recorded while stepping;
+                // nor are calibrated laws, they change with every sample
+                calculator.calculateHours(
+                        request.volumeStart,
+                        request.concFactor,
+                        request.tmp,
+                        solutionViscosity,
+                        request.membraneArea,
+                        model,
+                        trajectory,
+                        result
+                );
             } else {
-                modelInputParams.put("solutionViscosity", field.asDouble());
+                cache.calculateHours(
+                        request.volumeStart, // func param[0] =  startingVolume
+                        request.concFactor, // func param[1] = concentrationFactor
+                        request.tmp, // func param[2] = tmp
+                        solutionViscosity, // func param[3] = solutionViscosity
+                        request.membraneArea, // func param[4] = membraneArea
+                        result
+                );
             }
 
+            // buffered, written to DynamoDB in the background
+            inferenceLog.record(request.username, request.volumeStart, request.tmp, request.membraneArea,
+                    request.molWeightCutOff, request.concFactor, solutionViscosity, result.isSuccess() ? result.hours : Double.NaN);
 
-            // beyond this, model parameters satisfied - and loaded into hashmap
+            metrics.lap(RequestMetrics.Phase.COMPUTE);
+            metrics.calculation(result);
+            Log.debug(NAME, () -> result + ", " + cache);
 
-            // TODO - reworked the return of calculator.calculateHours(). Need to update this remaining code and printing.
-            HashMap<String, Double> results = calculator.calculateHours(
-                    modelInputParams.get("volumeStart"), // func param[0] =  startingVolume
-                    modelInputParams.get("concFactor"), // func param[1] = concentrationFactor
-                    modelInputParams.get("tmp"), // func param[2] = tmp
-                    modelInputParams.get("solutionViscosity"), // func param[3] = solutionViscosity
-                    modelInputParams.get("membraneArea") // func param[4] = membraneArea
-            );
+            // EXIT EARLY
+            // adaptive solver could not reach the desired volume (eg. zero flow rate)
+            if (result.status == CalculationStatus.NOT_CONVERGED) {
+                response.setStatusCode(500);
+                return response.withBody("Internal Server Error. Adaptive solver did not converge for the given parameters.");
+            }
 
-            // print for logging
-            System.out.println("Calculate Hours statusCode: " + results.get("statusCode"));
-            System.out.printf("Filtration Hours Required: %f\n", results.get("hours"));
+            // trajectory response is streamed straight from the primitive arrays
+            if (trajectory != null && result.isSuccess()) {
+                Trajectory curve = trajectory.downsample(request.trajectory);
+                setBody(response, format, generator -> curve.writeResponse(generator, result, 0));
+                metrics.lap(RequestMetrics.Phase.SERIALIZE);
+                return response;
+            }
 
             // Loading DATA into JSON for response
             Map<String, Object> data = new HashMap<>();
-            data.put("filtrationHours", results.get("hours"));
+            data.put("filtrationHours", result.isSuccess() ? result.hours : null);
+            if (adaptive) {
+                data.put("errorEstimate", result.errorEstimate);
+                data.put("steps", result.steps);
+            }
 
-            // attempt to convert Hashmap --> JSON, set status code if fail/success
+            // attempt to convert Hashmap --> JSON (or the negotiated format), set status code if fail/success
             try {
-                body = new ObjectMapper().writeValueAsString(data);
+                body = format.encodeValueBody(data);
                 response.setStatusCode(200);
+                setContentType(response, format);
             } catch (JsonProcessingException e) {
-                e.printStackTrace();
+                Log.error(NAME, "Failed to serialise response.", e);
                 response.setStatusCode(500);
                 body = "Internal Server Error. Failed to load JSON Data: " + e.getMessage();
 
             }
+            metrics.lap(RequestMetrics.Phase.SERIALIZE);
 
         } catch (Exception e) {
-            e.printStackTrace();
+            Log.error(NAME, "Request failed.", e);
             response.setStatusCode(400);
             body = "Bad Request, data not provided as JSON String with required parameters.";
         }
@@ -204,4 +352,305 @@ public class HandlerAPIGateway implements RequestHandler<APIGatewayProxyRequestE
         return response
                 .withBody(body);
     }
+
+    /**
+     * Batch path: binds the "scenarios" array into a ScenarioBatch (primitive columns, no per-item HashMap),
+     * evaluates all of them, and returns per-item status codes and hours in input order.
+     */
+    private APIGatewayProxyResponseEvent handleBatch(ModelRequest request, ResponseFormat format, APIGatewayProxyResponseEvent response, RequestMetrics metrics) {
+        ScenarioBatch batch;
+        try {
+            batch = ScenarioBatch.fromJson(request.scenarios, calculator.VISCOSITY_WATER);
+        } catch (IllegalArgumentException e) {
+            response.setStatusCode(400);
+            return response.withBody("Bad request, " + e.getMessage());
+        }
+
+        metrics.items(batch.size);
+        metrics.lap(RequestMetrics.Phase.VALIDATE);
+        batch.evaluate(calculator, request.tolerance); // NaN = default two-phase algorithm
+        inferenceLog.recordBatch(request.username, batch);
+        metrics.lap(RequestMetrics.Phase.COMPUTE);
+
+        try {
+            setBody(response, format, batch::writeJson);
+            metrics.lap(RequestMetrics.Phase.SERIALIZE);
+            return response;
+        } catch (IOException e) {
+            Log.error(NAME, "Failed to serialise batch response.", e);
+            response.setStatusCode(500);
+            return response.withBody("Internal Server Error. Failed to load JSON Data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sweep path: computes filtration hours over the grid of tmp x membraneArea x concFactor x solutionViscosity
+     * across all available cores, and returns it as a dense matrix. Grid size is capped at ParameterSweep.MAX_GRID_SIZE.
+     */
+    private APIGatewayProxyResponseEvent handleSweep(JsonNode sweepNode, ResponseFormat format, APIGatewayProxyResponseEvent response, RequestMetrics metrics) {
+        JsonNode molWeightCutOff = sweepNode.get("molWeightCutOff");
+        if (molWeightCutOff == null || !molWeightCutOff.isNumber()) {
+            response.setStatusCode(400);
+            return response.withBody("Bad request, sweep.molWeightCutOff must be a number.");
+        }
+        if (molWeightCutOff.asDouble() >= calculator.BOV_CASEIN_MW) {
+            response.setStatusCode(400);
+            return response.withBody(String.format(
+                    "Bad request, Bovine Casein solution requires membrane MWCO of less than %d.", calculator.BOV_CASEIN_MW
+            ));
+        }
+
+        ParameterSweep sweep;
+        try {
+            sweep = ParameterSweep.fromJson(sweepNode, calculator.VISCOSITY_WATER);
+        } catch (IllegalArgumentException e) {
+            response.setStatusCode(400);
+            return response.withBody("Bad request, " + e.getMessage());
+        }
+
+        metrics.items(sweep.gridSize());
+        metrics.lap(RequestMetrics.Phase.VALIDATE);
+        double[] hours = sweep.compute(ForkJoinPool.commonPool());
+        metrics.lap(RequestMetrics.Phase.COMPUTE);
+
+        try {
+            setBody(response, format, generator -> sweep.writeJson(generator, hours));
+            metrics.lap(RequestMetrics.Phase.SERIALIZE);
+            return response;
+        } catch (IOException e) {
+            Log.error(NAME, "Failed to serialise sweep response.", e);
+            response.setStatusCode(500);
+            return response.withBody("Internal Server Error. Failed to load JSON Data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Monte Carlo path: samples filtration hours over the given parameter distributions across all available cores,
+     * and returns the mean, p5/p50/p95 and a histogram. Samples are capped at MonteCarlo.MAX_SAMPLES.
+     */
+    private APIGatewayProxyResponseEvent handleMonteCarlo(JsonNode monteCarloNode, ResponseFormat format, APIGatewayProxyResponseEvent response, RequestMetrics metrics) {
+        JsonNode molWeightCutOff = monteCarloNode.get("molWeightCutOff");
+        if (molWeightCutOff == null || !molWeightCutOff.isNumber()) {
+            response.setStatusCode(400);
+            return response.withBody("Bad request, monteCarlo.molWeightCutOff must be a number.");
+        }
+        if (molWeightCutOff.asDouble() >= calculator.BOV_CASEIN_MW) {
+            response.setStatusCode(400);
+            return response.withBody(String.format(
+                    "Bad request, Bovine Casein solution requires membrane MWCO of less than %d.", calculator.BOV_CASEIN_MW
+            ));
+        }
+
+        MonteCarlo monteCarlo;
+        try {
+            monteCarlo = MonteCarlo.fromJson(monteCarloNode, calculator.VISCOSITY_WATER);
+        } catch (IllegalArgumentException e) {
+            response.setStatusCode(400);
+            return response.withBody("Bad request, " + e.getMessage());
+        }
+
+        metrics.items(monteCarlo.samples);
+        metrics.lap(RequestMetrics.Phase.VALIDATE);
+        MonteCarlo.Result result = calculator.calculateHoursMonteCarlo(monteCarlo, ForkJoinPool.commonPool());
+        metrics.lap(RequestMetrics.Phase.COMPUTE);
+        Log.debug(NAME, result::toString);
+
+        try {
+            setBody(response, format, result::writeJson);
+            metrics.lap(RequestMetrics.Phase.SERIALIZE);
+            return response;
+        } catch (IOException e) {
+            Log.error(NAME, "Failed to serialise Monte Carlo response.", e);
+            response.setStatusCode(500);
+            return response.withBody("Internal Server Error. Failed to load JSON Data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Inverse path: solves for the membraneArea or tmp that meets targetHours, see InverseSolver.
+     * Responds with the solved value, the hours it achieves, and the iteration count and achieved tolerance.
+     */
+    private APIGatewayProxyResponseEvent handleInverse(ModelRequest request, double solutionViscosity, ResponseFormat format, APIGatewayProxyResponseEvent response, RequestMetrics metrics) {
+        InverseSolver.Solution solution;
+        try {
+            solution = new InverseSolver(calculator).solve(
+                    request.solveFor,
+                    request.targetHours,
+                    request.volumeStart,
+                    request.concFactor,
+                    request.tmp,
+                    solutionViscosity,
+                    request.membraneArea,
+                    request.tolerance, // NaN = two-phase forward model
+                    Double.NaN
+            );
+        } catch (IllegalArgumentException e) {
+            response.setStatusCode(400);
+            return response.withBody("Bad request, " + e.getMessage());
+        }
+        metrics.items(solution.evaluations);
+        metrics.lap(RequestMetrics.Phase.COMPUTE);
+        Log.debug(NAME, solution::toString);
+
+        if (!solution.isSuccess()) {
+            response.setStatusCode(500);
+            return response.withBody("Internal Server Error. Inverse solver did not converge for the given parameters.");
+        }
+
+        // buffered, written to DynamoDB in the background, with the solved parameter filled in
+        inferenceLog.record(request.username, request.volumeStart,
+                request.solveFor == InverseSolver.Parameter.TMP ? solution.value : request.tmp,
+                request.solveFor == InverseSolver.Parameter.MEMBRANE_AREA ? solution.value : request.membraneArea,
+                request.molWeightCutOff, request.concFactor, solutionViscosity, solution.hours);
+
+        try {
+            setBody(response, format, solution::writeJson);
+            metrics.lap(RequestMetrics.Phase.SERIALIZE);
+            return response;
+        } catch (IOException e) {
+            Log.error(NAME, "Failed to serialise inverse response.", e);
+            response.setStatusCode(500);
+            return response.withBody("Internal Server Error. Failed to load JSON Data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Remaining-time path: integrates forward from the measured (elapsedHours, currentVolume) of a run in progress,
+     * continuing from the previous poll's solver state when given, see RemainingTime.
+     * Polls are not recorded to the inference log: a monitored run polls every minute, the run itself is one inference.
+     */
+    private APIGatewayProxyResponseEvent handleRemaining(ModelRequest request, String owner, double solutionViscosity, ResponseFormat format, APIGatewayProxyResponseEvent response, RequestMetrics metrics) {
+        RemainingTime.Estimate estimate;
+        try {
+            RemainingTime.State previous = request.state == null ? null : RemainingTime.State.decode(request.state);
+            metrics.lap(RequestMetrics.Phase.VALIDATE);
+            estimate = new RemainingTime().estimate(
+                    request.elapsedHours,
+                    request.currentVolume,
+                    request.volumeStart,
+                    request.concFactor,
+                    request.tmp,
+                    solutionViscosity,
+                    request.membraneArea,
+                    request.tolerance, // NaN = RemainingTime.DEFAULT_TOLERANCE
+                    membranes.modelFor(owner, request.membraneId),
+                    previous
+            );
+        } catch (IllegalArgumentException e) {
+            response.setStatusCode(400);
+            return response.withBody("Bad request, " + e.getMessage());
+        }
+        metrics.items(estimate.steps);
+        metrics.lap(RequestMetrics.Phase.COMPUTE);
+        Log.debug(NAME, estimate::toString);
+
+        if (estimate.status == CalculationStatus.CONCENTRATION_FACTOR_BELOW_ONE) {
+            response.setStatusCode(400);
+            return response.withBody("Bad Request. Concentration factor cannot be <1.");
+        }
+        if (!estimate.isSuccess()) {
+            response.setStatusCode(500);
+            return response.withBody("Internal Server Error. Adaptive solver did not converge for the given parameters.");
+        }
+
+        try {
+            setBody(response, format, estimate::writeJson);
+            metrics.lap(RequestMetrics.Phase.SERIALIZE);
+            return response;
+        } catch (IOException e) {
+            Log.error(NAME, "Failed to serialise remaining-time response.", e);
+            response.setStatusCode(500);
+            return response.withBody("Internal Server Error. Failed to load JSON Data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Calibration path: learns the samples into the membrane's online fit, see MembraneRegistry, and responds with
+     * the fit. Not recorded to the inference log, there is no inference.
+     * Only callers the registry's Access allows may calibrate, and only their own membranes.
+     */
+    private APIGatewayProxyResponseEvent handleCalibrate(ModelRequest request, String owner, ResponseFormat format, APIGatewayProxyResponseEvent response, RequestMetrics metrics) {
+        if (!membranes.getAccess().allows(owner)) {
+            response.setStatusCode(403);
+            return response.withBody(membranes.getAccess() == MembraneRegistry.Access.OFF
+                    ? "Error 403, calibration is disabled by " + MembraneRegistry.ENV_CALIBRATION + "."
+                    : "Error 403, calibration needs authenticated callers: set " + TokenAuthenticator.ENV_TABLE
+                            + ", or " + MembraneRegistry.ENV_CALIBRATION + "=open for a closed network.");
+        }
+        MembraneCalibration.Fit fit;
+        try {
+            MembraneRegistry.Samples samples = MembraneRegistry.Samples.fromJson(request.membraneId, request.tmp,
+                    request.viscosityOr(calculator.VISCOSITY_WATER), request.membraneArea, request.samples);
+            metrics.items(samples.hours.length);
+            metrics.lap(RequestMetrics.Phase.VALIDATE);
+            fit = membranes.record(owner, samples);
+        } catch (IllegalArgumentException e) {
+            response.setStatusCode(400);
+            return response.withBody("Bad request, " + e.getMessage());
+        }
+        metrics.lap(RequestMetrics.Phase.COMPUTE);
+        Log.debug(NAME, fit::toString);
+
+        try {
+            setBody(response, format, fit::writeJson);
+            metrics.lap(RequestMetrics.Phase.SERIALIZE);
+            return response;
+        } catch (IOException e) {
+            Log.error(NAME, "Failed to serialise calibration response.", e);
+            response.setStatusCode(500);
+            return response.withBody("Internal Server Error. Failed to load JSON Data: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sets a successful response body in the negotiated format: JSON text, or base64 of the binary encoding with
+     * isBase64Encoded for API Gateway to decode.
+     */
+    private static void setBody(APIGatewayProxyResponseEvent response, ResponseFormat format, ResponseFormat.Body body) throws IOException {
+        response.setBody(format.encodeBody(body));
+        response.setStatusCode(200);
+        setContentType(response, format);
+    }
+
+    private static void setContentType(APIGatewayProxyResponseEvent response, ResponseFormat format) {
+        if (format.isBinary()) {
+            response.getHeaders().put("Content-Type", format.contentType);
+            response.setIsBase64Encoded(true);
+        }
+    }
+
+    /** Header value by case-insensitive name: API Gateway passes header names as the client sent them. */
+    static String header(APIGatewayProxyRequestEvent input, String name) {
+        Map<String, String> headers = input.getHeaders();
+        if (headers == null) {
+            return null;
+        }
+        String value = headers.get(name);
+        if (value != null) {
+            return value;
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /** True once the request path is primed (or priming is disabled), see ModelServer's health check. */
+    static boolean isReady() {
+        return priming.isReady();
+    }
+
+    /**
+     * One priming pass: every request path once, on a throwaway handler instance. Called by Priming during init.
+     * The synthetic calibration learns into a registry of its own, open to it, so no real membrane is touched.
+     */
+    static void prime() {
+        MembraneRegistry membranes = new MembraneRegistry(MembraneCalibration.DEFAULT_FORGETTING, MembraneRegistry.Access.OPEN);
+        HandlerAPIGateway handler = new HandlerAPIGateway(membranes, tokenAuthenticator);
+        for (String body : Priming.SYNTHETIC_BODIES) {
+            handler.handle(new APIGatewayProxyRequestEvent().withBody(body), true);
+        }
+    }
 }
@@ -1,166 +1,265 @@
 package crossflowmodel;
 
 import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
-public class HandlerStepFunction {
+public class HandlerStepFunction implements RequestStreamHandler {
 
     /**
      * GLOBAL VARS SECTION
      */
+    private static final String NAME = "HandlerStepFunction";
+
     static final double VISCOSITY_WATER = 0.001;
     static final int BOV_CASEIN_MW = 25_107;
-    static final String[] REQUIRED_PARAMS = {
-            "volumeStart",
-            "tmp",
-            "membraneArea",
-            "molWeightCutOff",
-            "concFactor"
-            // "concentrationStart", // dont use anywhere in the model
-    };
-    Calculations calc = new Calculations();
-
-    // create response object
-    // Loading DATA into JSON for response
-    Map<String, Object> response = new HashMap<>();
-    String jsonResponse = "";
-
-
-
-    /** TODO my notes suggest that the handler receives data as MAP data and not JSON data
-     * {statusCode=200, status=0, statusString=success, body={"volumeStart": "1000", "tmp": "100000", "membraneArea": "10", "molWeightCutOff": "2500", "concFactor": "2"}}
-     * the body={} is JSON which will require parsing, but the should definitely be loaded into hashmap first
-     * probably need lots of safety code to see whats going on?
-     */
+    static final Calculations calc = new Calculations(); // shared, Calculations holds no per-request state
 
-    public Object handleRequest(Object event, Context context) {
+    // results of the default two-phase algorithm, kept across invocations of a warm container
+    static final CalculationCache cache = new CalculationCache(calc, CalculationCache.DEFAULT_MAX_ENTRIES);
 
-        // object event in Step Function gets passed in as a JSON String --> Can parse using Jackson
-        String eventString = event.toString();
-        System.out.println(eventString);
+    // write-behind DynamoDB persistence of every inference, replaces the dynamodatauploader.py branch of the state machine
+    private static final InferenceLog inferenceLog = InferenceLog.shared();
 
-        // incoming payload is formatted as HASHMAP data store --> NOT JSON STRING
-        // because data is not quotation mark enclosed not {"statusCode" but {statusCode
-        // eg. {statusCode=200, status=0, statusString=success, body={"volumeStart": "1000", "tmp": "100000", "membraneArea": "10", "molWeightCutOff": "2500", "concFactor": "2"}}
-        // String[] eventKeyValuePairs = event.toString().split(","); // cannot simply parse, because "body={}" has commas
-//            eventKeyValuePairs[i] = eventKeyValuePairs[i].replaceAll("[{} ]", " "); // remove curly braces and whitespace
+    // primes the request path during init with Priming.SYNTHETIC_BODIES
+    private static final Priming priming = Priming.onInit(NAME, HandlerStepFunction::prime, cache);
 
-        // Extract the "body" part of the input string
-        String bodyKey = "body=";
-        int bodyStartIndex = eventString.indexOf(bodyKey) + bodyKey.length();
-        String bodyString = eventString.substring(bodyStartIndex).trim(); // extract body {}} string
+    // no per-request state in instance fields: one handler instance may serve concurrent requests (see ModelServer)
 
-        // removes trailing/starting whitespace ensures string is not null
-        if(bodyString == null || bodyString.trim().isEmpty()) {
-            System.out.println("Error 500: String extraction of body= unsuccessful.");
-            return "{\"modelpredictionstatus\":1}";
+    /**
+     * Entry point for the Step Function state machine. The input is the output of the previous state (tokenauth.py):
+     * {"statusCode": 200, "status": 0, "statusString": "success", "body": "{\"volumeStart\": \"1000\", \"tmp\": \"100000\", ...}"}
+     * It is read as a stream and bound straight into a ModelRequest, no Map or toString() in between.
+     *
+     * The response is written as a JSON-encoded string, exactly what the runtime serialised when this handler
+     * returned a String, so the next state receives the same payload as before.
+     * Emits one RequestMetrics line per state with the parse/validate/compute/serialize timings.
+     */
+    @Override
+    public void handleRequest(InputStream input, OutputStream output, Context context) throws IOException {
+        RequestMetrics metrics = RequestMetrics.start(NAME);
+        String payload = handle(input, metrics);
+        try (JsonGenerator generator = SharedJson.MAPPER.getFactory().createGenerator(output)) {
+            generator.writeString(payload);
         }
+        metrics.lap(RequestMetrics.Phase.SERIALIZE);
+        metrics.emit();
+        inferenceLog.awaitFlushed(); // Lambda may freeze the sandbox once this returns, see InferenceLog
+    }
 
-        // now parse body data - which is JSON Formatted
-        String jsonBodyString = bodyString.substring(0, bodyString.length() - 1); // remove last char should be }
-        ObjectMapper objectMapper = new ObjectMapper();
-        HashMap<String, Double> modelParams = new HashMap<>();
-        boolean correctParams = true;
-        System.out.println("Attempting to JSON-parse bodyDataString: " + jsonBodyString);
-
-        JsonNode jsonNode = null;
+    /** Handles one Step Function state, returns the response payload before JSON-encoding. */
+    String handle(InputStream input, RequestMetrics metrics) {
+        ModelRequest request;
         try {
-            jsonNode = objectMapper.readTree(jsonBodyString);
-            System.out.println(jsonNode.toString()); // prints the same with or without .toString()
-
-            // iterate through jsonNode tree and attempt to load data into
-            for (String param : REQUIRED_PARAMS) {
-                // Check if field is null
-                if (
-                    !jsonNode.has(param) ||
-                    !jsonNode.hasNonNull(param) ||
-                    jsonNode.get(param) == null ||
-                    jsonNode.get(param).toString().equalsIgnoreCase("")
-                ) {
-                    correctParams = false;
-                    System.out.println("ERROR Param not found: " + param);
-                    break;
-                }
-
-                JsonNode field = jsonNode.get(param);
-                System.out.println(param + " " + field);
-
-                // safely convert value to double or exit
-                try {
-                    modelParams.put(
-                            param,
-                            Double.parseDouble(field.asText()) // extract the natural value. asString() surrounds in "" quotes
-                    );
-                } catch(Exception e) {
-                    System.out.println("ERROR Could not safely convert param to double:" + param);
-                    e.printStackTrace();
-                    correctParams = false;
-                    break;
-                }
-            }
+            request = ModelRequest.fromStepFunctionState(input);
+        } catch (IllegalArgumentException e) {
+            metrics.lap(RequestMetrics.Phase.PARSE);
+            metrics.status(400);
+            Log.warn(NAME, "Could not bind model parameters: " + e.getMessage());
+            return "Error 400: Bad request, " + e.getMessage();
+        }
+        metrics.lap(RequestMetrics.Phase.PARSE);
 
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
+        // state without a body --> nothing to compute
+        if (request == null) {
+            metrics.status(500);
+            Log.warn(NAME, "Step Function state has no body.");
+            return "{\"modelpredictionstatus\":1}";
         }
+        metrics.kind(request.kind);
+        Log.debug(NAME, request::toString);
 
-        //EXIT EARLY IF INCORRECT PARAMS
-        if (!correctParams){
-            return "ERROR 500: Incorrect parameters provided.";
+        // batch request: {"scenarios": [{...}, {...}]} --> evaluate every scenario in this one execution
+        if (request.kind == ModelRequest.Kind.BATCH) {
+            return handleBatch(request, metrics);
+        }
+        if (request.kind != ModelRequest.Kind.SINGLE) {
+            metrics.status(400);
+        }
+        if (request.kind == ModelRequest.Kind.SWEEP) {
+            return "Error 400: Bad request, sweep requests are only served through API Gateway.";
+        }
+        if (request.kind == ModelRequest.Kind.INVERSE) {
+            return "Error 400: Bad request, inverse requests are only served through API Gateway.";
+        }
+        if (request.kind == ModelRequest.Kind.MONTE_CARLO) {
+            return "Error 400: Bad request, Monte Carlo requests are only served through API Gateway.";
+        }
+        if (request.kind == ModelRequest.Kind.REMAINING) {
+            return "Error 400: Bad request, remaining-time requests are only served through API Gateway.";
+        }
+        if (request.kind == ModelRequest.Kind.CALIBRATE) {
+            return "Error 400: Bad request, calibration requests are only served through API Gateway.";
         }
 
         //EXIT EARLY
         // check if molecular weight cut off is smaller than bovein casein MW, if not return failure
-        if (modelParams.get("molWeightCutOff") >= calc.BOV_CASEIN_MW ){
+        if (request.molWeightCutOff >= calc.BOV_CASEIN_MW ){
+            metrics.lap(RequestMetrics.Phase.VALIDATE);
+            metrics.status(400);
             return "Error 400: Bad request, Bovine Casein solution requires membrane MWCO of less than " + calc.BOV_CASEIN_MW;
         }
 
-        /* TODO - Rework tokenauth.py script to pass on solution viscosity IF PROVIDED
-            Currently using hardcoded viscosity
-         */
-        modelParams.put("solutionViscosity", calc.VISCOSITY_WATER);
+        // solution viscosity is forwarded by tokenauth.py when the client provides it, otherwise water
+        double solutionViscosity = request.viscosityOr(calc.VISCOSITY_WATER);
+
+        // optional accuracy tolerance --> adaptive solver instead of the fixed 50 + 50 iterations
+        boolean adaptive = request.isAdaptive();
+
+        // optional trajectory --> also return the filtration curve, downsampled to this many points
+        Trajectory trajectory = request.trajectory > 0 ? new Trajectory() : null;
 
         // beyond this point, all params satisfied --> calculate hours
-        System.out.println("Successfully captured all model parameters: " + modelParams +"\nRunning hours calculation.");
-
-        HashMap<String, Double> results = calc.calculateHours(
-                modelParams.get("volumeStart"), // func param[0] =  startingVolume
-                modelParams.get("concFactor"), // func param[1] = concentrationFactor
-                modelParams.get("tmp"), // func param[2] = tmp
-                modelParams.get("solutionViscosity"), // func param[3] = solutionViscosity
-                modelParams.get("membraneArea") // func param[4] = membraneArea
-        );
-        // check that status was OK
-        if (results.get("statusCode") != 0){ // failure
-            System.out.println("CalculateHours response statusCode != 0. Problematic response.");
+        metrics.lap(RequestMetrics.Phase.VALIDATE);
+
+        CalculationResult result = new CalculationResult();
+        result.timed = metrics.isEnabled(); // phase 1 / phase 2 timings of the two-phase algorithm
+        if (adaptive) {
+            calc.calculateHoursAdaptive(
+                    request.volumeStart,
+                    request.concFactor,
+                    request.tmp,
+                    solutionViscosity,
+                    request.membraneArea,
+                    request.tolerance,
+                    trajectory,
+                    result
+            );
+        } else if (trajectory != null) { // trajectory requests are not cached, the curve is recorded while stepping
+            calc.calculateHours(
+                    request.volumeStart,
+                    request.concFactor,
+                    request.tmp,
+                    solutionViscosity,
+                    request.membraneArea,
+                    trajectory,
+                    result
+            );
+        } else {
+            cache.calculateHours(
+                    request.volumeStart, // func param[0] =  startingVolume
+                    request.concFactor, // func param[1] = concentrationFactor
+                    request.tmp, // func param[2] = tmp
+                    solutionViscosity, // func param[3] = solutionViscosity
+                    request.membraneArea, // func param[4] = membraneArea
+                    result
+            );
+        }
+
+        // buffered, written to DynamoDB in the background
+        inferenceLog.record(request.username, request.volumeStart, request.tmp, request.membraneArea,
+                request.molWeightCutOff, request.concFactor, solutionViscosity, result.isSuccess() ? result.hours : Double.NaN);
+        metrics.lap(RequestMetrics.Phase.COMPUTE);
+        metrics.calculation(result);
+        Log.debug(NAME, () -> result + ", " + cache);
 
-            if (results.get("statusCode") == 1.0) { // statusCode 1 = concentrationfactor < 1
+        // trajectory response is streamed straight from the primitive arrays
+        if (trajectory != null && result.isSuccess()) {
+            try {
+                return trajectory.downsample(request.trajectory).toResponseJson(SharedJson.MAPPER.getFactory(), result, 200);
+            } catch (IOException e) {
+                metrics.status(500);
+                Log.error(NAME, "Failed to serialise trajectory response.", e);
+                return "Internal Server Error. Failed to load response payload to JSON Data: " + e.getMessage();
+            }
+        }
+
+        // create response object
+        // Loading DATA into JSON for response
+        Map<String, Object> response = new HashMap<>();
+        String jsonResponse = "";
+
+        // check that status was OK
+        if (!result.isSuccess()){ // failure
+            if (result.status == CalculationStatus.CONCENTRATION_FACTOR_BELOW_ONE) {
+                metrics.status(400);
                 response.put("statusCode", 400);
                 response.put("errorMessage", "Bad Request. Concentration factor cannot be <1.");
             } else {
+                metrics.status(500);
                 response.put("statusCode", 500);
                 jsonResponse = "Unknown Server error: Algorithmic statusCode !=0.";
             }
         } else { // no failure, get filtration hours
-            System.out.println("CalculateHours response statusCode == 0. Healthy response.");
-            System.out.printf("Filtration Hours Required: %f", results.get("hours"));
-            response.put("filtrationHours", results.get("hours"));
+            response.put("filtrationHours", result.hours);
+            if (adaptive) {
+                response.put("errorEstimate", result.errorEstimate);
+                response.put("steps", result.steps);
+            }
             response.put("statusCode", 200);
         }
 
         // attempt to convert Hashmap --> JSON, set status code if fail/success
         try {
-            jsonResponse = new ObjectMapper().writeValueAsString(response);
+            jsonResponse = SharedJson.WRITER.writeValueAsString(response);
 
         } catch (JsonProcessingException e) {
-            e.printStackTrace();
+            metrics.status(500);
+            Log.error(NAME, "Failed to serialise response.", e);
             jsonResponse = "Internal Server Error. Failed to load response payload to JSON Data: " + e.getMessage();
         }
 
         return jsonResponse;
     }
-}
\ No newline at end of file
+
+    /**
+     * Batch path: binds the "scenarios" array into a ScenarioBatch (primitive columns, no per-item HashMap),
+     * evaluates all of them, and returns per-item status codes and hours in input order.
+     */
+    private String handleBatch(ModelRequest request, RequestMetrics metrics) {
+        ScenarioBatch batch;
+        try {
+            batch = ScenarioBatch.fromJson(request.scenarios, calc.VISCOSITY_WATER);
+        } catch (IllegalArgumentException e) {
+            metrics.status(400);
+            return "Error 400: Bad request, " + e.getMessage();
+        }
+
+        metrics.items(batch.size);
+        metrics.lap(RequestMetrics.Phase.VALIDATE);
+        batch.evaluate(calc, request.tolerance); // NaN = default two-phase algorithm
+        inferenceLog.recordBatch(request.username, batch);
+        metrics.lap(RequestMetrics.Phase.COMPUTE);
+
+        try {
+            return batch.toJson(SharedJson.MAPPER.getFactory());
+        } catch (IOException e) {
+            metrics.status(500);
+            Log.error(NAME, "Failed to serialise batch response.", e);
+            return "Internal Server Error. Failed to load response payload to JSON Data: " + e.getMessage();
+        }
+    }
+
+    /**
+     * One priming pass: every request path once, on a throwaway handler instance. Called by Priming during init.
+     * Events are shaped like the tokenauth.py output the state machine passes in.
+     */
+    static void prime() {
+        HandlerStepFunction handler = new HandlerStepFunction();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (String body : Priming.SYNTHETIC_BODIES) {
+            Map<String, Object> state = new LinkedHashMap<>();
+            state.put("statusCode", 200);
+            state.put("status", 0);
+            state.put("statusString", "success");
+            state.put("body", body);
+            try {
+                output.reset();
+                handler.handleRequest(new ByteArrayInputStream(SharedJson.WRITER.writeValueAsBytes(state)), output, null);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package crossflowmodel;
+
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.retry.RetryUtils;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClientBuilder;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.PutRequest;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.math.BigDecimal;
+import java.net.URI;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Write-behind persistence of inference requests to DynamoDB, an alternative to the dynamodatauploader.py branch
+ *  of the Step Function: enable it by setting CROSSFLOW_DATA_TABLE and removing the DynamoDB Data Upload branch
+ *  from StepFunction/architecture.json in the same deployment, or every inference is written twice. The handlers record inputs and filtrationHours into a bounded in-memory buffer of primitives and
+ *  return straight away; a background thread builds the items and writes them with BatchWriteItem whenever
+ *  MAX_BATCH_ITEMS are waiting, or every flush interval otherwise. Unprocessed items and throttling errors are
+ *  retried with exponential backoff and jitter.
+ *
+ *  Items keep the attributes of dynamodatauploader.py (uid, username, volstart, tmp, membranearea, mwco, concfactor)
+ *  and add viscosity and filtrationhours (omitted when the calculation failed).
+ *
+ *  Configured from the environment:
+ *      CROSSFLOW_DATA_TABLE                table name; persistence is disabled when unset (the default)
+ *      CROSSFLOW_DYNAMODB_ENDPOINT         endpoint override, eg. http://localhost:8000 for DynamoDB Local
+ *      CROSSFLOW_DATA_FLUSH_MILLIS         flush interval, default 1000
+ *      CROSSFLOW_DATA_FLUSH_WAIT_MILLIS    longest wait for the end-of-invocation flush, default 2000 on Lambda, 0 elsewhere
+ *
+ *  Lambda freezes the sandbox as soon as an invocation returns: the flusher thread does not run while frozen, and a
+ *  frozen sandbox can be reclaimed without the shutdown hook ever running. So the handlers call awaitFlushed()
+ *  before they return, which has the flusher write whatever is buffered and waits for it, at most the flush wait.
+ *  What that guarantees: when an invocation returns, its records have been written (or counted as failed after
+ *  MAX_ATTEMPTS), unless the wait ran out first, eg. while DynamoDB throttles. Records left over then stay buffered
+ *  and are written once the sandbox runs again; they are lost if it is reclaimed first, and the WARN line from
+ *  awaitFlushed() counts them. Records dropped because the buffer was full are counted too (getDropped()).
+ *  Invocations that record nothing wait for nothing; the others pay about one BatchWriteItem round trip, rather than
+ *  one per record, and within an invocation record() still only buffers.
+ *
+ *  Outside Lambda (no AWS_LAMBDA_RUNTIME_API, which Lambda sets for managed and custom runtimes alike) nothing
+ *  freezes the process, so the flush wait defaults to 0 and requests never wait for DynamoDB. ModelServer does not
+ *  wait whatever the setting: its requests would all queue behind the one flusher thread.
+ */
+public class InferenceLog implements AutoCloseable {
+
+    public static final String ENV_TABLE = "CROSSFLOW_DATA_TABLE";
+    public static final String ENV_ENDPOINT = "CROSSFLOW_DYNAMODB_ENDPOINT";
+    public static final String ENV_FLUSH_MILLIS = "CROSSFLOW_DATA_FLUSH_MILLIS";
+    public static final String ENV_FLUSH_WAIT_MILLIS = "CROSSFLOW_DATA_FLUSH_WAIT_MILLIS";
+
+    // BatchWriteItem accepts at most 25 put requests
+    public static final int MAX_BATCH_ITEMS = 25;
+    public static final int DEFAULT_CAPACITY = 10_000;
+    public static final long DEFAULT_FLUSH_MILLIS = 1_000;
+    public static final long DEFAULT_FLUSH_WAIT_MILLIS = 2_000;
+
+    // attempts per batch before the remaining items are counted as failed
+    public static final int MAX_ATTEMPTS = 8;
+    static final long BASE_BACKOFF_MILLIS = 25;
+    static final long MAX_BACKOFF_MILLIS = 2_000;
+
+    // same uid layout as dynamodatauploader.py: username_MMHHddmmYYYY_random16
+    private static final DateTimeFormatter UID_TIME = DateTimeFormatter.ofPattern("mmHHddMMyyyy");
+    private static final char[] UID_CHARS = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+
+    private static InferenceLog shared;
+
+    private final DynamoDbClient client; // null = disabled
+    private final String tableName;
+    private final ArrayBlockingQueue<Inference> buffer;
+    private final ScheduledExecutorService flusher;
+    private final long flushWaitMillis;
+    private final AtomicBoolean flushRequested = new AtomicBoolean(false);
+    private final AtomicInteger pending = new AtomicInteger(); // buffered or being written, see awaitFlushed()
+    private final Object writeLock = new Object(); // one batch in flight at a time
+
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    /**
+     * @param client DynamoDB client, or null to disable persistence (record() then does nothing)
+     * @param tableName table to write to
+     * @param capacity items buffered at most; further items are dropped and counted until the buffer drains
+     * @param flushMillis interval between time-based flushes
+     */
+    public InferenceLog(DynamoDbClient client, String tableName, int capacity, long flushMillis) {
+        this(client, tableName, capacity, flushMillis, DEFAULT_FLUSH_WAIT_MILLIS);
+    }
+
+    /**
+     * @param flushWaitMillis longest wait of awaitFlushed(), 0 to not wait at all
+     */
+    public InferenceLog(DynamoDbClient client, String tableName, int capacity, long flushMillis, long flushWaitMillis) {
+        if (client != null && (tableName == null || tableName.isBlank())) {
+            throw new IllegalArgumentException("tableName is required when persistence is enabled.");
+        }
+        if (capacity < MAX_BATCH_ITEMS || flushMillis < 1 || flushWaitMillis < 0) {
+            throw new IllegalArgumentException("capacity must be at least " + MAX_BATCH_ITEMS + ", flushMillis positive and flushWaitMillis not negative.");
+        }
+        this.client = client;
+        this.tableName = tableName;
+        this.flushWaitMillis = flushWaitMillis;
+        this.buffer = new ArrayBlockingQueue<>(capacity);
+
+        if (client == null) {
+            this.flusher = null;
+            return;
+        }
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "inference-log-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::drain, flushMillis, flushMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** The log shared by the handlers of this container, built from the environment on first use. */
+    public static synchronized InferenceLog shared() {
+        if (shared == null) {
+            shared = fromEnvironment();
+            if (shared.isEnabled()) {
+                InferenceLog log = shared;
+                Runtime.getRuntime().addShutdownHook(new Thread(log::close, "inference-log-shutdown"));
+            }
+        }
+        return shared;
+    }
+
+    static InferenceLog fromEnvironment() {
+        String table = System.getenv(ENV_TABLE);
+        if (table == null || table.isBlank()) {
+            Log.info("InferenceLog", "Inference persistence disabled, " + ENV_TABLE + " not set; the Step Function's DynamoDB Data Upload branch persists inferences.");
+            return new InferenceLog(null, null, DEFAULT_CAPACITY, DEFAULT_FLUSH_MILLIS);
+        }
+
+        long flushMillis = Math.max(1, millisFromEnvironment(ENV_FLUSH_MILLIS, DEFAULT_FLUSH_MILLIS));
+        long flushWaitMillis = Math.max(0, millisFromEnvironment(ENV_FLUSH_WAIT_MILLIS, isLambda() ? DEFAULT_FLUSH_WAIT_MILLIS : 0));
+
+        DynamoDbClientBuilder builder = DynamoDbClient.builder();
+        String endpoint = System.getenv(ENV_ENDPOINT);
+        if (endpoint != null && !endpoint.isBlank()) {
+            builder.endpointOverride(URI.create(endpoint.trim()));
+        }
+        return new InferenceLog(builder.build(), table.trim(), DEFAULT_CAPACITY, flushMillis, flushWaitMillis);
+    }
+
+    private static long millisFromEnvironment(String name, long defaultMillis) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultMillis;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            Log.warn("InferenceLog", "Ignoring non-numeric " + name + ": " + value);
+            return defaultMillis;
+        }
+    }
+
+    /** True when running in a Lambda sandbox, which may be frozen between invocations. */
+    static boolean isLambda() {
+        String runtimeApi = System.getenv(LambdaRuntime.ENV_RUNTIME_API);
+        return runtimeApi != null && !runtimeApi.isBlank();
+    }
+
+    public boolean isEnabled() {
+        return client != null;
+    }
+
+    /** Longest wait of awaitFlushed(), see the class comment. */
+    public long getFlushWaitMillis() {
+        return flushWaitMillis;
+    }
+
+    /** Buffers one inference for writing. Never blocks; if the buffer is full the item is dropped and counted.
+     * @param username user forwarded by tokenauth.py, or null for direct API Gateway calls
+     * @param filtrationHours computed hours, or NaN if the calculation failed
+     */
+    public void record(
+            String username,
+            double volumeStart,
+            double tmp,
+            double membraneArea,
+            double molWeightCutOff,
+            double concFactor,
+            double solutionViscosity,
+            double filtrationHours
+    ){
+        if (client == null || Priming.isActive()) { // synthetic priming requests are never persisted
+            return;
+        }
+        // only primitives are captured here; the DynamoDB item is built on the flusher thread, off the request path
+        Inference inference = new Inference(username, System.currentTimeMillis(), volumeStart, tmp, membraneArea,
+                molWeightCutOff, concFactor, solutionViscosity, filtrationHours);
+
+        pending.incrementAndGet(); // before offer(), so the flusher never sees an item it is not counted for
+        if (!buffer.offer(inference)) {
+            pending.decrementAndGet();
+            dropped.increment();
+            return;
+        }
+        // size-based flush: hand a full batch to the flusher now rather than at the next interval
+        if (buffer.size() >= MAX_BATCH_ITEMS && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(() -> {
+                    flushRequested.set(false);
+                    drain();
+                });
+            } catch (RejectedExecutionException e) { // closed, the item waits for an explicit flush()
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    /** Records every scenario of an evaluated batch that passed validation, ie. was computed (successfully or not). */
+    public void recordBatch(String username, ScenarioBatch batch) {
+        for (int i = 0; i < batch.size; i++) {
+            if (batch.statusCode[i] == ScenarioBatch.STATUS_BAD_REQUEST) {
+                continue;
+            }
+            record(username, batch.volumeStart[i], batch.tmp[i], batch.membraneArea[i], batch.molWeightCutOff[i],
+                    batch.concFactor[i], batch.solutionViscosity[i],
+                    batch.statusCode[i] == ScenarioBatch.STATUS_OK ? batch.hours[i] : Double.NaN);
+        }
+    }
+
+    /** One buffered inference, as recorded. */
+    private static final class Inference {
+        final String username;
+        final long recordedAt; // epoch millis
+        final double volumeStart;
+        final double tmp;
+        final double membraneArea;
+        final double molWeightCutOff;
+        final double concFactor;
+        final double solutionViscosity;
+        final double filtrationHours;
+
+        Inference(String username, long recordedAt, double volumeStart, double tmp, double membraneArea,
+                  double molWeightCutOff, double concFactor, double solutionViscosity, double filtrationHours) {
+            this.username = username == null || username.isBlank() ? "anonymous" : username;
+            this.recordedAt = recordedAt;
+            this.volumeStart = volumeStart;
+            this.tmp = tmp;
+            this.membraneArea = membraneArea;
+            this.molWeightCutOff = molWeightCutOff;
+            this.concFactor = concFactor;
+            this.solutionViscosity = solutionViscosity;
+            this.filtrationHours = filtrationHours;
+        }
+
+        Map<String, AttributeValue> toItem() {
+            Map<String, AttributeValue> item = new HashMap<>(16);
+            item.put("uid", AttributeValue.builder().s(uid(username, recordedAt)).build());
+            item.put("username", AttributeValue.builder().s(username).build());
+            item.put("volstart", number(volumeStart));
+            item.put("tmp", number(tmp));
+            item.put("membranearea", number(membraneArea));
+            item.put("mwco", number(molWeightCutOff));
+            item.put("concfactor", number(concFactor));
+            item.put("viscosity", number(solutionViscosity));
+            if (Double.isFinite(filtrationHours)) {
+                item.put("filtrationhours", number(filtrationHours));
+            }
+            return item;
+        }
+    }
+
+    private static AttributeValue number(double value) {
+        // plain notation, as the Python uploader sent str(value)
+        return AttributeValue.builder().n(BigDecimal.valueOf(value).toPlainString()).build();
+    }
+
+    private static String uid(String username, long recordedAt) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] code = new char[16];
+        for (int i = 0; i < code.length; i++) {
+            code[i] = UID_CHARS[random.nextInt(UID_CHARS.length)];
+        }
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(recordedAt), ZoneId.systemDefault());
+        return username + "_" + time.format(UID_TIME) + "_" + new String(code);
+    }
+
+    /** Called by the handlers at the end of every invocation, before Lambda can freeze the sandbox: if anything is
+     *  buffered, has the flusher write it and waits for that, at most the flush wait (see the class comment).
+     *  Items a flush had already taken from the buffer count until their batch is written, and the flusher runs one
+     *  task at a time, so the wait also covers a size-based flush still in flight.
+     * @return returns true if nothing was left buffered or in flight within the wait
+     */
+    public boolean awaitFlushed() {
+        return awaitFlushed(flushWaitMillis);
+    }
+
+    /** awaitFlushed() with a wait of the caller's, eg. 0 for ModelServer.
+     * @param waitMillis 0 to leave the items to the flusher's interval and return at once
+     */
+    public boolean awaitFlushed(long waitMillis) {
+        if (client == null || pending.get() == 0) {
+            return true;
+        }
+        if (waitMillis <= 0) { // left to the flusher's interval
+            return false;
+        }
+        Future<?> flushed;
+        try {
+            flushed = flusher.submit(this::drain);
+        } catch (RejectedExecutionException e) { // closed, close() drained what there was
+            return pending.get() == 0;
+        }
+        try {
+            flushed.get(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Log.warn("InferenceLog", getPending() + " inference items not written after waiting " + waitMillis +
+                    " ms; they are written when the sandbox next runs, or lost if it is reclaimed first.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) { // drain() catches what the client throws, so not expected
+            Log.error("InferenceLog", "Inference flush failed.", e.getCause());
+        }
+        return pending.get() == 0;
+    }
+
+    /** Writes everything buffered so far on the calling thread, eg. before shutdown. */
+    public void flush() {
+        drain();
+    }
+
+    private void drain() {
+        if (client == null) {
+            return;
+        }
+        synchronized (writeLock) {
+            List<Inference> inferences = new ArrayList<>(MAX_BATCH_ITEMS);
+            while (buffer.drainTo(inferences, MAX_BATCH_ITEMS) > 0) {
+                try {
+                    writeBatch(inferences);
+                } catch (RuntimeException e) { // keep the flusher alive whatever the client throws
+                    failed.add(inferences.size());
+                    Log.error("InferenceLog", "Inference batch not written.", e);
+                }
+                pending.addAndGet(-inferences.size());
+                inferences.clear();
+            }
+        }
+    }
+
+    /** BatchWriteItem with retries: unprocessed items and retryable errors back off exponentially with full jitter. */
+    private void writeBatch(List<Inference> inferences) {
+        List<WriteRequest> pending = new ArrayList<>(inferences.size());
+        for (Inference inference : inferences) {
+            pending.add(WriteRequest.builder().putRequest(PutRequest.builder().item(inference.toItem()).build()).build());
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            batches.increment();
+            try {
+                BatchWriteItemResponse response = client.batchWriteItem(BatchWriteItemRequest.builder()
+                        .requestItems(Map.of(tableName, pending))
+                        .build());
+                List<WriteRequest> unprocessed = response.hasUnprocessedItems()
+                        ? response.unprocessedItems().getOrDefault(tableName, List.of())
+                        : List.of();
+                written.add(pending.size() - unprocessed.size());
+                if (unprocessed.isEmpty()) {
+                    return;
+                }
+                pending = new ArrayList<>(unprocessed);
+            } catch (SdkException e) {
+                // throttling (ProvisionedThroughputExceeded) and transient 5xx/IO errors are worth another attempt
+                boolean serverError = RetryUtils.isServiceException(e) && RetryUtils.toServiceException(e).statusCode() >= 500;
+                if (!RetryUtils.isThrottlingException(e) && !serverError && !e.retryable()) {
+                    throw e;
+                }
+            }
+
+            if (attempt >= MAX_ATTEMPTS) {
+                failed.add(pending.size());
+                Log.error("InferenceLog", pending.size() + " inference items not written after " + attempt + " attempts.", null);
+                return;
+            }
+            retries.increment();
+            sleepBackoff(attempt);
+        }
+    }
+
+    private static void sleepBackoff(int attempt) {
+        long cap = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt - 1, 16));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public int getBuffered() {
+        return buffer.size();
+    }
+
+    /** Items recorded but not yet written or failed: buffered, or in a batch being written. */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /** Flushes what is buffered and stops the background flusher. */
+    @Override
+    public void close() {
+        if (client == null) {
+            return;
+        }
+        flusher.shutdown();
+        drain();
+    }
+
+    @Override
+    public String toString() {
+        return "InferenceLog " + (client == null ? "disabled" : tableName) + " buffered=" + getBuffered() +
+                ", written=" + getWritten() + ", batches=" + getBatches() + ", retries=" + getRetries() +
+                ", dropped=" + getDropped() + ", failed=" + getFailed();
+    }
+}
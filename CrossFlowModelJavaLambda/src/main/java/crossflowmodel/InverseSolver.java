@@ -0,0 +1,290 @@
+package crossflowmodel;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/** Inverse design: the smallest membraneArea (or tmp) that finishes a concentration within targetHours, everything
+ *  else fixed. Replaces bisecting by hand with calculateHours calls; the whole search runs in one invocation.
+ *
+ *  Filtration hours fall monotonically as either parameter grows, so the answer is the root of
+ *  hours(x) - targetHours. The root is bracketed up front from the resistance law, then refined with Brent's method
+ *  (inverse quadratic interpolation, falling back to bisection) in log(x), since answers span decades:
+ *  - at x_lo the initial flow rate alone would take exactly targetHours, and fouling only slows it down, so hours >= target
+ *  - at x_hi the flow rate at t = targetHours, the slowest it gets, would still finish in time, so hours <= target
+ *  Typically converges to 1e-6 in about 10 forward evaluations, up to ~25 where the two-phase model is stepwise.
+ *
+ *  The forward model is the two-phase calculateHours, or calculateHoursAdaptive when a model tolerance is given.
+ *  The returned value always meets the target (hours <= targetHours); the two-phase model is stepwise for runs
+ *  under 20 hours, so there the hours achieved can be a fraction of a step under the target.
+ *
+ *  Usable offline:
+ *      InverseSolver.Solution solution = new InverseSolver(new Calculations())
+ *              .solve(InverseSolver.Parameter.MEMBRANE_AREA, 24, 1000, 2, 100_000, 0.001, Double.NaN, Double.NaN, Double.NaN);
+ *
+ *  Or through HandlerAPIGateway, with a request body of all parameters except the solved one, plus:
+ *  {"targetHours": 24, "solveFor": "membraneArea", ...}
+ */
+public class InverseSolver {
+
+    public static final double DEFAULT_RELATIVE_TOLERANCE = 1e-6;
+
+    // bracket growth if the discretised forward model disagrees with the analytic bracket
+    private static final int MAX_EXPANSIONS = 60;
+    private static final int MAX_ITERATIONS = 100;
+
+    /** Parameter to solve for. tmp and membraneArea only enter the model as their product. */
+    public enum Parameter {
+        MEMBRANE_AREA("membraneArea"),
+        TMP("tmp");
+
+        public final String jsonName;
+
+        Parameter(String jsonName) {
+            this.jsonName = jsonName;
+        }
+
+        /** @return returns the parameter for its request name, or throws IllegalArgumentException */
+        public static Parameter fromJsonName(String name) {
+            for (Parameter parameter : values()) {
+                if (parameter.jsonName.equals(name)) {
+                    return parameter;
+                }
+            }
+            throw new IllegalArgumentException("solveFor must be membraneArea or tmp.");
+        }
+    }
+
+    /** Outcome of a solve. value and hours are NaN unless status is SUCCESS. */
+    public static class Solution {
+        public Parameter parameter;
+        public CalculationStatus status = CalculationStatus.SUCCESS;
+        public double targetHours;
+        public double value = Double.NaN; // solved membraneArea (m2) or tmp (Pa)
+        public double hours = Double.NaN; // forward model hours at value, <= targetHours
+        public double tolerance = Double.NaN; // achieved relative width of the final bracket on value
+        public int iterations; // Brent iterations after bracketing
+        public int evaluations; // forward model calls, including bracketing
+
+        public boolean isSuccess() {
+            return status == CalculationStatus.SUCCESS;
+        }
+
+        /** Streams {"solveFor", <parameter>, "filtrationHours", "targetHours", "iterations", "evaluations", "tolerance"}. */
+        public void writeJson(JsonGenerator generator) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("solveFor", parameter.jsonName);
+            generator.writeNumberField(parameter.jsonName, value);
+            generator.writeNumberField("filtrationHours", hours);
+            generator.writeNumberField("targetHours", targetHours);
+            generator.writeNumberField("iterations", iterations);
+            generator.writeNumberField("evaluations", evaluations);
+            generator.writeNumberField("tolerance", tolerance);
+            generator.writeEndObject();
+        }
+
+        public String toJson(JsonFactory factory) throws IOException {
+            StringWriter writer = new StringWriter(192);
+            try (JsonGenerator generator = factory.createGenerator(writer)) {
+                writeJson(generator);
+            }
+            return writer.toString();
+        }
+
+        @Override
+        public String toString() {
+            return "InverseSolver.Solution status=" + status + ", " + parameter.jsonName + "=" + value + ", hours=" + hours +
+                    ", targetHours=" + targetHours + ", iterations=" + iterations + ", evaluations=" + evaluations +
+                    ", tolerance=" + tolerance;
+        }
+    }
+
+    private final Calculations calculator;
+
+    // forward model scratch, one solve at a time per instance
+    private final CalculationResult forward = new CalculationResult();
+
+    public InverseSolver(Calculations calculator) {
+        this.calculator = calculator;
+    }
+
+    /** Solves for one of membraneArea or tmp. Not thread-safe: use one instance per thread.
+     *
+     * @param parameter the parameter to solve for; its value in the arguments below is ignored
+     * @param targetHours the filtration time to meet, in hours
+     * @param startingVolume the starting volume in Litres
+     * @param concentrationFactor the ratio of concentration. Must be > 1.
+     * @param tmp the transmembrane pressure given in Pascals, unless solved for
+     * @param solutionViscosity the dynamic viscosity of the solution in Pascals per Second
+     * @param membraneArea the surface area of the membrane in Metres Squared, unless solved for
+     * @param modelTolerance NaN for the two-phase forward model, otherwise the adaptive solver tolerance
+     * @param relativeTolerance relative bracket width to stop at, NaN for DEFAULT_RELATIVE_TOLERANCE
+     * @return returns the solution; status is the forward model's failure status if it failed, or NOT_CONVERGED
+     */
+    public Solution solve(
+            Parameter parameter,
+            double targetHours,
+            double startingVolume,
+            double concentrationFactor,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea,
+            double modelTolerance,
+            double relativeTolerance
+    ){
+        double fixed = parameter == Parameter.MEMBRANE_AREA ? tmp : membraneArea;
+        if (!(targetHours > 0)) {
+            throw new IllegalArgumentException("targetHours must be positive.");
+        }
+        if (!(concentrationFactor > 1)) {
+            throw new IllegalArgumentException("concFactor must be greater than 1 to solve for " + parameter.jsonName + ".");
+        }
+        if (!(startingVolume > 0 && fixed > 0 && solutionViscosity > 0)) {
+            throw new IllegalArgumentException("volumeStart, tmp, membraneArea and solutionViscosity must be positive.");
+        }
+        double tolerance = Double.isNaN(relativeTolerance) ? DEFAULT_RELATIVE_TOLERANCE : relativeTolerance;
+        if (!(tolerance > 0 && tolerance < 1)) {
+            throw new IllegalArgumentException("relative tolerance must be a number between 0 and 1.");
+        }
+
+        Solution solution = new Solution();
+        solution.parameter = parameter;
+        solution.targetHours = targetHours;
+
+        // analytic bracket, see class comment. flow rate = x * flowPerUnit / R(t)
+        double requiredFiltrationVolume = startingVolume - startingVolume / concentrationFactor;
+        double flowPerUnit = fixed * 1000.0 / solutionViscosity;
+        double resistanceAtTarget = Calculations.MEMBRANE_RESISTANCE_INITIAL
+                + Calculations.MEMBRANE_RESISTANCE_FOULING * Math.pow(targetHours, Calculations.MEMBRANE_FOULING_EXPONENT);
+        double a = Math.log(requiredFiltrationVolume * Calculations.MEMBRANE_RESISTANCE_INITIAL / (flowPerUnit * targetHours));
+        double b = Math.log(requiredFiltrationVolume * resistanceAtTarget / (flowPerUnit * targetHours));
+
+        // f(u) = hours(e^u) - targetHours: positive at a (too slow), <= 0 at b (in time)
+        double fa = excessHours(parameter, Math.exp(a), solution, startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, modelTolerance);
+        double fb = excessHours(parameter, Math.exp(b), solution, startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, modelTolerance);
+        for (int i = 0; i < MAX_EXPANSIONS && !(fa > 0); i++) { // widen downwards by factors of 2
+            if (!solution.isSuccess()) {
+                return solution;
+            }
+            a -= Math.log(2);
+            fa = excessHours(parameter, Math.exp(a), solution, startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, modelTolerance);
+        }
+        for (int i = 0; i < MAX_EXPANSIONS && !(fb <= 0); i++) { // widen upwards
+            if (!solution.isSuccess()) {
+                return solution;
+            }
+            b += Math.log(2);
+            fb = excessHours(parameter, Math.exp(b), solution, startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, modelTolerance);
+        }
+        if (!solution.isSuccess()) {
+            return solution;
+        }
+        if (!(fa > 0 && fb <= 0)) {
+            solution.status = CalculationStatus.NOT_CONVERGED;
+            return solution;
+        }
+
+        // Brent's method: b is the best estimate, [b, c] always brackets the root, a is the previous b
+        double c = a;
+        double fc = fa;
+        double d = b - a;
+        double e = d;
+        double tolU = Math.log1p(tolerance); // relative width on x = absolute width on log(x)
+        for (int iteration = 1; iteration <= MAX_ITERATIONS; iteration++) {
+            solution.iterations = iteration;
+            if (Math.abs(fc) < Math.abs(fb)) { // keep b the point closest to the root
+                a = b; b = c; c = a;
+                fa = fb; fb = fc; fc = fa;
+            }
+            double tol1 = 0.5 * tolU;
+            double middle = 0.5 * (c - b);
+            if (Math.abs(middle) <= tol1 || fb == 0) {
+                break;
+            }
+
+            if (Math.abs(e) >= tol1 && Math.abs(fa) > Math.abs(fb)) {
+                // interpolation: secant with two points, inverse quadratic with three
+                double s = fb / fa;
+                double p;
+                double q;
+                if (a == c) {
+                    p = 2 * middle * s;
+                    q = 1 - s;
+                } else {
+                    double r = fb / fc;
+                    double t = fa / fc;
+                    p = s * (2 * middle * t * (t - r) - (b - a) * (r - 1));
+                    q = (t - 1) * (r - 1) * (s - 1);
+                }
+                if (p > 0) {
+                    q = -q;
+                } else {
+                    p = -p;
+                }
+                if (2 * p < Math.min(3 * middle * q - Math.abs(tol1 * q), Math.abs(e * q))) {
+                    e = d;
+                    d = p / q;
+                } else { // interpolation would leave the bracket or converge too slowly
+                    d = middle;
+                    e = d;
+                }
+            } else {
+                d = middle;
+                e = d;
+            }
+
+            a = b;
+            fa = fb;
+            b += Math.abs(d) > tol1 ? d : Math.copySign(tol1, middle);
+            fb = excessHours(parameter, Math.exp(b), solution, startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, modelTolerance);
+            if (!solution.isSuccess()) {
+                return solution;
+            }
+            if ((fb > 0) == (fc > 0)) { // root is between a and b
+                c = a;
+                fc = fa;
+                d = b - a;
+                e = d;
+            }
+        }
+
+        // answer from the side of the bracket that meets the target
+        double u = fb <= 0 ? b : c;
+        solution.value = Math.exp(u);
+        solution.hours = targetHours + (fb <= 0 ? fb : fc);
+        solution.tolerance = Math.expm1(Math.abs(c - b));
+        if (solution.tolerance > tolerance && fb != 0) {
+            solution.status = CalculationStatus.NOT_CONVERGED;
+        }
+        return solution;
+    }
+
+    /** One forward evaluation: hours needed with the solved parameter set to x, minus the target. */
+    private double excessHours(
+            Parameter parameter,
+            double x,
+            Solution solution,
+            double startingVolume,
+            double concentrationFactor,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea,
+            double modelTolerance
+    ){
+        solution.evaluations++;
+        double area = parameter == Parameter.MEMBRANE_AREA ? x : membraneArea;
+        double pressure = parameter == Parameter.TMP ? x : tmp;
+        if (Double.isNaN(modelTolerance)) {
+            calculator.calculateHours(startingVolume, concentrationFactor, pressure, solutionViscosity, area, forward);
+        } else {
+            calculator.calculateHoursAdaptive(startingVolume, concentrationFactor, pressure, solutionViscosity, area, modelTolerance, null, forward);
+        }
+        if (!forward.isSuccess()) {
+            solution.status = forward.status;
+            return Double.NaN;
+        }
+        return forward.hours - solution.targetHours;
+    }
+}
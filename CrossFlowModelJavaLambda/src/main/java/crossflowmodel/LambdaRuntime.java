@@ -0,0 +1,291 @@
+package crossflowmodel;
+
+import com.amazonaws.services.lambda.runtime.ClientContext;
+import com.amazonaws.services.lambda.runtime.CognitoIdentity;
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.LambdaLogger;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/** Custom Lambda runtime for either handler: the Runtime API loop that the managed Java runtime otherwise provides.
+ *  It is the entry point of the native executable (gradle nativeImage, deployed as "bootstrap" on the provided.al2
+ *  runtime, see packageNative), where there is no JVM to load the handler. It runs on a JVM too, eg. for
+ *  NativeStartupHarness to compare the two.
+ *
+ *  _HANDLER names the handler: crossflowmodel.HandlerAPIGateway or crossflowmodel.HandlerStepFunction (a
+ *  "::handleRequest" suffix as in the managed runtime's handler setting is accepted). Events and responses are
+ *  serialised as the managed runtime does:
+ *      HandlerAPIGateway    API Gateway proxy event JSON --> APIGatewayProxyRequestEvent, and the response event back
+ *      HandlerStepFunction  stream handler, the event and response bytes are passed through unchanged
+ *
+ *  Loop: GET /runtime/invocation/next blocks until an event arrives, then the response (or an error) is POSTed for
+ *  that request id. A failing handler class initialisation is reported to /runtime/init/error, and the process
+ *  exits; the Lambda service then starts a new one.
+ *
+ *  A native executable has no JIT to warm up, so set CROSSFLOW_PRIMING=off on the native function.
+ */
+public final class LambdaRuntime {
+
+    public static final String ENV_RUNTIME_API = "AWS_LAMBDA_RUNTIME_API";
+    public static final String ENV_HANDLER = "_HANDLER";
+
+    static final String API_VERSION = "2018-06-01";
+
+    private static final String HEADER_REQUEST_ID = "Lambda-Runtime-Aws-Request-Id";
+    private static final String HEADER_DEADLINE = "Lambda-Runtime-Deadline-Ms";
+    private static final String HEADER_FUNCTION_ARN = "Lambda-Runtime-Invoked-Function-Arn";
+    private static final String HEADER_TRACE_ID = "Lambda-Runtime-Trace-Id";
+    private static final String HEADER_ERROR_TYPE = "Lambda-Runtime-Function-Error-Type";
+
+    // the X-Ray SDK reads the trace header of the current invocation from this property
+    private static final String PROPERTY_TRACE_ID = "com.amazonaws.xray.traceHeader";
+
+    private static final String NAME = "LambdaRuntime";
+
+    // API Gateway proxy events carry fields the event classes do not model (eg. multiValueHeaders of newer
+    // payloads); the managed runtime ignores them, and leaves null fields out of the response
+    private static final ObjectMapper EVENTS = SharedJson.MAPPER.copy()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL);
+
+    /** One invocation of the handler: event bytes in, response bytes out. */
+    @FunctionalInterface
+    interface Invocation {
+        byte[] invoke(byte[] event, Context context) throws IOException;
+    }
+
+    private final String baseUrl;
+    private final Invocation invocation;
+
+    LambdaRuntime(String runtimeApi, Invocation invocation) {
+        this.baseUrl = "http://" + runtimeApi + "/" + API_VERSION + "/runtime/";
+        this.invocation = invocation;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String runtimeApi = System.getenv(ENV_RUNTIME_API);
+        if (runtimeApi == null || runtimeApi.isBlank()) {
+            Log.error(NAME, ENV_RUNTIME_API + " not set: run as a Lambda custom runtime, or against a stand-in Runtime API.", null);
+            System.exit(1);
+        }
+
+        Invocation invocation = initialise(runtimeApi, System.getenv(ENV_HANDLER));
+        if (invocation == null) {
+            System.exit(1);
+            return;
+        }
+        new LambdaRuntime(runtimeApi, invocation).run();
+    }
+
+    /** The handler named by _HANDLER, initialised (including priming), or null once its failure has been
+     *  reported to /runtime/init/error.
+     */
+    static Invocation initialise(String runtimeApi, String handler) throws IOException {
+        try {
+            return invocation(handler);
+        } catch (RuntimeException | LinkageError e) {
+            Log.error(NAME, "Handler initialisation failed.", e);
+            new LambdaRuntime(runtimeApi, null).post("init/error", errorJson(e), "Runtime.InitError");
+            return null;
+        }
+    }
+
+    /** The handler named by _HANDLER, as an Invocation. */
+    static Invocation invocation(String handler) {
+        String name = handler == null ? "" : handler.trim();
+        int method = name.indexOf("::");
+        if (method >= 0) {
+            name = name.substring(0, method);
+        }
+        if (name.equals(HandlerAPIGateway.class.getName())) {
+            HandlerAPIGateway gateway = new HandlerAPIGateway();
+            return (event, context) -> {
+                APIGatewayProxyRequestEvent request = EVENTS.readValue(event, APIGatewayProxyRequestEvent.class);
+                APIGatewayProxyResponseEvent response = gateway.handleRequest(request, context);
+                return EVENTS.writeValueAsBytes(response);
+            };
+        }
+        if (name.equals(HandlerStepFunction.class.getName())) {
+            HandlerStepFunction stepFunction = new HandlerStepFunction();
+            return (event, context) -> {
+                ByteArrayOutputStream output = new ByteArrayOutputStream(256);
+                stepFunction.handleRequest(new ByteArrayInputStream(event), output, context);
+                return output.toByteArray();
+            };
+        }
+        throw new IllegalArgumentException(ENV_HANDLER + " must be " + HandlerAPIGateway.class.getName() + " or "
+                + HandlerStepFunction.class.getName() + ", got: " + handler);
+    }
+
+    /** Serves invocations until the process is stopped. IOExceptions talking to the Runtime API end the process. */
+    void run() throws IOException {
+        Log.info(NAME, "Serving " + System.getenv(ENV_HANDLER) + ".");
+        while (true) {
+            HttpURLConnection next = open("invocation/next", "GET");
+            next.setReadTimeout(0); // blocks until the next event, however long the container stays idle
+            byte[] event;
+            try (InputStream input = next.getInputStream()) {
+                event = input.readAllBytes();
+            }
+            String requestId = next.getHeaderField(HEADER_REQUEST_ID);
+            InvocationContext context = new InvocationContext(requestId, next.getHeaderFieldLong(HEADER_DEADLINE, 0),
+                    next.getHeaderField(HEADER_FUNCTION_ARN));
+            String traceId = next.getHeaderField(HEADER_TRACE_ID);
+            if (traceId != null) {
+                System.setProperty(PROPERTY_TRACE_ID, traceId);
+            } else {
+                System.clearProperty(PROPERTY_TRACE_ID);
+            }
+
+            byte[] response;
+            try {
+                response = invocation.invoke(event, context);
+            } catch (Exception e) {
+                Log.error(NAME, "Invocation " + requestId + " failed.", e);
+                post("invocation/" + requestId + "/error", errorJson(e), "Runtime.UnhandledException");
+                continue;
+            }
+            post("invocation/" + requestId + "/response", response, null);
+        }
+    }
+
+    private HttpURLConnection open(String path, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setRequestMethod(method);
+        return connection;
+    }
+
+    private void post(String path, byte[] body, String errorType) throws IOException {
+        HttpURLConnection connection = open(path, "POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        if (errorType != null) {
+            connection.setRequestProperty(HEADER_ERROR_TYPE, errorType);
+        }
+        try (OutputStream output = connection.getOutputStream()) {
+            output.write(body);
+        }
+        int status = connection.getResponseCode();
+        // read the (empty) answer to the end, so the connection is kept alive for the next GET
+        try (InputStream input = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (input != null) {
+                input.readAllBytes();
+            }
+        }
+        if (status >= 400) {
+            // 413 for a response over the payload limit; the invocation has failed, the runtime goes on
+            Log.warn(NAME, "Runtime API answered " + status + " to " + path + ".");
+        }
+    }
+
+    /** {"errorMessage": ..., "errorType": ...}, the error document of the Runtime API. */
+    static byte[] errorJson(Throwable e) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (JsonGenerator generator = SharedJson.MAPPER.getFactory().createGenerator(bytes)) {
+            generator.writeStartObject();
+            generator.writeStringField("errorMessage", String.valueOf(e.getMessage()));
+            generator.writeStringField("errorType", e.getClass().getName());
+            generator.writeEndObject();
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Context of one invocation, from the headers of its event and the function's environment. */
+    static final class InvocationContext implements Context {
+
+        private static final LambdaLogger LOGGER = new LambdaLogger() {
+            @Override
+            public void log(String message) {
+                System.out.print(message);
+            }
+
+            @Override
+            public void log(byte[] message) {
+                System.out.print(new String(message, StandardCharsets.UTF_8));
+            }
+        };
+
+        private final String requestId;
+        private final long deadlineMillis;
+        private final String functionArn;
+
+        InvocationContext(String requestId, long deadlineMillis, String functionArn) {
+            this.requestId = requestId;
+            this.deadlineMillis = deadlineMillis;
+            this.functionArn = functionArn;
+        }
+
+        @Override
+        public String getAwsRequestId() {
+            return requestId;
+        }
+
+        @Override
+        public String getLogGroupName() {
+            return System.getenv("AWS_LAMBDA_LOG_GROUP_NAME");
+        }
+
+        @Override
+        public String getLogStreamName() {
+            return System.getenv("AWS_LAMBDA_LOG_STREAM_NAME");
+        }
+
+        @Override
+        public String getFunctionName() {
+            return System.getenv("AWS_LAMBDA_FUNCTION_NAME");
+        }
+
+        @Override
+        public String getFunctionVersion() {
+            return System.getenv("AWS_LAMBDA_FUNCTION_VERSION");
+        }
+
+        @Override
+        public String getInvokedFunctionArn() {
+            return functionArn;
+        }
+
+        @Override
+        public CognitoIdentity getIdentity() {
+            return null;
+        }
+
+        @Override
+        public ClientContext getClientContext() {
+            return null;
+        }
+
+        @Override
+        public int getRemainingTimeInMillis() {
+            return (int) Math.max(0, deadlineMillis - System.currentTimeMillis());
+        }
+
+        @Override
+        public int getMemoryLimitInMB() {
+            String memory = System.getenv("AWS_LAMBDA_FUNCTION_MEMORY_SIZE");
+            try {
+                return memory == null ? 0 : Integer.parseInt(memory.trim());
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+
+        @Override
+        public LambdaLogger getLogger() {
+            return LOGGER;
+        }
+    }
+}
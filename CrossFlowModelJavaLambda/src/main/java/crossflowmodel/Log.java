@@ -0,0 +1,116 @@
+package crossflowmodel;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.function.Supplier;
+
+/** Structured logging: one JSON object per line on stdout, which Lambda ships to CloudWatch Logs as is, eg.
+ *  {"timestamp":1718000000000,"level":"INFO","logger":"HandlerAPIGateway","message":"..."}
+ *  Replaces the System.out.println/printf calls of the handlers and Calculations.
+ *
+ *  Verbosity is set with CROSSFLOW_LOG_LEVEL: DEBUG, INFO (default), WARN, ERROR or OFF.
+ *  Debug messages are passed as a Supplier and only built when DEBUG is enabled, so disabled debug output
+ *  costs no string formatting on the request path.
+ *
+ *  Per-request timings and counters are not logged here but emitted as metrics, see RequestMetrics.
+ */
+public final class Log {
+
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR,
+        OFF
+    }
+
+    public static final String ENV_LEVEL = "CROSSFLOW_LOG_LEVEL";
+
+    private static volatile Level level = levelFromEnvironment();
+
+    private Log() {}
+
+    private static Level levelFromEnvironment() {
+        String value = System.getenv(ENV_LEVEL);
+        if (value == null || value.isBlank()) {
+            return Level.INFO;
+        }
+        try {
+            return Level.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+
+    public static Level getLevel() {
+        return level;
+    }
+
+    /** Overrides CROSSFLOW_LOG_LEVEL, eg. from a harness. */
+    public static void setLevel(Level newLevel) {
+        level = newLevel;
+    }
+
+    public static boolean isEnabled(Level messageLevel) {
+        return messageLevel != Level.OFF && messageLevel.compareTo(level) >= 0;
+    }
+
+    public static boolean isDebugEnabled() {
+        return isEnabled(Level.DEBUG);
+    }
+
+    /** @param message built only if DEBUG is enabled */
+    public static void debug(String logger, Supplier<String> message) {
+        if (isEnabled(Level.DEBUG)) {
+            write(Level.DEBUG, logger, message.get(), null);
+        }
+    }
+
+    public static void info(String logger, String message) {
+        if (isEnabled(Level.INFO)) {
+            write(Level.INFO, logger, message, null);
+        }
+    }
+
+    public static void warn(String logger, String message) {
+        if (isEnabled(Level.WARN)) {
+            write(Level.WARN, logger, message, null);
+        }
+    }
+
+    /** @param error logged with its stack trace, may be null */
+    public static void error(String logger, String message, Throwable error) {
+        if (isEnabled(Level.ERROR)) {
+            write(Level.ERROR, logger, message, error);
+        }
+    }
+
+    private static void write(Level messageLevel, String logger, String message, Throwable error) {
+        if (Priming.isActive()) { // synthetic requests, on the priming thread only
+            return;
+        }
+        StringWriter line = new StringWriter(128);
+        try (JsonGenerator generator = SharedJson.MAPPER.getFactory().createGenerator(line)) {
+            generator.writeStartObject();
+            generator.writeNumberField("timestamp", System.currentTimeMillis());
+            generator.writeStringField("level", messageLevel.name());
+            generator.writeStringField("logger", logger);
+            generator.writeStringField("message", message);
+            if (error != null) {
+                StringWriter stackTrace = new StringWriter();
+                error.printStackTrace(new PrintWriter(stackTrace));
+                generator.writeStringField("error", stackTrace.toString());
+            }
+            generator.writeEndObject();
+        } catch (IOException e) {
+            // StringWriter does not throw; keep the message rather than lose it
+            System.out.println(messageLevel + " " + logger + " " + message);
+            return;
+        }
+        System.out.println(line);
+    }
+}
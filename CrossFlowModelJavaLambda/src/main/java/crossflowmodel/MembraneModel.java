@@ -0,0 +1,78 @@
+package crossflowmodel;
+
+/** Membrane resistance law R(t) = initialResistance + foulingResistance * t^foulingExponent, with t in hours.
+ *  DEFAULT is the law in Calculations, the same for every membrane; MembraneRegistry holds laws fitted to each
+ *  membrane's own sensor data. Immutable, so one instance is shared by any number of concurrent calculations.
+ *
+ *  Also holds what the solvers precompute per law: the phase 1 resistances of the two-phase algorithm (its step
+ *  times are the same for every input), and for the tabulated solver the time scale c = (a/b)^(1/p) and the
+ *  ResistanceIntegralTable of the exponent.
+ */
+public final class MembraneModel {
+
+    /** The resistance law in Calculations. */
+    public static final MembraneModel DEFAULT = new MembraneModel(
+            Calculations.MEMBRANE_RESISTANCE_INITIAL,
+            Calculations.MEMBRANE_RESISTANCE_FOULING,
+            Calculations.MEMBRANE_FOULING_EXPONENT
+    );
+
+    public final double initialResistance; // a, 1/m
+    public final double foulingResistance; // b, 1/m per hour^p
+    public final double foulingExponent; // p
+
+    // c = (a/b)^(1/p) in hours: the time at which fouling resistance equals the initial resistance
+    final double timeScale;
+
+    // resistance at each phase 1 step time of the two-phase algorithm
+    final double[] phase1Resistance = new double[Calculations.PHASE1_ITERATIONS];
+
+    private volatile ResistanceIntegralTable table; // looked up on the first tabulated calculation
+
+    /**
+     * @param initialResistance a: resistance of the clean membrane, must be positive
+     * @param foulingResistance b: must be positive
+     * @param foulingExponent p: must be between 0 and 1, see ResistanceIntegralTable
+     */
+    public MembraneModel(double initialResistance, double foulingResistance, double foulingExponent) {
+        if (!(initialResistance > 0 && initialResistance < Double.POSITIVE_INFINITY)) {
+            throw new IllegalArgumentException("Initial resistance must be positive, got: " + initialResistance);
+        }
+        if (!(foulingResistance > 0 && foulingResistance < Double.POSITIVE_INFINITY)) {
+            throw new IllegalArgumentException("Fouling resistance must be positive, got: " + foulingResistance);
+        }
+        if (!(foulingExponent > 0 && foulingExponent < 1)) {
+            throw new IllegalArgumentException("Fouling exponent must be between 0 and 1, got: " + foulingExponent);
+        }
+        this.initialResistance = initialResistance;
+        this.foulingResistance = foulingResistance;
+        this.foulingExponent = foulingExponent;
+        this.timeScale = Math.pow(initialResistance / foulingResistance, 1 / foulingExponent);
+
+        double alg1Scale = Calculations.PHASE1_HOURS / Calculations.PHASE1_ITERATIONS;
+        for (int i = 0; i < phase1Resistance.length; i++) {
+            phase1Resistance[i] = resistance(i * alg1Scale);
+        }
+    }
+
+    /** @return returns the membrane resistance after timeHours of filtration */
+    public double resistance(double timeHours) {
+        return initialResistance + (foulingResistance * Math.pow(timeHours, foulingExponent));
+    }
+
+    /** Table of the normalised resistance integral for this law's exponent, shared by all laws with that exponent. */
+    ResistanceIntegralTable table() {
+        ResistanceIntegralTable t = table;
+        if (t == null) {
+            t = ResistanceIntegralTable.forExponent(foulingExponent);
+            table = t; // benign race: every thread gets an equivalent table
+        }
+        return t;
+    }
+
+    @Override
+    public String toString() {
+        return "MembraneModel initialResistance=" + initialResistance + ", foulingResistance=" + foulingResistance +
+                ", foulingExponent=" + foulingExponent;
+    }
+}
@@ -0,0 +1,211 @@
+package crossflowmodel;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Per-membrane resistance laws, calibrated online from streaming sensor data, see MembraneCalibration.
+ *  Plant sensors post (hours into the run, permeate flow rate) samples by membrane ID; calculations that name a
+ *  membraneId then use that membrane's fitted law instead of the default one, through modelFor(membraneId).
+ *  Membranes with no samples yet, or too few for a usable fit, get MembraneModel.DEFAULT.
+ *
+ *  Fits live in the memory of this JVM. ModelServer is one long-lived JVM, so it keeps them for as long as it runs;
+ *  on Lambda every warm container holds its own and a cold start begins from the default law, so send sensor
+ *  streams to a ModelServer where calibrated predictions matter.
+ *
+ *  Through HandlerAPIGateway:
+ *  {"membraneId": "M-17", "tmp": 100000, "membraneArea": 10, "solutionViscosity": 0.001, "samples": [[0.5, 7210.4], [1.0, 6550.2], ...]}
+ *  responds with the membrane's Fit, and {"membraneId": "M-17", ...} on a single or remaining-time request uses it.
+ *
+ *  Membrane IDs are scoped by owner: the username of a caller authenticated by TokenAuthenticator, so one customer's
+ *  "M-17" is not another's and nobody can calibrate, or read the fit of, a membrane they do not own. Callers that are
+ *  not authenticated share the namespace of owner "", into which only Access.OPEN lets them calibrate; who may
+ *  calibrate is set with CROSSFLOW_CALIBRATION, see Access.
+ */
+public class MembraneRegistry {
+
+    // membranes tracked at most, ~4.5 KB each; a sensor fleet is hundreds, this bounds memory against stray IDs
+    public static final int MAX_MEMBRANES = 4096;
+
+    // samples per calibration request
+    public static final int MAX_SAMPLES = 100_000;
+
+    public static final int MAX_ID_LENGTH = 128;
+
+    public static final String ENV_CALIBRATION = "CROSSFLOW_CALIBRATION";
+
+    /** Owner of the membranes of callers that are not authenticated. */
+    public static final String SHARED_OWNER = "";
+
+    /** Who may calibrate, from CROSSFLOW_CALIBRATION. Reading a fit never crosses owners, whatever the access. */
+    public enum Access {
+        AUTHENTICATED, // default: only authenticated callers, each their own membranes; needs CROSSFLOW_TOKENS_TABLE
+        OPEN,          // "open": also callers that are not authenticated, into SHARED_OWNER, eg. a ModelServer on a closed plant network
+        OFF;           // "off": nobody
+
+        /** @param owner the caller's username if authenticated, else SHARED_OWNER */
+        public boolean allows(String owner) {
+            return this == OPEN || (this == AUTHENTICATED && !SHARED_OWNER.equals(owner));
+        }
+
+        static Access fromEnvironment() {
+            String value = System.getenv(ENV_CALIBRATION);
+            if (value == null || value.isBlank()) {
+                return AUTHENTICATED;
+            }
+            switch (value.trim().toLowerCase(Locale.ROOT)) {
+                case "open":
+                    return OPEN;
+                case "off":
+                    return OFF;
+                default:
+                    return AUTHENTICATED;
+            }
+        }
+    }
+
+    private static final MembraneRegistry SHARED = new MembraneRegistry(MembraneCalibration.DEFAULT_FORGETTING, Access.fromEnvironment());
+
+    /** Registry shared by the handlers and ModelServer. */
+    public static MembraneRegistry shared() {
+        return SHARED;
+    }
+
+    /** Samples of one calibration request, bound into primitive columns. */
+    public static class Samples {
+        public final String membraneId;
+        public final double tmp;
+        public final double solutionViscosity;
+        public final double membraneArea;
+        public final double[] hours;
+        public final double[] flowRates;
+
+        public Samples(String membraneId, double tmp, double solutionViscosity, double membraneArea, double[] hours, double[] flowRates) {
+            this.membraneId = membraneId;
+            this.tmp = tmp;
+            this.solutionViscosity = solutionViscosity;
+            this.membraneArea = membraneArea;
+            this.hours = hours;
+            this.flowRates = flowRates;
+        }
+
+        /** Binds "samples": [[hours, flowRate], ...] of a calibration request.
+         * @return returns the samples, or throws IllegalArgumentException naming the first bad sample
+         */
+        public static Samples fromJson(String membraneId, double tmp, double solutionViscosity, double membraneArea, JsonNode samples) {
+            if (!samples.isArray() || samples.size() == 0) {
+                throw new IllegalArgumentException("samples must be a non-empty array of [hours, flowRate] pairs.");
+            }
+            if (samples.size() > MAX_SAMPLES) {
+                throw new IllegalArgumentException("samples must not contain more than " + MAX_SAMPLES + " samples.");
+            }
+            int n = samples.size();
+            double[] hours = new double[n];
+            double[] flowRates = new double[n];
+            for (int i = 0; i < n; i++) {
+                JsonNode sample = samples.get(i);
+                if (!sample.isArray() || sample.size() != 2 || !sample.get(0).isNumber() || !sample.get(1).isNumber()) {
+                    throw new IllegalArgumentException("samples[" + i + "] must be a [hours, flowRate] pair of numbers.");
+                }
+                hours[i] = sample.get(0).asDouble();
+                flowRates[i] = sample.get(1).asDouble();
+                if (!(hours[i] >= 0 && hours[i] < Double.POSITIVE_INFINITY && flowRates[i] > 0 && flowRates[i] < Double.POSITIVE_INFINITY)) {
+                    throw new IllegalArgumentException("samples[" + i + "] must have non-negative hours and a positive flowRate.");
+                }
+            }
+            return new Samples(membraneId, tmp, solutionViscosity, membraneArea, hours, flowRates);
+        }
+    }
+
+    private final double forgetting;
+    private final Access access;
+    // keyed by owner and membraneId, see key
+    private final ConcurrentHashMap<String, MembraneCalibration> calibrations = new ConcurrentHashMap<>();
+
+    /** @param forgetting see MembraneCalibration */
+    public MembraneRegistry(double forgetting, Access access) {
+        if (!(forgetting > 0 && forgetting <= 1)) {
+            throw new IllegalArgumentException("forgetting must be a number between 0 (exclusive) and 1, got: " + forgetting);
+        }
+        if (access == null) {
+            throw new IllegalArgumentException("access must not be null.");
+        }
+        this.forgetting = forgetting;
+        this.access = access;
+    }
+
+    public Access getAccess() {
+        return access;
+    }
+
+    /** Learns from one sample of a membrane, see MembraneCalibration.update.
+     * @param owner see the class comment; the caller checks getAccess().allows(owner)
+     */
+    public void record(String owner, String membraneId, double timeHours, double flowRate, double tmp, double solutionViscosity, double membraneArea) {
+        calibration(owner, membraneId).update(timeHours, flowRate, tmp, solutionViscosity, membraneArea);
+    }
+
+    /** Learns from all samples, in order, and returns the membrane's fit after the last one. */
+    public MembraneCalibration.Fit record(String owner, Samples samples) {
+        MembraneCalibration calibration = calibration(owner, samples.membraneId);
+        for (int i = 0; i < samples.hours.length; i++) {
+            calibration.update(samples.hours[i], samples.flowRates[i], samples.tmp, samples.solutionViscosity, samples.membraneArea);
+        }
+        return calibration.fit();
+    }
+
+    /** Resistance law to calculate with for a membrane: its fitted law, or MembraneModel.DEFAULT if there is none yet.
+     * @param membraneId the membrane, or null for the default law; another owner's membrane of that ID is not used
+     */
+    public MembraneModel modelFor(String owner, String membraneId) {
+        if (membraneId == null) {
+            return MembraneModel.DEFAULT;
+        }
+        MembraneCalibration calibration = calibrations.get(key(owner, membraneId));
+        MembraneModel model = calibration == null ? null : calibration.model();
+        return model == null ? MembraneModel.DEFAULT : model;
+    }
+
+    /** @return returns the membrane's current fit, or null if it has no samples */
+    public MembraneCalibration.Fit fit(String owner, String membraneId) {
+        MembraneCalibration calibration = calibrations.get(key(owner, membraneId));
+        return calibration == null ? null : calibration.fit();
+    }
+
+    /** Forgets a membrane, eg. after it was replaced. */
+    public void remove(String owner, String membraneId) {
+        calibrations.remove(key(owner, membraneId));
+    }
+
+    public int size() {
+        return calibrations.size();
+    }
+
+    private MembraneCalibration calibration(String owner, String membraneId) {
+        checkId(membraneId);
+        String key = key(owner, membraneId);
+        MembraneCalibration calibration = calibrations.get(key);
+        if (calibration != null) {
+            return calibration;
+        }
+        if (calibrations.size() >= MAX_MEMBRANES) {
+            throw new IllegalArgumentException("no more than " + MAX_MEMBRANES + " membranes can be calibrated.");
+        }
+        return calibrations.computeIfAbsent(key, k -> new MembraneCalibration(membraneId, forgetting));
+    }
+
+    // length-prefixed, so no owner and membraneId pair can spell another's key, whatever characters either holds
+    private static String key(String owner, String membraneId) {
+        if (owner == null) {
+            throw new IllegalArgumentException("owner must not be null, use SHARED_OWNER.");
+        }
+        return owner.length() + ":" + owner + ":" + membraneId;
+    }
+
+    static void checkId(String membraneId) {
+        if (membraneId == null || membraneId.isEmpty() || membraneId.length() > MAX_ID_LENGTH) {
+            throw new IllegalArgumentException("membraneId must be a string of 1 to " + MAX_ID_LENGTH + " characters.");
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package crossflowmodel;
+
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/** Typed model request, bound from JSON in one streaming pass straight into primitive fields.
+ *  Replaces readTree + HashMap<String, Double> in both handlers: no intermediate tree or boxed values for the
+ *  single-scenario path, and each parameter is read exactly once.
+ *
+ *  Numbers may be sent as JSON numbers or numeric strings ("100000"), as tokenauth.py and Postman both do.
+ *  JSON null is treated as not provided. Unknown fields are skipped.
+ *  Binding errors are thrown as IllegalArgumentException naming the parameter and its position in the body,
+ *  eg. "Non-numeric parameter: tmp (line 1, column 32)."
+ *
+ *  Batch ("scenarios"), sweep ("sweep") and Monte Carlo ("monteCarlo") requests keep their sub-tree as a JsonNode
+ *  for ScenarioBatch, ParameterSweep and MonteCarlo.
+ *  Inverse requests ("targetHours" + "solveFor") are single-scenario requests without the solved parameter.
+ *  Remaining-time requests ("elapsedHours" + "currentVolume", optionally "state") are single-scenario requests
+ *  from a run in progress.
+ *  Calibration requests ("samples" + "membraneId", "tmp", "membraneArea") keep their samples as a JsonNode for
+ *  MembraneRegistry. On single and remaining-time requests "membraneId" selects that membrane's calibrated law.
+ */
+public class ModelRequest {
+
+    public enum Kind {
+        SINGLE,
+        BATCH,
+        SWEEP,
+        INVERSE,
+        MONTE_CARLO,
+        REMAINING,
+        CALIBRATE
+    }
+
+    // list of all required params for a single-scenario request
+    static final String[] REQUIRED_PARAMS = {
+            "volumeStart",
+            "tmp",
+            "membraneArea",
+            "molWeightCutOff",
+            "concFactor"
+            // "concentrationStart", // dont use anywhere in the model
+    };
+
+    public Kind kind = Kind.SINGLE;
+
+    public double volumeStart = Double.NaN;
+    public double tmp = Double.NaN;
+    public double membraneArea = Double.NaN;
+    public double molWeightCutOff = Double.NaN;
+    public double concFactor = Double.NaN;
+
+    public double solutionViscosity = Double.NaN; // NaN = not provided, caller applies its default
+    public double tolerance = Double.NaN; // NaN = default two-phase algorithm, otherwise adaptive solver
+    public int trajectory = 0; // 0 = no trajectory, otherwise maximum number of curve points to return
+
+    public double targetHours = Double.NaN; // INVERSE only: filtration time to meet
+    public InverseSolver.Parameter solveFor; // INVERSE only: membraneArea or tmp, not required in the body
+
+    public double elapsedHours = Double.NaN; // REMAINING only: filtration time so far
+    public double currentVolume = Double.NaN; // REMAINING only: measured retentate volume now
+    public String state; // REMAINING only: solver state token from the previous poll, may be null
+
+    public String membraneId; // CALIBRATE: membrane the samples are from; SINGLE and REMAINING: its law, null = default
+
+    public String username; // forwarded by tokenauth.py, null when API Gateway calls the model directly
+    public String token; // checked by TokenAuthenticator when HandlerAPIGateway authenticates itself, never logged
+
+    public JsonNode scenarios; // BATCH only
+    public JsonNode sweep; // SWEEP only
+    public JsonNode monteCarlo; // MONTE_CARLO only
+    public JsonNode samples; // CALIBRATE only
+
+    // bit per REQUIRED_PARAMS entry, set once the parameter is bound
+    private int requiredSeen;
+
+    /** Binds a request body.
+     * @param body JSON object text, eg. the API Gateway body or the "body" string of a Step Function state
+     * @return returns the bound request, or throws IllegalArgumentException describing the first problem found
+     */
+    public static ModelRequest fromJson(String body) {
+        if (body == null || body.isBlank()) {
+            throw new IllegalArgumentException("request body is empty.");
+        }
+        try (JsonParser parser = SharedJson.MAPPER.getFactory().createParser(body)) {
+            return fromJson(parser, parser.nextToken());
+        } catch (JsonProcessingException e) {
+            throw malformed(e);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("request body could not be read: " + e.getMessage());
+        }
+    }
+
+    /** Binds the "body" of a Step Function state, eg. the tokenauth.py output:
+     *  {"statusCode": 200, "status": 0, "statusString": "success", "body": "{\"volumeStart\": \"1000\", ...}"}
+     *  The body may be a JSON-encoded string, as tokenauth.py sends it, or a plain JSON object.
+     * @return returns the bound request, or null if the state has no body
+     */
+    public static ModelRequest fromStepFunctionState(InputStream state) {
+        try (JsonParser parser = SharedJson.MAPPER.getFactory().createParser(state)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("Step Function state must be a JSON object.");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (!field.equals("body")) {
+                    parser.skipChildren();
+                    continue;
+                }
+                if (value == JsonToken.VALUE_STRING) {
+                    return fromJson(parser.getText());
+                }
+                if (value == JsonToken.START_OBJECT) {
+                    return fromJson(parser, value);
+                }
+                if (value == JsonToken.VALUE_NULL) {
+                    return null;
+                }
+                throw new IllegalArgumentException("body must be a JSON object or a JSON-encoded string" + at(parser) + ".");
+            }
+            return null;
+        } catch (JsonProcessingException e) {
+            throw malformed(e);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Step Function state could not be read: " + e.getMessage());
+        }
+    }
+
+    private static ModelRequest fromJson(JsonParser parser, JsonToken first) throws IOException {
+        if (first != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("request body must be a JSON object.");
+        }
+        ModelRequest request = new ModelRequest();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            switch (field) {
+                case "volumeStart":
+                    request.volumeStart = request.required(parser, 0);
+                    break;
+                case "tmp":
+                    request.tmp = request.required(parser, 1);
+                    break;
+                case "membraneArea":
+                    request.membraneArea = request.required(parser, 2);
+                    break;
+                case "molWeightCutOff":
+                    request.molWeightCutOff = request.required(parser, 3);
+                    break;
+                case "concFactor":
+                    request.concFactor = request.required(parser, 4);
+                    break;
+                case "solutionViscosity":
+                    request.solutionViscosity = optionalDouble(parser);
+                    if (!Double.isNaN(request.solutionViscosity) && !(request.solutionViscosity > 0)) {
+                        throw new IllegalArgumentException("solutionViscosity must be positive" + at(parser) + ".");
+                    }
+                    break;
+                case "tolerance":
+                    request.tolerance = optionalDouble(parser);
+                    if (!Double.isNaN(request.tolerance) && !(request.tolerance > 0 && request.tolerance < 1)) {
+                        throw new IllegalArgumentException("tolerance must be a number between 0 and 1.");
+                    }
+                    break;
+                case "trajectory":
+                    double points = optionalDouble(parser);
+                    if (!Double.isNaN(points)) {
+                        if (points != Math.rint(points) || points < 2 || points > Trajectory.MAX_POINTS) {
+                            throw new IllegalArgumentException("trajectory must be a number of points between 2 and " + Trajectory.MAX_POINTS + ".");
+                        }
+                        request.trajectory = (int) points;
+                    }
+                    break;
+                case "targetHours":
+                    request.targetHours = optionalDouble(parser);
+                    if (!Double.isNaN(request.targetHours) && !(request.targetHours > 0)) {
+                        throw new IllegalArgumentException("targetHours must be positive" + at(parser) + ".");
+                    }
+                    break;
+                case "solveFor":
+                    request.solveFor = InverseSolver.Parameter.fromJsonName(parser.getValueAsString());
+                    break;
+                case "elapsedHours":
+                    request.elapsedHours = optionalDouble(parser);
+                    if (!Double.isNaN(request.elapsedHours) && request.elapsedHours < 0) {
+                        throw new IllegalArgumentException("elapsedHours must not be negative" + at(parser) + ".");
+                    }
+                    break;
+                case "currentVolume":
+                    request.currentVolume = optionalDouble(parser);
+                    if (!Double.isNaN(request.currentVolume) && !(request.currentVolume > 0)) {
+                        throw new IllegalArgumentException("currentVolume must be positive" + at(parser) + ".");
+                    }
+                    break;
+                case "state":
+                    request.state = parser.getValueAsString();
+                    break;
+                case "membraneId":
+                    request.membraneId = parser.getValueAsString();
+                    if (request.membraneId != null) {
+                        MembraneRegistry.checkId(request.membraneId);
+                    }
+                    break;
+                case "username":
+                    request.username = parser.getValueAsString();
+                    break;
+                case "token":
+                    request.token = parser.getValueAsString();
+                    break;
+                case "scenarios":
+                    request.scenarios = parser.readValueAsTree();
+                    break;
+                case "sweep":
+                    request.sweep = parser.readValueAsTree();
+                    break;
+                case "monteCarlo":
+                    request.monteCarlo = parser.readValueAsTree();
+                    break;
+                case "samples":
+                    request.samples = parser.readValueAsTree();
+                    break;
+                default:
+                    parser.skipChildren(); // unknown field
+            }
+        }
+
+        // batch takes precedence over sweep, as in the handlers before binding was typed
+        if (request.scenarios != null && !request.scenarios.isNull()) {
+            request.kind = Kind.BATCH;
+        } else if (request.sweep != null && !request.sweep.isNull()) {
+            request.kind = Kind.SWEEP;
+        } else if (request.monteCarlo != null && !request.monteCarlo.isNull()) {
+            request.kind = Kind.MONTE_CARLO;
+        } else if (request.samples != null && !request.samples.isNull()) {
+            if (request.membraneId == null || Double.isNaN(request.tmp) || Double.isNaN(request.membraneArea)) {
+                throw new IllegalArgumentException("calibration requests need membraneId, tmp and membraneArea.");
+            }
+            request.kind = Kind.CALIBRATE;
+        } else if (!Double.isNaN(request.targetHours) || request.solveFor != null) {
+            if (request.solveFor == null || Double.isNaN(request.targetHours)) {
+                throw new IllegalArgumentException("inverse requests need both targetHours and solveFor.");
+            }
+            request.kind = Kind.INVERSE;
+            request.requireAll();
+        } else if (!Double.isNaN(request.elapsedHours) || !Double.isNaN(request.currentVolume)) {
+            if (Double.isNaN(request.elapsedHours) || Double.isNaN(request.currentVolume)) {
+                throw new IllegalArgumentException("remaining-time requests need both elapsedHours and currentVolume.");
+            }
+            request.kind = Kind.REMAINING;
+            request.requireAll();
+        } else {
+            request.requireAll();
+        }
+        return request;
+    }
+
+    private double required(JsonParser parser, int index) throws IOException {
+        double value = optionalDouble(parser);
+        if (!Double.isNaN(value)) {
+            requiredSeen |= 1 << index;
+        }
+        return value;
+    }
+
+    private void requireAll() {
+        for (int i = 0; i < REQUIRED_PARAMS.length; i++) {
+            if ((requiredSeen & (1 << i)) == 0 && !(solveFor != null && REQUIRED_PARAMS[i].equals(solveFor.jsonName))) {
+                throw new IllegalArgumentException("Missing parameter: " + REQUIRED_PARAMS[i] + ".");
+            }
+        }
+    }
+
+    /** Reads the current value as a finite double: a JSON number or a numeric string. Returns NaN for JSON null. */
+    private static double optionalDouble(JsonParser parser) throws IOException {
+        JsonToken token = parser.currentToken();
+        if (token == JsonToken.VALUE_NULL) {
+            return Double.NaN;
+        }
+        double value;
+        if (token == JsonToken.VALUE_NUMBER_INT || token == JsonToken.VALUE_NUMBER_FLOAT) {
+            value = parser.getDoubleValue();
+        } else if (token == JsonToken.VALUE_STRING) {
+            try {
+                value = Double.parseDouble(parser.getText());
+            } catch (NumberFormatException e) {
+                throw nonNumeric(parser);
+            }
+        } else {
+            throw nonNumeric(parser);
+        }
+        if (!Double.isFinite(value)) {
+            throw nonNumeric(parser);
+        }
+        return value;
+    }
+
+    private static IllegalArgumentException nonNumeric(JsonParser parser) throws IOException {
+        return new IllegalArgumentException("Non-numeric parameter: " + parser.getCurrentName() + at(parser) + ".");
+    }
+
+    private static IllegalArgumentException malformed(JsonProcessingException e) {
+        JsonLocation location = e.getLocation();
+        return new IllegalArgumentException("Malformed JSON"
+                + (location == null ? "" : " (line " + location.getLineNr() + ", column " + location.getColumnNr() + ")")
+                + ": " + e.getOriginalMessage());
+    }
+
+    private static String at(JsonParser parser) {
+        JsonLocation location = parser.getTokenLocation();
+        return " (line " + location.getLineNr() + ", column " + location.getColumnNr() + ")";
+    }
+
+    /** Viscosity to compute with: the requested one, or defaultViscosity if none was provided. */
+    public double viscosityOr(double defaultViscosity) {
+        return Double.isNaN(solutionViscosity) ? defaultViscosity : solutionViscosity;
+    }
+
+    public boolean isAdaptive() {
+        return !Double.isNaN(tolerance);
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case BATCH:
+                return "ModelRequest BATCH of " + scenarios.size() + " scenarios, tolerance=" + tolerance;
+            case SWEEP:
+                return "ModelRequest SWEEP";
+            case MONTE_CARLO:
+                return "ModelRequest MONTE_CARLO";
+            case CALIBRATE:
+                return "ModelRequest CALIBRATE membraneId=" + membraneId + ", samples=" + samples.size() +
+                        ", tmp=" + tmp + ", membraneArea=" + membraneArea + ", solutionViscosity=" + solutionViscosity;
+            case INVERSE:
+                return "ModelRequest INVERSE solveFor=" + solveFor.jsonName + ", targetHours=" + targetHours +
+                        ", volumeStart=" + volumeStart + ", tmp=" + tmp + ", membraneArea=" + membraneArea +
+                        ", molWeightCutOff=" + molWeightCutOff + ", concFactor=" + concFactor +
+                        ", solutionViscosity=" + solutionViscosity + ", tolerance=" + tolerance;
+            case REMAINING:
+                return "ModelRequest REMAINING elapsedHours=" + elapsedHours + ", currentVolume=" + currentVolume +
+                        ", volumeStart=" + volumeStart + ", tmp=" + tmp + ", membraneArea=" + membraneArea +
+                        ", molWeightCutOff=" + molWeightCutOff + ", concFactor=" + concFactor +
+                        ", solutionViscosity=" + solutionViscosity + ", tolerance=" + tolerance + ", membraneId=" + membraneId +
+                        ", resumed=" + (state != null);
+            default:
+                return "ModelRequest volumeStart=" + volumeStart + ", tmp=" + tmp + ", membraneArea=" + membraneArea +
+                        ", molWeightCutOff=" + molWeightCutOff + ", concFactor=" + concFactor +
+                        ", solutionViscosity=" + solutionViscosity + ", tolerance=" + tolerance + ", trajectory=" + trajectory +
+                        ", membraneId=" + membraneId;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package crossflowmodel;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/** Standalone HTTP server for running the model outside Lambda, eg. on-prem next to the plant historian.
+ *  Serves the same JSON contract as HandlerAPIGateway: POST the request body to /crossflowmodelinference and get the
+ *  status code, headers and body the Lambda would have returned through API Gateway. GET /health answers 503 until
+ *  the handler is primed (see Priming), then 200, for load balancers.
+ *
+ *  Every request runs on its own thread. On JDK 21+ these are virtual threads (one per request); on JDK 17, which
+ *  has no virtual threads without preview flags, a fixed pool of platform threads. CROSSFLOW_SERVER_THREADS forces
+ *  a platform pool of that size on any JDK. The handler instance is shared by all requests, it keeps no
+ *  per-request state. Connections are kept alive between requests (HTTP/1.1 persistent connections), with
+ *  TCP_NODELAY so small responses are not held back by Nagle's algorithm.
+ *
+ *  Run with: gradle runServer, or java -cp ... crossflowmodel.ModelServer [port]
+ *  Port defaults to CROSSFLOW_SERVER_PORT, then 8080. See LoadGenerator for throughput and latency under load.
+ */
+public final class ModelServer {
+
+    public static final String ENV_PORT = "CROSSFLOW_SERVER_PORT";
+    public static final String ENV_THREADS = "CROSSFLOW_SERVER_THREADS";
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final int DEFAULT_PLATFORM_THREADS = 200; // when virtual threads are not available
+    public static final String PATH = "/crossflowmodelinference";
+    public static final String HEALTH_PATH = "/health";
+
+    static final int MAX_BODY_BYTES = 16 * 1024 * 1024; // a 100k-scenario batch is ~10 MB
+    private static final int BACKLOG = 1024;
+
+    // JDK HTTP server keep-alive settings, read once when its first instance is created. The default of 200 idle
+    // connections would make clients beyond that reconnect on every request
+    private static final String PROPERTY_MAX_IDLE_CONNECTIONS = "sun.net.httpserver.maxIdleConnections";
+    private static final String PROPERTY_NODELAY = "sun.net.httpserver.nodelay";
+    private static final String DEFAULT_MAX_IDLE_CONNECTIONS = "4096";
+
+    private static final String NAME = "ModelServer";
+
+    private final HandlerAPIGateway handler; // class init primes the request path
+    private final BooleanSupplier ready; // answers /health
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+
+    /**
+     * @param port 0 = any free port, see getPort()
+     * @param platformThreads size of the platform thread pool; 0 = virtual threads when the JDK has them
+     */
+    public ModelServer(int port, int platformThreads) throws IOException {
+        this(port, platformThreads, HandlerAPIGateway::isReady, InferenceLog.shared());
+    }
+
+    /**
+     * @param ready whether /health reports the server ready, HandlerAPIGateway.isReady() but in tests
+     * @param inferenceLog InferenceLog.shared() but in tests; requests never wait for it to flush, see InferenceLog
+     */
+    ModelServer(int port, int platformThreads, BooleanSupplier ready, InferenceLog inferenceLog) throws IOException {
+        if (port < 0 || port > 65_535) {
+            throw new IllegalArgumentException("port must be in 0..65535, got " + port);
+        }
+        if (platformThreads < 0) {
+            throw new IllegalArgumentException("platformThreads must be >= 0, got " + platformThreads);
+        }
+        this.ready = ready;
+        this.handler = HandlerAPIGateway.forServer(inferenceLog);
+        setDefaultProperty(PROPERTY_MAX_IDLE_CONNECTIONS, DEFAULT_MAX_IDLE_CONNECTIONS);
+        setDefaultProperty(PROPERTY_NODELAY, "true");
+
+        ExecutorService virtual = platformThreads == 0 ? newVirtualThreadExecutor() : null;
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : Executors.newFixedThreadPool(
+                platformThreads == 0 ? DEFAULT_PLATFORM_THREADS : platformThreads, new PlatformThreadFactory());
+
+        this.server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        server.createContext(PATH, this::handleInference);
+        server.createContext(HEALTH_PATH, this::handleHealth);
+        server.setExecutor(executor);
+    }
+
+    /** Executors.newVirtualThreadPerTaskExecutor() when this JDK has it (21+, or 19/20 with --enable-preview),
+     *  otherwise null. Looked up reflectively so the module still compiles for Java 17. */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) MethodHandles.publicLookup()
+                    .findStatic(Executors.class, "newVirtualThreadPerTaskExecutor", MethodType.methodType(ExecutorService.class))
+                    .invoke();
+        } catch (NoSuchMethodException | IllegalAccessException | UnsupportedOperationException e) {
+            return null; // JDK 17-18, or 19/20 without --enable-preview
+        } catch (Throwable e) {
+            Log.warn(NAME, "Virtual threads unavailable: " + e);
+            return null;
+        }
+    }
+
+    private static void setDefaultProperty(String key, String value) {
+        if (System.getProperty(key) == null) {
+            System.setProperty(key, value);
+        }
+    }
+
+    public void start() {
+        server.start();
+        Log.info(NAME, "Listening on port " + getPort() + " at " + PATH + ", "
+                + (virtualThreads ? "one virtual thread per request." : "platform thread pool."));
+    }
+
+    /** Stops accepting connections, waits up to delaySeconds for requests in flight, then stops the executor. */
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(delaySeconds, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        Log.info(NAME, "Stopped.");
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /** POST body --> HandlerAPIGateway --> status code, headers and body as API Gateway would send them. */
+    private void handleInference(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Allow", "POST");
+                send(exchange, 405, "Method Not Allowed. POST the request body to " + PATH + ".");
+                return;
+            }
+
+            String body = readBody(exchange);
+            if (body == null) {
+                send(exchange, 413, "Payload Too Large. Request bodies are limited to " + MAX_BODY_BYTES + " bytes.");
+                return;
+            }
+
+            APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent()
+                    .withHttpMethod("POST")
+                    .withPath(exchange.getRequestURI().getPath())
+                    .withHeaders(firstValues(exchange.getRequestHeaders()))
+                    .withBody(body);
+
+            APIGatewayProxyResponseEvent response;
+            try {
+                response = handler.handleRequest(event, null); // no Lambda Context outside Lambda, the handler does not use it
+            } catch (RuntimeException e) {
+                Log.error(NAME, "Handler failed.", e);
+                send(exchange, 500, "Internal Server Error.");
+                return;
+            }
+
+            if (response.getHeaders() != null) {
+                Headers headers = exchange.getResponseHeaders();
+                for (Map.Entry<String, String> header : response.getHeaders().entrySet()) {
+                    headers.set(header.getKey(), header.getValue());
+                }
+            }
+            int statusCode = response.getStatusCode() == null ? 200 : response.getStatusCode();
+            if (Boolean.TRUE.equals(response.getIsBase64Encoded()) && response.getBody() != null) {
+                // binary response (see ResponseFormat): decode it as API Gateway would for binaryMediaTypes
+                send(exchange, statusCode, Base64.getDecoder().decode(response.getBody()));
+            } else {
+                send(exchange, statusCode, response.getBody());
+            }
+        } catch (IOException e) {
+            // client went away mid-request; nothing to answer
+            Log.debug(NAME, () -> "Connection error: " + e);
+        }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            if (ready.getAsBoolean()) {
+                send(exchange, 200, "{\"status\":\"ok\"}");
+            } else {
+                send(exchange, 503, "{\"status\":\"priming\"}");
+            }
+        }
+    }
+
+    /** @return the UTF-8 body, or null when it is larger than MAX_BODY_BYTES */
+    private static String readBody(HttpExchange exchange) throws IOException {
+        String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+        if (contentLength != null) {
+            try {
+                if (Long.parseLong(contentLength.trim()) > MAX_BODY_BYTES) {
+                    return null;
+                }
+            } catch (NumberFormatException e) {
+                // the JDK server rejects malformed lengths before we get here; read up to the limit regardless
+            }
+        }
+        try (InputStream input = exchange.getRequestBody()) {
+            byte[] bytes = input.readNBytes(MAX_BODY_BYTES + 1);
+            if (bytes.length > MAX_BODY_BYTES) {
+                return null;
+            }
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Map<String, String> firstValues(Headers headers) {
+        Map<String, String> first = new HashMap<>(headers.size() * 2);
+        for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if (!header.getValue().isEmpty()) {
+                first.put(header.getKey(), header.getValue().get(0));
+            }
+        }
+        return first;
+    }
+
+    private static void send(HttpExchange exchange, int statusCode, String body) throws IOException {
+        if (body == null) {
+            exchange.sendResponseHeaders(statusCode, -1); // -1 = no body
+            return;
+        }
+        send(exchange, statusCode, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int statusCode, byte[] bytes) throws IOException {
+        exchange.sendResponseHeaders(statusCode, bytes.length == 0 ? -1 : bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    private static final class PlatformThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "crossflow-http-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : intFromEnvironment(ENV_PORT, DEFAULT_PORT);
+        int threads = intFromEnvironment(ENV_THREADS, 0);
+
+        ModelServer modelServer = new ModelServer(port, threads);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> modelServer.stop(5), "model-server-shutdown"));
+        modelServer.start();
+    }
+
+    private static int intFromEnvironment(String name, int defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be an integer, got " + value);
+        }
+    }
+}
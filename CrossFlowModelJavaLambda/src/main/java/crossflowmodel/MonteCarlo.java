@@ -0,0 +1,403 @@
+package crossflowmodel;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/** Monte Carlo uncertainty mode: filtration hours when the inputs are distributions instead of exact values,
+ *  eg. measured membrane area, tmp drift, or the viscosity of a real casein solution rather than VISCOSITY_WATER.
+ *
+ *  Samples run in parallel with fork-join, each block of BLOCK_SIZE samples drawing from its own SplittableRandom,
+ *  split from the seed in block order before any sampling starts. Which thread runs a block does not change its
+ *  numbers, and hours are aggregated into a QuantileSketch whose merge is exact, so results for a given seed are
+ *  identical on 1 core or 64. Memory stays constant in the sample count, apart from one RNG per block.
+ *  Each block's hours are computed in one pass through TwoPhaseBatch, so on the Vector API path they match the
+ *  scalar path within TwoPhaseBatch.TOLERANCE rather than exactly.
+ *
+ *  Usable offline:
+ *      MonteCarlo monteCarlo = new MonteCarlo(100_000, 42, Distribution.fixed(1000), Distribution.fixed(2),
+ *              Distribution.normal(100_000, 5_000), Distribution.uniform(9.5, 10.5), Distribution.lognormal(0.0015, 0.0003));
+ *      MonteCarlo.Result result = monteCarlo.compute(ForkJoinPool.commonPool());
+ *
+ *  Or through HandlerAPIGateway with a request body of:
+ *  {"monteCarlo": {"samples": 100000, "seed": 42, "molWeightCutOff": 2500, "volumeStart": 1000, "concFactor": 2,
+ *                  "tmp": {"dist": "normal", "mean": 100000, "sd": 5000}, "membraneArea": {"dist": "uniform", "min": 9.5, "max": 10.5}}}
+ */
+public class MonteCarlo {
+
+    // cap on samples per request, ~2 us each: keeps a request within the API Gateway timeout on a few cores
+    public static final int MAX_SAMPLES = 10_000_000;
+
+    // samples per RNG stream
+    static final int BLOCK_SIZE = 4096;
+
+    // blocks per fork-join leaf, sharing one sketch
+    private static final int LEAF_BLOCKS = 8;
+
+    public static final int HISTOGRAM_BINS = 20;
+
+    /** Parameter distribution. Normal and lognormal are given by their mean and standard deviation. */
+    public static class Distribution {
+
+        public enum Kind {
+            FIXED,
+            UNIFORM,
+            NORMAL,
+            LOGNORMAL
+        }
+
+        // normal draws are redrawn until positive; past this many the distribution is mostly non-physical
+        private static final int MAX_REDRAWS = 100;
+
+        public final Kind kind;
+        public final double a; // FIXED value, UNIFORM min, NORMAL/LOGNORMAL mean
+        public final double b; // UNIFORM max, NORMAL/LOGNORMAL standard deviation
+
+        // LOGNORMAL parameters of the underlying normal
+        private final double mu;
+        private final double sigma;
+
+        private Distribution(Kind kind, double a, double b) {
+            if (!Double.isFinite(a) || !Double.isFinite(b)) {
+                throw new IllegalArgumentException("distribution parameters must be finite numbers.");
+            }
+            this.kind = kind;
+            this.a = a;
+            this.b = b;
+            if (kind == Kind.LOGNORMAL) {
+                this.sigma = Math.sqrt(Math.log1p((b * b) / (a * a)));
+                this.mu = Math.log(a) - sigma * sigma / 2;
+            } else {
+                this.sigma = 0;
+                this.mu = 0;
+            }
+        }
+
+        public static Distribution fixed(double value) {
+            if (!(value > 0)) {
+                throw new IllegalArgumentException("values must be positive.");
+            }
+            return new Distribution(Kind.FIXED, value, 0);
+        }
+
+        public static Distribution uniform(double min, double max) {
+            if (!(min > 0 && min <= max)) {
+                throw new IllegalArgumentException("uniform distribution needs 0 < min <= max.");
+            }
+            return new Distribution(Kind.UNIFORM, min, max);
+        }
+
+        /** Normal, truncated to positive values. */
+        public static Distribution normal(double mean, double sd) {
+            if (!(mean > 0 && sd >= 0)) {
+                throw new IllegalArgumentException("normal distribution needs mean > 0 and sd >= 0.");
+            }
+            return new Distribution(Kind.NORMAL, mean, sd);
+        }
+
+        public static Distribution lognormal(double mean, double sd) {
+            if (!(mean > 0 && sd >= 0)) {
+                throw new IllegalArgumentException("lognormal distribution needs mean > 0 and sd >= 0.");
+            }
+            return new Distribution(Kind.LOGNORMAL, mean, sd);
+        }
+
+        double sample(SplittableRandom random) {
+            switch (kind) {
+                case UNIFORM:
+                    return a == b ? a : random.nextDouble(a, b);
+                case NORMAL:
+                    for (int i = 0; i < MAX_REDRAWS; i++) {
+                        double value = a + b * random.nextGaussian();
+                        if (value > 0) {
+                            return value;
+                        }
+                    }
+                    return Double.NaN; // counted as an invalid sample
+                case LOGNORMAL:
+                    return Math.exp(mu + sigma * random.nextGaussian());
+                default:
+                    return a;
+            }
+        }
+
+        /** Parses a number (fixed) or {"dist": "uniform", "min", "max"} / {"dist": "normal" | "lognormal", "mean", "sd"}. */
+        public static Distribution fromJson(JsonNode node, String param) {
+            if (node != null && node.isNumber()) {
+                return fixed(node.asDouble());
+            }
+            if (node == null || !node.isObject() || !node.path("dist").isTextual()) {
+                throw new IllegalArgumentException("monteCarlo." + param + " must be a number or {\"dist\", ...}.");
+            }
+            switch (node.get("dist").asText()) {
+                case "uniform":
+                    return uniform(number(node, param, "min"), number(node, param, "max"));
+                case "normal":
+                    return normal(number(node, param, "mean"), number(node, param, "sd"));
+                case "lognormal":
+                    return lognormal(number(node, param, "mean"), number(node, param, "sd"));
+                default:
+                    throw new IllegalArgumentException("monteCarlo." + param + ".dist must be uniform, normal or lognormal.");
+            }
+        }
+
+        private static double number(JsonNode node, String param, String field) {
+            JsonNode value = node.get(field);
+            if (value == null || !value.isNumber()) {
+                throw new IllegalArgumentException("monteCarlo." + param + "." + field + " must be a number.");
+            }
+            return value.asDouble();
+        }
+
+        @Override
+        public String toString() {
+            switch (kind) {
+                case FIXED:
+                    return Double.toString(a);
+                case UNIFORM:
+                    return "uniform(" + a + ", " + b + ")";
+                default:
+                    return kind.name().toLowerCase() + "(mean=" + a + ", sd=" + b + ")";
+            }
+        }
+    }
+
+    /** Aggregated hours over all valid samples. */
+    public static class Result {
+        public final int samples;
+        public final long seed;
+        public final long invalidSamples; // non-positive draws or concFactor < 1, left out of the statistics
+        public final double mean;
+        public final QuantileSketch sketch;
+
+        Result(int samples, long seed, long invalidSamples, double mean, QuantileSketch sketch) {
+            this.samples = samples;
+            this.seed = seed;
+            this.invalidSamples = invalidSamples;
+            this.mean = mean;
+            this.sketch = sketch;
+        }
+
+        public double p5() {
+            return sketch.quantile(0.05);
+        }
+
+        public double p50() {
+            return sketch.quantile(0.5);
+        }
+
+        public double p95() {
+            return sketch.quantile(0.95);
+        }
+
+        /** Streams {"samples", "seed", "invalidSamples", "mean", "min", "max", "p5", "p50", "p95", "relativeAccuracy",
+         *  "histogram": {"edges": [...], "counts": [...]}} without building an intermediate Map. */
+        public void writeJson(JsonGenerator generator) throws IOException {
+            generator.writeStartObject();
+            generator.writeNumberField("samples", samples);
+            generator.writeNumberField("seed", seed);
+            generator.writeNumberField("invalidSamples", invalidSamples);
+            generator.writeNumberField("mean", mean);
+            generator.writeNumberField("min", sketch.getMin());
+            generator.writeNumberField("max", sketch.getMax());
+            generator.writeNumberField("p5", p5());
+            generator.writeNumberField("p50", p50());
+            generator.writeNumberField("p95", p95());
+            generator.writeNumberField("relativeAccuracy", sketch.relativeAccuracy);
+
+            long[] counts = sketch.histogram(HISTOGRAM_BINS);
+            double[] edges = new double[HISTOGRAM_BINS + 1];
+            for (int i = 0; i <= HISTOGRAM_BINS; i++) {
+                edges[i] = sketch.getMin() + i * (sketch.getMax() - sketch.getMin()) / HISTOGRAM_BINS;
+            }
+            generator.writeObjectFieldStart("histogram");
+            generator.writeFieldName("edges");
+            ResponseFormat.writeDoubles(generator, edges, 0, edges.length);
+            generator.writeFieldName("counts");
+            generator.writeArray(counts, 0, counts.length);
+            generator.writeEndObject();
+
+            generator.writeEndObject();
+        }
+
+        public String toJson(JsonFactory factory) throws IOException {
+            StringWriter writer = new StringWriter(1024);
+            try (JsonGenerator generator = factory.createGenerator(writer)) {
+                writeJson(generator);
+            }
+            return writer.toString();
+        }
+
+        @Override
+        public String toString() {
+            return "MonteCarlo.Result samples=" + samples + ", seed=" + seed + ", invalidSamples=" + invalidSamples +
+                    ", mean=" + mean + ", p5=" + p5() + ", p50=" + p50() + ", p95=" + p95();
+        }
+    }
+
+    public final int samples;
+    public final long seed;
+    public final Distribution volumeStart;
+    public final Distribution concFactor;
+    public final Distribution tmp;
+    public final Distribution membraneArea;
+    public final Distribution solutionViscosity;
+
+    public MonteCarlo(int samples, long seed, Distribution volumeStart, Distribution concFactor, Distribution tmp,
+                      Distribution membraneArea, Distribution solutionViscosity) {
+        if (samples < 1 || samples > MAX_SAMPLES) {
+            throw new IllegalArgumentException("samples must be between 1 and " + MAX_SAMPLES + ".");
+        }
+        this.samples = samples;
+        this.seed = seed;
+        this.volumeStart = volumeStart;
+        this.concFactor = concFactor;
+        this.tmp = tmp;
+        this.membraneArea = membraneArea;
+        this.solutionViscosity = solutionViscosity;
+    }
+
+    /** Builds a Monte Carlo run from the "monteCarlo" object of a request. Each parameter is a number or a distribution.
+     *  solutionViscosity is optional and defaults to defaultViscosity; seed defaults to 0.
+     */
+    public static MonteCarlo fromJson(JsonNode node, double defaultViscosity) {
+        if (node == null || !node.isObject()) {
+            throw new IllegalArgumentException("monteCarlo must be a JSON object.");
+        }
+        JsonNode samples = node.get("samples");
+        if (samples == null || !samples.canConvertToInt()) {
+            throw new IllegalArgumentException("monteCarlo.samples must be a number of samples up to " + MAX_SAMPLES + ".");
+        }
+        JsonNode seed = node.get("seed");
+        if (seed != null && !seed.isNull() && !seed.canConvertToLong()) {
+            throw new IllegalArgumentException("monteCarlo.seed must be an integer.");
+        }
+        JsonNode viscosity = node.get("solutionViscosity");
+        return new MonteCarlo(
+                samples.asInt(),
+                seed == null || seed.isNull() ? 0 : seed.asLong(),
+                Distribution.fromJson(node.get("volumeStart"), "volumeStart"),
+                Distribution.fromJson(node.get("concFactor"), "concFactor"),
+                Distribution.fromJson(node.get("tmp"), "tmp"),
+                Distribution.fromJson(node.get("membraneArea"), "membraneArea"),
+                viscosity == null || viscosity.isNull()
+                        ? Distribution.fixed(defaultViscosity)
+                        : Distribution.fromJson(viscosity, "solutionViscosity")
+        );
+    }
+
+    /** Runs every sample.
+     * @param pool fork-join pool to split the samples across; the result does not depend on its parallelism
+     */
+    public Result compute(ForkJoinPool pool) {
+        int blocks = (samples + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+        // one stream per block, split in block order so a block's numbers never depend on scheduling
+        SplittableRandom root = new SplittableRandom(seed);
+        SplittableRandom[] streams = new SplittableRandom[blocks];
+        for (int i = 0; i < blocks; i++) {
+            streams[i] = root.split();
+        }
+        double[] blockSums = new double[blocks];
+        long[] blockInvalid = new long[blocks];
+
+        QuantileSketch sketch = pool.invoke(new SampleTask(streams, blockSums, blockInvalid, 0, blocks));
+
+        // summed in block order, floating-point addition is not associative
+        double sum = 0;
+        long invalid = 0;
+        for (int i = 0; i < blocks; i++) {
+            sum += blockSums[i];
+            invalid += blockInvalid[i];
+        }
+        long valid = samples - invalid;
+        return new Result(samples, seed, invalid, valid == 0 ? Double.NaN : sum / valid, sketch);
+    }
+
+    /** Samples one block into sketch, recording its sum and invalid count.
+     * @param columns scratch columns of at least BLOCK_SIZE, reused for every block of a leaf task
+     */
+    private void sampleBlock(int block, SplittableRandom random, QuantileSketch sketch, double[] blockSums, long[] blockInvalid, Columns columns) {
+        int from = block * BLOCK_SIZE;
+        int n = Math.min(from + BLOCK_SIZE, samples) - from;
+        for (int i = 0; i < n; i++) {
+            // always drawn in the same order, so every sample uses the same numbers whatever is valid
+            columns.volumeStart[i] = volumeStart.sample(random);
+            columns.concFactor[i] = concFactor.sample(random);
+            columns.tmp[i] = tmp.sample(random);
+            columns.membraneArea[i] = membraneArea.sample(random);
+            columns.solutionViscosity[i] = solutionViscosity.sample(random);
+        }
+
+        // hours of the whole block in one pass, several samples per SIMD vector where available; invalid samples
+        // get hours too, which are skipped below
+        TwoPhaseBatch.hours(columns.volumeStart, columns.concFactor, columns.tmp, columns.solutionViscosity,
+                columns.membraneArea, MembraneModel.DEFAULT, columns.hours, 0, n);
+
+        double sum = 0;
+        long invalid = 0;
+        for (int i = 0; i < n; i++) {
+            double v = columns.volumeStart[i];
+            double cf = columns.concFactor[i];
+            if (!(v > 0 && cf >= 1 && columns.tmp[i] > 0 && columns.membraneArea[i] > 0 && columns.solutionViscosity[i] > 0)) {
+                invalid++;
+                continue;
+            }
+            double hours = cf == 1 ? 0 : columns.hours[i];
+            sketch.add(hours);
+            sum += hours;
+        }
+        blockSums[block] = sum;
+        blockInvalid[block] = invalid;
+    }
+
+    /** Sampled inputs and hours of one block, as primitive columns for TwoPhaseBatch. */
+    private static final class Columns {
+        final double[] volumeStart = new double[BLOCK_SIZE];
+        final double[] concFactor = new double[BLOCK_SIZE];
+        final double[] tmp = new double[BLOCK_SIZE];
+        final double[] membraneArea = new double[BLOCK_SIZE];
+        final double[] solutionViscosity = new double[BLOCK_SIZE];
+        final double[] hours = new double[BLOCK_SIZE];
+    }
+
+    private class SampleTask extends RecursiveTask<QuantileSketch> {
+        private final SplittableRandom[] streams;
+        private final double[] blockSums;
+        private final long[] blockInvalid;
+        private final int from;
+        private final int to;
+
+        SampleTask(SplittableRandom[] streams, double[] blockSums, long[] blockInvalid, int from, int to) {
+            this.streams = streams;
+            this.blockSums = blockSums;
+            this.blockInvalid = blockInvalid;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected QuantileSketch compute() {
+            if (to - from <= LEAF_BLOCKS) {
+                QuantileSketch sketch = new QuantileSketch();
+                Columns columns = new Columns();
+                for (int block = from; block < to; block++) {
+                    sampleBlock(block, streams[block], sketch, blockSums, blockInvalid, columns);
+                }
+                return sketch;
+            }
+            int mid = (from + to) >>> 1;
+            SampleTask right = new SampleTask(streams, blockSums, blockInvalid, mid, to);
+            right.fork();
+            QuantileSketch sketch = new SampleTask(streams, blockSums, blockInvalid, from, mid).compute();
+            sketch.merge(right.join());
+            return sketch;
+        }
+    }
+}
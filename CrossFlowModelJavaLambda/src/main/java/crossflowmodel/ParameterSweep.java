@@ -0,0 +1,228 @@
+package crossflowmodel;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Design-space sweep: evaluates the two-phase model over the full grid of tmp x membraneArea x concFactor x solutionViscosity.
+ *  The grid is split across cores with fork-join, and every cell shares the phase 1 resistance table in Calculations,
+ *  since those resistances only depend on time and not on the swept parameters.
+ *
+ *  Usable offline as a plain Java API:
+ *      ParameterSweep sweep = new ParameterSweep(1000, new Range(50_000, 200_000, 16), new Range(1, 10, 10), new Range(2, 2, 1), new Range(0.001, 0.001, 1));
+ *      double[] hours = sweep.compute(ForkJoinPool.commonPool());
+ *
+ *  Or through HandlerAPIGateway with a request body of:
+ *  {"sweep": {"volumeStart": 1000, "molWeightCutOff": 2500, "tmp": {"min": 50000, "max": 200000, "steps": 16}, "membraneArea": 10, ...}}
+ */
+public class ParameterSweep {
+
+    // cap on grid cells per request, keeps the response within the API Gateway payload limit
+    public static final int MAX_GRID_SIZE = 100_000;
+
+    // cells per fork-join leaf task; each cell is ~100 Math.pow calls
+    private static final int LEAF_SIZE = 256;
+
+    /** Evenly spaced values from min to max (inclusive). steps = 1 gives the single value min. */
+    public static class Range {
+        public final double min;
+        public final double max;
+        public final int steps;
+
+        public Range(double min, double max, int steps) {
+            if (steps < 1) {
+                throw new IllegalArgumentException("steps must be at least 1.");
+            }
+            if (!(min <= max)) {
+                throw new IllegalArgumentException("min must not be greater than max.");
+            }
+            this.min = min;
+            this.max = max;
+            this.steps = steps;
+        }
+
+        public double valueAt(int index) {
+            return steps == 1 ? min : min + index * (max - min) / (steps - 1);
+        }
+
+        public double[] values() {
+            double[] values = new double[steps];
+            for (int i = 0; i < steps; i++) {
+                values[i] = valueAt(i);
+            }
+            return values;
+        }
+    }
+
+    public final double volumeStart;
+    public final Range tmp;
+    public final Range membraneArea;
+    public final Range concFactor;
+    public final Range solutionViscosity;
+
+    private final int gridSize;
+
+    public ParameterSweep(double volumeStart, Range tmp, Range membraneArea, Range concFactor, Range solutionViscosity) {
+        if (concFactor.min < 1) {
+            throw new IllegalArgumentException("concFactor cannot be <1.");
+        }
+        if (!(tmp.min > 0 && membraneArea.min > 0 && solutionViscosity.min > 0 && volumeStart > 0)) {
+            throw new IllegalArgumentException("volumeStart, tmp, membraneArea and solutionViscosity must be positive.");
+        }
+        this.gridSize = checkedGridSize(tmp, membraneArea, concFactor, solutionViscosity);
+        this.volumeStart = volumeStart;
+        this.tmp = tmp;
+        this.membraneArea = membraneArea;
+        this.concFactor = concFactor;
+        this.solutionViscosity = solutionViscosity;
+    }
+
+    /** Builds a sweep from the "sweep" object of a request. Each axis is either a number or {"min", "max", "steps"}.
+     *  solutionViscosity is optional and defaults to defaultViscosity.
+     */
+    public static ParameterSweep fromJson(JsonNode sweep, double defaultViscosity) {
+        if (sweep == null || !sweep.isObject()) {
+            throw new IllegalArgumentException("sweep must be a JSON object.");
+        }
+        JsonNode volumeStart = sweep.get("volumeStart");
+        if (volumeStart == null || !volumeStart.isNumber()) {
+            throw new IllegalArgumentException("sweep.volumeStart must be a number.");
+        }
+        JsonNode viscosity = sweep.get("solutionViscosity");
+        return new ParameterSweep(
+                volumeStart.asDouble(),
+                rangeFromJson(sweep, "tmp"),
+                rangeFromJson(sweep, "membraneArea"),
+                rangeFromJson(sweep, "concFactor"),
+                viscosity == null || viscosity.isNull()
+                        ? new Range(defaultViscosity, defaultViscosity, 1)
+                        : rangeFromJson(sweep, "solutionViscosity")
+        );
+    }
+
+    private static Range rangeFromJson(JsonNode sweep, String param) {
+        JsonNode field = sweep.get(param);
+        if (field != null && field.isNumber()) {
+            return new Range(field.asDouble(), field.asDouble(), 1);
+        }
+        if (field == null || !field.isObject()
+                || !field.path("min").isNumber() || !field.path("max").isNumber() || !field.path("steps").canConvertToInt()) {
+            throw new IllegalArgumentException("sweep." + param + " must be a number or {\"min\", \"max\", \"steps\"}.");
+        }
+        return new Range(field.get("min").asDouble(), field.get("max").asDouble(), field.get("steps").asInt());
+    }
+
+    /** @return returns the number of grid cells, at most MAX_GRID_SIZE */
+    public int gridSize() {
+        return gridSize;
+    }
+
+    /** Product of the axis steps, checked against MAX_GRID_SIZE after every factor: steps of up to
+     *  Integer.MAX_VALUE per axis would overflow even a long product, and wrap past the cap.
+     */
+    private static int checkedGridSize(Range... axes) {
+        long size = 1;
+        for (Range axis : axes) {
+            size *= axis.steps; // both factors <= Integer.MAX_VALUE here, so the long product cannot overflow
+            if (size > MAX_GRID_SIZE) {
+                throw new IllegalArgumentException("grid exceeds maximum size of " + MAX_GRID_SIZE + " cells.");
+            }
+        }
+        return (int) size;
+    }
+
+    /** Dimensions of the result matrix, in the order tmp, membraneArea, concFactor, solutionViscosity. */
+    public int[] shape() {
+        return new int[]{tmp.steps, membraneArea.steps, concFactor.steps, solutionViscosity.steps};
+    }
+
+    /** Computes filtration hours for every grid cell.
+     * @param pool fork-join pool to split the grid across, eg. ForkJoinPool.commonPool() for all available cores
+     * @return returns a dense row-major matrix of hours with dimensions shape(), solutionViscosity varying fastest
+     */
+    public double[] compute(ForkJoinPool pool) {
+        double[] hours = new double[gridSize()];
+        pool.invoke(new SweepTask(hours, 0, hours.length));
+        return hours;
+    }
+
+    private void computeCell(double[] hours, int index) {
+        // unpack row-major index, last axis varies fastest
+        int rest = index;
+        int v = rest % solutionViscosity.steps;
+        rest /= solutionViscosity.steps;
+        int c = rest % concFactor.steps;
+        rest /= concFactor.steps;
+        int a = rest % membraneArea.steps;
+        int t = rest / membraneArea.steps;
+
+        double concentrationFactor = concFactor.valueAt(c);
+        hours[index] = concentrationFactor == 1
+                ? 0
+                : Calculations.twoPhaseHours(volumeStart, concentrationFactor, tmp.valueAt(t), solutionViscosity.valueAt(v), membraneArea.valueAt(a), null);
+    }
+
+    private class SweepTask extends RecursiveAction {
+        private final double[] hours;
+        private final int from;
+        private final int to;
+
+        SweepTask(double[] hours, int from, int to) {
+            this.hours = hours;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_SIZE) {
+                for (int i = from; i < to; i++) {
+                    computeCell(hours, i);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new SweepTask(hours, from, mid), new SweepTask(hours, mid, to));
+        }
+    }
+
+    /** Streams {"shape": [...], "axes": {...}, "filtrationHours": [...]} without building an intermediate Map. */
+    public void writeJson(JsonGenerator generator, double[] hours) throws IOException {
+        generator.writeStartObject();
+
+        int[] shape = shape();
+        generator.writeFieldName("shape");
+        generator.writeArray(shape, 0, shape.length);
+
+        generator.writeObjectFieldStart("axes");
+        writeAxis(generator, "tmp", tmp);
+        writeAxis(generator, "membraneArea", membraneArea);
+        writeAxis(generator, "concFactor", concFactor);
+        writeAxis(generator, "solutionViscosity", solutionViscosity);
+        generator.writeEndObject();
+
+        generator.writeFieldName("filtrationHours");
+        ResponseFormat.writeDoubles(generator, hours, 0, hours.length);
+
+        generator.writeEndObject();
+    }
+
+    private static void writeAxis(JsonGenerator generator, String name, Range range) throws IOException {
+        double[] values = range.values();
+        generator.writeFieldName(name);
+        ResponseFormat.writeDoubles(generator, values, 0, values.length);
+    }
+
+    public String toJson(JsonFactory factory, double[] hours) throws IOException {
+        StringWriter writer = new StringWriter(64 + 24 * hours.length);
+        try (JsonGenerator generator = factory.createGenerator(writer)) {
+            writeJson(generator, hours);
+        }
+        return writer.toString();
+    }
+}
@@ -0,0 +1,150 @@
+package crossflowmodel;
+
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
+
+/** Cold-start priming for a Lambda handler.
+ *  Runs the handler's own request path with synthetic inputs during init, so class loading, Jackson's serializer
+ *  caches, the resistance tables and the first JIT compilations are paid for before the first real request.
+ *
+ *  Only the synthetic requests are treated as priming: isActive() is true on the thread running the primer, and
+ *  nowhere else, so requests served concurrently by other threads (ModelServer, or a runtime that checkpoints while
+ *  serving) are logged, measured and persisted as usual. Synthetic calibration requests learn into a registry of
+ *  the primer's own, never into MembraneRegistry.shared().
+ *
+ *  Also a CRaC Resource, so a snapshot-based runtime (Lambda SnapStart, CRaC JDKs) checkpoints a warm JVM:
+ *  beforeCheckpoint primes if init did not, and drops everything cached so far, so no request data is baked
+ *  into a snapshot restored by many instances. afterRestore only logs, the restored JVM is already warm.
+ *
+ *  Priming is on by default; set the environment variable CROSSFLOW_PRIMING=off to disable it
+ *  (eg. to measure cold starts without it, see ColdStartHarness).
+ */
+public final class Priming implements Resource {
+
+    public static final String ENV_PRIMING = "CROSSFLOW_PRIMING";
+    public static final String ENV_ITERATIONS = "CROSSFLOW_PRIMING_ITERATIONS";
+
+    // passes over the synthetic requests. The first pass does most of the work (class loading, Jackson caches),
+    // a few more let C1 compile the request path; hundreds only lengthen init for little gain
+    public static final int DEFAULT_ITERATIONS = 10;
+
+    // synthetic request bodies for the handlers' primers, one per request path; the last fails validation.
+    // The calibration bodies name a membrane of the primer's own registry, see HandlerAPIGateway.prime
+    static final String[] SYNTHETIC_BODIES = {
+            "{\"volumeStart\":\"1000\", \"tmp\":\"100000\", \"membraneArea\":10, \"molWeightCutOff\":\"2500\", \"concFactor\":2}",
+            "{\"volumeStart\":1000, \"tmp\":100000, \"membraneArea\":10, \"molWeightCutOff\":2500, \"concFactor\":2, \"tolerance\":1e-6}",
+            "{\"volumeStart\":1000, \"tmp\":100000, \"membraneArea\":10, \"molWeightCutOff\":2500, \"concFactor\":2, \"trajectory\":100}",
+            "{\"scenarios\": [{\"volumeStart\":200, \"tmp\":200000, \"membraneArea\":10, \"molWeightCutOff\":2500, \"concFactor\":2}, {\"volumeStart\":1000, \"tmp\":100000, \"membraneArea\":10, \"molWeightCutOff\":30000, \"concFactor\":2}]}",
+            "{\"volumeStart\":1000, \"tmp\":100000, \"molWeightCutOff\":2500, \"concFactor\":2, \"targetHours\":24, \"solveFor\":\"membraneArea\"}",
+            "{\"volumeStart\":1000, \"tmp\":100000, \"membraneArea\":10, \"molWeightCutOff\":2500, \"concFactor\":2, \"elapsedHours\":100, \"currentVolume\":980}",
+            "{\"monteCarlo\": {\"samples\":4096, \"seed\":1, \"molWeightCutOff\":2500, \"volumeStart\":1000, \"concFactor\":2, \"tmp\":{\"dist\":\"normal\", \"mean\":100000, \"sd\":5000}, \"membraneArea\":10}}",
+            "{\"membraneId\":\"priming\", \"tmp\":100000, \"membraneArea\":10, \"samples\":[[0,7.6923], [0.5,0.7847], [1,0.6098], [2,0.4712], [4,0.3624], [8,0.2778], [12,0.2375], [16,0.2124], [20,0.1947], [24,0.1814]]}",
+            "{\"membraneId\":\"priming\", \"volumeStart\":1000, \"tmp\":100000, \"membraneArea\":10, \"molWeightCutOff\":2500, \"concFactor\":2}",
+            "{\"sweep\": {\"volumeStart\":1000, \"molWeightCutOff\":2500, \"tmp\":{\"min\":50000, \"max\":200000, \"steps\":4}, \"membraneArea\":10, \"concFactor\":2}}",
+            "{\"volumeStart\":\"1000\", \"tmp\":\"100000\", \"membraneArea\":10, \"molWeightCutOff\":\"1000000000\", \"concFactor\":2}"
+    };
+
+    private final String name;
+    private final Runnable primer;
+    private final CalculationCache cache;
+
+    private volatile boolean primed = false;
+
+    // set on the thread running the primer, for the duration of prime(), see isActive()
+    private static final ThreadLocal<Boolean> ACTIVE = new ThreadLocal<>();
+
+    private Priming(String name, Runnable primer, CalculationCache cache) {
+        this.name = name;
+        this.primer = primer;
+        this.cache = cache;
+    }
+
+    /** Primes now (unless disabled) and registers for checkpoint/restore notifications.
+     *  The returned object must be kept in a static field: CRaC only holds registered resources weakly.
+     * @param name handler name for logging
+     * @param primer runs one pass over the synthetic requests
+     * @param cache the handler's result cache, cleared of synthetic results after priming
+     */
+    public static Priming onInit(String name, Runnable primer, CalculationCache cache) {
+        Priming priming = new Priming(name, primer, cache);
+        if (isEnabled()) {
+            priming.prime();
+        } else {
+            Log.info(name, "Priming disabled by " + ENV_PRIMING + ".");
+        }
+        Core.getGlobalContext().register(priming);
+        return priming;
+    }
+
+    public static boolean isEnabled() {
+        return !"off".equalsIgnoreCase(System.getenv(ENV_PRIMING));
+    }
+
+    static int iterations() {
+        String value = System.getenv(ENV_ITERATIONS);
+        if (value == null || value.isBlank()) {
+            return DEFAULT_ITERATIONS;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            return DEFAULT_ITERATIONS;
+        }
+    }
+
+    /** True while the current thread runs synthetic priming requests, so their side effects (logs, metrics,
+     *  InferenceLog) can be skipped. Always false on other threads, whatever they run at the same time.
+     */
+    public static boolean isActive() {
+        return ACTIVE.get() == Boolean.TRUE;
+    }
+
+    public boolean isPrimed() {
+        return primed;
+    }
+
+    /** True once the request path is warm: primed, or priming disabled by CROSSFLOW_PRIMING, with nothing to wait for. */
+    public boolean isReady() {
+        return primed || !isEnabled();
+    }
+
+    /** Runs the primer iterations() times on this thread, with its log lines dropped (see Log), then clears the
+     *  synthetic results from the cache.
+     */
+    public synchronized void prime() {
+        long start = System.nanoTime();
+        int iterations = iterations();
+
+        Boolean outer = ACTIVE.get(); // a handler's init may prime while another handler's priming runs on this thread
+        ACTIVE.set(Boolean.TRUE);
+        try {
+            // lookup tables are built in static initialisers; force the ones the handlers only reach on some paths
+            ResistanceIntegralTable.DEFAULT.integral(1);
+
+            for (int i = 0; i < iterations; i++) {
+                primer.run();
+            }
+        } finally {
+            ACTIVE.set(outer);
+        }
+        cache.clear();
+        primed = true;
+
+        Log.info(name, String.format("Primed with %d iterations in %.1f ms.", iterations, (System.nanoTime() - start) / 1e6));
+    }
+
+    @Override
+    public void beforeCheckpoint(Context<? extends Resource> context) {
+        if (isEnabled() && !primed) {
+            prime();
+        }
+        cache.clear();
+        Log.info(name, "Ready for checkpoint: " + cache);
+    }
+
+    @Override
+    public void afterRestore(Context<? extends Resource> context) {
+        Log.info(name, "Restored from checkpoint, primed=" + primed + ".");
+    }
+}
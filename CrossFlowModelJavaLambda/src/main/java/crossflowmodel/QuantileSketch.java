@@ -0,0 +1,152 @@
+package crossflowmodel;
+
+/** Fixed-memory, mergeable quantile sketch for positive values, eg. filtration hours from MonteCarlo.
+ *
+ *  Values are counted in logarithmic buckets: bucket i covers (gamma^(i-1), gamma^i] with
+ *  gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy), so any quantile read back is within relativeAccuracy of
+ *  the true sample value (the DDSketch construction). Memory is one long per bucket over [minValue, maxValue],
+ *  whatever the number of values added; values outside the range are clamped into the end buckets.
+ *
+ *  Merging adds bucket counts, which is exact and order-independent: sketches merged in any order, from any number
+ *  of threads, give the same quantiles. Not thread-safe: use one sketch per thread and merge.
+ */
+public class QuantileSketch {
+
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.005;
+
+    // default range covers seconds to thousands of years of filtration, in hours: ~3,500 buckets, ~28 KB
+    public static final double DEFAULT_MIN_VALUE = 1e-6;
+    public static final double DEFAULT_MAX_VALUE = 1e9;
+
+    public final double relativeAccuracy;
+    public final double minValue;
+    public final double maxValue;
+
+    private final double logGamma;
+    private final int offset; // bucket index of minValue
+    private final long[] counts;
+
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public QuantileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY, DEFAULT_MIN_VALUE, DEFAULT_MAX_VALUE);
+    }
+
+    public QuantileSketch(double relativeAccuracy, double minValue, double maxValue) {
+        if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+            throw new IllegalArgumentException("relativeAccuracy must be a number between 0 and 1.");
+        }
+        if (!(minValue > 0 && minValue < maxValue)) {
+            throw new IllegalArgumentException("sketch range must satisfy 0 < minValue < maxValue.");
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+        this.logGamma = Math.log((1 + relativeAccuracy) / (1 - relativeAccuracy));
+        this.offset = (int) Math.ceil(Math.log(minValue) / logGamma);
+        this.counts = new long[(int) Math.ceil(Math.log(maxValue) / logGamma) - offset + 1];
+    }
+
+    /** Adds one value. NaN is ignored; values <= minValue and >= maxValue land in the end buckets. */
+    public void add(double value) {
+        if (Double.isNaN(value)) {
+            return;
+        }
+        int index = value <= minValue ? 0 : (int) Math.ceil(Math.log(value) / logGamma) - offset;
+        counts[Math.min(Math.max(index, 0), counts.length - 1)]++;
+        count++;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /** Adds every count of other into this sketch. Both must have the same accuracy and range. */
+    public void merge(QuantileSketch other) {
+        if (other.relativeAccuracy != relativeAccuracy || other.minValue != minValue || other.maxValue != maxValue) {
+            throw new IllegalArgumentException("cannot merge sketches with different accuracy or range.");
+        }
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /** Representative value of a bucket, within relativeAccuracy of everything counted in it. */
+    private double bucketValue(int index) {
+        return 2 * Math.exp((index + offset) * logGamma) / (1 + Math.exp(logGamma));
+    }
+
+    /** @param q quantile between 0 and 1, eg. 0.95
+     *  @return returns the q-quantile, within relativeAccuracy, or NaN if the sketch is empty
+     */
+    public double quantile(double q) {
+        if (!(q >= 0 && q <= 1)) {
+            throw new IllegalArgumentException("quantile must be between 0 and 1.");
+        }
+        if (count == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) Math.floor(q * (count - 1)); // 0-based rank of the lower nearest sample
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen > rank) {
+                return Math.min(Math.max(bucketValue(i), min), max);
+            }
+        }
+        return max;
+    }
+
+    /** Counts per equal-width bin between getMin() and getMax(), each bucket counted at its representative value.
+     *  Bin edges are getMin() + i * (getMax() - getMin()) / bins, for i = 0..bins.
+     */
+    public long[] histogram(int bins) {
+        if (bins < 1) {
+            throw new IllegalArgumentException("bins must be at least 1.");
+        }
+        long[] histogram = new long[bins];
+        if (count == 0) {
+            return histogram;
+        }
+        double width = (max - min) / bins;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] == 0) {
+                continue;
+            }
+            double value = Math.min(Math.max(bucketValue(i), min), max);
+            int bin = width > 0 ? (int) ((value - min) / width) : 0;
+            histogram[Math.min(bin, bins - 1)] += counts[i];
+        }
+        return histogram;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMin() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    public double getMax() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    /** Number of buckets, ie. the fixed memory footprint in longs. */
+    public int buckets() {
+        return counts.length;
+    }
+
+    @Override
+    public String toString() {
+        return "QuantileSketch count=" + count + ", min=" + getMin() + ", max=" + getMax() +
+                ", relativeAccuracy=" + relativeAccuracy + ", buckets=" + counts.length;
+    }
+}
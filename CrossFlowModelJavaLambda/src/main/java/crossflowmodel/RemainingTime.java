@@ -0,0 +1,350 @@
+package crossflowmodel;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/** Live process monitoring: how long is left, from the measured state of a run in progress.
+ *  calculateHours always starts at t = 0 with the starting volume; this starts from (elapsedHours, currentVolume)
+ *  as measured on the plant and only integrates forward, with the adaptive solver (the two-phase binning is tied
+ *  to t = 0). Membrane resistance depends on time alone, so the measured volume is all the state the model needs.
+ *
+ *  Every estimate also returns a solver state, a ~60 character token. Passing it back with the next poll continues
+ *  from the previous estimate instead of integrating to the end again:
+ *  - the previous poll ended at endHours, having to filter (previousVolume - desiredVolume) from previousElapsed
+ *  - since then, volumeSince = integral of the flow rate over [previousElapsed, elapsedHours] was filtered (one short span)
+ *  - so the new end is where a further delta = currentVolume - previousVolume + volumeSince is filtered after endHours,
+ *    integrated forward when delta >= 0, or found by Newton on the span before endHours when the run is ahead of the model
+ *  Both spans are about as long as the poll interval, so a resumed poll takes a few steps where a full solve takes
+ *  tens. Every RESOLVE_EVERY polls (and whenever the state does not match the request) it solves in full again,
+ *  so accumulated integration error cannot drift.
+ *
+ *  The resistance law is part of the run: with a calibrated MembraneModel, a token only resumes while the fitted
+ *  coefficients are unchanged, and a poll after a refit solves in full with the new ones.
+ *
+ *  Through HandlerAPIGateway, with a single-scenario body plus:
+ *  {"elapsedHours": 12.5, "currentVolume": 640, "state": "<token from the previous response, optional>", ...}
+ */
+public class RemainingTime {
+
+    public static final double DEFAULT_TOLERANCE = 1e-6;
+
+    // resumed polls between full solves
+    public static final int RESOLVE_EVERY = 64;
+
+    private static final int MAX_NEWTON_ITERATIONS = 30;
+
+    /** Solver state saved after an estimate, sent to the caller as an opaque token. */
+    public static class State {
+        private static final byte VERSION = 1;
+        private static final int BYTES = 1 + 2 + 8 + 4 * 8;
+
+        final long fingerprint; // of the run's parameters, a token only resumes the same run
+        final int resumes; // polls since the last full solve
+        final double elapsedHours;
+        final double currentVolume;
+        final double endHours; // predicted time the desired volume is reached
+        final double stepSize; // last adaptive step, hours
+
+        State(long fingerprint, int resumes, double elapsedHours, double currentVolume, double endHours, double stepSize) {
+            this.fingerprint = fingerprint;
+            this.resumes = resumes;
+            this.elapsedHours = elapsedHours;
+            this.currentVolume = currentVolume;
+            this.endHours = endHours;
+            this.stepSize = stepSize;
+        }
+
+        /** URL-safe base64 of the binary state, eg. "AQAA..." */
+        public String encode() {
+            ByteBuffer buffer = ByteBuffer.allocate(BYTES);
+            buffer.put(VERSION);
+            buffer.putShort((short) Math.min(resumes, Short.MAX_VALUE));
+            buffer.putLong(fingerprint);
+            buffer.putDouble(elapsedHours);
+            buffer.putDouble(currentVolume);
+            buffer.putDouble(endHours);
+            buffer.putDouble(stepSize);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+        }
+
+        /** @return returns the decoded state, or throws IllegalArgumentException if token is not one from encode() */
+        public static State decode(String token) {
+            byte[] bytes;
+            try {
+                bytes = Base64.getUrlDecoder().decode(token);
+            } catch (IllegalArgumentException e) {
+                throw invalid();
+            }
+            if (bytes.length != BYTES || bytes[0] != VERSION) {
+                throw invalid();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, BYTES - 1);
+            int resumes = buffer.getShort();
+            long fingerprint = buffer.getLong();
+            State state = new State(fingerprint, resumes, buffer.getDouble(), buffer.getDouble(), buffer.getDouble(), buffer.getDouble());
+            if (state.resumes < 0 || !(state.elapsedHours >= 0) || !(state.currentVolume > 0)
+                    || !(state.endHours >= state.elapsedHours) || !(state.stepSize > 0) || !Double.isFinite(state.endHours + state.stepSize)) {
+                throw invalid();
+            }
+            return state;
+        }
+
+        private static IllegalArgumentException invalid() {
+            return new IllegalArgumentException("state is not a solver state token from a previous response.");
+        }
+    }
+
+    /** Outcome of a poll. remainingHours and endHours are NaN unless status is SUCCESS. */
+    public static class Estimate {
+        public CalculationStatus status = CalculationStatus.SUCCESS;
+        public double elapsedHours;
+        public double currentVolume;
+        public double desiredVolume;
+        public double remainingHours = Double.NaN;
+        public double endHours = Double.NaN; // elapsedHours + remainingHours: total filtration hours
+        public double errorEstimate = Double.NaN; // hours, of this poll's integration
+        public int steps; // accepted integration steps in this poll
+        public boolean resumed; // continued from the given state rather than solved in full
+        public State state; // null unless status is SUCCESS
+
+        public boolean isSuccess() {
+            return status == CalculationStatus.SUCCESS;
+        }
+
+        /** Streams {"remainingHours", "filtrationHours", "elapsedHours", "currentVolume", "errorEstimate", "steps", "resumed", "state"}. */
+        public void writeJson(JsonGenerator generator) throws IOException {
+            generator.writeStartObject();
+            generator.writeNumberField("remainingHours", remainingHours);
+            generator.writeNumberField("filtrationHours", endHours);
+            generator.writeNumberField("elapsedHours", elapsedHours);
+            generator.writeNumberField("currentVolume", currentVolume);
+            generator.writeNumberField("errorEstimate", errorEstimate);
+            generator.writeNumberField("steps", steps);
+            generator.writeBooleanField("resumed", resumed);
+            generator.writeStringField("state", state.encode());
+            generator.writeEndObject();
+        }
+
+        public String toJson(JsonFactory factory) throws IOException {
+            StringWriter writer = new StringWriter(256);
+            try (JsonGenerator generator = factory.createGenerator(writer)) {
+                writeJson(generator);
+            }
+            return writer.toString();
+        }
+
+        @Override
+        public String toString() {
+            return "RemainingTime.Estimate status=" + status + ", remainingHours=" + remainingHours + ", endHours=" + endHours +
+                    ", elapsedHours=" + elapsedHours + ", currentVolume=" + currentVolume + ", errorEstimate=" + errorEstimate +
+                    ", steps=" + steps + ", resumed=" + resumed;
+        }
+    }
+
+    // integration scratch, one estimate at a time per instance
+    private final CalculationResult scratch = new CalculationResult();
+
+    public RemainingTime() {
+    }
+
+    /** Estimates the time left in a run. Not thread-safe: use one instance per thread.
+     *
+     * @param elapsedHours filtration time so far, in hours
+     * @param currentVolume measured retentate volume now, in Litres
+     * @param startingVolume the starting volume in Litres
+     * @param concentrationFactor the ratio of concentration of the whole run. Must be >= 1.
+     * @param tmp the transmembrane pressure given in Pascals
+     * @param solutionViscosity the dynamic viscosity of the solution in Pascals per Second
+     * @param membraneArea the surface area of the membrane in Metres Squared
+     * @param tolerance adaptive solver tolerance, NaN for DEFAULT_TOLERANCE
+     * @param previous state from the previous poll of this run, or null to solve in full
+     * @return returns the estimate; status CONCENTRATION_FACTOR_BELOW_ONE or NOT_CONVERGED on failure
+     */
+    public Estimate estimate(
+            double elapsedHours,
+            double currentVolume,
+            double startingVolume,
+            double concentrationFactor,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea,
+            double tolerance,
+            State previous
+    ){
+        return estimate(elapsedHours, currentVolume, startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea,
+                tolerance, MembraneModel.DEFAULT, previous);
+    }
+
+    /** estimate for one membrane's resistance law, eg. MembraneRegistry.modelFor(membraneId).
+     * @param model membrane resistance law to use instead of the default one
+     */
+    public Estimate estimate(
+            double elapsedHours,
+            double currentVolume,
+            double startingVolume,
+            double concentrationFactor,
+            double tmp,
+            double solutionViscosity,
+            double membraneArea,
+            double tolerance,
+            MembraneModel model,
+            State previous
+    ){
+        if (!(elapsedHours >= 0)) {
+            throw new IllegalArgumentException("elapsedHours must not be negative.");
+        }
+        if (!(currentVolume > 0 && startingVolume > 0 && tmp > 0 && solutionViscosity > 0 && membraneArea > 0)) {
+            throw new IllegalArgumentException("currentVolume, volumeStart, tmp, membraneArea and solutionViscosity must be positive.");
+        }
+        double tol = Double.isNaN(tolerance) ? DEFAULT_TOLERANCE : Math.max(tolerance, Calculations.ADAPTIVE_MIN_TOLERANCE);
+        if (!(tol > 0 && tol < 1)) {
+            throw new IllegalArgumentException("tolerance must be a number between 0 and 1.");
+        }
+
+        Estimate estimate = new Estimate();
+        estimate.elapsedHours = elapsedHours;
+        estimate.currentVolume = currentVolume;
+        if (concentrationFactor < 1) {
+            estimate.status = CalculationStatus.CONCENTRATION_FACTOR_BELOW_ONE;
+            return estimate;
+        }
+        double desiredVolume = startingVolume / concentrationFactor;
+        estimate.desiredVolume = desiredVolume;
+        long fingerprint = fingerprint(desiredVolume, tmp, solutionViscosity, membraneArea, tol, model);
+
+        // already there
+        double remainingVolume = currentVolume - desiredVolume;
+        if (remainingVolume <= 0) {
+            estimate.remainingHours = 0;
+            estimate.endHours = elapsedHours;
+            estimate.errorEstimate = 0;
+            estimate.state = new State(fingerprint, 0, elapsedHours, currentVolume, elapsedHours, 1);
+            return estimate;
+        }
+
+        double flowRate = Calculations.flowRate(elapsedHours, tmp, solutionViscosity, membraneArea, model);
+        if (!(flowRate > 0)) {
+            estimate.status = CalculationStatus.NOT_CONVERGED;
+            return estimate;
+        }
+        double allowedError = tol * remainingVolume; // Litres per step
+
+        boolean resumable = previous != null
+                && previous.fingerprint == fingerprint
+                && previous.resumes < RESOLVE_EVERY
+                && elapsedHours >= previous.elapsedHours
+                && previous.endHours > previous.elapsedHours // previous poll was not already finished
+                && previous.endHours >= elapsedHours;
+        double endHours = resumable
+                ? resume(previous, elapsedHours, currentVolume, allowedError, tmp, solutionViscosity, membraneArea, model)
+                : Double.NaN;
+
+        if (!Double.isNaN(endHours)) {
+            estimate.resumed = true;
+            estimate.state = new State(fingerprint, previous.resumes + 1, elapsedHours, currentVolume, endHours, scratch.stepSize);
+        } else {
+            // full solve from the measured state. Initial step: 1% of the time the current flow rate would need
+            endHours = Calculations.adaptiveHours(elapsedHours, currentVolume, desiredVolume, 0.01 * remainingVolume / flowRate,
+                    allowedError, tmp, solutionViscosity, membraneArea, model, null, scratch);
+            if (!scratch.isSuccess()) {
+                estimate.status = scratch.status;
+                return estimate;
+            }
+            estimate.state = new State(fingerprint, 0, elapsedHours, currentVolume, endHours, scratch.stepSize);
+        }
+
+        estimate.endHours = endHours;
+        estimate.remainingHours = endHours - elapsedHours;
+        estimate.errorEstimate = scratch.errorEstimate;
+        estimate.steps = scratch.steps;
+        return estimate;
+    }
+
+    /** New end time from the previous one, see class comment. Leaves errorEstimate, steps and stepSize in scratch.
+     * @return returns the end time in hours, or NaN to solve in full instead
+     */
+    private double resume(State previous, double elapsedHours, double currentVolume, double allowedError,
+                          double tmp, double solutionViscosity, double membraneArea, MembraneModel model) {
+        int steps = 0;
+        double error = 0; // Litres
+
+        // volume filtered since the previous poll, according to the model
+        double volumeSince = 0;
+        if (elapsedHours > previous.elapsedHours) {
+            volumeSince = Calculations.adaptiveVolume(previous.elapsedHours, elapsedHours, previous.stepSize, allowedError,
+                    tmp, solutionViscosity, membraneArea, model, scratch);
+            if (Double.isNaN(volumeSince)) {
+                return Double.NaN;
+            }
+            steps += scratch.steps;
+            error += scratch.stepError;
+        }
+        double stepSize = scratch.steps > 0 ? scratch.stepSize : previous.stepSize;
+
+        // positive: the run is behind the model and ends after previous.endHours; negative: ahead, ends before
+        double delta = currentVolume - previous.currentVolume + volumeSince;
+        double endHours = previous.endHours;
+
+        if (delta > 0) {
+            endHours = Calculations.adaptiveHours(previous.endHours, delta, 0, Math.min(stepSize, delta / Calculations.flowRate(
+                    previous.endHours, tmp, solutionViscosity, membraneArea, model)), allowedError, tmp, solutionViscosity, membraneArea, model, null, scratch);
+            if (!scratch.isSuccess()) {
+                return Double.NaN;
+            }
+            steps += scratch.steps;
+            error += scratch.errorEstimate * Calculations.flowRate(endHours, tmp, solutionViscosity, membraneArea, model);
+            stepSize = scratch.stepSize;
+        } else if (delta < 0) {
+            // Newton on g(t) = (volume filtered over [t, previous.endHours]) + delta, from previous.endHours.
+            // g is convex and decreasing, so after the first iterate the iterates rise monotonically to the root
+            for (int i = 0; ; i++) {
+                if (i == MAX_NEWTON_ITERATIONS) {
+                    return Double.NaN;
+                }
+                double filtered = 0;
+                if (endHours < previous.endHours) {
+                    filtered = Calculations.adaptiveVolume(endHours, previous.endHours, stepSize, allowedError,
+                            tmp, solutionViscosity, membraneArea, model, scratch);
+                    if (Double.isNaN(filtered)) {
+                        return Double.NaN;
+                    }
+                    steps += scratch.steps;
+                }
+                double residual = filtered + delta;
+                if (Math.abs(residual) <= allowedError) {
+                    error += scratch.stepError;
+                    break;
+                }
+                double next = Math.max(elapsedHours, endHours + residual / Calculations.flowRate(endHours, tmp, solutionViscosity, membraneArea, model));
+                if (Math.abs(next - endHours) <= 1e-12 * endHours) {
+                    break;
+                }
+                endHours = next;
+            }
+        }
+
+        scratch.status = CalculationStatus.SUCCESS;
+        scratch.steps = steps;
+        scratch.stepSize = stepSize;
+        scratch.errorEstimate = error / Calculations.flowRate(endHours, tmp, solutionViscosity, membraneArea, model);
+        return endHours;
+    }
+
+    /** Mixes the parameters that define a run's model, so a token is only resumed for the same run. */
+    static long fingerprint(double desiredVolume, double tmp, double solutionViscosity, double membraneArea, double tolerance,
+                            MembraneModel model) {
+        long hash = 0x9E3779B97F4A7C15L;
+        for (double value : new double[] {desiredVolume, tmp, solutionViscosity, membraneArea, tolerance,
+                model.initialResistance, model.foulingResistance, model.foulingExponent}) {
+            hash ^= Double.doubleToLongBits(value);
+            hash *= 0xBF58476D1CE4E5B9L;
+            hash ^= hash >>> 31;
+        }
+        return hash;
+    }
+}
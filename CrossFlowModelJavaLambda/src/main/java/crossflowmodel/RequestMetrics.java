@@ -0,0 +1,226 @@
+package crossflowmodel;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Locale;
+
+/** Per-request timers and counters, emitted as one CloudWatch embedded metric format (EMF) line on stdout:
+ *  {"_aws": {"Timestamp": ..., "CloudWatchMetrics": [{"Namespace": "CrossFlowModel", "Dimensions": [["Handler", "Kind"]],
+ *            "Metrics": [{"Name": "ParseMicros", "Unit": "Microseconds"}, ...]}]},
+ *   "Handler": "HandlerAPIGateway", "Kind": "SINGLE", "StatusCode": 200, "ExitPhase": "PHASE2",
+ *   "ParseMicros": 18.2, "ValidateMicros": 0.4, "ComputeMicros": 2.1, "Phase1Micros": 0.9, "Phase2Micros": 1.0,
+ *   "SerializeMicros": 3.5, "TotalMicros": 25.0, "Iterations": 100, "CacheHit": 0}
+ *  CloudWatch turns the listed fields into metrics with no agent or API call; the rest stay searchable in Logs Insights.
+ *
+ *  A handler starts one per request, calls lap(phase) as it finishes each phase (the time since the previous lap
+ *  is added to that phase) and emit() once at the end. Phases never lapped are left out of the line.
+ *
+ *  Enabled unless CROSSFLOW_METRICS is "off"; CROSSFLOW_METRICS_NAMESPACE sets the namespace. When disabled, and
+ *  while priming, start() returns a shared instance that records nothing, so the handlers need no checks.
+ *  Not thread-safe: one instance per request.
+ */
+public final class RequestMetrics {
+
+    public static final String ENV_METRICS = "CROSSFLOW_METRICS";
+    public static final String ENV_NAMESPACE = "CROSSFLOW_METRICS_NAMESPACE";
+    public static final String DEFAULT_NAMESPACE = "CrossFlowModel";
+
+    public enum Phase {
+        PARSE("ParseMicros"), // binding the request body
+        VALIDATE("ValidateMicros"), // authentication and model parameter checks
+        COMPUTE("ComputeMicros"), // the model, including the cache lookup
+        SERIALIZE("SerializeMicros"); // response body
+
+        public final String metricName;
+
+        Phase(String metricName) {
+            this.metricName = metricName;
+        }
+    }
+
+    private static final boolean ENABLED = !"off".equalsIgnoreCase(System.getenv(ENV_METRICS));
+    private static final String NAMESPACE = namespaceFromEnvironment();
+
+    private static final RequestMetrics DISABLED = new RequestMetrics(null);
+
+    private final String handler; // null = disabled
+    private final long start;
+    private long lastLap;
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private final boolean[] lapped = new boolean[Phase.values().length];
+
+    private String kind = "UNKNOWN";
+    private int statusCode = 200;
+    private boolean calculated;
+    private CalculationStatus calculationStatus;
+    private int iterations;
+    private int steps;
+    private ExitPhase exitPhase;
+    private boolean cacheHit;
+    private long phase1Nanos;
+    private long phase2Nanos;
+    private long items = -1; // batch scenarios, sweep cells or Monte Carlo samples; -1 = not applicable
+
+    private RequestMetrics(String handler) {
+        this.handler = handler;
+        this.start = handler == null ? 0 : System.nanoTime();
+        this.lastLap = start;
+    }
+
+    private static String namespaceFromEnvironment() {
+        String value = System.getenv(ENV_NAMESPACE);
+        return value == null || value.isBlank() ? DEFAULT_NAMESPACE : value.trim();
+    }
+
+    /** Starts timing a request. */
+    public static RequestMetrics start(String handler) {
+        return ENABLED && !Priming.isActive() ? new RequestMetrics(handler) : DISABLED;
+    }
+
+    public boolean isEnabled() {
+        return handler != null;
+    }
+
+    /** Adds the time since the previous lap (or start) to phase. */
+    public void lap(Phase phase) {
+        if (handler == null) {
+            return;
+        }
+        long now = System.nanoTime();
+        phaseNanos[phase.ordinal()] += now - lastLap;
+        lapped[phase.ordinal()] = true;
+        lastLap = now;
+    }
+
+    public void kind(ModelRequest.Kind requestKind) {
+        if (handler != null) {
+            kind = requestKind.name();
+        }
+    }
+
+    public void status(int code) {
+        if (handler != null) {
+            statusCode = code;
+        }
+    }
+
+    public void items(long count) {
+        if (handler != null) {
+            items = count;
+        }
+    }
+
+    /** Records the profile of a single calculation: iterations, exit phase, phase timings and cache hit. */
+    public void calculation(CalculationResult result) {
+        if (handler == null) {
+            return;
+        }
+        calculated = true;
+        calculationStatus = result.status;
+        iterations = result.iterations;
+        steps = result.steps;
+        exitPhase = result.exitPhase;
+        cacheHit = result.cached;
+        phase1Nanos = result.phase1Nanos;
+        phase2Nanos = result.phase2Nanos;
+    }
+
+    /** Writes the EMF line. Call once, after the response is built. */
+    public void emit() {
+        if (handler == null) {
+            return;
+        }
+        long total = System.nanoTime() - start;
+        boolean phases = calculated && !cacheHit && exitPhase != ExitPhase.NONE && phase1Nanos > 0; // timed two-phase run
+
+        StringWriter line = new StringWriter(512);
+        try (JsonGenerator generator = SharedJson.MAPPER.getFactory().createGenerator(line)) {
+            generator.writeStartObject();
+
+            // metadata: which of the fields below are metrics
+            generator.writeObjectFieldStart("_aws");
+            generator.writeNumberField("Timestamp", System.currentTimeMillis());
+            generator.writeArrayFieldStart("CloudWatchMetrics");
+            generator.writeStartObject();
+            generator.writeStringField("Namespace", NAMESPACE);
+            generator.writeArrayFieldStart("Dimensions");
+            generator.writeStartArray();
+            generator.writeString("Handler");
+            generator.writeString("Kind");
+            generator.writeEndArray();
+            generator.writeEndArray();
+            generator.writeArrayFieldStart("Metrics");
+            for (Phase phase : Phase.values()) {
+                if (lapped[phase.ordinal()]) {
+                    writeDefinition(generator, phase.metricName, "Microseconds");
+                }
+            }
+            writeDefinition(generator, "TotalMicros", "Microseconds");
+            if (calculated) {
+                if (phases) {
+                    writeDefinition(generator, "Phase1Micros", "Microseconds");
+                    writeDefinition(generator, "Phase2Micros", "Microseconds");
+                }
+                writeDefinition(generator, "Iterations", "Count");
+                writeDefinition(generator, "CacheHit", "Count");
+            }
+            if (items >= 0) {
+                writeDefinition(generator, "Items", "Count");
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeEndArray();
+            generator.writeEndObject();
+
+            // dimensions and properties
+            generator.writeStringField("Handler", handler);
+            generator.writeStringField("Kind", kind);
+            generator.writeNumberField("StatusCode", statusCode);
+
+            // values
+            for (Phase phase : Phase.values()) {
+                if (lapped[phase.ordinal()]) {
+                    generator.writeNumberField(phase.metricName, micros(phaseNanos[phase.ordinal()]));
+                }
+            }
+            generator.writeNumberField("TotalMicros", micros(total));
+            if (calculated) {
+                generator.writeStringField("CalculationStatus", calculationStatus.name());
+                generator.writeStringField("ExitPhase", exitPhase.name());
+                if (phases) {
+                    generator.writeNumberField("Phase1Micros", micros(phase1Nanos));
+                    generator.writeNumberField("Phase2Micros", micros(phase2Nanos));
+                }
+                generator.writeNumberField("Iterations", exitPhase == ExitPhase.NONE ? steps : iterations);
+                generator.writeNumberField("CacheHit", cacheHit ? 1 : 0);
+            }
+            if (items >= 0) {
+                generator.writeNumberField("Items", items);
+            }
+
+            generator.writeEndObject();
+        } catch (IOException e) {
+            Log.error("RequestMetrics", "Could not write metrics.", e); // StringWriter does not throw
+            return;
+        }
+        System.out.println(line);
+    }
+
+    private static void writeDefinition(JsonGenerator generator, String name, String unit) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("Name", name);
+        generator.writeStringField("Unit", unit);
+        generator.writeEndObject();
+    }
+
+    private static double micros(long nanos) {
+        return Math.round(nanos / 100.0) / 10.0; // 0.1 us resolution
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "RequestMetrics %s kind=%s status=%d", handler, kind, statusCode);
+    }
+}
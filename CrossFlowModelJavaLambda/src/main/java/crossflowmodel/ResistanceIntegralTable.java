@@ -0,0 +1,222 @@
+package crossflowmodel;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Precomputed table of the universal membrane resistance integral, used by the tabulated solver in Calculations.
+ *  The membrane resistance law R(t) = a + b * t^p only depends on time, while tmp, viscosity and membrane area
+ *  are a constant scale factor on the flow rate. The volume removed by time t is therefore:
+ *      V(t) = (tmp * 1000 * area / viscosity) * integral[0, t] of 1/R(s) ds
+ *  Substituting s = c*u with c = (a/b)^(1/p) turns the integral into (c/a) * J(t/c), where
+ *      J(u) = integral[0, u] of 1/(1 + v^p) dv
+ *  depends on the exponent p only. J is tabulated ONCE on a geometric grid, and inverted per request
+ *  by binary search + linear interpolation, so a request costs O(log n) with no Math.pow loop.
+ */
+public final class ResistanceIntegralTable {
+
+    // table spans u = 1e-6 .. 1e12 (roughly 2e-9 .. 2e9 hours for the default membrane), 256 nodes per decade
+    private static final double U_MIN = 1e-6;
+    private static final int DECADES = 18;
+    private static final int NODES_PER_DECADE = 256;
+
+    // the head and tail series alternate with a ratio of U_MIN^p and U_MAX^-p between terms: ~3 terms reach double
+    // precision at p = 0.4, but ~55 at p = 0.05 (head) and ~30 (tail). Terms are summed until they no longer change
+    // the sum; the cap is only reached for p below ~0.0003, where the series converge too slowly to be exact
+    private static final int MAX_SERIES_TERMS = 10_000;
+
+    // 4-point Gauss-Legendre nodes and weights on [-1, 1], used to integrate each table interval
+    private static final double[] GAUSS_NODES = {-0.8611363115940526, -0.3399810435848563, 0.3399810435848563, 0.8611363115940526};
+    private static final double[] GAUSS_WEIGHTS = {0.3478548451374538, 0.6521451548625461, 0.6521451548625461, 0.3478548451374538};
+
+    /** Table for the default resistance law in Calculations, loaded at class-init. */
+    public static final ResistanceIntegralTable DEFAULT = new ResistanceIntegralTable(Calculations.MEMBRANE_FOULING_EXPONENT);
+
+    // tables for other exponents, eg. of calibrated membranes. Bounded: MembraneCalibration fits exponents on a
+    // grid of NUM_EXPONENTS, which all fit with room for hand-made laws; beyond MAX_CACHED distinct exponents tables
+    // are built per call rather than kept. ~75 KB per table
+    static final int MAX_CACHED = MembraneCalibration.NUM_EXPONENTS + 32;
+    private static final ConcurrentHashMap<Double, ResistanceIntegralTable> CACHE = new ConcurrentHashMap<>();
+
+    private final double exponent;
+    private final double[] u; // normalised time nodes, strictly increasing
+    private final double[] j; // J(u) at each node, strictly increasing
+
+    /** Builds the table of J(u) for the given fouling exponent p. Requires 0 < p < 1.
+     * @param exponent the exponent p of the resistance law R(t) = a + b * t^p
+     */
+    public ResistanceIntegralTable(double exponent) {
+        if (!(exponent > 0 && exponent < 1)) {
+            throw new IllegalArgumentException("Fouling exponent must be between 0 and 1, got: " + exponent);
+        }
+        this.exponent = exponent;
+
+        int numNodes = DECADES * NODES_PER_DECADE + 1;
+        this.u = new double[numNodes];
+        this.j = new double[numNodes];
+
+        u[0] = U_MIN;
+        j[0] = head(U_MIN);
+
+        double ratio = Math.pow(10, 1.0 / NODES_PER_DECADE);
+        for (int k = 1; k < numNodes; k++) {
+            u[k] = U_MIN * Math.pow(ratio, k); // pow rather than repeated multiply avoids drift over ~4600 nodes
+            j[k] = j[k - 1] + integrate(u[k - 1], u[k]);
+        }
+    }
+
+    /** Shared table for the given fouling exponent: DEFAULT for the default law's, otherwise built on first use
+     *  (~1 ms) and cached.
+     */
+    public static ResistanceIntegralTable forExponent(double exponent) {
+        if (exponent == DEFAULT.exponent) {
+            return DEFAULT;
+        }
+        ResistanceIntegralTable table = CACHE.get(exponent);
+        if (table == null) {
+            table = new ResistanceIntegralTable(exponent);
+            if (CACHE.size() < MAX_CACHED) {
+                ResistanceIntegralTable raced = CACHE.putIfAbsent(exponent, table);
+                if (raced != null) {
+                    table = raced;
+                }
+            }
+        }
+        return table;
+    }
+
+    public double getExponent() {
+        return exponent;
+    }
+
+    /** Evaluates J(u) by interpolating the table, or by the large-u series beyond its end.
+     * @param normalisedTime u = t/c
+     * @return the normalised integral J(u)
+     */
+    public double integral(double normalisedTime) {
+        if (normalisedTime <= 0) {
+            return 0;
+        }
+        if (normalisedTime <= u[0]) { // J(u) ~ u for tiny u, interpolate from the origin
+            return j[0] * normalisedTime / u[0];
+        }
+        int last = u.length - 1;
+        if (normalisedTime >= u[last]) {
+            return j[last] + tail(u[last], normalisedTime);
+        }
+
+        int k = upperIndex(u, normalisedTime);
+        double fraction = (normalisedTime - u[k - 1]) / (u[k] - u[k - 1]);
+        return j[k - 1] + fraction * (j[k] - j[k - 1]);
+    }
+
+    /** Inverts J: finds the normalised time u at which J(u) reaches the target.
+     * @param target the normalised integral value to reach
+     * @return u such that J(u) = target, or positive infinity if the target is infinite/NaN
+     */
+    public double inverse(double target) {
+        if (!(target < Double.POSITIVE_INFINITY)) { // catches NaN and infinity, eg. zero flow rate
+            return Double.POSITIVE_INFINITY;
+        }
+        if (target <= 0) {
+            return 0;
+        }
+        if (target <= j[0]) {
+            return u[0] * target / j[0];
+        }
+        int last = j.length - 1;
+        if (target >= j[last]) {
+            return inverseTail(target);
+        }
+
+        int k = upperIndex(j, target);
+        double fraction = (target - j[k - 1]) / (j[k] - j[k - 1]);
+        return u[k - 1] + fraction * (u[k] - u[k - 1]);
+    }
+
+    /** Binary search: returns smallest index k such that values[k] >= key, for key strictly inside the table. */
+    private static int upperIndex(double[] values, double key) {
+        int low = 1;
+        int high = values.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (values[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Small-u series 1/(1+v^p) = 1 - v^p + v^2p - ..., integrated analytically from 0 to u:
+     *  J(u) = u - u^(1+p)/(1+p) + u^(1+2p)/(1+2p) - ...
+     *  The terms alternate and shrink, so the sum stops at the first term too small to change it.
+     */
+    private double head(double to) {
+        double sum = 0;
+        double sign = 1;
+        for (int n = 0; n < MAX_SERIES_TERMS; n++) {
+            double term = Math.pow(to, 1 + n * exponent) / (1 + n * exponent);
+            double next = sum + sign * term;
+            if (next == sum) {
+                break;
+            }
+            sum = next;
+            sign = -sign;
+        }
+        return sum;
+    }
+
+    private double integrand(double v) {
+        return 1.0 / (1.0 + Math.pow(v, exponent));
+    }
+
+    private double integrate(double from, double to) {
+        double halfWidth = 0.5 * (to - from);
+        double mid = 0.5 * (to + from);
+        double sum = 0;
+        for (int i = 0; i < GAUSS_NODES.length; i++) {
+            sum += GAUSS_WEIGHTS[i] * integrand(mid + halfWidth * GAUSS_NODES[i]);
+        }
+        return sum * halfWidth;
+    }
+
+    /** Large-u series 1/(1+v^p) = v^-p - v^-2p + v^-3p - ..., integrated analytically between from and to.
+     *  The terms alternate and shrink by at least from^-p each (~1e-5 at the table end for p = 0.4, 0.25 for
+     *  p = 0.05), so the sum stops at the first term too small to change it.
+     */
+    private double tail(double from, double to) {
+        double logRatio = Math.log(to / from);
+        double sum = 0;
+        double sign = 1;
+        for (int n = 1; n <= MAX_SERIES_TERMS; n++) {
+            // integral of v^-np over [from, to], written with expm1 so that powers near 0 do not cancel
+            double power = 1 - n * exponent;
+            double term = power == 0
+                    ? logRatio
+                    : Math.pow(from, power) * (Math.expm1(power * logRatio) / power);
+            double next = sum + sign * term;
+            if (next == sum) {
+                break;
+            }
+            sum = next;
+            sign = -sign;
+        }
+        return sum;
+    }
+
+    /** Newton iteration on the tail series, only reached for runs far beyond the table (~2e9 hours by default). */
+    private double inverseTail(double target) {
+        int last = u.length - 1;
+        double remaining = target - j[last];
+        // leading-order guess from J ~ u^(1-p)/(1-p)
+        double guess = Math.max(u[last], Math.pow(Math.pow(u[last], 1 - exponent) + (1 - exponent) * remaining, 1 / (1 - exponent)));
+        for (int i = 0; i < 20; i++) {
+            double step = (tail(u[last], guess) - remaining) / integrand(guess);
+            guess = Math.max(u[last], guess - step);
+            if (Math.abs(step) <= 1e-14 * guess) {
+                break;
+            }
+        }
+        return guess;
+    }
+}
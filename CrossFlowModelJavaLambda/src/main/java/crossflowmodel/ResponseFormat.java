@@ -0,0 +1,162 @@
+package crossflowmodel;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORGenerator;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+import java.util.Locale;
+
+/** Response body encodings, chosen per request from the Accept header. JSON stays the default; CBOR and Smile are
+ *  binary encodings of the same document, written by the same writeJson(JsonGenerator) methods of the result
+ *  classes, so every response has the same fields in every format.
+ *
+ *  Numbers are the bulk of large responses (batch, sweep and trajectory results), and as JSON text a double takes
+ *  up to 24 characters plus parsing on the client. Binary formats write them as 8 byte IEEE doubles, and in CBOR
+ *  numeric series are written as one packed typed array (RFC 8746, tag 86: float64 little endian) instead of an
+ *  array of separately tagged numbers, see writeDoubles.
+ *
+ *  Through API Gateway a binary body is returned base64-encoded with isBase64Encoded, and API Gateway decodes it
+ *  when the media type is listed in the REST API's binaryMediaTypes (application/cbor, application/x-jackson-smile).
+ *  ModelServer decodes it itself. Step Function states are JSON documents, so HandlerStepFunction always writes JSON.
+ */
+public enum ResponseFormat {
+    JSON("application/json", SharedJson.MAPPER),
+    CBOR("application/cbor", new ObjectMapper(new CBORFactory())),
+    SMILE("application/x-jackson-smile", new ObjectMapper(new SmileFactory()));
+
+    // RFC 8746 typed array tag: IEEE 754 binary64, little endian
+    static final int CBOR_TAG_FLOAT64_LITTLE_ENDIAN = 86;
+
+    public final String contentType;
+    public final ObjectMapper mapper; // thread-safe, shared for the lifetime of the container
+
+    ResponseFormat(String contentType, ObjectMapper mapper) {
+        this.contentType = contentType;
+        this.mapper = mapper;
+    }
+
+    public boolean isBinary() {
+        return this != JSON;
+    }
+
+    public JsonFactory factory() {
+        return mapper.getFactory();
+    }
+
+    /** Streams one response document into a generator, eg. batch::writeJson. */
+    @FunctionalInterface
+    public interface Body {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    /** Format for an Accept header: the supported media type with the highest q-value, the earliest listed on a tie.
+     *  Wildcards, a missing header, or only unsupported types give JSON, as before negotiation existed.
+     * @param accept the Accept header value, may be null
+     */
+    public static ResponseFormat negotiate(String accept) {
+        if (accept == null || accept.isBlank()) {
+            return JSON;
+        }
+        ResponseFormat best = JSON;
+        double bestQuality = 0;
+        for (String range : accept.split(",")) {
+            String[] parts = range.split(";");
+            ResponseFormat format = forMediaType(parts[0].trim().toLowerCase(Locale.ROOT));
+            if (format == null) {
+                continue;
+            }
+            double quality = quality(parts);
+            if (quality > bestQuality) {
+                best = format;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    private static ResponseFormat forMediaType(String mediaType) {
+        switch (mediaType) {
+            case "application/json":
+            case "application/*":
+            case "*/*":
+                return JSON;
+            case "application/cbor":
+                return CBOR;
+            case "application/x-jackson-smile":
+            case "application/smile":
+                return SMILE;
+            default:
+                return null;
+        }
+    }
+
+    /** q parameter of a media range, 1 if absent; malformed values count as 0 (not acceptable). */
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                try {
+                    double q = Double.parseDouble(parameter.substring(2).trim());
+                    return q >= 0 && q <= 1 ? q : 0;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    /** Encodes a document: JSON text, or the binary encoding. */
+    public byte[] encode(Body body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (JsonGenerator generator = factory().createGenerator(bytes)) {
+            body.write(generator);
+        }
+        return bytes.toByteArray();
+    }
+
+    /** Encodes a document as an API Gateway body: JSON text, or base64 of the binary encoding. */
+    public String encodeBody(Body body) throws IOException {
+        if (!isBinary()) {
+            StringWriter writer = new StringWriter(1024);
+            try (JsonGenerator generator = factory().createGenerator(writer)) {
+                body.write(generator);
+            }
+            return writer.toString();
+        }
+        return Base64.getEncoder().encodeToString(encode(body));
+    }
+
+    /** Encodes a value with this format's ObjectMapper as an API Gateway body, see encodeBody. */
+    public String encodeValueBody(Object value) throws JsonProcessingException {
+        if (!isBinary()) {
+            return mapper.writeValueAsString(value);
+        }
+        return Base64.getEncoder().encodeToString(mapper.writeValueAsBytes(value));
+    }
+
+    /** Writes a numeric series: a JSON array of numbers, or in CBOR one RFC 8746 float64 typed array.
+     *  Result classes write every double[] series through here, so each format gets its compact form.
+     */
+    public static void writeDoubles(JsonGenerator generator, double[] values, int offset, int length) throws IOException {
+        if (generator instanceof CBORGenerator) {
+            ByteBuffer packed = ByteBuffer.allocate(8 * length).order(ByteOrder.LITTLE_ENDIAN);
+            packed.asDoubleBuffer().put(values, offset, length);
+            CBORGenerator cbor = (CBORGenerator) generator;
+            cbor.writeTag(CBOR_TAG_FLOAT64_LITTLE_ENDIAN);
+            cbor.writeBinary(packed.array(), 0, packed.capacity());
+            return;
+        }
+        generator.writeArray(values, offset, length);
+    }
+}
@@ -0,0 +1,183 @@
+package crossflowmodel;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/** Batch of model scenarios stored as a structure-of-arrays.
+ *  Every parameter is one primitive double[] column indexed by scenario, so a batch of thousands of scenarios
+ *  does not create a HashMap<String, Double> per item. Results (status code, hours, error message) are written
+ *  into parallel columns, and serialised back in input order.
+ *
+ *  Example request body:
+ *  {"scenarios": [{"volumeStart": 1000, "tmp": 100000, "membraneArea": 10, "molWeightCutOff": 2500, "concFactor": 2}, ...]}
+ */
+public class ScenarioBatch {
+
+    // cap on scenarios per invocation, keeps a single Lambda request within its time and payload limits
+    public static final int MAX_BATCH_SIZE = 10_000;
+
+    // per-item status codes, same meaning as the HTTP status codes of the single-scenario handlers
+    public static final int STATUS_OK = 200;
+    public static final int STATUS_BAD_REQUEST = 400;
+    public static final int STATUS_SERVER_ERROR = 500;
+
+    public final int size;
+
+    // input columns
+    public final double[] volumeStart;
+    public final double[] tmp;
+    public final double[] membraneArea;
+    public final double[] molWeightCutOff;
+    public final double[] concFactor;
+    public final double[] solutionViscosity;
+
+    // output columns
+    public final int[] statusCode;
+    public final double[] hours;
+    public final String[] errorMessage; // null unless statusCode != STATUS_OK
+
+    public ScenarioBatch(int size) {
+        this.size = size;
+        this.volumeStart = new double[size];
+        this.tmp = new double[size];
+        this.membraneArea = new double[size];
+        this.molWeightCutOff = new double[size];
+        this.concFactor = new double[size];
+        this.solutionViscosity = new double[size];
+        this.statusCode = new int[size];
+        this.hours = new double[size];
+        this.errorMessage = new String[size];
+    }
+
+    /** Binds a JSON array of scenario objects into columns.
+     *  Items with missing or non-numeric parameters are marked STATUS_BAD_REQUEST here, and skipped by evaluate().
+     * @param scenarios JSON array of objects with the REQUIRED_PARAMS of ModelRequest, and optionally solutionViscosity
+     * @param defaultViscosity viscosity to use when an item does not provide solutionViscosity
+     * @return returns the bound batch, or throws IllegalArgumentException if scenarios is not an array within MAX_BATCH_SIZE
+     */
+    public static ScenarioBatch fromJson(JsonNode scenarios, double defaultViscosity) {
+        if (scenarios == null || !scenarios.isArray()) {
+            throw new IllegalArgumentException("scenarios must be a JSON array.");
+        }
+        if (scenarios.size() > MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("scenarios exceeds maximum batch size of " + MAX_BATCH_SIZE + ".");
+        }
+
+        ScenarioBatch batch = new ScenarioBatch(scenarios.size());
+        for (int i = 0; i < batch.size; i++) {
+            JsonNode item = scenarios.get(i);
+            try {
+                batch.volumeStart[i] = requireDouble(item, "volumeStart");
+                batch.tmp[i] = requireDouble(item, "tmp");
+                batch.membraneArea[i] = requireDouble(item, "membraneArea");
+                batch.molWeightCutOff[i] = requireDouble(item, "molWeightCutOff");
+                batch.concFactor[i] = requireDouble(item, "concFactor");
+
+                JsonNode viscosity = item.get("solutionViscosity");
+                batch.solutionViscosity[i] = (viscosity == null || !viscosity.isNumber()) ? defaultViscosity : viscosity.asDouble();
+            } catch (IllegalArgumentException e) {
+                batch.statusCode[i] = STATUS_BAD_REQUEST;
+                batch.errorMessage[i] = e.getMessage();
+            }
+        }
+        return batch;
+    }
+
+    private static double requireDouble(JsonNode item, String param) {
+        JsonNode field = item == null ? null : item.get(param);
+        if (field == null || field.isNull() || field.isContainerNode()) {
+            throw new IllegalArgumentException("Missing parameter: " + param);
+        }
+        try {
+            return Double.parseDouble(field.asText()); // asText accepts both numbers and numeric strings
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Non-numeric parameter: " + param);
+        }
+    }
+
+    /** Validates and computes every scenario not already rejected during binding, in one pass over the columns.
+     * @param calculator model to evaluate each scenario with
+     * @param tolerance accuracy tolerance for the adaptive solver, or NaN for the default two-phase algorithm
+     */
+    public void evaluate(Calculations calculator, double tolerance) {
+        boolean adaptive = !Double.isNaN(tolerance);
+        CalculationResult result = new CalculationResult(); // reused for every scenario
+
+        // two-phase hours of every scenario in one pass over the columns, several per SIMD vector where available;
+        // rejected scenarios get hours too, which are never written out
+        if (!adaptive) {
+            TwoPhaseBatch.hours(volumeStart, concFactor, tmp, solutionViscosity, membraneArea, MembraneModel.DEFAULT, hours, 0, size);
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (statusCode[i] != 0) { // rejected while binding
+                continue;
+            }
+            if (molWeightCutOff[i] >= calculator.BOV_CASEIN_MW) {
+                statusCode[i] = STATUS_BAD_REQUEST;
+                errorMessage[i] = "Bovine Casein solution requires membrane MWCO of less than " + calculator.BOV_CASEIN_MW + ".";
+                continue;
+            }
+
+            if (!adaptive) {
+                // the checks of calculateHours around the hours computed above
+                if (concFactor[i] < 1) {
+                    statusCode[i] = STATUS_BAD_REQUEST;
+                    errorMessage[i] = "Concentration factor cannot be <1.";
+                } else {
+                    statusCode[i] = STATUS_OK;
+                    hours[i] = concFactor[i] == 1 ? 0 : hours[i];
+                }
+                continue;
+            }
+
+            calculator.calculateHoursAdaptive(volumeStart[i], concFactor[i], tmp[i], solutionViscosity[i], membraneArea[i], tolerance, null, result);
+
+            switch (result.status) {
+                case SUCCESS:
+                    statusCode[i] = STATUS_OK;
+                    hours[i] = result.hours;
+                    break;
+                case CONCENTRATION_FACTOR_BELOW_ONE:
+                    statusCode[i] = STATUS_BAD_REQUEST;
+                    errorMessage[i] = "Concentration factor cannot be <1.";
+                    break;
+                default:
+                    statusCode[i] = STATUS_SERVER_ERROR;
+                    errorMessage[i] = "Algorithmic statusCode != 0.";
+            }
+        }
+    }
+
+    /** Streams results in input order as {"results": [{"statusCode": 200, "filtrationHours": 12.3}, ...]}.
+     *  Written with a JsonGenerator, so no intermediate Map per item is built.
+     */
+    public void writeJson(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeArrayFieldStart("results");
+        for (int i = 0; i < size; i++) {
+            generator.writeStartObject();
+            generator.writeNumberField("statusCode", statusCode[i]);
+            if (statusCode[i] == STATUS_OK) {
+                generator.writeNumberField("filtrationHours", hours[i]);
+            } else {
+                generator.writeStringField("errorMessage", errorMessage[i]);
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    public String toJson(JsonFactory factory) throws IOException {
+        StringWriter writer = new StringWriter(32 + 48 * size);
+        try (JsonGenerator generator = factory.createGenerator(writer)) {
+            writeJson(generator);
+        }
+        return writer.toString();
+    }
+}
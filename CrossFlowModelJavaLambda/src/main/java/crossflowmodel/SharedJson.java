@@ -0,0 +1,18 @@
+package crossflowmodel;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+/** Jackson objects shared by both handlers for the lifetime of the container.
+ *  An ObjectMapper caches serializers and deserializers on first use, so creating one per request throws that work
+ *  away every time. Once configured both are thread-safe.
+ */
+public final class SharedJson {
+
+    public static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public static final ObjectWriter WRITER = MAPPER.writer();
+
+    private SharedJson() {
+    }
+}
@@ -0,0 +1,237 @@
+package crossflowmodel;
+
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClientBuilder;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.GetItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.GetItemResponse;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/** In-process username/token check, the same check tokenauth.py makes, so HandlerAPIGateway can serve an
+ *  authenticated request in one invocation without the Token Authn hop.
+ *
+ *  Tokens are looked up in the tokens table on first use and cached per username for a TTL, after which the entry is
+ *  invalidated and the next request looks it up again. Unknown usernames can be cached too (negative caching, with
+ *  its own TTL, 0 to disable), so repeated bad requests do not each cost a DynamoDB read.
+ *  Only a SHA-256 digest of each token is kept, and attempts are compared with MessageDigest.isEqual on equal-length
+ *  digests, so the time taken does not depend on how much of a token was guessed right.
+ *
+ *  Configured from the environment:
+ *      CROSSFLOW_TOKENS_TABLE                  tokens table; authentication is disabled when unset
+ *      CROSSFLOW_TOKENS_USERNAME_ATTR          username (key) attribute, default "username"
+ *      CROSSFLOW_TOKENS_TOKEN_ATTR             token attribute, default "token"
+ *      CROSSFLOW_AUTH_TTL_SECONDS              TTL of cached tokens, default 300
+ *      CROSSFLOW_AUTH_NEGATIVE_TTL_SECONDS     TTL of cached unknown usernames, default 30, 0 disables negative caching
+ *  CROSSFLOW_DYNAMODB_ENDPOINT (see InferenceLog) also applies.
+ */
+public class TokenAuthenticator {
+
+    /** Source of truth for tokens, eg. the DynamoDB tokens table. */
+    public interface Store {
+        /** @return returns the token stored for username, or null if there is none */
+        String lookupToken(String username);
+    }
+
+    public static final String ENV_TABLE = "CROSSFLOW_TOKENS_TABLE";
+    public static final String ENV_USERNAME_ATTR = "CROSSFLOW_TOKENS_USERNAME_ATTR";
+    public static final String ENV_TOKEN_ATTR = "CROSSFLOW_TOKENS_TOKEN_ATTR";
+    public static final String ENV_TTL_SECONDS = "CROSSFLOW_AUTH_TTL_SECONDS";
+    public static final String ENV_NEGATIVE_TTL_SECONDS = "CROSSFLOW_AUTH_NEGATIVE_TTL_SECONDS";
+
+    public static final long DEFAULT_TTL_SECONDS = 300;
+    public static final long DEFAULT_NEGATIVE_TTL_SECONDS = 30;
+
+    // past this many entries expired ones are purged, and unknown usernames are no longer cached
+    public static final int MAX_ENTRIES = 10_000;
+
+    // compared against when a username has no token, so unknown and known users take the same path
+    private static final byte[] NO_TOKEN_DIGEST = new byte[32];
+
+    private final Store store; // null = disabled
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+
+    private final ConcurrentHashMap<String, Entry> cache = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    /** Cached lookup: digest of the stored token, or null for an unknown username. */
+    private static final class Entry {
+        final byte[] digest;
+        final long expiresAt; // System.nanoTime()
+
+        Entry(byte[] digest, long expiresAt) {
+            this.digest = digest;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * @param store token lookup, or null to disable authentication (isEnabled() is then false)
+     * @param ttlSeconds how long a looked-up token is trusted before it is looked up again
+     * @param negativeTtlSeconds how long an unknown username is remembered, 0 to always look it up again
+     */
+    public TokenAuthenticator(Store store, long ttlSeconds, long negativeTtlSeconds) {
+        if (ttlSeconds < 0 || negativeTtlSeconds < 0) {
+            throw new IllegalArgumentException("TTLs cannot be negative.");
+        }
+        this.store = store;
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+        this.negativeTtlNanos = negativeTtlSeconds * 1_000_000_000L;
+    }
+
+    public static TokenAuthenticator fromEnvironment() {
+        String table = System.getenv(ENV_TABLE);
+        if (table == null || table.isBlank()) {
+            return new TokenAuthenticator(null, DEFAULT_TTL_SECONDS, DEFAULT_NEGATIVE_TTL_SECONDS);
+        }
+
+        DynamoDbClientBuilder builder = DynamoDbClient.builder();
+        String endpoint = System.getenv(InferenceLog.ENV_ENDPOINT);
+        if (endpoint != null && !endpoint.isBlank()) {
+            builder.endpointOverride(URI.create(endpoint.trim()));
+        }
+        Store store = dynamoDbStore(builder.build(), table.trim(),
+                envOrDefault(ENV_USERNAME_ATTR, "username"), envOrDefault(ENV_TOKEN_ATTR, "token"));
+
+        return new TokenAuthenticator(store,
+                seconds(ENV_TTL_SECONDS, DEFAULT_TTL_SECONDS), seconds(ENV_NEGATIVE_TTL_SECONDS, DEFAULT_NEGATIVE_TTL_SECONDS));
+    }
+
+    /** Store reading the token with GetItem, as tokenauth.py does. */
+    public static Store dynamoDbStore(DynamoDbClient client, String table, String usernameAttribute, String tokenAttribute) {
+        return username -> {
+            GetItemResponse response = client.getItem(GetItemRequest.builder()
+                    .tableName(table)
+                    .key(Map.of(usernameAttribute, AttributeValue.builder().s(username).build()))
+                    .projectionExpression("#t")
+                    .expressionAttributeNames(Map.of("#t", tokenAttribute))
+                    .build());
+            if (!response.hasItem() || response.item().get(tokenAttribute) == null) {
+                return null;
+            }
+            return response.item().get(tokenAttribute).s();
+        };
+    }
+
+    private static String envOrDefault(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    private static long seconds(String name, long defaultValue) {
+        String value = System.getenv(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            Log.warn("TokenAuthenticator", "Ignoring non-numeric " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public boolean isEnabled() {
+        return store != null;
+    }
+
+    /** Checks a username/token pair. Always false for a null or blank username or token.
+     *  Store errors (eg. DynamoDB unavailable) are thrown, and nothing is cached for them.
+     */
+    public boolean authenticate(String username, String token) {
+        if (username == null || username.isBlank() || token == null || token.isEmpty()) {
+            rejected.increment();
+            return false;
+        }
+        byte[] attempt = sha256(token);
+
+        long now = System.nanoTime();
+        Entry entry = cache.get(username);
+        if (entry != null && now - entry.expiresAt < 0) {
+            hits.increment();
+        } else {
+            if (entry != null) {
+                cache.remove(username, entry); // expired
+            }
+            misses.increment();
+            entry = load(username, now);
+        }
+
+        boolean match = MessageDigest.isEqual(entry.digest == null ? NO_TOKEN_DIGEST : entry.digest, attempt)
+                && entry.digest != null;
+        if (!match) {
+            rejected.increment();
+        }
+        return match;
+    }
+
+    private Entry load(String username, long now) {
+        String stored = store.lookupToken(username);
+        Entry entry = stored == null
+                ? new Entry(null, now + negativeTtlNanos)
+                : new Entry(sha256(stored), now + ttlNanos);
+
+        boolean cacheable = stored != null ? ttlNanos > 0 : negativeTtlNanos > 0;
+        if (cacheable && cache.size() >= MAX_ENTRIES) {
+            purgeExpired(now);
+            cacheable = stored != null || cache.size() < MAX_ENTRIES; // never let unknown usernames grow the cache
+        }
+        if (cacheable) {
+            cache.put(username, entry);
+        }
+        return entry;
+    }
+
+    private void purgeExpired(long now) {
+        cache.values().removeIf(entry -> now - entry.expiresAt >= 0);
+    }
+
+    /** Drops the cached token of one user, eg. after it was rotated. */
+    public void invalidate(String username) {
+        cache.remove(username);
+    }
+
+    public void clear() {
+        cache.clear();
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e); // every JRE must provide it
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    @Override
+    public String toString() {
+        return "TokenAuthenticator " + (store == null ? "disabled" : "size=" + size()) +
+                ", hits=" + getHits() + ", misses=" + getMisses() + ", rejected=" + getRejected();
+    }
+}
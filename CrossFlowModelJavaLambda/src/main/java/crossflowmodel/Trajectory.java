@@ -0,0 +1,190 @@
+package crossflowmodel;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+/** Filtration curve recorded step by step by the primitive loops of Calculations.twoPhaseHours and adaptiveHours:
+ *  (time in hours, current volume in L, permeate flow rate in L).
+ *  Points are stored in growable primitive arrays, and can be downsampled to a client point budget with
+ *  Largest-Triangle-Three-Buckets (LTTB), which keeps the visual shape (eg. the steep early flow decline)
+ *  while bounding payload size for long runs.
+ */
+public class Trajectory {
+
+    // largest point budget a client can request
+    public static final int MAX_POINTS = 10_000;
+
+    private double[] time;
+    private double[] volume;
+    private double[] flowRate;
+    private int size;
+
+    public Trajectory() {
+        this(128);
+    }
+
+    public Trajectory(int initialCapacity) {
+        int capacity = Math.max(2, initialCapacity);
+        this.time = new double[capacity];
+        this.volume = new double[capacity];
+        this.flowRate = new double[capacity];
+    }
+
+    public void add(double timeHours, double currentVolume, double currentFlowRate) {
+        if (size == time.length) {
+            int capacity = time.length * 2;
+            time = Arrays.copyOf(time, capacity);
+            volume = Arrays.copyOf(volume, capacity);
+            flowRate = Arrays.copyOf(flowRate, capacity);
+        }
+        time[size] = timeHours;
+        volume[size] = currentVolume;
+        flowRate[size] = currentFlowRate;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double timeAt(int index) {
+        return time[index];
+    }
+
+    public double volumeAt(int index) {
+        return volume[index];
+    }
+
+    public double flowRateAt(int index) {
+        return flowRate[index];
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /** Reduces the trajectory to at most maxPoints with LTTB, always keeping the first and last point.
+     *  Triangle areas are summed over volume and flow rate, each normalised to its range, so both curves keep their shape.
+     * @param maxPoints point budget, at least 2
+     * @return returns a new Trajectory, or a copy of this one if it is already within budget
+     */
+    public Trajectory downsample(int maxPoints) {
+        if (maxPoints < 2) {
+            throw new IllegalArgumentException("maxPoints must be at least 2.");
+        }
+        if (size <= maxPoints) {
+            Trajectory copy = new Trajectory(size);
+            for (int i = 0; i < size; i++) {
+                copy.add(time[i], volume[i], flowRate[i]);
+            }
+            return copy;
+        }
+
+        double volumeScale = 1 / range(volume);
+        double flowScale = 1 / range(flowRate);
+
+        Trajectory sampled = new Trajectory(maxPoints);
+        sampled.add(time[0], volume[0], flowRate[0]);
+
+        double bucketSize = (double) (size - 2) / (maxPoints - 2);
+        int selected = 0; // index of the previously selected point
+
+        for (int bucket = 0; bucket < maxPoints - 2; bucket++) {
+            // average of the next bucket is the third triangle vertex
+            int nextStart = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+            int nextEnd = Math.min((int) Math.floor((bucket + 2) * bucketSize) + 1, size);
+            if (nextStart >= size - 1) { // last bucket: the third vertex is the final point
+                nextStart = size - 1;
+                nextEnd = size;
+            }
+            double averageTime = 0, averageVolume = 0, averageFlow = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                averageTime += time[i];
+                averageVolume += volume[i];
+                averageFlow += flowRate[i];
+            }
+            int nextCount = nextEnd - nextStart;
+            averageTime /= nextCount;
+            averageVolume /= nextCount;
+            averageFlow /= nextCount;
+
+            // pick the point in this bucket forming the largest triangle with the previous selection and the average
+            int start = (int) Math.floor(bucket * bucketSize) + 1;
+            int end = Math.min((int) Math.floor((bucket + 1) * bucketSize) + 1, size - 1);
+            double maxArea = -1;
+            int best = start;
+            for (int i = start; i < end; i++) {
+                double volumeArea = Math.abs((time[selected] - averageTime) * (volume[i] - volume[selected])
+                        - (time[selected] - time[i]) * (averageVolume - volume[selected])) * volumeScale;
+                double flowArea = Math.abs((time[selected] - averageTime) * (flowRate[i] - flowRate[selected])
+                        - (time[selected] - time[i]) * (averageFlow - flowRate[selected])) * flowScale;
+                if (volumeArea + flowArea > maxArea) {
+                    maxArea = volumeArea + flowArea;
+                    best = i;
+                }
+            }
+
+            sampled.add(time[best], volume[best], flowRate[best]);
+            selected = best;
+        }
+
+        sampled.add(time[size - 1], volume[size - 1], flowRate[size - 1]);
+        return sampled;
+    }
+
+    private double range(double[] values) {
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < size; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        double range = max - min;
+        return range > 0 ? range : 1;
+    }
+
+    /** Streams {"time": [...], "volume": [...], "flowRate": [...]} as packed arrays. */
+    public void writeJson(JsonGenerator generator) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName("time");
+        ResponseFormat.writeDoubles(generator, time, 0, size);
+        generator.writeFieldName("volume");
+        ResponseFormat.writeDoubles(generator, volume, 0, size);
+        generator.writeFieldName("flowRate");
+        ResponseFormat.writeDoubles(generator, flowRate, 0, size);
+        generator.writeEndObject();
+    }
+
+    /** Streams a handler response body: filtrationHours (plus errorEstimate/steps when present) and this trajectory.
+     *  Written straight to the generator, so no intermediate Map<String, Object> is built.
+     * @param result successful calculateHours/calculateHoursAdaptive result
+     * @param statusCode HTTP-style status to include in the body, or 0 to leave it out
+     */
+    public String toResponseJson(JsonFactory factory, CalculationResult result, int statusCode) throws IOException {
+        StringWriter writer = new StringWriter(128 + 72 * size);
+        try (JsonGenerator generator = factory.createGenerator(writer)) {
+            writeResponse(generator, result, statusCode);
+        }
+        return writer.toString();
+    }
+
+    /** Streams the toResponseJson body into any generator, eg. a binary ResponseFormat's. */
+    public void writeResponse(JsonGenerator generator, CalculationResult result, int statusCode) throws IOException {
+        generator.writeStartObject();
+        generator.writeNumberField("filtrationHours", result.hours);
+        if (!Double.isNaN(result.errorEstimate)) {
+            generator.writeNumberField("errorEstimate", result.errorEstimate);
+            generator.writeNumberField("steps", result.steps);
+        }
+        if (statusCode != 0) {
+            generator.writeNumberField("statusCode", statusCode);
+        }
+        generator.writeFieldName("trajectory");
+        writeJson(generator);
+        generator.writeEndObject();
+    }
+}
@@ -0,0 +1,85 @@
+package crossflowmodel;
+
+/** The two-phase algorithm over many scenarios at once, for ScenarioBatch and MonteCarlo: hours for a range of
+ *  primitive columns, computed on SIMD lanes by TwoPhaseVectorKernel where the JDK Vector API is available, and by
+ *  Calculations.twoPhaseHours one scenario at a time where it is not.
+ *
+ *  The Vector API is the incubator module jdk.incubator.vector on JDK 17, which the JVM only resolves when asked:
+ *  run with --add-modules jdk.incubator.vector (on Lambda, JAVA_TOOL_OPTIONS="--add-modules jdk.incubator.vector").
+ *  Without it, on CPUs without SIMD, or with CROSSFLOW_VECTOR=off, every call takes the scalar path.
+ *
+ *  Tolerance: vector hours match the scalar path's within a relative TOLERANCE. Every step rounds exactly as the
+ *  scalar kernel does except the phase 2 power t^p, where the Vector API may use an intrinsic accurate to 1 ulp
+ *  rather than Math.pow. A scenario whose volume lands within that rounding of its desired volume on a step can
+ *  stop one step apart, with hours a step length apart; the scalar path shows the same sensitivity to a one ulp
+ *  change of its own inputs. TwoPhaseBatchTest checks the vector kernel against the scalar path, and
+ *  VectorKernelHarness compares their speed.
+ */
+public final class TwoPhaseBatch {
+
+    public static final String ENV_VECTOR = "CROSSFLOW_VECTOR";
+
+    // relative difference to the scalar path, for scenarios that stop at the same step (see class comment)
+    public static final double TOLERANCE = 1e-12;
+
+    private static final String NAME = "TwoPhaseBatch";
+
+    private static final int LANES = vectorLanes();
+
+    private TwoPhaseBatch() {}
+
+    /** @return returns true when hours runs on the Vector API */
+    public static boolean isVectorized() {
+        return LANES > 1;
+    }
+
+    /** @return returns scenarios computed per vector, 1 on the scalar path */
+    public static int lanes() {
+        return LANES;
+    }
+
+    /** Computes hours[i] = Calculations.twoPhaseHours(startingVolume[i], ...) for every i in [from, to).
+     *  Scenarios with concentrationFactor <= 1 (or invalid inputs) are not checked here: their hours are unspecified
+     *  and must be skipped by the caller, as for twoPhaseHours.
+     * @param model membrane resistance law shared by every scenario
+     * @param hours receives the filtration hours, at the same indices as the inputs
+     */
+    public static void hours(double[] startingVolume, double[] concentrationFactor, double[] tmp, double[] solutionViscosity,
+                             double[] membraneArea, MembraneModel model, double[] hours, int from, int to) {
+        if (LANES > 1) {
+            TwoPhaseVectorKernel.hours(startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, model, hours, from, to);
+        } else {
+            scalarHours(startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, model, hours, from, to);
+        }
+    }
+
+    /** hours one scenario at a time, also the remainder of a range that does not fill a whole vector. */
+    static void scalarHours(double[] startingVolume, double[] concentrationFactor, double[] tmp, double[] solutionViscosity,
+                            double[] membraneArea, MembraneModel model, double[] hours, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (concentrationFactor[i] > 1) {
+                hours[i] = Calculations.twoPhaseHours(startingVolume[i], concentrationFactor[i], tmp[i], solutionViscosity[i],
+                        membraneArea[i], model, null, null);
+            }
+        }
+    }
+
+    private static int vectorLanes() {
+        if ("off".equalsIgnoreCase(System.getenv(ENV_VECTOR))) {
+            Log.info(NAME, "Vector API disabled by " + ENV_VECTOR + ", scalar kernel.");
+            return 1;
+        }
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            Log.info(NAME, "Module jdk.incubator.vector not resolved (--add-modules jdk.incubator.vector), scalar kernel.");
+            return 1;
+        }
+        try {
+            int lanes = TwoPhaseVectorKernel.lanes();
+            Log.info(NAME, lanes > 1 ? "Vector API kernel, " + lanes + " lanes." : "No SIMD lanes for doubles, scalar kernel.");
+            return lanes;
+        } catch (LinkageError e) {
+            Log.warn(NAME, "Vector API unavailable, scalar kernel: " + e);
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package crossflowmodel;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** The two-phase algorithm of Calculations.twoPhaseHours on SIMD lanes, through the JDK Vector API: one DoubleVector
+ *  holds one state variable (time, volume or flow rate) of lanes() scenarios, which take every step in lockstep.
+ *
+ *  Scenarios finish at different steps, so a mask tracks the lanes that have reached their desired volume: they
+ *  keep their state and result while the others go on, and the block stops as soon as every lane is done. The
+ *  arithmetic is that of twoPhaseHours operation for operation, in the same order, so every lane rounds the same
+ *  as the scalar path; only the phase 2 power differs, see TwoPhaseBatch.TOLERANCE.
+ *
+ *  Only loaded by TwoPhaseBatch once the jdk.incubator.vector module is known to be present: this class does not
+ *  link without it.
+ */
+final class TwoPhaseVectorKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    private TwoPhaseVectorKernel() {}
+
+    /** @return doubles per vector on this CPU, eg. 4 with AVX2, 8 with AVX-512; 1 means no SIMD to speak of */
+    static int lanes() {
+        return SPECIES.length();
+    }
+
+    /** TwoPhaseBatch.hours over whole vectors of lanes; the remainder of the range runs the scalar kernel. */
+    static void hours(double[] startingVolume, double[] concentrationFactor, double[] tmp, double[] solutionViscosity,
+                      double[] membraneArea, MembraneModel model, double[] hours, int from, int to) {
+        int i = from;
+        for (int upper = from + SPECIES.loopBound(to - from); i < upper; i += SPECIES.length()) {
+            block(startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, model, hours, i);
+        }
+        TwoPhaseBatch.scalarHours(startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, model, hours, i, to);
+    }
+
+    private static void block(double[] startingVolume, double[] concentrationFactor, double[] tmp, double[] solutionViscosity,
+                              double[] membraneArea, MembraneModel model, double[] hours, int offset) {
+        DoubleVector pressure = DoubleVector.fromArray(SPECIES, tmp, offset);
+        DoubleVector viscosity = DoubleVector.fromArray(SPECIES, solutionViscosity, offset);
+        DoubleVector area = DoubleVector.fromArray(SPECIES, membraneArea, offset);
+        DoubleVector currentVolume = DoubleVector.fromArray(SPECIES, startingVolume, offset);
+        DoubleVector desiredVolume = currentVolume.div(DoubleVector.fromArray(SPECIES, concentrationFactor, offset));
+
+        double[] phase1Resistance = model.phase1Resistance;
+        DoubleVector currentFlowRate = pressure.div(viscosity.mul(phase1Resistance[0])).mul(1000.0).mul(area); // t=0 flow rate
+        DoubleVector result = DoubleVector.zero(SPECIES);
+        VectorMask<Double> done = SPECIES.maskAll(false);
+
+        // Part 1: the same step times for every lane, so the resistance is one broadcast value per step
+        double alg1Scale = Calculations.PHASE1_HOURS / Calculations.PHASE1_ITERATIONS;
+        for (int i = 0; i < Calculations.PHASE1_ITERATIONS; i++) {
+            double currentTimeHours = i*alg1Scale;
+            VectorMask<Double> running = done.not();
+            currentFlowRate = currentFlowRate.blend(pressure.div(viscosity.mul(phase1Resistance[i])).mul(1000.0).mul(area), running);
+            currentVolume = currentVolume.blend(currentVolume.sub(currentFlowRate.mul(alg1Scale)), running);
+
+            VectorMask<Double> finished = running.and(currentVolume.lt(desiredVolume));
+            result = result.blend(DoubleVector.broadcast(SPECIES, currentTimeHours), finished);
+            done = done.or(finished);
+            if (done.allTrue()) {
+                result.intoArray(hours, offset);
+                return;
+            }
+        }
+
+        // Part 2: every lane has its own step length, so its own step times and resistances. Lanes done in part 1
+        // compute with meaningless values here (eg. a negative step), which the masks keep out of their results
+        DoubleVector currentTime = DoubleVector.broadcast(SPECIES, (Calculations.PHASE1_ITERATIONS - 1)*alg1Scale);
+        DoubleVector alg2Scale = currentVolume.sub(desiredVolume).div(currentFlowRate).div((double) Calculations.PHASE2_ITERATIONS);
+        for (int i = 0; i < Calculations.PHASE2_ITERATIONS; i++) {
+            VectorMask<Double> running = done.not();
+            currentTime = currentTime.blend(currentTime.add(alg2Scale), running);
+            DoubleVector membraneResistance = currentTime.lanewise(VectorOperators.POW, model.foulingExponent)
+                    .mul(model.foulingResistance).add(model.initialResistance);
+            currentFlowRate = currentFlowRate.blend(pressure.div(viscosity.mul(membraneResistance)).mul(1000.0).mul(area), running);
+            currentVolume = currentVolume.blend(currentVolume.sub(currentFlowRate.mul(alg2Scale)), running);
+
+            VectorMask<Double> finished = running.and(currentVolume.lt(desiredVolume));
+            result = result.blend(currentTime, finished);
+            done = done.or(finished);
+            if (done.allTrue()) {
+                result.intoArray(hours, offset);
+                return;
+            }
+        }
+
+        // lanes still running extrapolate from their last flow rate
+        DoubleVector remainingTime = currentVolume.sub(desiredVolume).div(currentFlowRate);
+        result.blend(currentTime.add(remainingTime), done.not()).intoArray(hours, offset);
+    }
+}
@@ -0,0 +1,69 @@
+package crossflowmodel;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+/** Reports bytes allocated per call of the Calculations hot path.
+ *  Runs each API many times after a warm-up, using the per-thread allocation counter of the HotSpot ThreadMXBean.
+ *  The primitive paths stay at ~0 bytes/call, asserted by CalculationsAllocationTest; the legacy HashMap wrapper
+ *  is reported for comparison.
+ *
+ *  Run with: gradle allocationHarness
+ */
+public class AllocationHarness {
+
+    private static final int WARMUP_CALLS = 200_000;
+    private static final int MEASURED_CALLS = 1_000_000;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private static final Calculations calculator = new Calculations();
+    private static final CalculationResult result = new CalculationResult();
+    private static double sink; // consumes results so the JIT cannot drop the calls
+
+    public static void main(String[] args) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // legacy wrapper still logs per call
+
+        double twoPhase = bytesPerCall(i -> {
+            calculator.calculateHours(1000, 2 + (i & 7), 100_000, calculator.VISCOSITY_WATER, 10, result);
+            sink += result.hours;
+        });
+        double tabulated = bytesPerCall(i -> {
+            calculator.calculateHoursTabulated(1000, 2 + (i & 7), 100_000, calculator.VISCOSITY_WATER, 10, result);
+            sink += result.hours;
+        });
+        double adaptive = bytesPerCall(i -> {
+            calculator.calculateHoursAdaptive(1000, 2 + (i & 7), 100_000, calculator.VISCOSITY_WATER, 10, 1e-6, null, result);
+            sink += result.hours;
+        });
+        double legacy = bytesPerCall(i -> sink += calculator.calculateHours(1000, 2 + (i & 7), 100_000, calculator.VISCOSITY_WATER, 10).get("hours"));
+
+        System.setOut(out);
+        System.out.printf("calculateHours (primitive):          %8.2f bytes/call%n", twoPhase);
+        System.out.printf("calculateHoursTabulated (primitive): %8.2f bytes/call%n", tabulated);
+        System.out.printf("calculateHoursAdaptive (primitive):  %8.2f bytes/call%n", adaptive);
+        System.out.printf("calculateHours (legacy HashMap):     %8.2f bytes/call%n", legacy);
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    private interface Call {
+        void run(int i);
+    }
+
+    private static double bytesPerCall(Call call) {
+        // adaptive runs are slower, but the warm-up still needs enough calls for C2 to compile the loop
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            call.run(i);
+        }
+        long thread = Thread.currentThread().getId();
+        long before = THREADS.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+            call.run(i);
+        }
+        long after = THREADS.getThreadAllocatedBytes(thread);
+        return (double) (after - before) / MEASURED_CALLS;
+    }
+}
@@ -0,0 +1,35 @@
+package crossflowmodel;
+
+import java.util.Locale;
+
+/** Reports samples/s of the online calibration update. Recovery of known laws from noisy samples, the handler path
+ *  and the scoping of membranes by owner are covered by MembraneRegistryTest.
+ *
+ *  Run with: gradle calibrationHarness
+ */
+public class CalibrationHarness {
+
+    private static final double TMP = 100_000;
+    private static final double AREA = 10;
+    private static final double VISCOSITY = 0.001;
+    private static final double SAMPLE_HOURS = 1.0 / 60; // one sample per minute
+
+    public static void main(String[] args) {
+        MembraneCalibration calibration = new MembraneCalibration("M-throughput", MembraneCalibration.DEFAULT_FORGETTING);
+        int n = 2_000_000;
+        double[] flowRates = new double[4096];
+        for (int i = 0; i < flowRates.length; i++) {
+            flowRates[i] = Calculations.flowRate(i * SAMPLE_HOURS, TMP, VISCOSITY, AREA, MembraneModel.DEFAULT);
+        }
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                int k = i & 4095;
+                calibration.update(k * SAMPLE_HOURS, flowRates[k], TMP, VISCOSITY, AREA);
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.printf(Locale.ROOT, "update: %,.0f samples/s (%.0f ns/sample)%n", n / (elapsed / 1e9), (double) elapsed / n);
+        }
+        System.out.println(calibration.fit());
+    }
+}
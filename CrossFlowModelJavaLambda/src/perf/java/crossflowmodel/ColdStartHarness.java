@@ -0,0 +1,140 @@
+package crossflowmodel;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/** Local cold-start harness for both handlers.
+ *  Every run is a fresh JVM, started with CROSSFLOW_PRIMING on or off, which loads the handler class (init, including
+ *  priming when on) and then serves one real request and a second one. Reports medians over RUNS per configuration:
+ *
+ *      init     handler class initialisation, ie. the Lambda init phase (excluded from a SnapStart restore)
+ *      first    latency of the first request after init
+ *      second   latency of the next request, for comparison with a warm container
+ *      ttfr     time-to-first-response from JVM start, the whole on-demand cold start
+ *
+ *  The requests use parameters the primers do not, so both are cache misses either way.
+ *
+ *  Run with: gradle coldStartHarness
+ */
+public class ColdStartHarness {
+
+    private static final int RUNS = 7;
+
+    private static final String FIRST_BODY =
+            "{\"volumeStart\":\"750\", \"tmp\":\"120000\", \"membraneArea\":8, \"molWeightCutOff\":\"5000\", \"concFactor\":3}";
+    private static final String SECOND_BODY =
+            "{\"volumeStart\":\"800\", \"tmp\":\"120000\", \"membraneArea\":8, \"molWeightCutOff\":\"5000\", \"concFactor\":3}";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && args[0].equals("child")) {
+            child(args[1]);
+            return;
+        }
+
+        System.out.printf("%-20s %-8s %10s %10s %10s %10s%n", "handler", "priming", "init ms", "first ms", "second ms", "ttfr ms");
+        for (String handler : new String[]{"HandlerAPIGateway", "HandlerStepFunction"}) {
+            for (String priming : new String[]{"off", "on"}) {
+                double[][] runs = new double[RUNS][];
+                for (int i = 0; i < RUNS; i++) {
+                    runs[i] = runChild(handler, priming);
+                }
+                System.out.printf("%-20s %-8s %10.1f %10.2f %10.2f %10.1f%n", handler, priming,
+                        median(runs, 0), median(runs, 1), median(runs, 2), median(runs, 3));
+            }
+        }
+    }
+
+    /** Starts a child JVM on the same classpath, returns its {init, first, second, ttfr} in ms. */
+    private static double[] runChild(String handler, String priming) throws Exception {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                ColdStartHarness.class.getName(), "child", handler);
+        builder.environment().put(Priming.ENV_PRIMING, priming);
+        builder.redirectErrorStream(true);
+        Process process = builder.start();
+
+        String result = null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("RESULT ")) {
+                    result = line;
+                }
+            }
+        }
+        if (process.waitFor() != 0 || result == null) {
+            throw new IllegalStateException("Child JVM for " + handler + " (priming " + priming + ") failed.");
+        }
+        String[] fields = result.substring("RESULT ".length()).trim().split(" ");
+        double[] values = new double[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            values[i] = Double.parseDouble(fields[i]);
+        }
+        return values;
+    }
+
+    private static void child(String handler) throws Exception {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream())); // handler logging is not part of the measurement
+
+        long start = System.nanoTime();
+        Class.forName("crossflowmodel." + handler); // runs the static initialiser, including priming
+        long initialised = System.nanoTime();
+
+        Consumer<String> request;
+        if (handler.equals("HandlerAPIGateway")) {
+            HandlerAPIGateway gateway = new HandlerAPIGateway();
+            request = body -> gateway.handleRequest(new APIGatewayProxyRequestEvent().withBody(body), null);
+        } else {
+            HandlerStepFunction stepFunction = new HandlerStepFunction();
+            request = body -> {
+                Map<String, Object> state = new LinkedHashMap<>(); // tokenauth.py output, as passed on by the state machine
+                state.put("statusCode", 200);
+                state.put("status", 0);
+                state.put("statusString", "success");
+                state.put("body", body);
+                try {
+                    stepFunction.handleRequest(new ByteArrayInputStream(SharedJson.WRITER.writeValueAsBytes(state)), new ByteArrayOutputStream(), null);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+        }
+
+        long firstStart = System.nanoTime();
+        request.accept(FIRST_BODY);
+        long firstEnd = System.nanoTime();
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+
+        long secondStart = System.nanoTime();
+        request.accept(SECOND_BODY);
+        long secondEnd = System.nanoTime();
+
+        out.printf("RESULT %.3f %.3f %.3f %d%n",
+                (initialised - start) / 1e6, (firstEnd - firstStart) / 1e6, (secondEnd - secondStart) / 1e6, uptime);
+    }
+
+    private static double median(double[][] runs, int column) {
+        double[] values = new double[runs.length];
+        for (int i = 0; i < runs.length; i++) {
+            values[i] = runs[i][column];
+        }
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+}
@@ -0,0 +1,228 @@
+package crossflowmodel;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+
+/** Closed-loop load generator for ModelServer: at each concurrency level, that many clients send requests back to
+ *  back over kept-alive connections for a fixed time. Reports throughput and latency percentiles per level, and
+ *  counts errors and response bodies that differ from the handler's answer for the same request, eg. from a
+ *  deployed server running another build. Reentrancy of the handlers is asserted by HandlerStepFunctionTest and
+ *  ModelServerTest.
+ *
+ *  Requests are single calculations over PAYLOADS distinct parameter sets, more than the result cache holds,
+ *  so most of them are computed rather than served from the cache.
+ *
+ *  Run with: gradle loadGenerator [--args="maxConcurrency secondsPerLevel url"]
+ *  Without a url, starts a ModelServer in this JVM on a free port.
+ */
+public class LoadGenerator {
+
+    private static final int PAYLOADS = 4096;
+    private static final int DEFAULT_MAX_CONCURRENCY = 256;
+    private static final int DEFAULT_SECONDS_PER_LEVEL = 5;
+    private static final int WARMUP_SECONDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int maxConcurrency = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_MAX_CONCURRENCY;
+        int secondsPerLevel = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SECONDS_PER_LEVEL;
+
+        String[] bodies = payloads(PAYLOADS);
+        String[] expected = expectedBodies(bodies);
+
+        ModelServer server = null;
+        URI uri;
+        if (args.length > 2) {
+            uri = URI.create(args[2]);
+        } else {
+            server = new ModelServer(0, 0);
+            server.start();
+            uri = URI.create("http://localhost:" + server.getPort() + ModelServer.PATH);
+            System.out.println("In-process ModelServer on port " + server.getPort() + ", "
+                    + (server.isVirtualThreads() ? "virtual threads." : "platform thread pool."));
+        }
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1) // one kept-alive connection per client
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+        System.out.printf("Warming up for %d s ...%n", WARMUP_SECONDS);
+        run(client, uri, bodies, expected, Math.min(16, maxConcurrency), WARMUP_SECONDS);
+
+        System.out.printf("%n%11s %9s %10s %9s %9s %9s %9s %9s %7s %10s%n",
+                "concurrency", "requests", "req/s", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "errors", "mismatches");
+        for (int concurrency = 1; concurrency <= maxConcurrency; concurrency *= 2) {
+            Level level = run(client, uri, bodies, expected, concurrency, secondsPerLevel);
+            System.out.printf(Locale.ROOT, "%11d %9d %10.0f %9.3f %9.3f %9.3f %9.3f %9.3f %7d %10d%n",
+                    concurrency, level.requests, level.throughput(),
+                    level.percentileMillis(0.50), level.percentileMillis(0.90), level.percentileMillis(0.99),
+                    level.percentileMillis(0.999), level.percentileMillis(1.0), level.errors, level.mismatches);
+        }
+
+        if (server != null) {
+            server.stop(1);
+        }
+    }
+
+    /** Single calculations with parameters spread over realistic ranges, deterministic across runs. */
+    static String[] payloads(int count) {
+        SplittableRandom random = new SplittableRandom(16);
+        String[] bodies = new String[count];
+        for (int i = 0; i < count; i++) {
+            bodies[i] = String.format(Locale.ROOT,
+                    "{\"volumeStart\":%.1f, \"tmp\":%.0f, \"membraneArea\":%.2f, \"molWeightCutOff\":2500, \"concFactor\":%.2f}",
+                    random.nextDouble(100, 5_000), random.nextDouble(50_000, 300_000),
+                    random.nextDouble(1, 50), random.nextDouble(1.5, 10));
+        }
+        return bodies;
+    }
+
+    /** The handler's answer to each body, computed directly on one thread. */
+    static String[] expectedBodies(String[] bodies) {
+        HandlerAPIGateway handler = new HandlerAPIGateway();
+        String[] expected = new String[bodies.length];
+        for (int i = 0; i < bodies.length; i++) {
+            APIGatewayProxyResponseEvent response = handler.handleRequest(new APIGatewayProxyRequestEvent().withBody(bodies[i]), null);
+            if (response.getStatusCode() != 200) {
+                throw new IllegalStateException("payload " + i + " failed: " + response.getBody());
+            }
+            expected[i] = response.getBody();
+        }
+        return expected;
+    }
+
+    static Level run(HttpClient client, URI uri, String[] bodies, String[] expected, int concurrency, int seconds)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+        Worker[] workers = new Worker[concurrency];
+        CountDownLatch done = new CountDownLatch(concurrency);
+        long start = System.nanoTime();
+        for (int w = 0; w < concurrency; w++) {
+            workers[w] = new Worker(client, uri, bodies, expected, w, deadline, done);
+            Thread thread = new Thread(workers[w], "load-" + w);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        Level level = new Level(elapsed);
+        for (Worker worker : workers) {
+            level.add(worker);
+        }
+        level.sort();
+        return level;
+    }
+
+    /** One closed-loop client: sends the next request as soon as the previous response is in. */
+    private static final class Worker implements Runnable {
+        private final HttpClient client;
+        private final URI uri;
+        private final String[] bodies;
+        private final String[] expected;
+        private final long deadline;
+        private final CountDownLatch done;
+        private int next;
+
+        long[] latencies = new long[1024];
+        int count;
+        int errors;
+        int mismatches;
+
+        Worker(HttpClient client, URI uri, String[] bodies, String[] expected, int index, long deadline, CountDownLatch done) {
+            this.client = client;
+            this.uri = uri;
+            this.bodies = bodies;
+            this.expected = expected;
+            this.deadline = deadline;
+            this.done = done;
+            this.next = (index * 997) % bodies.length; // clients start at different payloads
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (System.nanoTime() < deadline) {
+                    int i = next;
+                    next = (next + 1) % bodies.length;
+                    HttpRequest request = HttpRequest.newBuilder(uri)
+                            .POST(HttpRequest.BodyPublishers.ofString(bodies[i], StandardCharsets.UTF_8))
+                            .header("Content-Type", "application/json")
+                            .build();
+                    long sent = System.nanoTime();
+                    try {
+                        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+                        record(System.nanoTime() - sent);
+                        if (response.statusCode() != 200) {
+                            errors++;
+                        } else if (!response.body().equals(expected[i])) {
+                            mismatches++;
+                        }
+                    } catch (java.io.IOException e) {
+                        errors++;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private void record(long nanos) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+        }
+    }
+
+    /** Latencies and counts of all clients at one concurrency level. */
+    static final class Level {
+        final long elapsedNanos;
+        long[] latencies = new long[0];
+        int requests;
+        int errors;
+        int mismatches;
+
+        Level(long elapsedNanos) {
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        void add(Worker worker) {
+            latencies = Arrays.copyOf(latencies, requests + worker.count);
+            System.arraycopy(worker.latencies, 0, latencies, requests, worker.count);
+            requests += worker.count;
+            errors += worker.errors;
+            mismatches += worker.mismatches;
+        }
+
+        void sort() {
+            Arrays.sort(latencies);
+        }
+
+        double throughput() {
+            return requests / (elapsedNanos / 1e9);
+        }
+
+        /** Nearest-rank percentile, q = 1 is the maximum. */
+        double percentileMillis(double q) {
+            if (latencies.length == 0) {
+                return Double.NaN;
+            }
+            int rank = (int) Math.ceil(q * latencies.length) - 1;
+            return latencies[Math.max(0, Math.min(latencies.length - 1, rank))] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package crossflowmodel;
+
+import java.util.concurrent.ForkJoinPool;
+
+/** Reports Monte Carlo sampling throughput as the pool parallelism rises. Reproducibility across pool sizes and the
+ *  accuracy of QuantileSketch are covered by MonteCarloTest and QuantileSketchTest.
+ *
+ *  Run with: gradle monteCarloHarness
+ */
+public class MonteCarloHarness {
+
+    public static void main(String[] args) {
+        MonteCarlo monteCarlo = new MonteCarlo(1_000_000, 42,
+                MonteCarlo.Distribution.fixed(1000),
+                MonteCarlo.Distribution.uniform(1.8, 2.2),
+                MonteCarlo.Distribution.normal(100_000, 10_000),
+                MonteCarlo.Distribution.uniform(9.5, 10.5),
+                MonteCarlo.Distribution.lognormal(0.0015, 0.0003));
+
+        for (int parallelism : new int[]{1, 2, 3, Runtime.getRuntime().availableProcessors()}) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            long start = System.nanoTime();
+            MonteCarlo.Result result = monteCarlo.compute(pool);
+            long elapsed = System.nanoTime() - start;
+            pool.shutdown();
+            if (parallelism == 1) {
+                System.out.println(result);
+            }
+            System.out.printf("parallelism %2d: %,.0f samples/s%n", parallelism, monteCarlo.samples / (elapsed / 1e9));
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package crossflowmodel;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/** Startup and memory of LambdaRuntime on a JVM (as in the packageJar zip) and as a native executable (nativeImage).
+ *  Each run starts a fresh process against a stand-in Runtime API served from this JVM, which hands it INVOCATIONS
+ *  events one after the other and records when each response arrives. Reports medians over RUNS per configuration:
+ *
+ *      ttfr     time-to-first-response from process start: the whole on-demand cold start, init included
+ *      first    latency of the first invocation, from handing out the event to its response
+ *      warm     median latency of the last half of the invocations
+ *      rss MB   peak resident memory of the process (VmHWM) after the last invocation, Linux only
+ *
+ *  Every response is checked, so a broken native build does not report good numbers. Without a native executable
+ *  only the JVM rows are reported.
+ *
+ *  Run with: gradle nativeStartupHarness (the native executable from gradle nativeImage), or with the path of the
+ *  executable as the argument.
+ */
+public class NativeStartupHarness {
+
+    private static final int RUNS = 5;
+    private static final int INVOCATIONS = 20;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    // an API Gateway proxy event as the service sends it, not just the fields HandlerAPIGateway reads
+    private static final String API_GATEWAY_EVENT = "{\"resource\": \"/crossflowmodelinference\", \"path\": \"/crossflowmodelinference\","
+            + " \"httpMethod\": \"POST\", \"headers\": {\"Accept\": \"*/*\", \"Content-Type\": \"application/json\"},"
+            + " \"multiValueHeaders\": {\"Accept\": [\"*/*\"]}, \"queryStringParameters\": null, \"pathParameters\": null,"
+            + " \"requestContext\": {\"resourceId\": \"abc123\", \"resourcePath\": \"/crossflowmodelinference\", \"httpMethod\": \"POST\","
+            + " \"requestTimeEpoch\": 1700000000000, \"identity\": {\"sourceIp\": \"203.0.113.7\", \"userAgent\": \"harness\"},"
+            + " \"stage\": \"prod\", \"requestId\": \"c6af9ac6-7b61-11e6-9a41-93e8deadbeef\", \"apiId\": \"1234567890\"},"
+            + " \"isBase64Encoded\": false, \"body\": \"%s\"}";
+
+    // the Step Function state, tokenauth.py output, as passed on by the state machine
+    private static final String STEP_FUNCTION_EVENT =
+            "{\"statusCode\": 200, \"status\": 0, \"statusString\": \"success\", \"body\": \"%s\"}";
+
+    // a different volume per invocation, so none is served from the cache
+    private static final String BODY =
+            "{\\\"volumeStart\\\":\\\"%d\\\", \\\"tmp\\\":\\\"120000\\\", \\\"membraneArea\\\":8, \\\"molWeightCutOff\\\":\\\"5000\\\", \\\"concFactor\\\":3}";
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("sun.net.httpserver.nodelay", "true"); // small answers not held back, as from the real Runtime API
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> jvm = List.of(java, "-cp", System.getProperty("java.class.path"), LambdaRuntime.class.getName());
+        File executable = args.length > 0 ? new File(args[0]) : null;
+        boolean hasNative = executable != null && executable.canExecute();
+
+        System.out.printf("%-20s %-18s %10s %10s %10s %10s%n", "handler", "runtime", "ttfr ms", "first ms", "warm ms", "rss MB");
+        for (String handler : new String[]{HandlerAPIGateway.class.getName(), HandlerStepFunction.class.getName()}) {
+            report(handler, "jvm priming on", jvm, "on");
+            report(handler, "jvm priming off", jvm, "off");
+            if (hasNative) {
+                report(handler, "native", List.of(executable.getAbsolutePath()), "off");
+            }
+        }
+        if (!hasNative) {
+            System.out.println("No native executable" + (executable == null ? "" : " at " + executable)
+                    + ": build it with gradle nativeImage (needs GraalVM) to compare.");
+        }
+    }
+
+    private static void report(String handler, String runtime, List<String> command, String priming) throws Exception {
+        double[][] runs = new double[RUNS][];
+        for (int i = 0; i < RUNS; i++) {
+            runs[i] = run(handler, command, priming);
+        }
+        String shortName = handler.substring(handler.lastIndexOf('.') + 1);
+        System.out.printf("%-20s %-18s %10.1f %10.2f %10.2f %10s%n", shortName, runtime,
+                median(runs, 0), median(runs, 1), median(runs, 2), Double.isNaN(median(runs, 3)) ? "n/a" : String.format("%.1f", median(runs, 3)));
+    }
+
+    /** One process serving INVOCATIONS events, returns its {ttfr, first, warm, rss}. */
+    private static double[] run(String handler, List<String> command, String priming) throws Exception {
+        StandInRuntimeApi api = new StandInRuntimeApi(handler.endsWith("HandlerAPIGateway") ? API_GATEWAY_EVENT : STEP_FUNCTION_EVENT);
+        Process process = null;
+        try {
+            ProcessBuilder builder = new ProcessBuilder(command);
+            Map<String, String> environment = builder.environment();
+            environment.put(LambdaRuntime.ENV_RUNTIME_API, "127.0.0.1:" + api.port());
+            environment.put(LambdaRuntime.ENV_HANDLER, handler);
+            environment.put(Priming.ENV_PRIMING, priming);
+            environment.put("CROSSFLOW_METRICS", "off");
+            environment.put("CROSSFLOW_LOG_LEVEL", "WARN");
+            builder.redirectErrorStream(true);
+            builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+
+            long start = System.nanoTime();
+            process = builder.start();
+            double[] latencies = new double[INVOCATIONS];
+            long firstResponse = 0;
+            for (int i = 0; i < INVOCATIONS; i++) {
+                Response response = api.responses.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (response == null) {
+                    throw new IllegalStateException(String.join(" ", command) + " gave no response to invocation " + i + " of " + handler + ".");
+                }
+                check(handler, response);
+                latencies[i] = (response.receivedNanos - response.sentNanos) / 1e6;
+                if (i == 0) {
+                    firstResponse = response.receivedNanos;
+                }
+            }
+            double rss = peakResidentMegabytes(process.pid());
+            double[] warm = Arrays.copyOfRange(latencies, INVOCATIONS / 2, INVOCATIONS);
+            Arrays.sort(warm);
+            return new double[]{(firstResponse - start) / 1e6, latencies[0], warm[warm.length / 2], rss};
+        } finally {
+            if (process != null) {
+                process.destroyForcibly().waitFor();
+            }
+            api.stop();
+        }
+    }
+
+    private static void check(String handler, Response response) throws IOException {
+        if (!response.path.endsWith("/response")) {
+            throw new IllegalStateException(handler + " reported an error to " + response.path + ": " + response.body);
+        }
+        JsonNode body = SharedJson.MAPPER.readTree(response.body);
+        // API Gateway: the response event with the body string; Step Function: a JSON string of the payload
+        String payload = body.isTextual() ? body.asText() : body.path("body").asText();
+        if (!(body.isTextual() || body.path("statusCode").asInt() == 200) || !payload.contains("filtrationHours")) {
+            throw new IllegalStateException(handler + " responded: " + response.body);
+        }
+    }
+
+    /** VmHWM of a process, or NaN where /proc is not available. */
+    private static double peakResidentMegabytes(long pid) throws IOException {
+        Path status = Path.of("/proc", Long.toString(pid), "status");
+        if (!Files.isReadable(status)) {
+            return Double.NaN;
+        }
+        for (String line : Files.readAllLines(status)) {
+            if (line.startsWith("VmHWM:")) {
+                return Long.parseLong(line.replaceAll("[^0-9]", "")) / 1024.0; // kB
+            }
+        }
+        return Double.NaN;
+    }
+
+    private static double median(double[][] runs, int column) {
+        double[] values = new double[runs.length];
+        for (int i = 0; i < runs.length; i++) {
+            values[i] = runs[i][column];
+        }
+        Arrays.sort(values);
+        return values[values.length / 2];
+    }
+
+    private static final class Response {
+        final String path;
+        final String body;
+        final long sentNanos;
+        final long receivedNanos;
+
+        Response(String path, String body, long sentNanos, long receivedNanos) {
+            this.path = path;
+            this.body = body;
+            this.sentNanos = sentNanos;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+
+    /** The Lambda Runtime API, enough of it for LambdaRuntime: next invocation, response, and errors. Hands out
+     *  INVOCATIONS events, then holds the next GET open as the service does while no event is waiting.
+     */
+    private static final class StandInRuntimeApi {
+        private static final String PREFIX = "/" + LambdaRuntime.API_VERSION + "/runtime/";
+
+        final BlockingQueue<Response> responses = new LinkedBlockingQueue<>();
+        private final HttpServer server;
+        private final String eventFormat;
+        private final Map<String, Long> sent = new LinkedHashMap<>();
+        private final List<HttpExchange> held = new ArrayList<>();
+        private int invocation;
+
+        StandInRuntimeApi(String eventFormat) throws IOException {
+            this.eventFormat = eventFormat;
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16);
+            server.createContext(PREFIX, this::handle);
+            server.start(); // one dispatcher thread, so the handler below is never run concurrently
+        }
+
+        int port() {
+            return server.getAddress().getPort();
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            byte[] request;
+            try (InputStream input = exchange.getRequestBody()) {
+                request = input.readAllBytes();
+            }
+            if (path.equals(PREFIX + "invocation/next")) {
+                if (invocation == INVOCATIONS) {
+                    held.add(exchange); // the process is idle from here until it is stopped
+                    return;
+                }
+                String requestId = "harness-" + invocation;
+                String event = String.format(eventFormat, String.format(BODY, 700 + invocation));
+                invocation++;
+                exchange.getResponseHeaders().set("Lambda-Runtime-Aws-Request-Id", requestId);
+                exchange.getResponseHeaders().set("Lambda-Runtime-Deadline-Ms", Long.toString(System.currentTimeMillis() + 30_000));
+                exchange.getResponseHeaders().set("Lambda-Runtime-Invoked-Function-Arn", "arn:aws:lambda:eu-west-2:000000000000:function:harness");
+                sent.put(requestId, System.nanoTime());
+                send(exchange, 200, event.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            long received = System.nanoTime();
+            // invocation/{id}/response, invocation/{id}/error or init/error
+            String[] parts = path.substring(PREFIX.length()).split("/");
+            Long sentNanos = parts.length == 3 ? sent.get(parts[1]) : null;
+            responses.add(new Response(path, new String(request, StandardCharsets.UTF_8), sentNanos == null ? received : sentNanos, received));
+            send(exchange, 202, "{\"status\":\"OK\"}".getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+    }
+}
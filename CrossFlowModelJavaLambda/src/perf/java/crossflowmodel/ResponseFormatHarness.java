@@ -0,0 +1,55 @@
+package crossflowmodel;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Map;
+
+/** Reports encoded sizes of the number-heavy responses in every ResponseFormat, in bytes and in API Gateway body
+ *  characters (base64 for the binary ones). Negotiation and decoding are covered by ResponseFormatTest.
+ *
+ *  Run with: gradle responseFormatHarness
+ */
+public class ResponseFormatHarness {
+
+    private static final String SINGLE = "{\"volumeStart\":1000, \"tmp\":100000, \"membraneArea\":10, \"molWeightCutOff\":2500, \"concFactor\":2";
+    private static final String TRAJECTORY = SINGLE + ", \"trajectory\":2000}";
+    private static final String SWEEP = "{\"sweep\": {\"volumeStart\":1000, \"molWeightCutOff\":2500, \"tmp\":{\"min\":50000, \"max\":300000, \"steps\":10},"
+            + " \"membraneArea\":{\"min\":5, \"max\":50, \"steps\":10}, \"concFactor\":{\"min\":1.2, \"max\":5, \"steps\":10}}}";
+
+    public static void main(String[] args) {
+        HandlerAPIGateway handler = new HandlerAPIGateway();
+        StringBuilder batch = new StringBuilder("{\"scenarios\": [");
+        for (int i = 0; i < 1000; i++) {
+            batch.append(i == 0 ? "" : ", ").append("{\"volumeStart\":").append(100 + i)
+                    .append(", \"tmp\":100000, \"membraneArea\":10, \"molWeightCutOff\":2500, \"concFactor\":2}");
+        }
+        String[][] bodies = {
+                {"single", SINGLE + "}"},
+                {"trajectory", TRAJECTORY},
+                {"sweep", SWEEP},
+                {"batch", batch.append("]}").toString()},
+        };
+        System.out.println("response sizes, bytes (API Gateway body characters):");
+        for (String[] body : bodies) {
+            APIGatewayProxyResponseEvent json = handler.handleRequest(request(body[1], null), null);
+            StringBuilder sizes = new StringBuilder(String.format(Locale.ROOT, "  %-10s  JSON %,9d", body[0], json.getBody().length()));
+            for (ResponseFormat format : new ResponseFormat[]{ResponseFormat.CBOR, ResponseFormat.SMILE}) {
+                APIGatewayProxyResponseEvent response = handler.handleRequest(request(body[1], format.contentType), null);
+                int bytes = Base64.getDecoder().decode(response.getBody()).length;
+                sizes.append(String.format(Locale.ROOT, "  %s %,9d (%,d)", format, bytes, response.getBody().length()));
+            }
+            System.out.println(sizes);
+        }
+    }
+
+    private static APIGatewayProxyRequestEvent request(String body, String accept) {
+        APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent().withHttpMethod("POST").withBody(body);
+        if (accept != null) {
+            event.setHeaders(Map.of("Accept", accept));
+        }
+        return event;
+    }
+}
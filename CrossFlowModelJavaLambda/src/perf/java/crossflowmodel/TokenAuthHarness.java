@@ -0,0 +1,46 @@
+package crossflowmodel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/** Reports the cost of a cached TokenAuthenticator check under concurrent hits, against a lookup on every request.
+ *  Its behaviour (accept/reject, caching, expiry, invalidation) is covered by TokenAuthenticatorTest.
+ *
+ *  Run with: gradle tokenAuthHarness
+ */
+public class TokenAuthHarness {
+
+    private static final int THREADS = 8;
+    private static final int CHECKS_PER_THREAD = 100_000;
+    private static final long LOOKUP_MICROS = 2_000; // ~2 ms, a warm GetItem
+
+    public static void main(String[] args) throws Exception {
+        TokenAuthenticator warm = new TokenAuthenticator(username -> {
+            LockSupport.parkNanos(LOOKUP_MICROS * 1000);
+            return "bob".equals(username) ? "s3cret-token-bob" : null;
+        }, 300, 30);
+        warm.authenticate("bob", "s3cret-token-bob");
+
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < CHECKS_PER_THREAD; i++) {
+                    warm.authenticate("bob", "s3cret-token-bob");
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        int total = THREADS * CHECKS_PER_THREAD;
+        System.out.printf("cached check: %.0f ns/call over %d calls from %d threads (lookup per call: ~%d us)%n",
+                elapsed / (double) total, total, THREADS, LOOKUP_MICROS);
+        System.out.println(warm);
+    }
+}
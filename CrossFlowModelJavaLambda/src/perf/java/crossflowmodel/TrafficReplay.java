@@ -0,0 +1,796 @@
+package crossflowmodel;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/** Replays logged inference records through HandlerAPIGateway and HandlerStepFunction in this JVM, to compare the
+ *  performance and the answers of a change against real traffic rather than synthetic payloads.
+ *
+ *  Input is an export of the data table (the items of dynamodatauploader.py, or of InferenceLog), either
+ *      JSON lines   one item per line, plain {"volstart": 1000, ...} or DynamoDB JSON {"volstart": {"N": "1000"}, ...},
+ *                   optionally wrapped in {"Item": ...} as in an S3 export
+ *      CSV          a header row naming the attributes, as the DynamoDB console exports them ("volstart (N)", ...)
+ *  Each item becomes the request body the client sent: volstart, tmp, membranearea, mwco, concfactor, and viscosity
+ *  and username where present. A logged filtrationhours is kept to compare with.
+ *
+ *  Arrivals:
+ *      closed loop (no --rate)   each of --threads workers sends the next record as soon as its previous one is done
+ *      open loop (--rate N)      records are due at N per second, evenly spaced (constant) or with exponential gaps
+ *                                (poisson); --threads workers serve them in order. Latency is measured from when a
+ *                                record was due, so time spent queued behind a slow request counts (no coordinated
+ *                                omission); service time is measured from when a worker picked it up.
+ *
+ *  Reports per handler: latency percentiles and a log2 histogram, bytes allocated per request (HotSpot
+ *  ThreadMXBean), and the hit rate of the handler's CalculationCache, which is cleared after the warm-up so the
+ *  replay starts from a cold cache as a fresh container does.
+ *
+ *  Baseline: --write-baseline file stores statusCode and filtrationHours of every replayed record; --baseline file
+ *  compares this run against it and fails (exit 1) on any status change or hours beyond --tolerance (relative).
+ *
+ *  Run with: gradle replayTraffic --args="dump.jsonl [options]", see usage(). The task turns off metrics, the
+ *  inference log and token authentication, so replayed traffic is never written back to the data table.
+ */
+public class TrafficReplay {
+
+    public static final double DEFAULT_TOLERANCE = 1e-9;
+    private static final int DEFAULT_WARMUP = 2_000;
+
+    private static final String API_GATEWAY = "HandlerAPIGateway";
+    private static final String STEP_FUNCTION = "HandlerStepFunction";
+
+    // data table attribute --> request body field, in the order tokenauth.py forwarded them
+    private static final String[][] FIELDS = {
+            {"volstart", "volumeStart"},
+            {"tmp", "tmp"},
+            {"membranearea", "membraneArea"},
+            {"mwco", "molWeightCutOff"},
+            {"concfactor", "concFactor"},
+            {"viscosity", "solutionViscosity"},
+    };
+
+    private static final long SPIN_NANOS = 200_000;
+
+    private static final int HISTOGRAM_BUCKETS = 32; // log2 of microseconds, the last one open-ended
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        Options options;
+        try {
+            options = Options.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(usage());
+            System.exit(2);
+            return;
+        }
+        // the handlers would otherwise write every replayed request to the data table, or ask for tokens
+        if (InferenceLog.shared().isEnabled() || !blank(System.getenv(TokenAuthenticator.ENV_TABLE))) {
+            System.err.println("Unset " + InferenceLog.ENV_TABLE + " and " + TokenAuthenticator.ENV_TABLE
+                    + " before replaying (gradle replayTraffic does).");
+            System.exit(2);
+        }
+
+        List<LoggedRecord> records = read(options.input, options.limit);
+        if (records.isEmpty()) {
+            System.err.println("No replayable records in " + options.input + ".");
+            System.exit(2);
+        }
+        System.out.printf(Locale.ROOT, "%,d records from %s, %s, %d thread%s%n", records.size(), options.input,
+                options.rate > 0 ? String.format(Locale.ROOT, "open loop, %s arrivals at %.0f/s", options.arrival, options.rate)
+                        : "closed loop", options.threads, options.threads == 1 ? "" : "s");
+
+        List<Replay> replays = new ArrayList<>();
+        if (!options.handler.equals("stepfunction")) {
+            replays.add(replay(new ApiGatewayTarget(), records, options));
+        }
+        if (!options.handler.equals("apigateway")) {
+            replays.add(replay(new StepFunctionTarget(), records, options));
+        }
+        for (Replay replay : replays) {
+            replay.report(records);
+        }
+
+        boolean ok = true;
+        if (options.writeBaseline != null) {
+            writeBaseline(options.writeBaseline, records, replays);
+            System.out.println("\nBaseline written to " + options.writeBaseline + ".");
+        }
+        if (options.baseline != null) {
+            ok = compareBaseline(options.baseline, records, replays, options.tolerance);
+        }
+        for (Replay replay : replays) {
+            ok &= replay.errors == 0;
+        }
+        System.out.println(ok ? "\nOK" : "\nFAILED: see above");
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    static String usage() {
+        return "Usage: TrafficReplay dump.jsonl|dump.csv [--rate perSecond] [--arrival constant|poisson] [--threads n]\n"
+                + "       [--handler both|apigateway|stepfunction] [--warmup n] [--limit n] [--seed n]\n"
+                + "       [--write-baseline file] [--baseline file] [--tolerance relative]";
+    }
+
+    /* ------------------------------------------------------------------------------------------------------------
+     * Reading the dump
+     * ------------------------------------------------------------------------------------------------------------ */
+
+    /** One item of the data table, as the request body it was logged from. */
+    static final class LoggedRecord {
+        final String body;
+        final byte[] stepFunctionState;
+        final double loggedHours; // NaN when not logged, eg. items of dynamodatauploader.py or failed calculations
+
+        LoggedRecord(String body, double loggedHours) throws IOException {
+            this.body = body;
+            this.loggedHours = loggedHours;
+            // the Step Function state as tokenauth.py passed it on
+            Map<String, Object> state = new LinkedHashMap<>();
+            state.put("statusCode", 200);
+            state.put("status", 0);
+            state.put("statusString", "success");
+            state.put("body", body);
+            this.stepFunctionState = SharedJson.WRITER.writeValueAsBytes(state);
+        }
+
+        /** Input fingerprint stored in the baseline, so a baseline is only compared with a replay of the same dump. */
+        String fingerprint() {
+            return Integer.toHexString(body.hashCode());
+        }
+    }
+
+    static List<LoggedRecord> read(Path input, int limit) throws IOException {
+        List<String> lines = Files.readAllLines(input, StandardCharsets.UTF_8);
+        boolean json = input.toString().toLowerCase(Locale.ROOT).endsWith(".jsonl")
+                || input.toString().toLowerCase(Locale.ROOT).endsWith(".json")
+                || lines.stream().filter(line -> !line.isBlank()).findFirst().map(line -> line.trim().startsWith("{")).orElse(false);
+        List<Map<String, String>> items = json ? readJsonLines(lines) : readCsv(lines);
+
+        List<LoggedRecord> records = new ArrayList<>();
+        int skipped = 0;
+        for (Map<String, String> item : items) {
+            if (records.size() == limit) {
+                break;
+            }
+            LoggedRecord record = toRecord(item);
+            if (record == null) {
+                skipped++;
+            } else {
+                records.add(record);
+            }
+        }
+        if (skipped > 0) {
+            System.out.printf("Skipped %,d items without any model parameters.%n", skipped);
+        }
+        return records;
+    }
+
+    private static List<Map<String, String>> readJsonLines(List<String> lines) throws IOException {
+        List<Map<String, String>> items = new ArrayList<>();
+        for (String line : lines) {
+            if (line.isBlank()) {
+                continue;
+            }
+            JsonNode node = SharedJson.MAPPER.readTree(line);
+            if (node.has("Item")) {
+                node = node.get("Item");
+            }
+            Map<String, String> item = new HashMap<>();
+            for (Iterator<Map.Entry<String, JsonNode>> it = node.fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> field = it.next();
+                JsonNode value = field.getValue();
+                if (value.isObject()) { // DynamoDB JSON: {"N": "1000"} or {"S": "alice"}
+                    value = value.has("N") ? value.get("N") : value.get("S");
+                }
+                if (value != null && !value.isNull()) {
+                    item.put(field.getKey().toLowerCase(Locale.ROOT), value.asText());
+                }
+            }
+            items.add(item);
+        }
+        return items;
+    }
+
+    private static List<Map<String, String>> readCsv(List<String> lines) {
+        List<Map<String, String>> items = new ArrayList<>();
+        String[] header = null;
+        for (String line : lines) {
+            if (line.isBlank()) {
+                continue;
+            }
+            List<String> cells = csvCells(line);
+            if (header == null) {
+                header = new String[cells.size()];
+                for (int i = 0; i < header.length; i++) {
+                    // "volstart (N)" as exported by the DynamoDB console --> volstart
+                    header[i] = cells.get(i).replaceAll("\\s*\\([A-Z]+\\)$", "").trim().toLowerCase(Locale.ROOT);
+                }
+                continue;
+            }
+            Map<String, String> item = new HashMap<>();
+            for (int i = 0; i < Math.min(header.length, cells.size()); i++) {
+                item.put(header[i], cells.get(i));
+            }
+            items.add(item);
+        }
+        return items;
+    }
+
+    /** Cells of one CSV line, with quoted cells ("a,b" and "a""b") unquoted. */
+    static List<String> csvCells(String line) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    cell.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    cell.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                cells.add(cell.toString().trim());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        cells.add(cell.toString().trim());
+        return cells;
+    }
+
+    /** The request body of one item: numbers as numbers, anything else as the string the client sent, so invalid
+     *  logged inputs replay as the same 400 they got. Null when the item has none of the model parameters.
+     */
+    private static LoggedRecord toRecord(Map<String, String> item) throws IOException {
+        StringWriter body = new StringWriter(160);
+        int parameters = 0;
+        try (JsonGenerator generator = SharedJson.MAPPER.getFactory().createGenerator(body)) {
+            generator.writeStartObject();
+            for (String[] field : FIELDS) {
+                String value = item.get(field[0]);
+                if (missing(value)) {
+                    continue;
+                }
+                parameters++;
+                double number = parseNumber(value);
+                if (Double.isFinite(number)) {
+                    generator.writeNumberField(field[1], number);
+                } else {
+                    generator.writeStringField(field[1], value);
+                }
+            }
+            String username = item.get("username");
+            if (!missing(username)) {
+                generator.writeStringField("username", username);
+            }
+            generator.writeEndObject();
+        }
+        if (parameters == 0) {
+            return null;
+        }
+        String logged = item.get("filtrationhours");
+        return new LoggedRecord(body.toString(), missing(logged) ? Double.NaN : parseNumber(logged));
+    }
+
+    private static boolean missing(String value) {
+        // the Python uploader logged str(None) for parameters the client left out
+        return value == null || value.isBlank() || value.equals("None") || value.equals("null");
+    }
+
+    private static boolean blank(String value) {
+        return value == null || value.isBlank();
+    }
+
+    private static double parseNumber(String value) {
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /* ------------------------------------------------------------------------------------------------------------
+     * Replaying
+     * ------------------------------------------------------------------------------------------------------------ */
+
+    /** One handler, called the way its runtime calls it. Raw responses are decoded after the replay, not timed. */
+    private interface Target {
+        String name();
+
+        CalculationCache cache();
+
+        Object invoke(LoggedRecord record) throws IOException;
+
+        /** {statusCode, filtrationHours (NaN when absent)} of a raw response. */
+        double[] outcome(Object response) throws IOException;
+    }
+
+    private static final class ApiGatewayTarget implements Target {
+        private final HandlerAPIGateway handler = new HandlerAPIGateway();
+
+        @Override
+        public String name() {
+            return API_GATEWAY;
+        }
+
+        @Override
+        public CalculationCache cache() {
+            return HandlerAPIGateway.cache;
+        }
+
+        @Override
+        public Object invoke(LoggedRecord record) {
+            return handler.handleRequest(new APIGatewayProxyRequestEvent().withBody(record.body), null);
+        }
+
+        @Override
+        public double[] outcome(Object response) throws IOException {
+            APIGatewayProxyResponseEvent event = (APIGatewayProxyResponseEvent) response;
+            return new double[]{event.getStatusCode(), hours(event.getBody())};
+        }
+    }
+
+    private static final class StepFunctionTarget implements Target {
+        private final HandlerStepFunction handler = new HandlerStepFunction();
+
+        @Override
+        public String name() {
+            return STEP_FUNCTION;
+        }
+
+        @Override
+        public CalculationCache cache() {
+            return HandlerStepFunction.cache;
+        }
+
+        @Override
+        public Object invoke(LoggedRecord record) throws IOException {
+            ByteArrayOutputStream output = new ByteArrayOutputStream(128);
+            handler.handleRequest(new ByteArrayInputStream(record.stepFunctionState), output, null);
+            return output.toByteArray();
+        }
+
+        @Override
+        public double[] outcome(Object response) throws IOException {
+            // a JSON string: the payload object, or "Error 400: ..." text
+            String payload = SharedJson.MAPPER.readTree((byte[]) response).asText();
+            if (payload.startsWith("Error ")) {
+                return new double[]{parseNumber(payload.substring(6, payload.indexOf(':', 6))), Double.NaN};
+            }
+            if (!payload.startsWith("{")) {
+                return new double[]{500, Double.NaN};
+            }
+            JsonNode node = SharedJson.MAPPER.readTree(payload);
+            return new double[]{node.path("statusCode").asInt(500), hours(payload)};
+        }
+    }
+
+    private static double hours(String body) throws IOException {
+        if (body == null || !body.startsWith("{")) {
+            return Double.NaN;
+        }
+        JsonNode hours = SharedJson.MAPPER.readTree(body).get("filtrationHours");
+        return hours == null || !hours.isNumber() ? Double.NaN : hours.asDouble();
+    }
+
+    private static Replay replay(Target target, List<LoggedRecord> records, Options options) throws Exception {
+        // warm up on the records themselves, then start from a cold cache as a new container would
+        int warmup = Math.min(options.warmup, records.size());
+        for (int round = 0; round < 3; round++) {
+            for (int i = 0; i < warmup; i++) {
+                target.invoke(records.get(i));
+            }
+        }
+        CalculationCache cache = target.cache();
+        cache.clear();
+        long hits = cache.getHits();
+        long misses = cache.getMisses();
+
+        long[] due = schedule(records.size(), options);
+        Object[] responses = new Object[records.size()];
+        AtomicInteger next = new AtomicInteger();
+        Worker[] workers = new Worker[options.threads];
+        CountDownLatch done = new CountDownLatch(options.threads);
+        long start = System.nanoTime() + 10_000_000; // the first record is due once every worker is waiting
+        for (int w = 0; w < workers.length; w++) {
+            workers[w] = new Worker(target, records, due, start, next, responses, done);
+            Thread thread = new Thread(workers[w], "replay-" + w);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        Replay replay = new Replay(target.name(), elapsed, records.size(), options.rate > 0);
+        for (Worker worker : workers) {
+            replay.add(worker);
+        }
+        replay.cacheHits = cache.getHits() - hits;
+        replay.cacheMisses = cache.getMisses() - misses;
+        replay.cacheSize = cache.size();
+        for (int i = 0; i < responses.length; i++) {
+            replay.outcomes[i] = responses[i] == null ? new double[]{-1, Double.NaN} : target.outcome(responses[i]);
+        }
+        return replay;
+    }
+
+    /** Nanoseconds after the start at which each record is due, or null for a closed loop. */
+    static long[] schedule(int count, Options options) {
+        if (options.rate <= 0) {
+            return null;
+        }
+        long[] due = new long[count];
+        double meanGapNanos = 1e9 / options.rate;
+        SplittableRandom random = new SplittableRandom(options.seed);
+        double t = 0;
+        for (int i = 0; i < count; i++) {
+            due[i] = (long) t;
+            // exponential inter-arrival times make a Poisson process: bursts and lulls at the same mean rate
+            t += options.arrival.equals("poisson") ? -Math.log(1 - random.nextDouble()) * meanGapNanos : meanGapNanos;
+        }
+        return due;
+    }
+
+    /** Takes the next record, waits until it is due (open loop), and calls the handler. */
+    private static final class Worker implements Runnable {
+        private final Target target;
+        private final List<LoggedRecord> records;
+        private final long[] due;
+        private final long start;
+        private final AtomicInteger next;
+        private final Object[] responses;
+        private final CountDownLatch done;
+
+        // microseconds; sketches are not thread-safe, so one per worker, merged afterwards
+        final QuantileSketch latency = new QuantileSketch(0.01, 0.1, 1e8);
+        final QuantileSketch service = new QuantileSketch(0.01, 0.1, 1e8);
+        final long[] histogram = new long[HISTOGRAM_BUCKETS];
+        long allocatedBytes;
+        int requests;
+        int errors;
+
+        Worker(Target target, List<LoggedRecord> records, long[] due, long start, AtomicInteger next, Object[] responses,
+               CountDownLatch done) {
+            this.target = target;
+            this.records = records;
+            this.due = due;
+            this.start = start;
+            this.next = next;
+            this.responses = responses;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            long thread = Thread.currentThread().getId();
+            long allocatedBefore = THREADS.getThreadAllocatedBytes(thread);
+            try {
+                for (int i = next.getAndIncrement(); i < records.size(); i = next.getAndIncrement()) {
+                    long dueAt = start + (due == null ? 0 : due[i]);
+                    // park until shortly before the record is due, then spin: a park can oversleep by tens of
+                    // microseconds, which would count as latency of a request that was not late
+                    for (long wait = dueAt - System.nanoTime(); wait > 0; wait = dueAt - System.nanoTime()) {
+                        if (wait > SPIN_NANOS) {
+                            LockSupport.parkNanos(wait - SPIN_NANOS);
+                        } else {
+                            Thread.onSpinWait();
+                        }
+                    }
+                    long begin = System.nanoTime();
+                    try {
+                        responses[i] = target.invoke(records.get(i));
+                    } catch (IOException | RuntimeException e) {
+                        errors++;
+                    }
+                    long end = System.nanoTime();
+                    // closed loop: a record is due when the worker takes it, so latency is the service time
+                    record(end - (due == null ? begin : dueAt), end - begin);
+                }
+            } finally {
+                allocatedBytes = THREADS.getThreadAllocatedBytes(thread) - allocatedBefore;
+                done.countDown();
+            }
+        }
+
+        private void record(long latencyNanos, long serviceNanos) {
+            double micros = latencyNanos / 1e3;
+            latency.add(Math.max(micros, 0.1));
+            service.add(Math.max(serviceNanos / 1e3, 0.1));
+            int bucket = micros < 1 ? 0 : 64 - Long.numberOfLeadingZeros((long) micros); // [2^(b-1), 2^b) us
+            histogram[Math.min(bucket, HISTOGRAM_BUCKETS - 1)]++;
+            requests++;
+        }
+    }
+
+    /** Merged results of all workers for one handler. */
+    static final class Replay {
+        final String handler;
+        final long elapsedNanos;
+        final boolean openLoop;
+        final QuantileSketch latency = new QuantileSketch(0.01, 0.1, 1e8);
+        final QuantileSketch service = new QuantileSketch(0.01, 0.1, 1e8);
+        final long[] histogram = new long[HISTOGRAM_BUCKETS];
+        final double[][] outcomes;
+        long allocatedBytes;
+        int requests;
+        int errors;
+        long cacheHits;
+        long cacheMisses;
+        int cacheSize;
+
+        Replay(String handler, long elapsedNanos, int records, boolean openLoop) {
+            this.handler = handler;
+            this.elapsedNanos = elapsedNanos;
+            this.outcomes = new double[records][];
+            this.openLoop = openLoop;
+        }
+
+        void add(Worker worker) {
+            latency.merge(worker.latency);
+            service.merge(worker.service);
+            for (int b = 0; b < HISTOGRAM_BUCKETS; b++) {
+                histogram[b] += worker.histogram[b];
+            }
+            allocatedBytes += worker.allocatedBytes;
+            requests += worker.requests;
+            errors += worker.errors;
+        }
+
+        void report(List<LoggedRecord> records) {
+            System.out.printf(Locale.ROOT, "%n%s: %,d requests in %.2f s (%.0f req/s), %d exceptions%n",
+                    handler, requests, elapsedNanos / 1e9, requests / (elapsedNanos / 1e9), errors);
+            printPercentiles("latency", latency);
+            if (openLoop) {
+                printPercentiles("service", service);
+            }
+            System.out.printf(Locale.ROOT, "  allocation  %,.0f bytes/request%n", (double) allocatedBytes / Math.max(requests, 1));
+            long lookups = cacheHits + cacheMisses;
+            System.out.printf(Locale.ROOT, "  cache       %.1f%% hits (%,d hits, %,d misses, %,d entries at the end)%n",
+                    lookups == 0 ? 0.0 : 100.0 * cacheHits / lookups, cacheHits, cacheMisses, cacheSize);
+
+            Map<Integer, Integer> statuses = new TreeMap<>();
+            int logged = 0;
+            int differsFromLogged = 0;
+            double maxRelative = 0;
+            for (int i = 0; i < outcomes.length; i++) {
+                statuses.merge((int) outcomes[i][0], 1, Integer::sum);
+                double loggedHours = records.get(i).loggedHours;
+                if (!Double.isNaN(loggedHours) && !Double.isNaN(outcomes[i][1])) {
+                    logged++;
+                    double relative = relativeDifference(outcomes[i][1], loggedHours);
+                    maxRelative = Math.max(maxRelative, relative);
+                    if (relative > DEFAULT_TOLERANCE) {
+                        differsFromLogged++;
+                    }
+                }
+            }
+            System.out.println("  statuses    " + statuses);
+            if (logged > 0) {
+                // informational: the logged hours may come from an earlier algorithm, or the Python model
+                System.out.printf(Locale.ROOT, "  logged      %,d of %,d with logged hours differ by more than %.0e (max relative %.2e)%n",
+                        differsFromLogged, logged, DEFAULT_TOLERANCE, maxRelative);
+            }
+
+            System.out.println("  histogram");
+            long most = 0;
+            int first = HISTOGRAM_BUCKETS;
+            int last = -1;
+            for (int b = 0; b < HISTOGRAM_BUCKETS; b++) {
+                most = Math.max(most, histogram[b]);
+                if (histogram[b] > 0) {
+                    first = Math.min(first, b);
+                    last = b;
+                }
+            }
+            for (int b = first; b <= last; b++) {
+                long upper = 1L << b; // microseconds
+                String label = b == HISTOGRAM_BUCKETS - 1 ? ">= " + millis(upper / 2) : "< " + millis(upper);
+                System.out.printf(Locale.ROOT, "    %12s  %-40s %,d%n", label,
+                        "#".repeat((int) Math.round(40.0 * histogram[b] / most)), histogram[b]);
+            }
+        }
+
+        private static void printPercentiles(String name, QuantileSketch sketch) {
+            System.out.printf(Locale.ROOT, "  %-10s  p50 %.3f  p90 %.3f  p99 %.3f  p99.9 %.3f  max %.3f ms%n", name,
+                    sketch.quantile(0.50) / 1e3, sketch.quantile(0.90) / 1e3, sketch.quantile(0.99) / 1e3,
+                    sketch.quantile(0.999) / 1e3, sketch.getMax() / 1e3);
+        }
+
+        private static String millis(long micros) {
+            return micros < 1000 ? micros + " us" : String.format(Locale.ROOT, "%.0f ms", micros / 1e3);
+        }
+    }
+
+    private static double relativeDifference(double a, double b) {
+        if (a == b) {
+            return 0;
+        }
+        return Math.abs(a - b) / Math.max(Math.abs(a), Math.abs(b));
+    }
+
+    /* ------------------------------------------------------------------------------------------------------------
+     * Baseline
+     * ------------------------------------------------------------------------------------------------------------ */
+
+    private static final String BASELINE_HEADER = "handler,index,input,statusCode,filtrationHours";
+
+    static void writeBaseline(Path file, List<LoggedRecord> records, List<Replay> replays) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(BASELINE_HEADER);
+            writer.newLine();
+            for (Replay replay : replays) {
+                for (int i = 0; i < records.size(); i++) {
+                    // Double.toString round-trips exactly, so an unchanged calculation compares equal
+                    writer.write(replay.handler + "," + i + "," + records.get(i).fingerprint() + ","
+                            + (int) replay.outcomes[i][0] + "," + replay.outcomes[i][1]);
+                    writer.newLine();
+                }
+            }
+        }
+    }
+
+    /** Compares every replayed record with the same record of the baseline, returns false on any regression. */
+    static boolean compareBaseline(Path file, List<LoggedRecord> records, List<Replay> replays, double tolerance) throws IOException {
+        Map<String, String[]> baseline = new HashMap<>();
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(BASELINE_HEADER)) {
+            throw new IllegalArgumentException(file + " is not a TrafficReplay baseline (header " + BASELINE_HEADER + ").");
+        }
+        for (String line : lines.subList(1, lines.size())) {
+            String[] cells = line.split(",");
+            baseline.put(cells[0] + "," + cells[1], cells);
+        }
+
+        System.out.printf("%nBaseline %s, tolerance %.0e relative%n", file, tolerance);
+        boolean ok = true;
+        for (Replay replay : replays) {
+            int compared = 0;
+            int notInBaseline = 0;
+            int inputChanged = 0;
+            int statusChanged = 0;
+            int hoursChanged = 0;
+            double maxRelative = 0;
+            List<String> examples = new ArrayList<>();
+            for (int i = 0; i < records.size(); i++) {
+                String[] expected = baseline.get(replay.handler + "," + i);
+                if (expected == null) {
+                    notInBaseline++;
+                    continue;
+                }
+                if (!expected[2].equals(records.get(i).fingerprint())) {
+                    inputChanged++;
+                    continue;
+                }
+                compared++;
+                int status = (int) replay.outcomes[i][0];
+                double hours = replay.outcomes[i][1];
+                double expectedHours = Double.parseDouble(expected[4]);
+                double relative = Double.isNaN(hours) && Double.isNaN(expectedHours) ? 0
+                        : Double.isNaN(hours) || Double.isNaN(expectedHours) ? Double.POSITIVE_INFINITY
+                        : relativeDifference(hours, expectedHours);
+                if (status != Integer.parseInt(expected[3])) {
+                    statusChanged++;
+                } else if (relative > tolerance) {
+                    hoursChanged++;
+                } else {
+                    maxRelative = Math.max(maxRelative, relative);
+                    continue;
+                }
+                if (examples.size() < 5) {
+                    examples.add(String.format(Locale.ROOT, "    record %d: status %s --> %d, hours %s --> %s  %s",
+                            i, expected[3], status, expected[4], hours, records.get(i).body));
+                }
+            }
+            System.out.printf(Locale.ROOT, "  %-20s compared %,d, status changed %,d, hours changed %,d (max relative within tolerance %.2e)%n",
+                    replay.handler, compared, statusChanged, hoursChanged, maxRelative);
+            if (notInBaseline > 0 || inputChanged > 0) {
+                System.out.printf(Locale.ROOT, "  %-20s not compared: %,d not in the baseline, %,d with other inputs than the baseline's%n",
+                        "", notInBaseline, inputChanged);
+            }
+            examples.forEach(System.out::println);
+            ok &= statusChanged == 0 && hoursChanged == 0;
+        }
+        return ok;
+    }
+
+    /* ------------------------------------------------------------------------------------------------------------
+     * Options
+     * ------------------------------------------------------------------------------------------------------------ */
+
+    static final class Options {
+        Path input;
+        double rate; // requests per second, 0 for a closed loop
+        String arrival = "constant";
+        int threads = 1; // a Lambda container serves one request at a time
+        String handler = "both";
+        int warmup = DEFAULT_WARMUP;
+        int limit = Integer.MAX_VALUE;
+        long seed = 23;
+        Path baseline;
+        Path writeBaseline;
+        double tolerance = DEFAULT_TOLERANCE;
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (!arg.startsWith("--")) {
+                    if (options.input != null) {
+                        throw new IllegalArgumentException("More than one input: " + options.input + ", " + arg);
+                    }
+                    options.input = Path.of(arg);
+                    continue;
+                }
+                if (i + 1 == args.length) {
+                    throw new IllegalArgumentException(arg + " needs a value.");
+                }
+                String value = args[++i];
+                try {
+                    switch (arg) {
+                        case "--rate": options.rate = Double.parseDouble(value); break;
+                        case "--arrival": options.arrival = value; break;
+                        case "--threads": options.threads = Integer.parseInt(value); break;
+                        case "--handler": options.handler = value; break;
+                        case "--warmup": options.warmup = Integer.parseInt(value); break;
+                        case "--limit": options.limit = Integer.parseInt(value); break;
+                        case "--seed": options.seed = Long.parseLong(value); break;
+                        case "--baseline": options.baseline = Path.of(value); break;
+                        case "--write-baseline": options.writeBaseline = Path.of(value); break;
+                        case "--tolerance": options.tolerance = Double.parseDouble(value); break;
+                        default: throw new IllegalArgumentException("Unknown option " + arg);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(arg + " needs a number, got: " + value);
+                }
+            }
+            if (options.input == null) {
+                throw new IllegalArgumentException("No input dump given.");
+            }
+            if (!options.arrival.equals("constant") && !options.arrival.equals("poisson")) {
+                throw new IllegalArgumentException("--arrival must be constant or poisson, got: " + options.arrival);
+            }
+            if (!options.handler.equals("both") && !options.handler.equals("apigateway") && !options.handler.equals("stepfunction")) {
+                throw new IllegalArgumentException("--handler must be both, apigateway or stepfunction, got: " + options.handler);
+            }
+            if (options.threads < 1 || options.limit < 1 || options.warmup < 0 || options.rate < 0 || !(options.tolerance >= 0)) {
+                throw new IllegalArgumentException("--threads and --limit must be at least 1, --warmup, --rate and --tolerance not negative.");
+            }
+            return options;
+        }
+    }
+}
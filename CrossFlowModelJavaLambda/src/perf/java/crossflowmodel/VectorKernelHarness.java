@@ -0,0 +1,68 @@
+package crossflowmodel;
+
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/** Compares the speed of TwoPhaseBatch's Vector API kernel and the scalar kernel on a million random scenarios, and
+ *  reports how many vector hours are identical, within TwoPhaseBatch.TOLERANCE, or a step apart. Agreement of both
+ *  kernels is asserted by TwoPhaseBatchTest.
+ *
+ *  Run with: gradle vectorKernelHarness (which adds --add-modules jdk.incubator.vector)
+ */
+public class VectorKernelHarness {
+
+    private static final int SCENARIOS = 1_000_000;
+
+    public static void main(String[] args) {
+        System.out.println("TwoPhaseBatch: " + (TwoPhaseBatch.isVectorized() ? TwoPhaseBatch.lanes() + " lanes" : "scalar"));
+        if (!TwoPhaseBatch.isVectorized()) {
+            System.out.println("Vector API not in use (run with --add-modules jdk.incubator.vector), nothing to compare.");
+            return;
+        }
+
+        double[] volumeStart = new double[SCENARIOS];
+        double[] concFactor = new double[SCENARIOS];
+        double[] tmp = new double[SCENARIOS];
+        double[] viscosity = new double[SCENARIOS];
+        double[] area = new double[SCENARIOS];
+        SplittableRandom random = new SplittableRandom(21);
+        for (int i = 0; i < SCENARIOS; i++) {
+            volumeStart[i] = 10 + 4990 * random.nextDouble();
+            concFactor[i] = 1.01 + 9 * random.nextDouble();
+            tmp[i] = 20_000 + 380_000 * random.nextDouble();
+            viscosity[i] = 0.0008 + 0.0042 * random.nextDouble();
+            area[i] = 1 + 49 * random.nextDouble();
+        }
+
+        double[] scalar = new double[SCENARIOS];
+        double[] vector = new double[SCENARIOS];
+        TwoPhaseBatch.scalarHours(volumeStart, concFactor, tmp, viscosity, area, MembraneModel.DEFAULT, scalar, 0, SCENARIOS);
+        TwoPhaseBatch.hours(volumeStart, concFactor, tmp, viscosity, area, MembraneModel.DEFAULT, vector, 0, SCENARIOS);
+        int identical = 0;
+        int stepApart = 0;
+        double maxRelative = 0;
+        for (int i = 0; i < SCENARIOS; i++) {
+            double relative = Math.abs(vector[i] - scalar[i]) / scalar[i];
+            if (vector[i] == scalar[i]) {
+                identical++;
+            } else if (relative <= TwoPhaseBatch.TOLERANCE) {
+                maxRelative = Math.max(maxRelative, relative);
+            } else {
+                stepApart++;
+            }
+        }
+        System.out.printf(Locale.ROOT, "identical %,d, within tolerance %,d (max relative %.2e), stopped a step apart %,d%n",
+                identical, SCENARIOS - identical - stepApart, maxRelative, stepApart);
+
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            TwoPhaseBatch.scalarHours(volumeStart, concFactor, tmp, viscosity, area, MembraneModel.DEFAULT, scalar, 0, SCENARIOS);
+            long scalarNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            TwoPhaseBatch.hours(volumeStart, concFactor, tmp, viscosity, area, MembraneModel.DEFAULT, vector, 0, SCENARIOS);
+            long vectorNanos = System.nanoTime() - start;
+            System.out.printf(Locale.ROOT, "scalar %.0f ns/scenario, vector %.0f ns/scenario (%.1fx)%n",
+                    (double) scalarNanos / SCENARIOS, (double) vectorNanos / SCENARIOS, (double) scalarNanos / vectorNanos);
+        }
+    }
+}
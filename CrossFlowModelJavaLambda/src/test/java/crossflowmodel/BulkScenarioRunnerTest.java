@@ -0,0 +1,143 @@
+package crossflowmodel;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkScenarioRunnerTest {
+
+    private static final int SMALL_CHUNK = BulkScenarioRunner.MAX_LINE_BYTES; // smallest allowed, many boundaries
+
+    @TempDir
+    Path directory;
+
+    /** Rows of the data table export: uid and username around the model columns, \n and \r\n mixed. */
+    private static String export(int rows) {
+        SplittableRandom random = new SplittableRandom(17);
+        StringBuilder csv = new StringBuilder("uid,username,\"volstart\",tmp,membranearea,mwco,concfactor,viscosity,comment\r\n");
+        for (int i = 0; i < rows; i++) {
+            csv.append(String.format(Locale.ROOT, "u%d,alice,%.1f,%.0f,%.2f,2500,%.2f,%s,%s",
+                    i, random.nextDouble(100, 5_000), random.nextDouble(50_000, 300_000), random.nextDouble(1, 50),
+                    random.nextDouble(1.5, 10), i % 3 == 0 ? "" : "0.001", "x".repeat(random.nextInt(60))));
+            csv.append(i % 2 == 0 ? "\n" : "\r\n");
+        }
+        return csv.toString();
+    }
+
+    private Path write(String name, String content) throws Exception {
+        return Files.write(directory.resolve(name), content.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private BulkScenarioRunner.Summary run(Path input, Path output, int threads, int chunkBytes) throws Exception {
+        return new BulkScenarioRunner(new Calculations(), threads, chunkBytes).run(input, output);
+    }
+
+    @Test
+    void smallChunksOnManyThreadsMatchOneChunk() throws Exception {
+        Path input = write("export.csv", export(5_000)); // ~450 KB, over a hundred 4 KB chunks
+        Path one = directory.resolve("one.csv");
+        Path many = directory.resolve("many.csv");
+        BulkScenarioRunner.Summary single = run(input, one, 1, 1 << 20);
+        BulkScenarioRunner.Summary chunked = run(input, many, 4, SMALL_CHUNK);
+
+        assertArrayEquals(Files.readAllBytes(one), Files.readAllBytes(many));
+        assertEquals(5_000, single.rows);
+        assertEquals(5_000, chunked.rows);
+        assertEquals(single.ok, chunked.ok);
+        assertEquals(5_000, chunked.ok);
+
+        // every line exactly once, in input order, with the \r of \r\n lines dropped
+        List<String> lines = Files.readAllLines(many, StandardCharsets.US_ASCII);
+        assertEquals(5_001, lines.size());
+        assertEquals("uid,username,\"volstart\",tmp,membranearea,mwco,concfactor,viscosity,comment,statuscode,filtrationhours", lines.get(0));
+        for (int i = 1; i < lines.size(); i++) {
+            assertTrue(lines.get(i).startsWith("u" + (i - 1) + ",alice,"), lines.get(i));
+            assertTrue(lines.get(i).indexOf('\r') < 0, lines.get(i));
+        }
+    }
+
+    @Test
+    void headerColumnsAreFoundByName() throws Exception {
+        Path input = write("reordered.csv", "extra,concFactor,molWeightCutOff,membraneArea,tmp,volumeStart\nz,2,2500,10,100000,1000\n");
+        Path output = directory.resolve("out.csv");
+        run(input, output, 1, SMALL_CHUNK);
+
+        CalculationResult expected = new CalculationResult();
+        new Calculations().calculateHours(1000, 2, 100_000, 0.001, 10, expected);
+        List<String> lines = Files.readAllLines(output);
+        assertEquals(String.format(Locale.ROOT, "z,2,2500,10,100000,1000,200,%.6f", expected.hours), lines.get(1));
+
+        Path missing = write("missing.csv", "volstart,tmp,membranearea,mwco\n1000,100000,10,2500\n");
+        assertThrows(IllegalArgumentException.class, () -> run(missing, output, 1, SMALL_CHUNK));
+        Path twice = write("twice.csv", "volstart,tmp,membranearea,mwco,concfactor,tmp\n");
+        assertThrows(IllegalArgumentException.class, () -> run(twice, output, 1, SMALL_CHUNK));
+    }
+
+    @Test
+    void withoutHeaderTheDefaultColumnsAreAssumed() throws Exception {
+        Path input = write("plain.csv", "1000,100000,10,2500,2\r\n\r\n  \n1000,100000,10,30000,2\n1000,100000,10,2500,0.5\n"
+                + "1000,abc,10,2500,2\n1000,Infinity,10,2500,2\n1000,100000,10,2500"); // last line without a line ending
+        Path output = directory.resolve("out.csv");
+        BulkScenarioRunner.Summary summary = run(input, output, 2, SMALL_CHUNK);
+
+        List<String> lines = Files.readAllLines(output);
+        assertEquals("volstart,tmp,membranearea,mwco,concfactor,statuscode,filtrationhours", lines.get(0));
+        assertTrue(lines.get(1).startsWith("1000,100000,10,2500,2,200,"), lines.get(1));
+        assertEquals("1000,100000,10,30000,2,400,", lines.get(2)); // MWCO too high
+        assertEquals("1000,100000,10,2500,0.5,400,", lines.get(3)); // concentration factor below 1
+        assertEquals("1000,abc,10,2500,2,400,", lines.get(4));
+        assertEquals("1000,Infinity,10,2500,2,400,", lines.get(5));
+        assertEquals("1000,100000,10,2500,400,", lines.get(6)); // missing concfactor
+        assertEquals(6, summary.rows); // blank lines skipped
+        assertEquals(1, summary.ok);
+        assertEquals(2, summary.rejected);
+        assertEquals(3, summary.invalid);
+    }
+
+    @Test
+    void tooLongLinesAreRejected() throws Exception {
+        String longLine = "1000,100000,10,2500,2," + "9".repeat(BulkScenarioRunner.MAX_LINE_BYTES) + "\n";
+        Path output = directory.resolve("out.csv");
+        Path first = write("first.csv", longLine + "1000,100000,10,2500,2\n".repeat(1_000));
+        assertThrows(IllegalArgumentException.class, () -> run(first, output, 1, SMALL_CHUNK));
+        Path middle = write("middle.csv", "1000,100000,10,2500,2\n".repeat(1_000) + longLine + "1000,100000,10,2500,2\n".repeat(1_000));
+        assertThrows(IllegalArgumentException.class, () -> run(middle, output, 2, SMALL_CHUNK));
+    }
+
+    @Test
+    void parseNumberFastPathMatchesParseDouble() {
+        SplittableRandom random = new SplittableRandom(5);
+        byte[] scratch = new byte[64];
+        for (int i = 0; i < 100_000; i++) {
+            double value = random.nextDouble() * Math.pow(10, random.nextInt(-8, 9));
+            String text = random.nextBoolean() ? Double.toString(value) : String.format(Locale.ROOT, "%." + random.nextInt(0, 12) + "f", value);
+            assertEquals(Double.parseDouble(text), parse(text, scratch), text);
+        }
+        String[] cases = {"0", "-0.5", "+12", "1e5", "2.5E-3", "007", ".5", "5.", "123456789012345678901", "1e400", "1d"};
+        for (String text : cases) {
+            assertEquals(Double.parseDouble(text), parse(text, scratch), text);
+        }
+        assertEquals(1000, parse(" \"1000\" ", scratch));
+        assertTrue(Double.isNaN(parse("", scratch)));
+        assertTrue(Double.isNaN(parse("1e", scratch)));
+        assertTrue(Double.isNaN(parse("12abc", scratch)));
+        assertTrue(Double.isNaN(parse("--1", scratch)));
+    }
+
+    private static double parse(String text, byte[] scratch) {
+        ByteBuffer buffer = ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+        return BulkScenarioRunner.parseNumber(buffer, 0, buffer.limit(), scratch);
+    }
+}
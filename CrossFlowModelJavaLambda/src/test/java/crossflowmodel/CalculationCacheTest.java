@@ -0,0 +1,136 @@
+package crossflowmodel;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CalculationCacheTest {
+
+    /** Counts computations, and holds each one until released so that concurrent misses overlap. */
+    private static final class BlockingCalculations extends Calculations {
+        final AtomicInteger computed = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        volatile RuntimeException failure;
+
+        @Override
+        public void calculateHours(double startingVolume, double concentrationFactor, double tmp, double solutionViscosity,
+                                   double membraneArea, CalculationResult result) {
+            computed.incrementAndGet();
+            started.countDown();
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            super.calculateHours(startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, result);
+        }
+    }
+
+    @Test
+    void concurrentMissesComputeOnce() throws Exception {
+        BlockingCalculations calculations = new BlockingCalculations();
+        CalculationCache cache = new CalculationCache(calculations, 16);
+        int threads = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<CalculationResult>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(pool.submit(() -> {
+                    CalculationResult result = new CalculationResult();
+                    cache.calculateHours(1000, 2, 100_000, 0.001, 10, result);
+                    return result;
+                }));
+            }
+            assertTrue(calculations.started.await(10, TimeUnit.SECONDS));
+            Thread.sleep(100); // let the other threads reach the in-flight computation
+            calculations.release.countDown();
+
+            CalculationResult expected = new CalculationResult();
+            new Calculations().calculateHours(1000, 2, 100_000, 0.001, 10, expected);
+            int cached = 0;
+            for (Future<CalculationResult> future : results) {
+                CalculationResult result = future.get(10, TimeUnit.SECONDS);
+                assertEquals(expected.hours, result.hours);
+                cached += result.cached ? 1 : 0;
+            }
+            assertEquals(1, calculations.computed.get());
+            assertEquals(1, cache.getMisses());
+            assertEquals(threads - 1, cache.getHits());
+            assertEquals(threads - 1, cached);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void failedComputationIsNotCached() throws Exception {
+        BlockingCalculations calculations = new BlockingCalculations();
+        calculations.release.countDown();
+        calculations.failure = new IllegalStateException("solver failed");
+        CalculationCache cache = new CalculationCache(calculations, 16);
+
+        assertThrows(IllegalStateException.class, () -> cache.calculateHours(1000, 2, 100_000, 0.001, 10, new CalculationResult()));
+        assertEquals(0, cache.size());
+
+        calculations.failure = null;
+        CalculationResult result = new CalculationResult();
+        cache.calculateHours(1000, 2, 100_000, 0.001, 10, result);
+        assertTrue(result.isSuccess());
+        assertFalse(result.cached);
+        assertEquals(2, calculations.computed.get());
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        CalculationCache cache = new CalculationCache(new Calculations(), 2);
+        CalculationResult result = new CalculationResult();
+        cache.calculateHours(1000, 2, 100_000, 0.001, 10, result);
+        cache.calculateHours(2000, 2, 100_000, 0.001, 10, result);
+        cache.calculateHours(1000, 2, 100_000, 0.001, 10, result); // 1000 is now the most recently used
+        assertTrue(result.cached);
+        cache.calculateHours(3000, 2, 100_000, 0.001, 10, result); // evicts 2000
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+
+        cache.calculateHours(1000, 2, 100_000, 0.001, 10, result);
+        assertTrue(result.cached);
+        cache.calculateHours(2000, 2, 100_000, 0.001, 10, result);
+        assertFalse(result.cached);
+    }
+
+    @Test
+    void negativeZeroSharesTheEntryOfZero() {
+        CalculationCache cache = new CalculationCache(new Calculations(), 4);
+        CalculationResult result = new CalculationResult();
+        cache.calculateHours(1000, 1, 100_000, 0.001, 0.0, result);
+        cache.calculateHours(1000, 1, 100_000, 0.001, -0.0, result);
+        assertTrue(result.cached);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void failuresAreCachedWithTheirStatus() {
+        CalculationCache cache = new CalculationCache(new Calculations(), 4);
+        CalculationResult result = new CalculationResult();
+        cache.calculateHours(1000, 0.5, 100_000, 0.001, 10, result);
+        cache.calculateHours(1000, 0.5, 100_000, 0.001, 10, result);
+        assertTrue(result.cached);
+        assertEquals(CalculationStatus.CONCENTRATION_FACTOR_BELOW_ONE, result.status);
+    }
+}
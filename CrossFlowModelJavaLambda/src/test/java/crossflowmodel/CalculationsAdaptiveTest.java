@@ -0,0 +1,68 @@
+package crossflowmodel;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** The adaptive solver converges as the tolerance tightens, and its errorEstimate bounds the actual error in hours.
+ *  The reference is the same solver at ADAPTIVE_MIN_TOLERANCE, many orders of magnitude below the tolerances tested.
+ */
+class CalculationsAdaptiveTest {
+
+    private static final double[] TOLERANCES = {1e-2, 1e-3, 1e-4, 1e-6, 1e-8};
+
+    // {startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea}: runs of hours to 1e8 hours
+    private static final double[][] INPUTS = {
+            {1000, 2, 100_000, 0.001, 10},
+            {1000, 20, 100_000, 0.001, 0.1},
+            {50, 1.5, 300_000, 0.002, 20},
+            {10, 5, 50_000, 0.001, 1},
+    };
+
+    private final Calculations calculator = new Calculations();
+
+    private CalculationResult solve(double[] input, double tolerance, MembraneModel model) {
+        CalculationResult result = new CalculationResult();
+        calculator.calculateHoursAdaptive(input[0], input[1], input[2], input[3], input[4], tolerance, model, null, result);
+        assertTrue(result.isSuccess(), result::toString);
+        return result;
+    }
+
+    private void assertConvergesWithinItsEstimate(MembraneModel model) {
+        for (double[] input : INPUTS) {
+            double reference = solve(input, Calculations.ADAPTIVE_MIN_TOLERANCE, model).hours;
+            for (double tolerance : TOLERANCES) {
+                CalculationResult result = solve(input, tolerance, model);
+                double error = Math.abs(result.hours - reference);
+                String context = "concFactor " + input[1] + ", tolerance " + tolerance + ": hours " + result.hours +
+                        ", reference " + reference + ", errorEstimate " + result.errorEstimate;
+
+                assertTrue(result.errorEstimate >= error, context);
+            }
+            // not monotone step for step (errors of opposite sign can cancel), but converged at tight tolerances
+            assertEquals(reference, solve(input, 1e-8, model).hours, 1e-7 * reference);
+        }
+    }
+
+    @Test
+    void hoursConvergeWithinTheErrorEstimate() {
+        assertConvergesWithinItsEstimate(MembraneModel.DEFAULT);
+    }
+
+    @Test
+    void hoursConvergeWithinTheErrorEstimateForFittedLaws() {
+        assertConvergesWithinItsEstimate(new MembraneModel(0.20e12, 0.90e12, 0.55));
+        assertConvergesWithinItsEstimate(new MembraneModel(0.08e12, 2.40e12, 0.37));
+    }
+
+    @Test
+    void errorEstimateIsTheSizeOfTheErrorNotFarBelowIt() {
+        // with the embedded estimate alone on every step this reported 1.9 h against an actual error of 33 h
+        double[] input = INPUTS[0];
+        double reference = solve(input, Calculations.ADAPTIVE_MIN_TOLERANCE, MembraneModel.DEFAULT).hours;
+        CalculationResult result = solve(input, 1e-3, MembraneModel.DEFAULT);
+        double error = Math.abs(result.hours - reference);
+        assertTrue(result.errorEstimate >= error && result.errorEstimate <= 10 * error, result::toString);
+    }
+}
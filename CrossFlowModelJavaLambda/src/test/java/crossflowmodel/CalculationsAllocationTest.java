@@ -0,0 +1,73 @@
+package crossflowmodel;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** The primitive Calculations paths produce no garbage per call once warm. Bytes per call of the legacy HashMap
+ *  wrapper, for comparison, are reported by AllocationHarness.
+ */
+class CalculationsAllocationTest {
+
+    private static final int WARMUP_CALLS = 200_000;
+    private static final int MEASURED_CALLS = 1_000_000;
+
+    // averaged over MEASURED_CALLS, so the measurement's own few allocations stay well below this
+    private static final double MAX_BYTES_PER_CALL = 0.5;
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final Calculations calculator = new Calculations();
+    private final CalculationResult result = new CalculationResult();
+    private double sink; // consumes results so the JIT cannot drop the calls
+
+    @Test
+    void twoPhaseIsAllocationFree() {
+        assertAllocationFree(i -> {
+            calculator.calculateHours(1000, 2 + (i & 7), 100_000, calculator.VISCOSITY_WATER, 10, result);
+            sink += result.hours;
+        });
+    }
+
+    @Test
+    void tabulatedIsAllocationFree() {
+        assertAllocationFree(i -> {
+            calculator.calculateHoursTabulated(1000, 2 + (i & 7), 100_000, calculator.VISCOSITY_WATER, 10, result);
+            sink += result.hours;
+        });
+    }
+
+    @Test
+    void adaptiveIsAllocationFree() {
+        assertAllocationFree(i -> {
+            calculator.calculateHoursAdaptive(1000, 2 + (i & 7), 100_000, calculator.VISCOSITY_WATER, 10, 1e-6, null, result);
+            sink += result.hours;
+        });
+    }
+
+    private interface Call {
+        void run(int i);
+    }
+
+    private void assertAllocationFree(Call call) {
+        double bytesPerCall = bytesPerCall(call);
+        assertTrue(bytesPerCall <= MAX_BYTES_PER_CALL, bytesPerCall + " bytes/call (checksum " + sink + ")");
+    }
+
+    private static double bytesPerCall(Call call) {
+        // adaptive runs are slower, but the warm-up still needs enough calls for C2 to compile the loop
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            call.run(i);
+        }
+        long thread = Thread.currentThread().getId();
+        long before = THREADS.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < MEASURED_CALLS; i++) {
+            call.run(i);
+        }
+        long after = THREADS.getThreadAllocatedBytes(thread);
+        return (double) (after - before) / MEASURED_CALLS;
+    }
+}
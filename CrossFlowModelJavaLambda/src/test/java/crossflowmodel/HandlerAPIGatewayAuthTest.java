@@ -0,0 +1,85 @@
+package crossflowmodel;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HandlerAPIGatewayAuthTest {
+
+    private static final String SCENARIO = "\"volumeStart\": 1000, \"tmp\": 100000, \"membraneArea\": 10, \"molWeightCutOff\": 2500, \"concFactor\": 2";
+
+    private static HandlerAPIGateway handler() {
+        InMemoryTokenStore store = new InMemoryTokenStore(0);
+        store.tokens.put("alice", "s3cret-token-alice");
+        return new HandlerAPIGateway(new MembraneRegistry(MembraneCalibration.DEFAULT_FORGETTING, MembraneRegistry.Access.AUTHENTICATED), new TokenAuthenticator(store, 300, 30));
+    }
+
+    private static int status(HandlerAPIGateway handler, String body) {
+        return handler.handleRequest(new APIGatewayProxyRequestEvent().withBody(body), null).getStatusCode();
+    }
+
+    @Test
+    void requestsNeedAValidToken() {
+        HandlerAPIGateway handler = handler();
+        assertEquals(400, status(handler, "{" + SCENARIO + "}"));
+        assertEquals(400, status(handler, "{" + SCENARIO + ", \"username\": \"alice\"}"));
+        assertEquals(403, status(handler, "{" + SCENARIO + ", \"username\": \"alice\", \"token\": \"guess\"}"));
+        assertEquals(200, status(handler, "{" + SCENARIO + ", \"username\": \"alice\", \"token\": \"s3cret-token-alice\"}"));
+        // no field of the body makes a request synthetic
+        assertEquals(400, status(handler, "{" + SCENARIO + ", \"synthetic\": true, \"priming\": true}"));
+    }
+
+    @Test
+    void requestsServedWhilePrimingAreAuthenticated() throws Exception {
+        HandlerAPIGateway handler = handler();
+        CountDownLatch primingStarted = new CountDownLatch(1);
+        CountDownLatch requestsDone = new CountDownLatch(1);
+        Priming priming = Priming.onInit("HandlerAPIGatewayAuthTest", () -> {
+            primingStarted.countDown();
+            try {
+                requestsDone.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, new CalculationCache(new Calculations(), 4));
+        CompletableFuture<Void> primingRun = CompletableFuture.runAsync(priming::prime);
+        try {
+            assertTrue(primingStarted.await(10, TimeUnit.SECONDS));
+            assertEquals(400, status(handler, "{" + SCENARIO + "}"));
+            assertEquals(403, status(handler, "{" + SCENARIO + ", \"username\": \"alice\", \"token\": \"guess\"}"));
+        } finally {
+            requestsDone.countDown();
+        }
+        primingRun.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void tokensAreNeverLogged() {
+        HandlerAPIGateway handler = handler();
+        ByteArrayOutputStream logged = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        Log.Level level = Log.getLevel();
+        System.setOut(new PrintStream(logged, true, StandardCharsets.UTF_8));
+        Log.setLevel(Log.Level.DEBUG);
+        try {
+            status(handler, "{" + SCENARIO + ", \"username\": \"alice\", \"token\": \"s3cret-token-alice\"}");
+            status(handler, "{" + SCENARIO + ", \"username\": \"alice\", \"token\": \"s3cret-guess\"}");
+        } finally {
+            Log.setLevel(level);
+            System.setOut(stdout);
+        }
+        String output = logged.toString(StandardCharsets.UTF_8);
+        assertTrue(output.contains("Received"), output);
+        assertFalse(output.contains("s3cret"), output);
+    }
+}
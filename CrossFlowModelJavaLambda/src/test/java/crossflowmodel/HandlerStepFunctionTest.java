@@ -0,0 +1,60 @@
+package crossflowmodel;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HandlerStepFunctionTest {
+
+    private static final int PAYLOADS = 1024;
+    private static final int THREADS = 16;
+
+    @Test
+    void oneInstanceSharedByManyThreadsGivesTheSameAnswers() throws Exception {
+        byte[][] states = new byte[PAYLOADS][];
+        String[] expected = new String[PAYLOADS];
+        SplittableRandom random = new SplittableRandom(16);
+        for (int i = 0; i < PAYLOADS; i++) {
+            Map<String, Object> state = new LinkedHashMap<>();
+            state.put("statusCode", 200);
+            state.put("body", String.format(Locale.ROOT,
+                    "{\"volumeStart\":%.1f, \"tmp\":%.0f, \"membraneArea\":%.2f, \"molWeightCutOff\":2500, \"concFactor\":%.2f}",
+                    random.nextDouble(100, 5_000), random.nextDouble(50_000, 300_000),
+                    random.nextDouble(1, 50), random.nextDouble(1.5, 10)));
+            states[i] = SharedJson.WRITER.writeValueAsBytes(state);
+            // a fresh instance per payload: nothing shared between requests
+            expected[i] = new HandlerStepFunction().handle(new ByteArrayInputStream(states[i]), RequestMetrics.start("HandlerStepFunctionTest"));
+        }
+
+        HandlerStepFunction shared = new HandlerStepFunction();
+        AtomicInteger mismatches = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int offset = t;
+            Thread thread = new Thread(() -> {
+                for (int n = 0; n < PAYLOADS; n++) {
+                    int i = (n + offset * 131) % PAYLOADS; // threads start at different payloads
+                    String payload = shared.handle(new ByteArrayInputStream(states[i]), RequestMetrics.start("HandlerStepFunctionTest"));
+                    if (!payload.equals(expected[i])) {
+                        mismatches.incrementAndGet();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, mismatches.get());
+    }
+}
@@ -0,0 +1,78 @@
+package crossflowmodel;
+
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputExceededException;
+import software.amazon.awssdk.services.dynamodb.model.WriteRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** In-memory fake of the one DynamoDB operation InferenceLog uses, BatchWriteItem; every other call is unsupported.
+ *  Items are stored by their "uid" key. To exercise the retry path it can hand back a fraction of every batch as
+ *  unprocessed items, and throw a throttling exception on a fraction of calls, like a table at its capacity limit.
+ */
+class InMemoryDynamoDb implements DynamoDbClient {
+
+    public final Map<String, Map<String, AttributeValue>> items = new ConcurrentHashMap<>();
+    public final AtomicInteger calls = new AtomicInteger();
+
+    private final double unprocessedFraction;
+    private final double throttleFraction;
+    private final SplittableRandom random;
+
+    public InMemoryDynamoDb(double unprocessedFraction, double throttleFraction, long seed) {
+        this.unprocessedFraction = unprocessedFraction;
+        this.throttleFraction = throttleFraction;
+        this.random = new SplittableRandom(seed);
+    }
+
+    @Override
+    public synchronized BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest request) {
+        calls.incrementAndGet();
+        if (random.nextDouble() < throttleFraction) {
+            throw (AwsServiceException) ProvisionedThroughputExceededException.builder()
+                    .message("Fake throughput exceeded").statusCode(400)
+                    .awsErrorDetails(AwsErrorDetails.builder().errorCode("ProvisionedThroughputExceededException").build())
+                    .build();
+        }
+
+        Map<String, List<WriteRequest>> unprocessed = new HashMap<>();
+        for (Map.Entry<String, List<WriteRequest>> table : request.requestItems().entrySet()) {
+            if (table.getValue().size() > InferenceLog.MAX_BATCH_ITEMS) {
+                throw new IllegalArgumentException("Too many items in one BatchWriteItem: " + table.getValue().size());
+            }
+            List<WriteRequest> rejected = new ArrayList<>();
+            for (WriteRequest write : table.getValue()) {
+                if (random.nextDouble() < unprocessedFraction) {
+                    rejected.add(write);
+                    continue;
+                }
+                Map<String, AttributeValue> item = write.putRequest().item();
+                items.put(item.get("uid").s(), item);
+            }
+            if (!rejected.isEmpty()) {
+                unprocessed.put(table.getKey(), rejected);
+            }
+        }
+        return BatchWriteItemResponse.builder().unprocessedItems(unprocessed).build();
+    }
+
+    @Override
+    public String serviceName() {
+        return SERVICE_NAME;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,30 @@
+package crossflowmodel;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/** Fake tokens table for TokenAuthenticatorTest: username -> token map with a fixed lookup latency standing in for a
+ *  DynamoDB GetItem, and a count of lookups so cache hits can be told apart from reads.
+ */
+class InMemoryTokenStore implements TokenAuthenticator.Store {
+
+    public final Map<String, String> tokens = new ConcurrentHashMap<>();
+    public final AtomicInteger lookups = new AtomicInteger();
+
+    private final long latencyNanos;
+
+    public InMemoryTokenStore(long latencyMicros) {
+        this.latencyNanos = latencyMicros * 1000;
+    }
+
+    @Override
+    public String lookupToken(String username) {
+        lookups.incrementAndGet();
+        if (latencyNanos > 0) {
+            LockSupport.parkNanos(latencyNanos);
+        }
+        return tokens.get(username);
+    }
+}
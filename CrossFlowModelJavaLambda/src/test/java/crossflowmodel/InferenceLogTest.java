@@ -0,0 +1,115 @@
+package crossflowmodel;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InferenceLogTest {
+
+    // a flush interval no test lasts: the timed flush never runs, as in a sandbox frozen between invocations
+    private static final long FROZEN = TimeUnit.HOURS.toMillis(1);
+
+    private static void record(InferenceLog log, int i) {
+        log.record("user", 1000 + i, 100_000, 10, 2500, 2, 0.001, i % 10 == 0 ? Double.NaN : 15_757.98);
+    }
+
+    @Test
+    void everyRecordIsWrittenExactlyOnceDespiteRetries() throws Exception {
+        // 5% of every batch unprocessed, 2% of calls throttled
+        InMemoryDynamoDb table = new InMemoryDynamoDb(0.05, 0.02, 42);
+        int threads = 8;
+        int perThread = 1_000;
+        try (InferenceLog log = new InferenceLog(table, "crossflow-data", threads * perThread, 50)) {
+            List<Thread> producers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Thread producer = new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        record(log, i);
+                    }
+                });
+                producers.add(producer);
+                producer.start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            log.flush();
+            assertEquals(threads * perThread, table.items.size());
+            assertEquals(threads * perThread, log.getWritten());
+            assertEquals(0, log.getDropped());
+            assertEquals(0, log.getFailed());
+            assertTrue(log.getRetries() > 0);
+        }
+    }
+
+    @Test
+    void invocationReturnsWithItsRecordsWritten() {
+        InMemoryDynamoDb table = new InMemoryDynamoDb(0, 0, 1);
+        try (InferenceLog log = new InferenceLog(table, "crossflow-data", 1_000, FROZEN)) {
+            // fewer than a batch, so no size-based flush either: without the end-of-invocation flush these would
+            // wait in the buffer for the sandbox to thaw
+            for (int i = 0; i < 3; i++) {
+                record(log, i);
+            }
+            assertEquals(0, table.items.size());
+
+            assertTrue(log.awaitFlushed());
+            assertEquals(3, table.items.size());
+            assertEquals(0, log.getBuffered());
+            assertEquals(1, table.calls.get());
+
+            // nothing buffered, nothing written
+            assertTrue(log.awaitFlushed());
+            assertEquals(1, table.calls.get());
+        }
+    }
+
+    @Test
+    void endOfInvocationWaitIsBounded() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        InMemoryDynamoDb slow = new InMemoryDynamoDb(0, 0, 1) {
+            @Override
+            public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest request) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.batchWriteItem(request);
+            }
+        };
+        try (InferenceLog log = new InferenceLog(slow, "crossflow-data", 1_000, FROZEN, 100)) {
+            record(log, 1);
+            long start = System.nanoTime();
+            assertFalse(log.awaitFlushed());
+            long waitedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(waitedMillis >= 100 && waitedMillis < 5_000, "waited " + waitedMillis + " ms");
+
+            assertEquals(1, log.getPending()); // in flight still counts
+
+            release.countDown(); // the write in flight completes once DynamoDB answers
+            log.flush();
+            assertEquals(0, log.getPending());
+            assertTrue(log.awaitFlushed());
+            assertEquals(1, slow.items.size());
+        }
+    }
+
+    @Test
+    void disabledLogRecordsNothing() {
+        InferenceLog log = new InferenceLog(null, null, InferenceLog.MAX_BATCH_ITEMS, 1);
+        record(log, 1);
+        assertFalse(log.isEnabled());
+        assertEquals(0, log.getBuffered());
+        assertTrue(log.awaitFlushed());
+    }
+}
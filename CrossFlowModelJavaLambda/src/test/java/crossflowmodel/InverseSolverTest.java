@@ -0,0 +1,123 @@
+package crossflowmodel;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InverseSolverTest {
+
+    private static final double MODEL_TOLERANCE = 1e-8; // adaptive forward model, smooth in the solved parameter
+
+    /** The forward model with its hours scaled, so that the analytic bracket no longer holds and has to be widened. */
+    private static final class ScaledCalculations extends Calculations {
+        final double scale;
+
+        ScaledCalculations(double scale) {
+            this.scale = scale;
+        }
+
+        @Override
+        public void calculateHours(double startingVolume, double concentrationFactor, double tmp, double solutionViscosity,
+                                   double membraneArea, CalculationResult result) {
+            super.calculateHours(startingVolume, concentrationFactor, tmp, solutionViscosity, membraneArea, result);
+            result.hours *= scale;
+        }
+    }
+
+    private static double adaptiveHours(double tmp, double membraneArea) {
+        CalculationResult result = new CalculationResult();
+        new Calculations().calculateHoursAdaptive(1000, 2, tmp, 0.001, membraneArea, MODEL_TOLERANCE, null, result);
+        return result.hours;
+    }
+
+    @Test
+    void solutionIsTheSmallestAreaThatMeetsTheTarget() {
+        InverseSolver solver = new InverseSolver(new Calculations());
+        for (double targetHours : new double[]{0.5, 5, 24, 200, 5_000}) {
+            InverseSolver.Solution solution = solver.solve(InverseSolver.Parameter.MEMBRANE_AREA, targetHours, 1000, 2,
+                    100_000, 0.001, Double.NaN, MODEL_TOLERANCE, Double.NaN);
+            assertTrue(solution.isSuccess(), solution.toString());
+            assertTrue(solution.tolerance <= InverseSolver.DEFAULT_RELATIVE_TOLERANCE, solution.toString());
+            assertTrue(solution.hours <= targetHours);
+            assertTrue(adaptiveHours(100_000, solution.value) <= targetHours);
+            // a little less area no longer makes it
+            assertTrue(adaptiveHours(100_000, solution.value * (1 - 1e-4)) > targetHours, solution.toString());
+            assertTrue(solution.evaluations < 40, solution.toString());
+        }
+    }
+
+    @Test
+    void tmpAndAreaSolveToTheSameProduct() {
+        InverseSolver solver = new InverseSolver(new Calculations());
+        InverseSolver.Solution area = solver.solve(InverseSolver.Parameter.MEMBRANE_AREA, 24, 1000, 2,
+                100_000, 0.001, Double.NaN, MODEL_TOLERANCE, Double.NaN);
+        InverseSolver.Solution tmp = solver.solve(InverseSolver.Parameter.TMP, 24, 1000, 2,
+                Double.NaN, 0.001, 10, MODEL_TOLERANCE, Double.NaN);
+        assertTrue(tmp.isSuccess());
+        assertEquals(area.value * 100_000, tmp.value * 10, area.value * 100_000 * 1e-5);
+    }
+
+    @Test
+    void twoPhaseSolutionMeetsTheTarget() {
+        InverseSolver solver = new InverseSolver(new Calculations());
+        CalculationResult result = new CalculationResult();
+        for (double targetHours : new double[]{3, 24, 500}) {
+            InverseSolver.Solution solution = solver.solve(InverseSolver.Parameter.MEMBRANE_AREA, targetHours, 1000, 2,
+                    100_000, 0.001, Double.NaN, Double.NaN, Double.NaN);
+            assertTrue(solution.isSuccess(), solution.toString());
+            new Calculations().calculateHours(1000, 2, 100_000, 0.001, solution.value, result);
+            assertEquals(solution.hours, result.hours);
+            assertTrue(result.hours <= targetHours);
+        }
+    }
+
+    @Test
+    void bracketIsWidenedWhenTheForwardModelDisagrees() {
+        // 20x slower: the analytic upper bound is too small; 20x faster: the lower bound is too large
+        for (double scale : new double[]{20, 0.05}) {
+            InverseSolver solver = new InverseSolver(new ScaledCalculations(scale));
+            InverseSolver.Solution solution = solver.solve(InverseSolver.Parameter.MEMBRANE_AREA, 100, 1000, 2,
+                    100_000, 0.001, Double.NaN, Double.NaN, Double.NaN);
+            assertTrue(solution.isSuccess(), "scale " + scale + ": " + solution);
+            assertTrue(solution.hours <= 100);
+
+            CalculationResult result = new CalculationResult();
+            new ScaledCalculations(scale).calculateHours(1000, 2, 100_000, 0.001, solution.value, result);
+            assertTrue(result.hours <= 100);
+            new ScaledCalculations(scale).calculateHours(1000, 2, 100_000, 0.001, solution.value * 0.99, result);
+            assertTrue(result.hours > 100, "scale " + scale + ": " + solution);
+        }
+    }
+
+    @Test
+    void forwardModelFailuresAreReturned() {
+        InverseSolver solver = new InverseSolver(new Calculations() {
+            @Override
+            public void calculateHours(double startingVolume, double concentrationFactor, double tmp, double solutionViscosity,
+                                       double membraneArea, CalculationResult result) {
+                result.failure(CalculationStatus.NOT_CONVERGED);
+            }
+        });
+        InverseSolver.Solution solution = solver.solve(InverseSolver.Parameter.TMP, 24, 1000, 2,
+                Double.NaN, 0.001, 10, Double.NaN, Double.NaN);
+        assertFalse(solution.isSuccess());
+        assertEquals(CalculationStatus.NOT_CONVERGED, solution.status);
+        assertTrue(Double.isNaN(solution.value));
+    }
+
+    @Test
+    void invalidInputsAreRejected() {
+        InverseSolver solver = new InverseSolver(new Calculations());
+        assertThrows(IllegalArgumentException.class, () -> solver.solve(InverseSolver.Parameter.MEMBRANE_AREA, 0, 1000, 2,
+                100_000, 0.001, Double.NaN, Double.NaN, Double.NaN));
+        assertThrows(IllegalArgumentException.class, () -> solver.solve(InverseSolver.Parameter.MEMBRANE_AREA, 24, 1000, 1,
+                100_000, 0.001, Double.NaN, Double.NaN, Double.NaN));
+        assertThrows(IllegalArgumentException.class, () -> solver.solve(InverseSolver.Parameter.TMP, 24, 1000, 2,
+                100_000, 0.001, 0, Double.NaN, Double.NaN));
+        assertThrows(IllegalArgumentException.class, () -> solver.solve(InverseSolver.Parameter.MEMBRANE_AREA, 24, 1000, 2,
+                100_000, 0.001, Double.NaN, Double.NaN, 1));
+    }
+}
@@ -0,0 +1,224 @@
+package crossflowmodel;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LambdaRuntimeTest {
+
+    private static final String SCENARIO = "{\\\"volumeStart\\\": 1000, \\\"tmp\\\": 100000, \\\"membraneArea\\\": 10, \\\"molWeightCutOff\\\": 2500, \\\"concFactor\\\": 2}";
+
+    // an API Gateway proxy event, with a field the event class does not model
+    private static final String PROXY_EVENT = "{\"httpMethod\": \"POST\", \"path\": \"/\", \"body\": \"" + SCENARIO + "\", \"unmodelledField\": {\"a\": 1}}";
+    private static final String STEP_EVENT = "{\"statusCode\": 200, \"body\": \"" + SCENARIO + "\"}";
+
+    private StandInRuntimeApi api;
+
+    @AfterEach
+    void stop() {
+        if (api != null) {
+            api.stop();
+        }
+        System.clearProperty("com.amazonaws.xray.traceHeader");
+    }
+
+    @Test
+    void handlerNamesAreParsedAsTheManagedRuntimeDoes() {
+        assertNotNull(LambdaRuntime.invocation(HandlerAPIGateway.class.getName()));
+        assertNotNull(LambdaRuntime.invocation(" " + HandlerAPIGateway.class.getName() + "::handleRequest "));
+        assertNotNull(LambdaRuntime.invocation(HandlerStepFunction.class.getName() + "::handleRequest"));
+        assertThrows(IllegalArgumentException.class, () -> LambdaRuntime.invocation(null));
+        assertThrows(IllegalArgumentException.class, () -> LambdaRuntime.invocation("crossflowmodel.Calculations"));
+        assertThrows(IllegalArgumentException.class, () -> LambdaRuntime.invocation("::handleRequest"));
+    }
+
+    @Test
+    void responsesArePostedForTheirRequestIds() throws Exception {
+        api = new StandInRuntimeApi(PROXY_EVENT, PROXY_EVENT);
+        LambdaRuntime runtime = new LambdaRuntime(api.address(),
+                LambdaRuntime.invocation(HandlerAPIGateway.class.getName() + "::handleRequest"));
+        assertThrows(IOException.class, runtime::run); // ends when the stand-in has no more events
+
+        assertEquals(2, api.posts.size());
+        CalculationResult expected = new CalculationResult();
+        new Calculations().calculateHours(1000, 2, 100_000, 0.001, 10, expected);
+        for (int i = 0; i < 2; i++) {
+            Post post = api.posts.get(i);
+            assertEquals("invocation/request-" + i + "/response", post.path);
+            assertNull(post.errorType);
+            JsonNode response = SharedJson.MAPPER.readTree(post.body);
+            assertEquals(200, response.get("statusCode").asInt(), post.body);
+            assertEquals(expected.hours, SharedJson.MAPPER.readTree(response.get("body").asText()).get("filtrationHours").asDouble());
+            response.fields().forEachRemaining(field -> assertFalse(field.getValue().isNull(), field.getKey())); // nulls left out
+        }
+    }
+
+    @Test
+    void streamHandlerBytesPassThrough() throws Exception {
+        api = new StandInRuntimeApi(STEP_EVENT);
+        assertThrows(IOException.class, new LambdaRuntime(api.address(), LambdaRuntime.invocation(HandlerStepFunction.class.getName()))::run);
+
+        assertEquals(1, api.posts.size());
+        assertEquals("invocation/request-0/response", api.posts.get(0).path);
+        // the JSON-encoded string the handler writes, as the next state of the machine receives it
+        String expected = new HandlerStepFunction().handle(new ByteArrayInputStream(STEP_EVENT.getBytes(StandardCharsets.UTF_8)),
+                RequestMetrics.start("LambdaRuntimeTest"));
+        assertEquals(SharedJson.WRITER.writeValueAsString(expected), api.posts.get(0).body);
+        assertTrue(expected.contains("filtrationHours"), expected);
+    }
+
+    @Test
+    void failedInvocationsArePostedAsErrorsAndTheLoopGoesOn() throws Exception {
+        api = new StandInRuntimeApi("fail", "ok", "too large", "ok");
+        List<String> requestIds = new ArrayList<>();
+        LambdaRuntime runtime = new LambdaRuntime(api.address(), (event, context) -> {
+            requestIds.add(context.getAwsRequestId());
+            assertContext(context);
+            String text = new String(event, StandardCharsets.UTF_8);
+            if (text.equals("fail")) {
+                throw new IllegalStateException("model failed");
+            }
+            return ("{\"echo\": \"" + text + "\"}").getBytes(StandardCharsets.UTF_8);
+        });
+        assertThrows(IOException.class, runtime::run);
+
+        assertEquals(List.of("request-0", "request-1", "request-2", "request-3"), requestIds);
+        assertEquals(4, api.posts.size());
+        Post error = api.posts.get(0);
+        assertEquals("invocation/request-0/error", error.path);
+        assertEquals("Runtime.UnhandledException", error.errorType);
+        JsonNode document = SharedJson.MAPPER.readTree(error.body);
+        assertEquals("model failed", document.get("errorMessage").asText());
+        assertEquals(IllegalStateException.class.getName(), document.get("errorType").asText());
+
+        assertEquals("invocation/request-1/response", api.posts.get(1).path);
+        assertEquals("{\"echo\": \"ok\"}", api.posts.get(1).body);
+        // answered 413 by the stand-in, as the service does for a response over the payload limit
+        assertEquals("invocation/request-2/response", api.posts.get(2).path);
+        assertEquals("invocation/request-3/response", api.posts.get(3).path);
+    }
+
+    @Test
+    void failedInitialisationIsPostedToInitError() throws Exception {
+        api = new StandInRuntimeApi();
+        assertNull(LambdaRuntime.initialise(api.address(), "crossflowmodel.NoSuchHandler"));
+
+        assertEquals(1, api.posts.size());
+        Post error = api.posts.get(0);
+        assertEquals("init/error", error.path);
+        assertEquals("Runtime.InitError", error.errorType);
+        JsonNode document = SharedJson.MAPPER.readTree(error.body);
+        assertEquals(IllegalArgumentException.class.getName(), document.get("errorType").asText());
+        assertTrue(document.get("errorMessage").asText().contains("crossflowmodel.NoSuchHandler"), error.body);
+
+        assertNotNull(LambdaRuntime.initialise(api.address(), HandlerStepFunction.class.getName() + "::handleRequest"));
+        assertEquals(1, api.posts.size());
+    }
+
+    private static void assertContext(Context context) {
+        assertEquals(StandInRuntimeApi.FUNCTION_ARN, context.getInvokedFunctionArn());
+        int remaining = context.getRemainingTimeInMillis();
+        assertTrue(remaining > 0 && remaining <= 30_000, "remaining " + remaining);
+        assertEquals(System.getProperty("com.amazonaws.xray.traceHeader"), "Root=" + context.getAwsRequestId());
+    }
+
+    private static final class Post {
+        final String path;
+        final String errorType;
+        final String body;
+
+        Post(String path, String errorType, String body) {
+            this.path = path;
+            this.errorType = errorType;
+            this.body = body;
+        }
+    }
+
+    /** The Lambda Runtime API, enough of it for LambdaRuntime: hands out the given events as request-0, request-1...,
+     *  records what is posted back, and answers the next GET with 410 once the events run out, which ends the loop.
+     *  A response to an event "too large" is answered 413.
+     */
+    private static final class StandInRuntimeApi {
+        static final String FUNCTION_ARN = "arn:aws:lambda:eu-west-2:000000000000:function:test";
+        private static final String PREFIX = "/" + LambdaRuntime.API_VERSION + "/runtime/";
+
+        final List<Post> posts = new ArrayList<>();
+        private final Queue<String> events = new ArrayDeque<>();
+        private final List<String> handedOut = new ArrayList<>();
+        private final HttpServer server;
+
+        StandInRuntimeApi(String... events) throws IOException {
+            this.events.addAll(List.of(events));
+            server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 16);
+            server.createContext(PREFIX, this::handle);
+            server.start(); // one dispatcher thread, so the handler below is never run concurrently
+        }
+
+        String address() {
+            return "127.0.0.1:" + server.getAddress().getPort();
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath().substring(PREFIX.length());
+            byte[] request;
+            try (InputStream input = exchange.getRequestBody()) {
+                request = input.readAllBytes();
+            }
+            if (path.equals("invocation/next")) {
+                String event = events.poll();
+                if (event == null) {
+                    send(exchange, 410, new byte[0]);
+                    return;
+                }
+                String requestId = "request-" + handedOut.size();
+                handedOut.add(event);
+                exchange.getResponseHeaders().set("Lambda-Runtime-Aws-Request-Id", requestId);
+                exchange.getResponseHeaders().set("Lambda-Runtime-Deadline-Ms", Long.toString(System.currentTimeMillis() + 30_000));
+                exchange.getResponseHeaders().set("Lambda-Runtime-Invoked-Function-Arn", FUNCTION_ARN);
+                exchange.getResponseHeaders().set("Lambda-Runtime-Trace-Id", "Root=" + requestId);
+                send(exchange, 200, event.getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            // invocation/{id}/response, invocation/{id}/error or init/error
+            posts.add(new Post(path, exchange.getRequestHeaders().getFirst("Lambda-Runtime-Function-Error-Type"),
+                    new String(request, StandardCharsets.UTF_8)));
+            String[] parts = path.split("/");
+            boolean tooLarge = parts.length == 3 && parts[2].equals("response")
+                    && handedOut.get(Integer.parseInt(parts[1].substring("request-".length()))).equals("too large");
+            send(exchange, tooLarge ? 413 : 202, "{\"status\":\"OK\"}".getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+            exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        }
+    }
+}
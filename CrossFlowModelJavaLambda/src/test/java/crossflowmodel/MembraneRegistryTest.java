@@ -0,0 +1,193 @@
+package crossflowmodel;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MembraneRegistryTest {
+
+    private static final double TMP = 100_000;
+    private static final double AREA = 10;
+    private static final double VISCOSITY = 0.001;
+    private static final double VOLUME = 20; // runs of tens to thousands of hours, against 48 sampled hours
+
+    private static final double NOISE = 0.02; // relative sd of the flow sensor
+    private static final int RUNS = 5;
+    private static final double RUN_HOURS = 48;
+    private static final double SAMPLE_HOURS = 1.0 / 60; // one sample per minute
+
+    private static final String SINGLE = "\"volumeStart\": 1000, \"tmp\": 100000, \"membraneArea\": 10, \"molWeightCutOff\": 2500, \"concFactor\": 2";
+    private static final String ALICE = ", \"username\": \"alice\", \"token\": \"s3cret-token-alice\"";
+    private static final String BOB = ", \"username\": \"bob\", \"token\": \"s3cret-token-bob\"";
+
+    private static MembraneRegistry registry() {
+        return new MembraneRegistry(MembraneCalibration.DEFAULT_FORGETTING, MembraneRegistry.Access.AUTHENTICATED);
+    }
+
+    /** Streams noisy samples of a known law into the registry, RUNS runs of RUN_HOURS each. */
+    private static MembraneCalibration.Fit calibrate(MembraneRegistry registry, String id, MembraneModel truth) {
+        SplittableRandom random = new SplittableRandom(id.hashCode());
+        for (int run = 0; run < RUNS; run++) {
+            for (double t = 0; t <= RUN_HOURS; t += SAMPLE_HOURS) {
+                double measured = flowRate(truth, t) * (1 + NOISE * random.nextGaussian());
+                registry.record("alice", id, t, measured, TMP, VISCOSITY, AREA);
+            }
+        }
+        MembraneCalibration.Fit fit = registry.fit("alice", id);
+        assertTrue(fit.isCalibrated(), fit::toString);
+        assertSame(fit.model, registry.modelFor("alice", id));
+        assertTrue(fit.rmsRelativeError < 1.5 * NOISE, fit::toString);
+        return fit;
+    }
+
+    /** Filtration hours of the fitted law within 3% of the true law's, on short and long runs and both solvers
+     *  (not the two-phase one: its hours are quantised to 0.4 h phase 1 steps, too coarse for the shortest run). */
+    private static void assertHoursClose(MembraneModel truth, MembraneModel fitted) {
+        Calculations calculator = new Calculations();
+        CalculationResult trueResult = new CalculationResult();
+        CalculationResult fitResult = new CalculationResult();
+        for (double concFactor : new double[]{1.2, 2, 5}) {
+            calculator.calculateHoursTabulated(VOLUME, concFactor, TMP, VISCOSITY, AREA, truth, trueResult);
+            calculator.calculateHoursTabulated(VOLUME, concFactor, TMP, VISCOSITY, AREA, fitted, fitResult);
+            assertEquals(trueResult.hours, fitResult.hours, 0.03 * trueResult.hours, "tabulated, concFactor " + concFactor);
+
+            calculator.calculateHoursAdaptive(VOLUME, concFactor, TMP, VISCOSITY, AREA, 1e-9, truth, null, trueResult);
+            calculator.calculateHoursAdaptive(VOLUME, concFactor, TMP, VISCOSITY, AREA, 1e-9, fitted, null, fitResult);
+            assertEquals(trueResult.hours, fitResult.hours, 0.03 * trueResult.hours, "adaptive, concFactor " + concFactor);
+        }
+    }
+
+    @Test
+    void recoversALawWithAnExponentOnTheGrid() {
+        MembraneModel truth = new MembraneModel(0.20e12, 0.90e12, 0.55);
+        MembraneCalibration.Fit fit = calibrate(registry(), "M-on-grid", truth);
+        assertEquals(truth.foulingExponent, fit.foulingExponent);
+        assertEquals(truth.initialResistance, fit.initialResistance, 0.05 * truth.initialResistance);
+        assertEquals(truth.foulingResistance, fit.foulingResistance, 0.05 * truth.foulingResistance);
+        assertHoursClose(truth, fit.model);
+
+        fit = calibrate(registry(), "M-default", MembraneModel.DEFAULT);
+        assertEquals(MembraneModel.DEFAULT.foulingExponent, fit.foulingExponent);
+        assertHoursClose(MembraneModel.DEFAULT, fit.model);
+    }
+
+    @Test
+    void approximatesALawWithAnExponentOffTheGrid() {
+        MembraneModel truth = new MembraneModel(0.08e12, 2.40e12, 0.37);
+        assertHoursClose(truth, calibrate(registry(), "M-off-grid", truth).model);
+    }
+
+    @Test
+    void unknownOrBarelySampledMembranesGetTheDefaultLaw() {
+        MembraneRegistry registry = registry();
+        assertSame(MembraneModel.DEFAULT, registry.modelFor("alice", "M-unknown"));
+        assertSame(MembraneModel.DEFAULT, registry.modelFor("alice", null));
+        registry.record("alice", "M-new", 1, flowRate(MembraneModel.DEFAULT, 1), TMP, VISCOSITY, AREA);
+        assertSame(MembraneModel.DEFAULT, registry.modelFor("alice", "M-new"));
+    }
+
+    @Test
+    void ownersDoNotShareMembranes() {
+        MembraneRegistry registry = registry();
+        MembraneModel truth = new MembraneModel(0.30e12, 0.60e12, 0.65);
+        calibrate(registry, "M-17", truth);
+
+        assertNull(registry.fit("bob", "M-17"));
+        assertNull(registry.fit(MembraneRegistry.SHARED_OWNER, "M-17"));
+        assertSame(MembraneModel.DEFAULT, registry.modelFor("bob", "M-17"));
+
+        // no owner and id pair spells another's key
+        long samples = registry.fit("alice", "M-17").samples;
+        registry.record("al", "ice:M-17", 1, 1, TMP, VISCOSITY, AREA);
+        assertEquals(samples, registry.fit("alice", "M-17").samples);
+        registry.remove("bob", "M-17");
+        assertTrue(registry.fit("alice", "M-17").isCalibrated());
+        assertEquals(2, registry.size());
+    }
+
+    @Test
+    void accessDecidesWhoMayCalibrate() {
+        assertTrue(MembraneRegistry.Access.AUTHENTICATED.allows("alice"));
+        assertFalse(MembraneRegistry.Access.AUTHENTICATED.allows(MembraneRegistry.SHARED_OWNER));
+        assertTrue(MembraneRegistry.Access.OPEN.allows(MembraneRegistry.SHARED_OWNER));
+        assertFalse(MembraneRegistry.Access.OFF.allows("alice"));
+    }
+
+    @Test
+    void handlerCalibratesTheCallersOwnMembrane() {
+        InMemoryTokenStore store = new InMemoryTokenStore(0);
+        store.tokens.put("alice", "s3cret-token-alice");
+        store.tokens.put("bob", "s3cret-token-bob");
+        MembraneRegistry registry = registry();
+        HandlerAPIGateway handler = new HandlerAPIGateway(registry, new TokenAuthenticator(store, 300, 30));
+
+        MembraneModel truth = new MembraneModel(0.30e12, 0.60e12, 0.65);
+        String calibration = "{\"membraneId\": \"M-17\", \"tmp\": 100000, \"membraneArea\": 10, \"samples\": [" + samples(truth) + "]";
+        assertEquals(200, handle(handler, calibration + ALICE + "}").getStatusCode());
+        assertEquals(truth.foulingExponent, registry.fit("alice", "M-17").foulingExponent); // noiseless samples
+
+        // alice's single request by membraneId uses her fitted law
+        CalculationResult expected = new CalculationResult();
+        new Calculations().calculateHours(1000, 2, TMP, VISCOSITY, AREA, registry.modelFor("alice", "M-17"), null, expected);
+        APIGatewayProxyResponseEvent byId = handle(handler, "{\"membraneId\": \"M-17\", " + SINGLE + ALICE + "}");
+        APIGatewayProxyResponseEvent byDefault = handle(handler, "{" + SINGLE + ALICE + "}");
+        assertEquals(200, byId.getStatusCode());
+        assertTrue(byId.getBody().contains(String.valueOf(expected.hours)), byId.getBody());
+        assertNotEquals(byDefault.getBody(), byId.getBody());
+
+        // bob's M-17 is another membrane: his request gets the default law, his samples do not touch alice's fit
+        assertEquals(byDefault.getBody(), handle(handler, "{\"membraneId\": \"M-17\", " + SINGLE + BOB + "}").getBody());
+        long samples = registry.fit("alice", "M-17").samples;
+        assertEquals(200, handle(handler, "{\"membraneId\": \"M-17\", \"tmp\": 100000, \"membraneArea\": 10, \"samples\": [[1, 5]]" + BOB + "}").getStatusCode());
+        assertEquals(samples, registry.fit("alice", "M-17").samples);
+
+        assertEquals(400, handle(handler, "{\"membraneId\": \"M-17\", \"tmp\": 100000, \"membraneArea\": 10, \"samples\": [[1, -5]]" + ALICE + "}").getStatusCode());
+    }
+
+    @Test
+    void handlerRejectsCalibrationTheAccessDoesNotAllow() {
+        TokenAuthenticator none = new TokenAuthenticator(null, 300, 30);
+        String calibration = "{\"membraneId\": \"M-17\", \"tmp\": 100000, \"membraneArea\": 10, \"samples\": [[1, 5], [2, 4]]}";
+
+        // no authenticator: nobody is authenticated, so nobody may calibrate unless open
+        MembraneRegistry authenticated = registry();
+        APIGatewayProxyResponseEvent rejected = handle(new HandlerAPIGateway(authenticated, none), calibration);
+        assertEquals(403, rejected.getStatusCode());
+        assertTrue(rejected.getBody().contains(MembraneRegistry.ENV_CALIBRATION + "=open"), rejected.getBody());
+        assertEquals(0, authenticated.size());
+
+        MembraneRegistry open = new MembraneRegistry(MembraneCalibration.DEFAULT_FORGETTING, MembraneRegistry.Access.OPEN);
+        assertEquals(200, handle(new HandlerAPIGateway(open, none), calibration).getStatusCode());
+        assertEquals(2, open.fit(MembraneRegistry.SHARED_OWNER, "M-17").samples);
+
+        MembraneRegistry off = new MembraneRegistry(MembraneCalibration.DEFAULT_FORGETTING, MembraneRegistry.Access.OFF);
+        assertEquals(403, handle(new HandlerAPIGateway(off, none), calibration).getStatusCode());
+        assertEquals(0, off.size());
+    }
+
+    private static APIGatewayProxyResponseEvent handle(HandlerAPIGateway handler, String body) {
+        return handler.handleRequest(new APIGatewayProxyRequestEvent().withBody(body), null);
+    }
+
+    private static String samples(MembraneModel truth) {
+        StringBuilder samples = new StringBuilder();
+        for (double t = 0; t <= RUN_HOURS; t += 0.25) {
+            samples.append(samples.length() == 0 ? "" : ", ").append(String.format(Locale.ROOT, "[%.2f, %.6f]", t, flowRate(truth, t)));
+        }
+        return samples.toString();
+    }
+
+    private static double flowRate(MembraneModel model, double timeHours) {
+        return Calculations.flowRate(timeHours, TMP, VISCOSITY, AREA, model);
+    }
+}
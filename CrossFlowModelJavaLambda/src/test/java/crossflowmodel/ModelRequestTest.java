@@ -0,0 +1,113 @@
+package crossflowmodel;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModelRequestTest {
+
+    private static final String SINGLE = "\"volumeStart\": 1000, \"tmp\": 100000, \"membraneArea\": 10, \"molWeightCutOff\": 2500, \"concFactor\": 2";
+
+    private static String message(String body) {
+        return assertThrows(IllegalArgumentException.class, () -> ModelRequest.fromJson(body)).getMessage();
+    }
+
+    @Test
+    void bindsNumbersAndNumericStrings() {
+        ModelRequest request = ModelRequest.fromJson("{\"volumeStart\": \"1000\", \"tmp\": 1e5, \"membraneArea\": \"10.5\","
+                + " \"molWeightCutOff\": 2500, \"concFactor\": 2, \"solutionViscosity\": null, \"unknown\": {\"a\": [1, 2]},"
+                + " \"tolerance\": \"0.001\", \"trajectory\": 50, \"username\": \"alice\", \"token\": \"secret\"}");
+        assertEquals(ModelRequest.Kind.SINGLE, request.kind);
+        assertEquals(1000, request.volumeStart);
+        assertEquals(100_000, request.tmp);
+        assertEquals(10.5, request.membraneArea);
+        assertEquals(2500, request.molWeightCutOff);
+        assertEquals(2, request.concFactor);
+        assertEquals(0.001, request.viscosityOr(0.001)); // null is not provided
+        assertTrue(request.isAdaptive());
+        assertEquals(50, request.trajectory);
+        assertEquals("alice", request.username);
+        assertEquals("secret", request.token);
+    }
+
+    @Test
+    void errorsNameTheParameterAndPosition() {
+        assertEquals("Missing parameter: concFactor.",
+                message("{\"volumeStart\": 1000, \"tmp\": 100000, \"membraneArea\": 10, \"molWeightCutOff\": 2500}"));
+        assertEquals("Non-numeric parameter: tmp (line 1, column 30).", message("{\"volumeStart\": 1000, \"tmp\": \"high\"}"));
+        assertTrue(message("{\"volumeStart\": 1000, \"tmp\": \"NaN\"}").startsWith("Non-numeric parameter: tmp"));
+        assertTrue(message("{\"volumeStart\": 1000,").startsWith("Malformed JSON (line 1"));
+        assertEquals("request body must be a JSON object.", message("[1, 2]"));
+        assertEquals("request body is empty.", message(" "));
+        assertTrue(message("{" + SINGLE + ", \"solutionViscosity\": 0}").startsWith("solutionViscosity must be positive"));
+        assertEquals("tolerance must be a number between 0 and 1.", message("{" + SINGLE + ", \"tolerance\": 1}"));
+        assertTrue(message("{" + SINGLE + ", \"trajectory\": 2.5}").startsWith("trajectory must be a number of points"));
+    }
+
+    @Test
+    void batchTakesPrecedenceOverSweepAndMonteCarlo() {
+        ModelRequest request = ModelRequest.fromJson("{\"scenarios\": [{" + SINGLE + "}], \"sweep\": {}, \"monteCarlo\": {}}");
+        assertEquals(ModelRequest.Kind.BATCH, request.kind);
+        request = ModelRequest.fromJson("{\"sweep\": {}, \"monteCarlo\": {}, \"samples\": []}");
+        assertEquals(ModelRequest.Kind.SWEEP, request.kind);
+        request = ModelRequest.fromJson("{\"monteCarlo\": {}, \"targetHours\": 5}");
+        assertEquals(ModelRequest.Kind.MONTE_CARLO, request.kind);
+        // null sub-trees are not provided
+        request = ModelRequest.fromJson("{" + SINGLE + ", \"scenarios\": null, \"sweep\": null}");
+        assertEquals(ModelRequest.Kind.SINGLE, request.kind);
+    }
+
+    @Test
+    void calibrationTakesPrecedenceOverInverseAndRemaining() {
+        ModelRequest request = ModelRequest.fromJson("{\"membraneId\": \"M-1\", \"tmp\": 100000, \"membraneArea\": 10,"
+                + " \"samples\": [[0, 1]], \"targetHours\": 5, \"solveFor\": \"tmp\", \"elapsedHours\": 1}");
+        assertEquals(ModelRequest.Kind.CALIBRATE, request.kind);
+        assertEquals("calibration requests need membraneId, tmp and membraneArea.",
+                message("{\"tmp\": 100000, \"membraneArea\": 10, \"samples\": [[0, 1]]}"));
+    }
+
+    @Test
+    void inverseTakesPrecedenceOverRemainingAndNeedsNoSolvedParameter() {
+        ModelRequest request = ModelRequest.fromJson("{\"volumeStart\": 1000, \"tmp\": 100000, \"molWeightCutOff\": 2500,"
+                + " \"concFactor\": 2, \"targetHours\": 5, \"solveFor\": \"membraneArea\", \"elapsedHours\": 1, \"currentVolume\": 800}");
+        assertEquals(ModelRequest.Kind.INVERSE, request.kind);
+        assertEquals(InverseSolver.Parameter.MEMBRANE_AREA, request.solveFor);
+        assertEquals("inverse requests need both targetHours and solveFor.", message("{" + SINGLE + ", \"targetHours\": 5}"));
+        assertEquals("solveFor must be membraneArea or tmp.", message("{" + SINGLE + ", \"solveFor\": \"volumeStart\"}"));
+        // the other required parameters still are
+        assertEquals("Missing parameter: concFactor.", message("{\"volumeStart\": 1000, \"tmp\": 100000, \"molWeightCutOff\": 2500,"
+                + " \"targetHours\": 5, \"solveFor\": \"membraneArea\"}"));
+    }
+
+    @Test
+    void remainingNeedsElapsedHoursAndCurrentVolume() {
+        ModelRequest request = ModelRequest.fromJson("{" + SINGLE + ", \"elapsedHours\": 1.5, \"currentVolume\": 800, \"state\": \"abc\"}");
+        assertEquals(ModelRequest.Kind.REMAINING, request.kind);
+        assertEquals(1.5, request.elapsedHours);
+        assertEquals("abc", request.state);
+        assertEquals("remaining-time requests need both elapsedHours and currentVolume.", message("{" + SINGLE + ", \"elapsedHours\": 1}"));
+        assertTrue(message("{" + SINGLE + ", \"elapsedHours\": -1, \"currentVolume\": 800}").startsWith("elapsedHours must not be negative"));
+    }
+
+    @Test
+    void stepFunctionStateBodyMayBeEncodedOrAnObject() {
+        String encoded = "{\"statusCode\": 200, \"status\": 0, \"body\": \"{\\\"volumeStart\\\": \\\"1000\\\", \\\"tmp\\\": \\\"100000\\\","
+                + " \\\"membraneArea\\\": \\\"10\\\", \\\"molWeightCutOff\\\": \\\"2500\\\", \\\"concFactor\\\": \\\"2\\\"}\"}";
+        assertEquals(1000, ModelRequest.fromStepFunctionState(stream(encoded)).volumeStart);
+        String object = "{\"statusCode\": 200, \"body\": {" + SINGLE + "}}";
+        assertEquals(2, ModelRequest.fromStepFunctionState(stream(object)).concFactor);
+        assertNull(ModelRequest.fromStepFunctionState(stream("{\"statusCode\": 403, \"body\": null}")));
+        assertNull(ModelRequest.fromStepFunctionState(stream("{\"statusCode\": 403}")));
+        assertThrows(IllegalArgumentException.class, () -> ModelRequest.fromStepFunctionState(stream("{\"body\": 5}")));
+    }
+
+    private static ByteArrayInputStream stream(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
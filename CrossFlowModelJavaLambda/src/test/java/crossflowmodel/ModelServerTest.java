@@ -0,0 +1,138 @@
+package crossflowmodel;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemRequest;
+import software.amazon.awssdk.services.dynamodb.model.BatchWriteItemResponse;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModelServerTest {
+
+    private static final HttpClient CLIENT = HttpClient.newHttpClient();
+
+    private static HttpResponse<String> get(ModelServer server, String path) throws Exception {
+        return CLIENT.send(HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + path)).build(),
+                HttpResponse.BodyHandlers.ofString());
+    }
+
+    @Test
+    void healthIsUnavailableUntilPrimed() throws Exception {
+        AtomicBoolean primed = new AtomicBoolean(false);
+        ModelServer server = new ModelServer(0, 2, primed::get, InferenceLog.shared());
+        server.start();
+        try {
+            HttpResponse<String> response = get(server, ModelServer.HEALTH_PATH);
+            assertEquals(503, response.statusCode());
+            assertEquals("{\"status\":\"priming\"}", response.body());
+
+            primed.set(true);
+            response = get(server, ModelServer.HEALTH_PATH);
+            assertEquals(200, response.statusCode());
+            assertEquals("{\"status\":\"ok\"}", response.body());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void servesTheApiGatewayContract() throws Exception {
+        ModelServer server = new ModelServer(0, 2);
+        server.start();
+        try {
+            // priming is off in the tests, so there is nothing to wait for
+            assertEquals(200, get(server, ModelServer.HEALTH_PATH).statusCode());
+
+            HttpResponse<String> response = CLIENT.send(HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + ModelServer.PATH))
+                            .POST(HttpRequest.BodyPublishers.ofString("{\"volumeStart\": 1000, \"tmp\": 100000, \"membraneArea\": 10,"
+                                    + " \"molWeightCutOff\": 2500, \"concFactor\": 2}")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            assertEquals(200, response.statusCode());
+            assertTrue(response.body().startsWith("{\"filtrationHours\":"), response.body());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void concurrentRequestsGetTheHandlersAnswers() throws Exception {
+        // more distinct payloads than the result cache holds, so most are computed while others are in flight
+        int payloads = 512;
+        String[] bodies = new String[payloads];
+        String[] expected = new String[payloads];
+        HandlerAPIGateway handler = new HandlerAPIGateway();
+        for (int i = 0; i < payloads; i++) {
+            bodies[i] = String.format(Locale.ROOT, "{\"volumeStart\":%d, \"tmp\":%d, \"membraneArea\":10, \"molWeightCutOff\":2500, \"concFactor\":2}",
+                    100 + i, 50_000 + 300 * i);
+            expected[i] = handler.handleRequest(new APIGatewayProxyRequestEvent().withBody(bodies[i]), null).getBody();
+        }
+
+        ModelServer server = new ModelServer(0, 8);
+        server.start();
+        try {
+            URI uri = URI.create("http://localhost:" + server.getPort() + ModelServer.PATH);
+            List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+            for (String body : bodies) {
+                responses.add(CLIENT.sendAsync(HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofString(body)).build(),
+                        HttpResponse.BodyHandlers.ofString()));
+            }
+            for (int i = 0; i < payloads; i++) {
+                HttpResponse<String> response = responses.get(i).join();
+                assertEquals(200, response.statusCode());
+                assertEquals(expected[i], response.body(), bodies[i]);
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void requestsDoNotWaitForTheInferenceLog() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        InMemoryDynamoDb slow = new InMemoryDynamoDb(0, 0, 1) {
+            @Override
+            public BatchWriteItemResponse batchWriteItem(BatchWriteItemRequest request) {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.batchWriteItem(request);
+            }
+        };
+        // the Lambda flush wait, and a flush interval no test lasts: only an end-of-request flush could block
+        try (InferenceLog log = new InferenceLog(slow, "crossflow-data", 1_000, TimeUnit.HOURS.toMillis(1), 2_000)) {
+            ModelServer server = new ModelServer(0, 2, () -> true, log);
+            server.start();
+            try {
+                long start = System.nanoTime();
+                HttpResponse<String> response = CLIENT.send(HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + ModelServer.PATH))
+                                .POST(HttpRequest.BodyPublishers.ofString("{\"volumeStart\": 1000, \"tmp\": 100000, \"membraneArea\": 10,"
+                                        + " \"molWeightCutOff\": 2500, \"concFactor\": 2}")).build(),
+                        HttpResponse.BodyHandlers.ofString());
+                long tookMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                assertEquals(200, response.statusCode());
+                assertTrue(tookMillis < 1_000, "took " + tookMillis + " ms");
+                assertEquals(1, log.getPending()); // recorded, left to the flusher
+            } finally {
+                server.stop(0);
+                release.countDown();
+            }
+            log.flush();
+            assertEquals(1, slow.items.size());
+        }
+    }
+}
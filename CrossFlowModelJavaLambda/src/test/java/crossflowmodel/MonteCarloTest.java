@@ -0,0 +1,63 @@
+package crossflowmodel;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MonteCarloTest {
+
+    private static MonteCarlo monteCarlo(long seed) {
+        return new MonteCarlo(100_000, seed,
+                MonteCarlo.Distribution.fixed(1000),
+                MonteCarlo.Distribution.uniform(1.8, 2.2),
+                MonteCarlo.Distribution.normal(100_000, 10_000),
+                MonteCarlo.Distribution.uniform(9.5, 10.5),
+                MonteCarlo.Distribution.lognormal(0.0015, 0.0003));
+    }
+
+    private static String json(MonteCarlo monteCarlo, int parallelism) throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return monteCarlo.compute(pool).toJson(SharedJson.MAPPER.getFactory());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void resultsForASeedDoNotDependOnParallelism() throws Exception {
+        MonteCarlo monteCarlo = monteCarlo(42);
+        String reference = json(monteCarlo, 1);
+        for (int parallelism : new int[]{2, 3, Math.max(4, Runtime.getRuntime().availableProcessors())}) {
+            assertEquals(reference, json(monteCarlo, parallelism), "parallelism " + parallelism);
+        }
+        assertNotEquals(reference, json(monteCarlo(43), 2));
+    }
+
+    @Test
+    void fixedInputsGiveTheSingleCalculation() {
+        MonteCarlo monteCarlo = new MonteCarlo(1_000, 1, MonteCarlo.Distribution.fixed(1000), MonteCarlo.Distribution.fixed(2),
+                MonteCarlo.Distribution.fixed(100_000), MonteCarlo.Distribution.fixed(10), MonteCarlo.Distribution.fixed(0.001));
+        MonteCarlo.Result result = monteCarlo.compute(ForkJoinPool.commonPool());
+
+        CalculationResult single = new CalculationResult();
+        new Calculations().calculateHours(1000, 2, 100_000, 0.001, 10, single);
+        assertEquals(0, result.invalidSamples);
+        assertEquals(single.hours, result.mean, single.hours * TwoPhaseBatch.TOLERANCE);
+        assertEquals(single.hours, result.p50(), single.hours * result.sketch.relativeAccuracy);
+    }
+
+    @Test
+    void invalidDrawsAreLeftOut() {
+        // about half the concFactor draws are below 1
+        MonteCarlo monteCarlo = new MonteCarlo(10_000, 7, MonteCarlo.Distribution.fixed(1000), MonteCarlo.Distribution.uniform(0.5, 1.5),
+                MonteCarlo.Distribution.fixed(100_000), MonteCarlo.Distribution.fixed(10), MonteCarlo.Distribution.fixed(0.001));
+        MonteCarlo.Result result = monteCarlo.compute(ForkJoinPool.commonPool());
+        assertTrue(result.invalidSamples > 4_000 && result.invalidSamples < 6_000, "invalid " + result.invalidSamples);
+        assertEquals(10_000 - result.invalidSamples, result.sketch.getCount());
+    }
+}
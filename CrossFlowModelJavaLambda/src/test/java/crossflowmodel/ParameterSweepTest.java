@@ -0,0 +1,89 @@
+package crossflowmodel;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ParameterSweepTest {
+
+    private static ParameterSweep.Range single(double value) {
+        return new ParameterSweep.Range(value, value, 1);
+    }
+
+    private static ParameterSweep.Range steps(int steps) {
+        return new ParameterSweep.Range(1, 10, steps);
+    }
+
+    @Test
+    void gridAtTheCapIsAccepted() {
+        ParameterSweep sweep = new ParameterSweep(1000, new ParameterSweep.Range(50_000, 200_000, 100), steps(1000), single(2), single(0.001));
+        assertEquals(ParameterSweep.MAX_GRID_SIZE, sweep.gridSize());
+    }
+
+    @Test
+    void gridOverTheCapIsRejected() {
+        assertThrows(IllegalArgumentException.class, () ->
+                new ParameterSweep(1000, new ParameterSweep.Range(50_000, 200_000, 100), steps(1001), single(2), single(0.001)));
+    }
+
+    @Test
+    void productsThatOverflowAreRejected() {
+        // 2^31-1 per axis: the long product of four axes wraps negative, the int product sooner
+        ParameterSweep.Range huge = new ParameterSweep.Range(1, 10, Integer.MAX_VALUE);
+        assertThrows(IllegalArgumentException.class, () ->
+                new ParameterSweep(1000, new ParameterSweep.Range(50_000, 200_000, Integer.MAX_VALUE), huge,
+                        new ParameterSweep.Range(2, 3, Integer.MAX_VALUE), new ParameterSweep.Range(0.001, 0.002, Integer.MAX_VALUE)));
+        // 65536^2 = 2^32 wraps an int product to 0
+        assertThrows(IllegalArgumentException.class, () ->
+                new ParameterSweep(1000, new ParameterSweep.Range(50_000, 200_000, 65_536), steps(65_536), single(2), single(0.001)));
+    }
+
+    @Test
+    void invalidAxesAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new ParameterSweep.Range(1, 10, 0));
+        assertThrows(IllegalArgumentException.class, () -> new ParameterSweep.Range(10, 1, 2));
+        assertThrows(IllegalArgumentException.class, () -> new ParameterSweep(1000, single(100_000), single(10), single(0.5), single(0.001)));
+        assertThrows(IllegalArgumentException.class, () -> new ParameterSweep(1000, single(0), single(10), single(2), single(0.001)));
+    }
+
+    @Test
+    void fromJsonBindsNumbersAndRanges() throws Exception {
+        JsonNode node = SharedJson.MAPPER.readTree("{\"volumeStart\": 1000, \"molWeightCutOff\": 2500,"
+                + " \"tmp\": {\"min\": 50000, \"max\": 200000, \"steps\": 4}, \"membraneArea\": 10, \"concFactor\": 2}");
+        ParameterSweep sweep = ParameterSweep.fromJson(node, 0.001);
+        assertArrayEquals(new int[]{4, 1, 1, 1}, sweep.shape());
+        assertEquals(0.001, sweep.solutionViscosity.min);
+        assertArrayEquals(new double[]{50_000, 100_000, 150_000, 200_000}, sweep.tmp.values());
+
+        JsonNode missing = SharedJson.MAPPER.readTree("{\"volumeStart\": 1000, \"tmp\": 100000, \"concFactor\": 2}");
+        assertThrows(IllegalArgumentException.class, () -> ParameterSweep.fromJson(missing, 0.001));
+        JsonNode tooLarge = SharedJson.MAPPER.readTree("{\"volumeStart\": 1000, \"tmp\": {\"min\": 1, \"max\": 2, \"steps\": 2147483647},"
+                + " \"membraneArea\": {\"min\": 1, \"max\": 2, \"steps\": 2147483647}, \"concFactor\": 2}");
+        assertThrows(IllegalArgumentException.class, () -> ParameterSweep.fromJson(tooLarge, 0.001));
+    }
+
+    @Test
+    void cellsMatchSingleCalculations() {
+        ParameterSweep sweep = new ParameterSweep(1000, new ParameterSweep.Range(50_000, 200_000, 3),
+                new ParameterSweep.Range(5, 10, 2), new ParameterSweep.Range(1, 3, 3), single(0.001));
+        double[] hours = sweep.compute(ForkJoinPool.commonPool());
+        assertEquals(sweep.gridSize(), hours.length);
+
+        Calculations calculations = new Calculations();
+        CalculationResult result = new CalculationResult();
+        int index = 0;
+        for (double tmp : sweep.tmp.values()) {
+            for (double area : sweep.membraneArea.values()) {
+                for (double concFactor : sweep.concFactor.values()) {
+                    calculations.calculateHours(1000, concFactor, tmp, 0.001, area, result);
+                    assertEquals(concFactor == 1 ? 0 : result.hours, hours[index++], "cell " + (index - 1));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package crossflowmodel;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PrimingTest {
+
+    @Test
+    void onlyThePrimingThreadIsPriming() {
+        AtomicBoolean onPrimingThread = new AtomicBoolean();
+        AtomicBoolean onOtherThread = new AtomicBoolean(true);
+        Priming priming = Priming.onInit("PrimingTest", () -> {
+            onPrimingThread.set(Priming.isActive());
+            // a request served concurrently, eg. by ModelServer, is a real one
+            onOtherThread.set(CompletableFuture.supplyAsync(Priming::isActive).orTimeout(10, TimeUnit.SECONDS).join());
+        }, new CalculationCache(new Calculations(), 4));
+
+        priming.prime();
+        assertTrue(priming.isPrimed());
+        assertTrue(onPrimingThread.get());
+        assertFalse(onOtherThread.get());
+        assertFalse(Priming.isActive());
+    }
+
+    @Test
+    void primingLeavesSharedMembranesAlone() {
+        // a real membrane that happens to have the id of the synthetic calibration requests
+        MembraneRegistry shared = MembraneRegistry.shared();
+        shared.record(MembraneRegistry.SHARED_OWNER, "priming", 1, 0.5, 100_000, 0.001, 10);
+        MembraneCalibration.Fit before = shared.fit(MembraneRegistry.SHARED_OWNER, "priming");
+
+        Priming priming = Priming.onInit("PrimingTest", HandlerAPIGateway::prime, new CalculationCache(new Calculations(), 4));
+        priming.prime();
+
+        MembraneCalibration.Fit after = shared.fit(MembraneRegistry.SHARED_OWNER, "priming");
+        assertEquals(before.samples, after.samples);
+        shared.remove(MembraneRegistry.SHARED_OWNER, "priming");
+    }
+}
@@ -0,0 +1,45 @@
+package crossflowmodel;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QuantileSketchTest {
+
+    @Test
+    void mergedQuantilesAreWithinRelativeAccuracy() {
+        // a wide lognormal, split over two sketches
+        SplittableRandom random = new SplittableRandom(7);
+        double[] values = new double[200_000];
+        QuantileSketch left = new QuantileSketch();
+        QuantileSketch right = new QuantileSketch();
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.exp(5 + 2 * random.nextGaussian());
+            (i % 2 == 0 ? left : right).add(values[i]);
+        }
+        left.merge(right);
+        assertEquals(values.length, left.getCount());
+
+        Arrays.sort(values);
+        for (double q : new double[]{0.01, 0.05, 0.5, 0.95, 0.99}) {
+            double exact = values[(int) Math.floor(q * (values.length - 1))];
+            double error = Math.abs(left.quantile(q) - exact) / exact;
+            assertTrue(error <= left.relativeAccuracy, "q=" + q + " relative error " + error);
+        }
+        assertEquals(values[0], left.getMin());
+        assertEquals(values[values.length - 1], left.getMax());
+    }
+
+    @Test
+    void histogramCountsEveryValue() {
+        QuantileSketch sketch = new QuantileSketch();
+        for (int i = 1; i <= 1_000; i++) {
+            sketch.add(i);
+        }
+        assertEquals(1_000, Arrays.stream(sketch.histogram(MonteCarlo.HISTOGRAM_BINS)).sum());
+    }
+}
@@ -0,0 +1,120 @@
+package crossflowmodel;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RemainingTimeTest {
+
+    private static final double VOLUME_START = 1000;
+    private static final double CONC_FACTOR = 2;
+    private static final double TMP = 100_000;
+    private static final double VISCOSITY = 0.001;
+    private static final double AREA = 10;
+
+    // agreement of resumed and full solves, relative to the end time, well above the solver tolerance
+    private static final double AGREEMENT = 1e-5;
+
+    /** Retentate volume the model predicts at t hours into the run. */
+    private static double modelVolume(double hours) {
+        return VOLUME_START - Calculations.adaptiveVolume(0, hours, 0.01, 1e-9, TMP, VISCOSITY, AREA, MembraneModel.DEFAULT,
+                new CalculationResult());
+    }
+
+    private static RemainingTime.Estimate poll(double elapsedHours, double currentVolume, double tmp, RemainingTime.State previous) {
+        return new RemainingTime().estimate(elapsedHours, currentVolume, VOLUME_START, CONC_FACTOR, tmp, VISCOSITY, AREA,
+                Double.NaN, previous);
+    }
+
+    private static RemainingTime.Estimate poll(double elapsedHours, double currentVolume, RemainingTime.State previous) {
+        return poll(elapsedHours, currentVolume, TMP, previous);
+    }
+
+    @Test
+    void fullSolveFromTheStartMatchesTheAdaptiveModel() {
+        RemainingTime.Estimate estimate = poll(0, VOLUME_START, null);
+        CalculationResult result = new CalculationResult();
+        new Calculations().calculateHoursAdaptive(VOLUME_START, CONC_FACTOR, TMP, VISCOSITY, AREA, RemainingTime.DEFAULT_TOLERANCE, null, result);
+        assertTrue(estimate.isSuccess());
+        assertFalse(estimate.resumed);
+        assertEquals(result.hours, estimate.endHours, result.hours * AGREEMENT);
+    }
+
+    @Test
+    void resumedPollsAgreeWithFullSolves() {
+        RemainingTime.State state = poll(100, modelVolume(100), null).state;
+        // on the model's trajectory, behind it (more volume left) and ahead of it (less)
+        double[][] polls = {{200, 0}, {300, 5}, {400, -5}, {400, 0}};
+        for (double[] p : polls) {
+            double elapsedHours = p[0];
+            double currentVolume = modelVolume(elapsedHours) + p[1];
+            RemainingTime.Estimate resumed = poll(elapsedHours, currentVolume, RemainingTime.State.decode(state.encode()));
+            RemainingTime.Estimate full = poll(elapsedHours, currentVolume, null);
+
+            assertTrue(resumed.resumed, "poll at " + elapsedHours);
+            assertTrue(resumed.isSuccess());
+            assertEquals(full.endHours, resumed.endHours, full.endHours * AGREEMENT, "poll at " + elapsedHours + " offset " + p[1]);
+            assertTrue(resumed.steps < full.steps, resumed.steps + " steps resumed, " + full.steps + " in full");
+            state = resumed.state;
+        }
+    }
+
+    @Test
+    void tokensOfAnotherRunAreNotResumed() {
+        RemainingTime.State state = poll(100, modelVolume(100), null).state;
+
+        // other tmp: a different run, the token's fingerprint does not match
+        RemainingTime.Estimate otherRun = poll(200, modelVolume(200), 120_000, state);
+        assertFalse(otherRun.resumed);
+        assertEquals(poll(200, modelVolume(200), 120_000, null).endHours, otherRun.endHours);
+
+        // same parameters, but a refitted resistance law
+        MembraneModel refit = new MembraneModel(MembraneModel.DEFAULT.initialResistance, MembraneModel.DEFAULT.foulingResistance * 1.1,
+                MembraneModel.DEFAULT.foulingExponent);
+        RemainingTime.Estimate refitted = new RemainingTime().estimate(200, modelVolume(200), VOLUME_START, CONC_FACTOR, TMP, VISCOSITY,
+                AREA, Double.NaN, refit, state);
+        assertFalse(refitted.resumed);
+
+        // time running backwards
+        assertFalse(poll(50, modelVolume(50), state).resumed);
+    }
+
+    @Test
+    void fullSolveAfterResolveEveryResumes() {
+        RemainingTime.Estimate first = poll(100, modelVolume(100), null);
+        RemainingTime.State tired = new RemainingTime.State(first.state.fingerprint, RemainingTime.RESOLVE_EVERY,
+                first.state.elapsedHours, first.state.currentVolume, first.state.endHours, first.state.stepSize);
+        RemainingTime.Estimate estimate = poll(200, modelVolume(200), tired);
+        assertFalse(estimate.resumed);
+        assertEquals(0, estimate.state.resumes);
+
+        RemainingTime.State fresh = RemainingTime.State.decode(first.state.encode());
+        assertEquals(1, poll(200, modelVolume(200), fresh).state.resumes);
+    }
+
+    @Test
+    void tokensRoundTripAndForgeriesAreRejected() {
+        RemainingTime.State state = poll(100, modelVolume(100), null).state;
+        RemainingTime.State decoded = RemainingTime.State.decode(state.encode());
+        assertEquals(state.fingerprint, decoded.fingerprint);
+        assertEquals(state.endHours, decoded.endHours);
+        assertEquals(state.encode(), decoded.encode());
+
+        assertThrows(IllegalArgumentException.class, () -> RemainingTime.State.decode("not a token"));
+        assertThrows(IllegalArgumentException.class, () -> RemainingTime.State.decode(state.encode().substring(4)));
+        // end before elapsed
+        String backwards = new RemainingTime.State(state.fingerprint, 0, 100, 900, 50, 1).encode();
+        assertThrows(IllegalArgumentException.class, () -> RemainingTime.State.decode(backwards));
+    }
+
+    @Test
+    void finishedRunsHaveNoTimeLeft() {
+        RemainingTime.Estimate estimate = poll(20_000, VOLUME_START / CONC_FACTOR - 1, null);
+        assertTrue(estimate.isSuccess());
+        assertEquals(0, estimate.remainingHours);
+        assertEquals(20_000, estimate.endHours);
+    }
+}
@@ -0,0 +1,77 @@
+package crossflowmodel;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ResistanceIntegralTableTest {
+
+    // linear interpolation between nodes 10^(1/256) apart is good to ~1e-5 * p relative, see the table
+    private static final double RELATIVE_TOLERANCE = 2e-5;
+
+    // normalised times from the head node through the table to far beyond its end (1e12), where the tail series is used
+    private static final double[] TIMES = {1e-6, 2e-6, 1e-5, 1e-3, 1, 1e3, 1e9, 1e12, 1e13, 1e15};
+
+    /** J(u) by direct quadrature, independent of the table: 5-point Gauss-Legendre in x = ln v, on steps of 0.05,
+     *  where the integrand e^x / (1 + e^px) is smooth. Below 1e-40 J(u) = u to double precision.
+     */
+    private static double quadrature(double exponent, double u) {
+        double[] nodes = {-0.9061798459386640, -0.5384693101056831, 0, 0.5384693101056831, 0.9061798459386640};
+        double[] weights = {0.2369268850561891, 0.4786286704993665, 0.5688888888888889, 0.4786286704993665, 0.2369268850561891};
+        double from = Math.log(1e-40);
+        double to = Math.log(u);
+        int steps = (int) Math.ceil((to - from) / 0.05);
+        double h = (to - from) / steps;
+        double sum = 1e-40;
+        for (int i = 0; i < steps; i++) {
+            double mid = from + (i + 0.5) * h;
+            double interval = 0;
+            for (int k = 0; k < nodes.length; k++) {
+                double x = mid + 0.5 * h * nodes[k];
+                interval += weights[k] * Math.exp(x) / (1 + Math.exp(exponent * x));
+            }
+            sum += 0.5 * h * interval;
+        }
+        return sum;
+    }
+
+    private static void assertMatchesQuadrature(double exponent) {
+        ResistanceIntegralTable table = new ResistanceIntegralTable(exponent);
+        for (double u : TIMES) {
+            double expected = quadrature(exponent, u);
+            assertEquals(expected, table.integral(u), expected * RELATIVE_TOLERANCE, "p=" + exponent + ", u=" + u);
+            assertEquals(u, table.inverse(table.integral(u)), u * RELATIVE_TOLERANCE, "inverse, p=" + exponent + ", u=" + u);
+        }
+    }
+
+    @Test
+    void smallExponentMatchesQuadrature() {
+        assertMatchesQuadrature(0.05);
+    }
+
+    @Test
+    void defaultExponentMatchesQuadrature() {
+        assertMatchesQuadrature(Calculations.MEMBRANE_FOULING_EXPONENT);
+    }
+
+    @Test
+    void largeExponentMatchesQuadrature() {
+        assertMatchesQuadrature(0.95);
+    }
+
+    @Test
+    void everyCalibrationExponentStaysCached() {
+        for (double exponent : MembraneCalibration.EXPONENTS) {
+            ResistanceIntegralTable table = ResistanceIntegralTable.forExponent(exponent);
+            assertSame(table, ResistanceIntegralTable.forExponent(exponent), "p=" + exponent);
+        }
+    }
+
+    @Test
+    void exponentsOutsideZeroToOneAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new ResistanceIntegralTable(0));
+        assertThrows(IllegalArgumentException.class, () -> new ResistanceIntegralTable(1));
+    }
+}
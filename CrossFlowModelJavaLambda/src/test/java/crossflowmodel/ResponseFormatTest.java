@@ -0,0 +1,142 @@
+package crossflowmodel;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ResponseFormatTest {
+
+    private static final String SINGLE = "{\"volumeStart\":1000, \"tmp\":100000, \"membraneArea\":10, \"molWeightCutOff\":2500, \"concFactor\":2";
+    private static final String TRAJECTORY = SINGLE + ", \"trajectory\":2000}";
+    private static final String SWEEP = "{\"sweep\": {\"volumeStart\":1000, \"molWeightCutOff\":2500, \"tmp\":{\"min\":50000, \"max\":300000, \"steps\":5},"
+            + " \"membraneArea\":{\"min\":5, \"max\":50, \"steps\":5}, \"concFactor\":{\"min\":1.2, \"max\":5, \"steps\":5}}}";
+    private static final String BATCH = "{\"scenarios\": [{\"volumeStart\":100, \"tmp\":100000, \"membraneArea\":10, \"molWeightCutOff\":2500, \"concFactor\":2},"
+            + " {\"volumeStart\":200, \"tmp\":100000, \"membraneArea\":10, \"molWeightCutOff\":2500, \"concFactor\":2}]}";
+
+    @Test
+    void acceptPicksTheFormat() {
+        Object[][] cases = {
+                {null, ResponseFormat.JSON},
+                {"", ResponseFormat.JSON},
+                {"*/*", ResponseFormat.JSON},
+                {"text/html", ResponseFormat.JSON},
+                {"application/json", ResponseFormat.JSON},
+                {"application/cbor", ResponseFormat.CBOR},
+                {"Application/CBOR", ResponseFormat.CBOR},
+                {"application/x-jackson-smile", ResponseFormat.SMILE},
+                {"application/smile", ResponseFormat.SMILE},
+                {"application/cbor, application/json", ResponseFormat.CBOR},
+                {"application/json, application/cbor", ResponseFormat.JSON},
+                {"application/json;q=0.5, application/cbor", ResponseFormat.CBOR},
+                {"application/cbor;q=0.2, application/x-jackson-smile;q=0.8, */*;q=0.1", ResponseFormat.SMILE},
+                {"application/cbor;q=0, application/json", ResponseFormat.JSON},
+                {"application/cbor;q=abc", ResponseFormat.JSON},
+                {"text/html, application/cbor;q=0.9", ResponseFormat.CBOR},
+        };
+        for (Object[] c : cases) {
+            assertSame(c[1], ResponseFormat.negotiate((String) c[0]), "Accept: " + c[0]);
+        }
+    }
+
+    @Test
+    void everyFormatDecodesToTheJsonDocument() throws Exception {
+        HandlerAPIGateway handler = new HandlerAPIGateway();
+        for (String body : new String[]{SINGLE + "}", TRAJECTORY, SWEEP, BATCH}) {
+            APIGatewayProxyResponseEvent json = handler.handleRequest(request(body, null), null);
+            assertEquals(200, json.getStatusCode(), json.getBody());
+            assertNotEquals(Boolean.TRUE, json.getIsBase64Encoded());
+            assertEquals("Accept", json.getHeaders().get("Vary"));
+            JsonNode expected = SharedJson.MAPPER.readTree(json.getBody());
+
+            for (ResponseFormat format : new ResponseFormat[]{ResponseFormat.CBOR, ResponseFormat.SMILE}) {
+                APIGatewayProxyResponseEvent response = handler.handleRequest(request(body, format.contentType), null);
+                assertEquals(200, response.getStatusCode());
+                assertEquals(Boolean.TRUE, response.getIsBase64Encoded());
+                assertEquals(format.contentType, response.getHeaders().get("Content-Type"));
+                JsonNode decoded = unpack(format.mapper.readTree(Base64.getDecoder().decode(response.getBody())));
+                assertEquals(expected, decoded, format + " of " + body);
+            }
+        }
+    }
+
+    @Test
+    void errorsStayPlainText() {
+        APIGatewayProxyResponseEvent rejected = new HandlerAPIGateway().handleRequest(request("{\"volumeStart\":1000}", "application/cbor"), null);
+        assertEquals(400, rejected.getStatusCode());
+        assertNotEquals(Boolean.TRUE, rejected.getIsBase64Encoded());
+    }
+
+    @Test
+    void modelServerSendsTheDecodedBinaryBody() throws Exception {
+        // as API Gateway does for binaryMediaTypes
+        ModelServer server = new ModelServer(0, 2);
+        server.start();
+        try {
+            HttpResponse<byte[]> response = HttpClient.newHttpClient().send(
+                    HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + ModelServer.PATH))
+                            .header("Accept", "application/cbor")
+                            .POST(HttpRequest.BodyPublishers.ofString(TRAJECTORY)).build(),
+                    HttpResponse.BodyHandlers.ofByteArray());
+            JsonNode expected = SharedJson.MAPPER.readTree(new HandlerAPIGateway().handleRequest(request(TRAJECTORY, null), null).getBody());
+            assertEquals(200, response.statusCode());
+            assertEquals("application/cbor", response.headers().firstValue("Content-Type").orElse(null));
+            assertEquals(expected, unpack(ResponseFormat.CBOR.mapper.readTree(response.body())));
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    private static APIGatewayProxyRequestEvent request(String body, String accept) {
+        APIGatewayProxyRequestEvent event = new APIGatewayProxyRequestEvent().withHttpMethod("POST").withBody(body);
+        if (accept != null) {
+            event.setHeaders(Map.of("accept", accept)); // lower case, as HTTP/2 clients send it
+        }
+        return event;
+    }
+
+    /** Replaces CBOR typed arrays (read as binary values, the tag is not kept) with arrays of their doubles. */
+    private static JsonNode unpack(JsonNode node) throws Exception {
+        if (node.isBinary()) {
+            ByteBuffer packed = ByteBuffer.wrap(node.binaryValue()).order(ByteOrder.LITTLE_ENDIAN);
+            ArrayNode values = JsonNodeFactory.instance.arrayNode();
+            while (packed.hasRemaining()) {
+                values.add(packed.getDouble());
+            }
+            return values;
+        }
+        if (node.isObject()) {
+            ObjectNode object = JsonNodeFactory.instance.objectNode();
+            for (Iterator<Map.Entry<String, JsonNode>> fields = node.fields(); fields.hasNext(); ) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                object.set(field.getKey(), unpack(field.getValue()));
+            }
+            return object;
+        }
+        if (node.isArray()) {
+            ArrayNode array = JsonNodeFactory.instance.arrayNode();
+            for (JsonNode element : node) {
+                array.add(unpack(element));
+            }
+            return array;
+        }
+        return node;
+    }
+}
@@ -0,0 +1,110 @@
+package crossflowmodel;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TokenAuthenticatorTest {
+
+    private static InMemoryTokenStore store() {
+        InMemoryTokenStore store = new InMemoryTokenStore(0);
+        store.tokens.put("alice", "s3cret-token-alice");
+        store.tokens.put("bob", "s3cret-token-bob");
+        return store;
+    }
+
+    @Test
+    void acceptsOnlyTheUsersToken() {
+        TokenAuthenticator auth = new TokenAuthenticator(store(), 300, 30);
+        assertTrue(auth.isEnabled());
+        assertTrue(auth.authenticate("alice", "s3cret-token-alice"));
+        assertFalse(auth.authenticate("alice", "s3cret-token-bob"));
+        assertFalse(auth.authenticate("alice", "s3cret-token-"));
+        assertFalse(auth.authenticate("alice", ""));
+        assertFalse(auth.authenticate("alice", null));
+        assertFalse(auth.authenticate(null, "s3cret-token-alice"));
+        assertFalse(auth.authenticate("mallory", "anything"));
+    }
+
+    @Test
+    void cachesTokensAndUnknownUsers() {
+        InMemoryTokenStore store = store();
+        TokenAuthenticator auth = new TokenAuthenticator(store, 300, 30);
+        auth.authenticate("alice", "s3cret-token-alice");
+        auth.authenticate("alice", "wrong");
+        auth.authenticate("mallory", "anything");
+        auth.authenticate("mallory", "anything");
+        assertEquals(2, store.lookups.get());
+
+        // negative caching off: every unknown username is looked up
+        TokenAuthenticator noNegative = new TokenAuthenticator(store, 300, 0);
+        noNegative.authenticate("nobody", "x");
+        noNegative.authenticate("nobody", "x");
+        assertEquals(4, store.lookups.get());
+    }
+
+    @Test
+    void rotatedTokensArePickedUpAfterInvalidateOrExpiry() throws Exception {
+        InMemoryTokenStore store = store();
+        TokenAuthenticator auth = new TokenAuthenticator(store, 1, 1);
+        auth.authenticate("alice", "s3cret-token-alice");
+        auth.authenticate("mallory", "new-user");
+
+        store.tokens.put("alice", "rotated");
+        assertTrue(auth.authenticate("alice", "s3cret-token-alice")); // stale within the TTL
+        auth.invalidate("alice");
+        assertTrue(auth.authenticate("alice", "rotated"));
+
+        store.tokens.put("mallory", "new-user");
+        store.tokens.put("alice", "rotated-again");
+        Thread.sleep(1_100);
+        assertTrue(auth.authenticate("mallory", "new-user"));
+        assertFalse(auth.authenticate("alice", "rotated"));
+    }
+
+    @Test
+    void storeErrorsAreThrownAndNotCached() {
+        InMemoryTokenStore store = store();
+        AtomicBoolean down = new AtomicBoolean(true);
+        TokenAuthenticator auth = new TokenAuthenticator(username -> {
+            if (down.get()) {
+                throw new IllegalStateException("tokens table unreachable");
+            }
+            return store.lookupToken(username);
+        }, 300, 30);
+        assertThrows(IllegalStateException.class, () -> auth.authenticate("alice", "s3cret-token-alice"));
+        down.set(false);
+        assertTrue(auth.authenticate("alice", "s3cret-token-alice"));
+    }
+
+    @Test
+    void concurrentCachedChecks() throws Exception {
+        InMemoryTokenStore store = store();
+        TokenAuthenticator auth = new TokenAuthenticator(store, 300, 30);
+        AtomicBoolean failed = new AtomicBoolean();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    if (!auth.authenticate("bob", "s3cret-token-bob")) {
+                        failed.set(true);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertFalse(failed.get());
+        assertTrue(store.lookups.get() <= 8); // concurrent first misses may each look up, hits never do
+    }
+}
@@ -0,0 +1,161 @@
+package crossflowmodel;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TrajectoryTest {
+
+    private static final String SCENARIO = "\"volumeStart\": 1000, \"tmp\": 100000, \"membraneArea\": 10, \"molWeightCutOff\": 2500, \"concFactor\": 2";
+    private static final String ALICE = ", \"username\": \"alice\", \"token\": \"s3cret-token-alice\"";
+
+    private static final int POINTS = 10_000;
+    private static final int SPIKE = 3_333;
+
+    /** A smooth filtration curve of POINTS points, with a one-point flow rate spike at SPIKE. */
+    private static Trajectory curve() {
+        Trajectory trajectory = new Trajectory();
+        for (int i = 0; i < POINTS; i++) {
+            double t = i * 0.5;
+            double flow = 10 / (1 + Math.sqrt(t));
+            trajectory.add(t, 1000 - 20 * Math.sqrt(t), i == SPIKE ? 5 * flow : flow);
+        }
+        return trajectory;
+    }
+
+    @Test
+    void downsampleKeepsTheEndsAndTheBudget() {
+        Trajectory trajectory = curve();
+        for (int maxPoints : new int[]{2, 3, 50, 999, POINTS - 1}) {
+            Trajectory sampled = trajectory.downsample(maxPoints);
+            assertEquals(maxPoints, sampled.size());
+            assertEquals(trajectory.timeAt(0), sampled.timeAt(0));
+            assertEquals(trajectory.volumeAt(0), sampled.volumeAt(0));
+            assertEquals(trajectory.timeAt(POINTS - 1), sampled.timeAt(maxPoints - 1));
+            assertEquals(trajectory.volumeAt(POINTS - 1), sampled.volumeAt(maxPoints - 1));
+            assertEquals(trajectory.flowRateAt(POINTS - 1), sampled.flowRateAt(maxPoints - 1));
+
+            // every point is one of the curve's, in time order
+            for (int i = 0; i < sampled.size(); i++) {
+                int index = (int) (sampled.timeAt(i) / 0.5);
+                assertEquals(trajectory.volumeAt(index), sampled.volumeAt(i));
+                assertEquals(trajectory.flowRateAt(index), sampled.flowRateAt(i));
+                assertTrue(i == 0 || sampled.timeAt(i) > sampled.timeAt(i - 1), "maxPoints " + maxPoints + ", point " + i);
+            }
+        }
+    }
+
+    @Test
+    void downsampleKeepsASpike() {
+        Trajectory sampled = curve().downsample(100);
+        boolean found = false;
+        for (int i = 0; i < sampled.size(); i++) {
+            found |= sampled.timeAt(i) == SPIKE * 0.5;
+        }
+        assertTrue(found, "the spike at " + SPIKE * 0.5 + " h was dropped");
+    }
+
+    @Test
+    void downsampleWithinBudgetCopies() {
+        Trajectory trajectory = new Trajectory(2);
+        trajectory.add(0, 1000, 10);
+        trajectory.add(1, 990, 9);
+        trajectory.add(2, 982, 8);
+        Trajectory copy = trajectory.downsample(3);
+        assertNotSame(trajectory, copy);
+        assertEquals(3, copy.size());
+        assertEquals(982, copy.volumeAt(2));
+        trajectory.clear();
+        assertEquals(3, copy.size());
+
+        assertThrows(IllegalArgumentException.class, () -> curve().downsample(1));
+    }
+
+    @Test
+    void solversRecordTheWholeRun() {
+        Calculations calculator = new Calculations();
+        for (boolean adaptive : new boolean[]{false, true}) {
+            Trajectory trajectory = new Trajectory();
+            CalculationResult result = new CalculationResult();
+            if (adaptive) {
+                calculator.calculateHoursAdaptive(1000, 2, 100_000, 0.001, 10, 1e-6, MembraneModel.DEFAULT, trajectory, result);
+            } else {
+                calculator.calculateHours(1000, 2, 100_000, 0.001, 10, MembraneModel.DEFAULT, trajectory, result);
+            }
+            assertTrue(result.isSuccess(), result::toString);
+            assertEquals(0, trajectory.timeAt(0));
+            assertEquals(1000, trajectory.volumeAt(0));
+            assertEquals(result.hours, trajectory.timeAt(trajectory.size() - 1), 1e-9 * result.hours);
+            assertEquals(500, trajectory.volumeAt(trajectory.size() - 1), 1e-6);
+        }
+    }
+
+    @Test
+    void apiGatewayReturnsTheDownsampledTrajectory() throws Exception {
+        InMemoryTokenStore store = new InMemoryTokenStore(0);
+        store.tokens.put("alice", "s3cret-token-alice");
+        HandlerAPIGateway handler = new HandlerAPIGateway(
+                new MembraneRegistry(MembraneCalibration.DEFAULT_FORGETTING, MembraneRegistry.Access.AUTHENTICATED),
+                new TokenAuthenticator(store, 300, 30));
+
+        JsonNode twoPhase = apiGateway(handler, "{\"trajectory\": 20, " + SCENARIO + ALICE + "}");
+        assertTrajectory(twoPhase, 20);
+        assertFalse(twoPhase.has("errorEstimate"));
+
+        JsonNode adaptive = apiGateway(handler, "{\"trajectory\": 8, \"tolerance\": 1e-6, " + SCENARIO + ALICE + "}");
+        assertTrajectory(adaptive, 8);
+        assertTrue(adaptive.get("errorEstimate").asDouble() > 0);
+        assertTrue(adaptive.get("steps").asInt() > 8);
+
+        // a budget beyond the recorded curve returns the whole curve
+        JsonNode whole = apiGateway(handler, "{\"trajectory\": " + Trajectory.MAX_POINTS + ", \"tolerance\": 1e-6, " + SCENARIO + ALICE + "}");
+        assertEquals(whole.get("steps").asInt() + 1, whole.get("trajectory").get("time").size());
+
+        APIGatewayProxyResponseEvent tooMany = handler.handleRequest(new APIGatewayProxyRequestEvent()
+                .withBody("{\"trajectory\": " + (Trajectory.MAX_POINTS + 1) + ", " + SCENARIO + ALICE + "}"), null);
+        assertEquals(400, tooMany.getStatusCode());
+    }
+
+    @Test
+    void stepFunctionReturnsTheDownsampledTrajectory() throws Exception {
+        Map<String, Object> state = new LinkedHashMap<>();
+        state.put("statusCode", 200);
+        state.put("body", "{\"trajectory\": 12, " + SCENARIO + "}");
+        String payload = new HandlerStepFunction().handle(new ByteArrayInputStream(SharedJson.WRITER.writeValueAsBytes(state)),
+                RequestMetrics.start("TrajectoryTest"));
+        JsonNode body = SharedJson.MAPPER.readTree(payload);
+        assertEquals(200, body.get("statusCode").asInt());
+        assertTrajectory(body, 12);
+    }
+
+    private static JsonNode apiGateway(HandlerAPIGateway handler, String body) throws Exception {
+        APIGatewayProxyResponseEvent response = handler.handleRequest(new APIGatewayProxyRequestEvent().withBody(body), null);
+        assertEquals(200, response.getStatusCode(), response.getBody());
+        return SharedJson.MAPPER.readTree(response.getBody());
+    }
+
+    /** Exactly maxPoints points from t = 0 at the starting volume to filtrationHours at the desired volume. */
+    private static void assertTrajectory(JsonNode body, int maxPoints) {
+        JsonNode trajectory = body.get("trajectory");
+        JsonNode time = trajectory.get("time");
+        JsonNode volume = trajectory.get("volume");
+        assertEquals(maxPoints, time.size(), body::toString);
+        assertEquals(maxPoints, volume.size());
+        assertEquals(maxPoints, trajectory.get("flowRate").size());
+        assertEquals(0, time.get(0).asDouble());
+        assertEquals(1000, volume.get(0).asDouble());
+        assertEquals(body.get("filtrationHours").asDouble(), time.get(maxPoints - 1).asDouble(), 1e-9 * time.get(maxPoints - 1).asDouble());
+        assertEquals(500, volume.get(maxPoints - 1).asDouble(), 1e-6);
+    }
+}
@@ -0,0 +1,77 @@
+package crossflowmodel;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class TwoPhaseBatchTest {
+
+    private static final int SCENARIOS = 1_000_000;
+    private static final double MAX_STEP_APART_FRACTION = 1e-5;
+
+    @Test
+    void vectorKernelMatchesScalarKernel() {
+        // the test task adds jdk.incubator.vector; without it there is only the scalar kernel
+        assumeTrue(TwoPhaseBatch.isVectorized(), "Vector API not in use");
+
+        double[] volumeStart = new double[SCENARIOS];
+        double[] concFactor = new double[SCENARIOS];
+        double[] tmp = new double[SCENARIOS];
+        double[] viscosity = new double[SCENARIOS];
+        double[] area = new double[SCENARIOS];
+        SplittableRandom random = new SplittableRandom(21);
+        for (int i = 0; i < SCENARIOS; i++) {
+            // hours from minutes to tens of thousands, so scenarios stop in both phases and extrapolate
+            volumeStart[i] = 10 + 4990 * random.nextDouble();
+            concFactor[i] = 1.01 + 9 * random.nextDouble();
+            tmp[i] = 20_000 + 380_000 * random.nextDouble();
+            viscosity[i] = 0.0008 + 0.0042 * random.nextDouble();
+            area[i] = 1 + 49 * random.nextDouble();
+        }
+
+        for (MembraneModel model : new MembraneModel[]{MembraneModel.DEFAULT, new MembraneModel(0.20e12, 0.90e12, 0.55)}) {
+            double[] scalar = new double[SCENARIOS];
+            double[] vector = new double[SCENARIOS];
+            TwoPhaseBatch.scalarHours(volumeStart, concFactor, tmp, viscosity, area, model, scalar, 0, SCENARIOS);
+            TwoPhaseBatch.hours(volumeStart, concFactor, tmp, viscosity, area, model, vector, 3, SCENARIOS); // unaligned start, scalar tail
+            TwoPhaseBatch.scalarHours(volumeStart, concFactor, tmp, viscosity, area, model, vector, 0, 3);
+
+            // within TOLERANCE, apart from scenarios that stop one step apart (see the TwoPhaseBatch class comment)
+            int stepApart = 0;
+            for (int i = 0; i < SCENARIOS; i++) {
+                if (Math.abs(vector[i] - scalar[i]) / scalar[i] > TwoPhaseBatch.TOLERANCE) {
+                    stepApart++;
+                }
+            }
+            assertTrue(stepApart <= MAX_STEP_APART_FRACTION * SCENARIOS, stepApart + " stopped a step apart, " + model);
+        }
+    }
+
+    @Test
+    void scenarioBatchEdgeCases() {
+        // concentration factor 1 and below, and a batch shorter than a vector
+        ScenarioBatch batch = new ScenarioBatch(3);
+        double[][] inputs = {{1000, 1}, {1000, 0.5}, {1000, 2}};
+        for (int i = 0; i < batch.size; i++) {
+            batch.volumeStart[i] = inputs[i][0];
+            batch.concFactor[i] = inputs[i][1];
+            batch.tmp[i] = 100_000;
+            batch.membraneArea[i] = 10;
+            batch.molWeightCutOff[i] = 2500;
+            batch.solutionViscosity[i] = 0.001;
+        }
+        batch.evaluate(new Calculations(), Double.NaN);
+        CalculationResult expected = new CalculationResult();
+        new Calculations().calculateHours(1000, 2, 100_000, 0.001, 10, expected);
+
+        assertEquals(200, batch.statusCode[0]);
+        assertEquals(0, batch.hours[0]);
+        assertEquals(400, batch.statusCode[1]);
+        assertEquals(200, batch.statusCode[2]);
+        assertEquals(expected.hours, batch.hours[2]);
+    }
+}
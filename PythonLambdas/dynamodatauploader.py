@@ -1,3 +1,8 @@
+# NOTE: the Java model Lambda can persist each inference itself (crossflowmodel.InferenceLog, batched
+# write-behind) when its CROSSFLOW_DATA_TABLE environment variable is set; it is unset by default, and this Lambda
+# stays the DynamoDB Data Upload branch of StepFunction/architecture.json. Switch over in one change: set
+# CROSSFLOW_DATA_TABLE and remove that branch together, or every inference is written twice (or not at all).
+
 ###############################################################
 ######################## Configuration ########################
 ###############################################################
@@ -13,8 +18,10 @@ DETAILED_LOGGING = True # Change this if you only want logs reporting user sign
 import boto3 # AWS handler
 import logging
 import json
+import math
 import random, string
 import datetime
+from decimal import Decimal, InvalidOperation
 
 
 
@@ -22,7 +29,16 @@ import datetime
 logger = logging.getLogger()
 logger.setLevel(logging.INFO)
 
-DYNAMODB = boto3.client('dynamodb')
+DYNAMODB = boto3.resource('dynamodb')
+
+# model parameters stored per item: table attribute --> request parameter
+MODEL_PARAMS = {
+    "volstart": "volumeStart",
+    "tmp": "tmp",
+    "membranearea": "membraneArea",
+    "mwco": "molWeightCutOff",
+    "concfactor": "concFactor",
+}
 
 def lambda_handler(event, context):
     # # instantiate globals # #
@@ -37,32 +53,61 @@ def lambda_handler(event, context):
     # event['body'] is stored as string in dict, parse into JSON
     body = json.loads(event['body'])
     
+    username = body.get("username")
+    
+    # Batch requests carry one parameter set per scenario, upload one item each
+    scenarios = body.get("scenarios", [body])
+    
+    # batch_writer sends BatchWriteItem requests of up to 25 items and resends unprocessed ones, so a batch of
+    # thousands of scenarios is a few hundred requests rather than one put_item round trip each
+    uploaded = 0
+    with DYNAMODB.Table(DYNAMO_DATATABLE_NAME).batch_writer() as writer:
+        for index, scenario in enumerate(scenarios):
+            item = scenario_item(username, scenario)
+            if item is None:
+                logger.warning(f"Not uploading scenario {index} from {username}: non-numeric model parameters {scenario}")
+                continue
+            writer.put_item(Item=item)
+            uploaded += 1
+    
+    logger.info(f"Uploaded {uploaded} of {len(scenarios)} scenarios from {username}.")
+    
+    return None # No data sent out, only internal upload info
+
+
+def scenario_item(username, scenario):
+    """Table item of one scenario, single or from a batch, or None if a model parameter is not numeric."""
     # Generating Unique ID for uid primary key in table
     # Generate datetime - stamp: MMHHddmmYYYY = MinuteMinuteHourHourDayDayMonthMonthYearYearYearYear
-    username = body.get("username")
     datetimecode = datetime.datetime.now().strftime("%M%H%d%m%Y")
     randomcode = "".join(random.choice(string.ascii_uppercase + string.ascii_lowercase + string.digits) for _ in range(16))
-    uid = "_".join([username, datetimecode, randomcode])
+    uid = "_".join([str(username), datetimecode, randomcode])
     
-    # parse data - need to ensure cast to Strings to deal with any JSON ints/floats
     data = {
-        "uid": {'S': uid},
-        "username": {'S': str(body.get('username'))},
-        "volstart": {'N': str(body.get('volumeStart'))},
-        "tmp": {'N': str(body.get('tmp'))},
-        "membranearea": {'N': str(body.get('membraneArea'))},
-        "mwco": {'N': str(body.get('molWeightCutOff'))},
-        "concfactor": {'N': str(body.get('concFactor'))}
+        "uid": uid,
+        "username": str(username),
     }
+    for attribute, param in MODEL_PARAMS.items():
+        value = number(scenario.get(param))
+        if value is None:
+            return None
+        data[attribute] = value
     
     if DETAILED_LOGGING: logger.info(f"Uploading model data from {username} with data: {data}")
-    
-    response = DYNAMODB.put_item(
-        Item=data,
-        ReturnConsumedCapacity='TOTAL',
-        TableName=DYNAMO_DATATABLE_NAME,
-    )
-    
-    logger.info(response)
-    
-    return None # No data sent out, only internal upload info
\ No newline at end of file
+    return data
+
+
+def number(value):
+    """Model parameter as a DynamoDB number: JSON numbers and numeric strings ("100000") alike, as the Java model
+    accepts both. None for anything else, eg. a missing parameter or "1_000"."""
+    if isinstance(value, bool) or value is None:
+        return None
+    text = str(value).strip()
+    if "_" in text: # float() and Decimal() accept digit separators, the model does not
+        return None
+    try:
+        if not math.isfinite(float(text)):
+            return None
+        return Decimal(text)
+    except (ValueError, InvalidOperation):
+        return None
@@ -1,3 +1,7 @@
+# NOTE: the Java API Gateway handler can make this same check itself (crossflowmodel.TokenAuthenticator, cached per
+# username) when its CROSSFLOW_TOKENS_TABLE environment variable is set, saving the Token Authn hop. Requests then
+# carry "username" and "token" in the body, and get the same 400/403 responses as from this Lambda.
+
 ###############################################################
 ######################## Configuration ########################
 ###############################################################
@@ -8,6 +12,13 @@ DYNAMO_TOKENS_TOKEN = "token" # insert name of your Column Name storing TOKEN to
 
 DETAILED_LOGGING = True # Change this if you only want logs reporting user sign in + token success, or failure.
 
+# Optional model parameters passed on to the model Lambda when the client sends them. The state machine only sees
+# what is forwarded here: a parameter added to the Java handlers must be added to this list in the same change.
+#   solutionViscosity   dynamic viscosity of the solution, water when left out
+#   tolerance           selects the adaptive solver, see Calculations.calculateHoursAdaptive
+#   trajectory          number of filtration curve points to return
+OPTIONAL_MODEL_PARAMS = ["solutionViscosity", "tolerance", "trajectory"]
+
 ###############################################################
 ########################  Source Code  ########################
 ###############################################################
@@ -42,6 +53,10 @@ def lambda_handler(event, context):
         "concFactor",
     ]
     
+    # Batch requests carry model parameters per scenario in a "scenarios" list instead of top-level
+    if "scenarios" in event:
+        required_model_params = ["username", "token", "scenarios"]
+    
     # EXIT IF MISSING PARAMS
     missing_params = [param for param in required_model_params if param not in event]
     if missing_params:
@@ -104,20 +119,36 @@ def lambda_handler(event, context):
         }
     
     # Successful Sign in - loading and sending data to next step in step function
-    data = {
-        "username": username,
-        "volumeStart": event.get("volumeStart"),
-        "tmp": event.get("tmp"),
-        "membraneArea": event.get("membraneArea"),
-        "molWeightCutOff": event.get("molWeightCutOff"),
-        "concFactor": event.get("concFactor")
-    }
-    logger.info(f"User: {username} successfully signed in. Passing data: {json.dumps(data)} to next stage.")
+    if "scenarios" in event:
+        data = {
+            "username": username,
+            "scenarios": event.get("scenarios"),
+        }
+    else:
+        data = {
+            "username": username,
+            "volumeStart": event.get("volumeStart"),
+            "tmp": event.get("tmp"),
+            "membraneArea": event.get("membraneArea"),
+            "molWeightCutOff": event.get("molWeightCutOff"),
+            "concFactor": event.get("concFactor")
+        }
+    for optional_param in OPTIONAL_MODEL_PARAMS:
+        if optional_param in event:
+            data[optional_param] = event.get(optional_param)
+    body = json.dumps(data)
+    if "scenarios" in data:
+        # a batch can hold thousands of scenarios, log how many rather than the payload
+        scenarios = data["scenarios"]
+        count = len(scenarios) if isinstance(scenarios, list) else 0
+        logger.info(f"User: {username} successfully signed in. Passing batch of {count} scenarios to next stage.")
+    else:
+        logger.info(f"User: {username} successfully signed in. Passing data: {body} to next stage.")
     
     
     return {
             'statusCode': 200,
             'status': 0,
             'statusString': 'success',
-            'body': json.dumps(data),
+            'body': body,
         }